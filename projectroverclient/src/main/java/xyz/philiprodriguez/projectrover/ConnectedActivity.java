@@ -16,6 +16,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -32,15 +33,20 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.IOException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import xyz.philiprodriguez.projectrovercommunications.AdaptivePlayout;
 import xyz.philiprodriguez.projectrovercommunications.ArmPositionMessage;
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
+import xyz.philiprodriguez.projectrovercommunications.AudioSilenceMessage;
+import xyz.philiprodriguez.projectrovercommunications.DecodedFrame;
+import xyz.philiprodriguez.projectrovercommunications.FrameDecodingStage;
 import xyz.philiprodriguez.projectrovercommunications.MotorStateMessage;
+import xyz.philiprodriguez.projectrovercommunications.OnAudioSilenceMessageReceivedListener;
 import xyz.philiprodriguez.projectrovercommunications.OnClientConnectionKilledListener;
-import xyz.philiprodriguez.projectrovercommunications.OnFrameReceivedListener;
+import xyz.philiprodriguez.projectrovercommunications.OnFrameDecodedListener;
 import xyz.philiprodriguez.projectrovercommunications.OnPCMFrameMessageReceivedListener;
 import xyz.philiprodriguez.projectrovercommunications.OnServerStateMessageReceivedListener;
 import xyz.philiprodriguez.projectrovercommunications.PCMFrameMessage;
@@ -55,6 +61,43 @@ public class ConnectedActivity extends AppCompatActivity {
     private static final String ROBOT_TRIM_KEY = "robot_trim_key";
 
     private ImageView imgCameraView;
+
+    // Only touched on the UI thread. The frame on screen and the one shown before it, which is
+    // only handed back for reuse a refresh later in case it is still being drawn.
+    private DecodedFrame<Bitmap> shownFrame;
+    private DecodedFrame<Bitmap> previousShownFrame;
+
+    // Decoded frames are shown at most once per display refresh, newest first.
+    private final AtomicBoolean isFramePresentationScheduled = new AtomicBoolean(false);
+    private final Choreographer.FrameCallback presentFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            isFramePresentationScheduled.set(false);
+            ProjectRoverClient client = projectRoverClient;
+            if (client == null) {
+                return;
+            }
+            FrameDecodingStage<Bitmap> frameDecodingStage = client.getFrameDecodingStage();
+            DecodedFrame<Bitmap> latestFrame = frameDecodingStage.takeLatestFrame();
+            if (latestFrame == null) {
+                return;
+            }
+            if (imgCameraView != null) {
+                imgCameraView.setImageBitmap(latestFrame.getImage());
+            }
+            if (previousShownFrame != null) {
+                frameDecodingStage.release(previousShownFrame);
+            }
+            previousShownFrame = shownFrame;
+            shownFrame = latestFrame;
+        }
+    };
+    private final Runnable scheduleFramePresentation = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(presentFrameCallback);
+        }
+    };
     private SeekBar sebUpDown;
     private SeekBar sebLeftRight;
     private TextView txtHUDInfo;
@@ -67,6 +110,9 @@ public class ConnectedActivity extends AppCompatActivity {
     private TextView txtArmXYZ;
     private float armXf, armYf, armZf;
 
+    // Where the robot's arm can reach, for keeping trackpad targets within it.
+    private final ArmWorkspace armWorkspace = new ArmWorkspace(ArmWorkspace.ROVER_L_1, ArmWorkspace.ROVER_L_2);
+
     // Represents the last time an arm update was sent in milliseconds.
     // Used to ignore arm inputs that occur less than soem number of ms from the previous input.
     private AtomicLong lastArmUpdate = new AtomicLong(0);
@@ -98,7 +144,11 @@ public class ConnectedActivity extends AppCompatActivity {
     private SharedPreferences sharedPreferences;
 
     // Audio stuff for playback of audio from the server
-    private final Queue<Short> audioPlaybackPcmValueQueue = new ConcurrentLinkedQueue<>();
+    // Received audio waits here to be played, sped up or slowed down a little to keep about a
+    // fifth of a second behind.
+    private final AdaptivePlayout audioPlayout = new AdaptivePlayout(PCMFrameMessage.SAMPLE_RATE, 200);
+    // Reused for every write to the track, a fiftieth of a second at a time
+    private final short[] audioPlaybackVals = new short[882];
     private volatile Handler audioPlaybackHandler;
     private volatile HandlerThread audioPlaybackHandlerThread;
     private volatile Runnable audioPlaybackRunnable;
@@ -109,6 +159,9 @@ public class ConnectedActivity extends AppCompatActivity {
     private volatile Handler audioRecordHandler;
     private volatile HandlerThread audioRecordHandlerThread;
     private volatile Runnable audioRecordRunnable;
+    // Recorded into every time, a tenth of a second at a time. Sending encodes it before returning,
+    // so it is free again straight away.
+    private final short[] audioRecordVals = new short[4410];
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -368,8 +421,8 @@ public class ConnectedActivity extends AppCompatActivity {
     }
 
     private void startAudioPlaybackHandler() {
-        // Any time we are re-starting playback, we should nuke any values currently in the queue...
-        audioPlaybackPcmValueQueue.clear();
+        // Any time we are re-starting playback, we should nuke any values currently buffered...
+        audioPlayout.clear();
         audioPlaybackHandlerThread = new HandlerThread("Client Audio Handler Thread");
         audioPlaybackHandlerThread.start();
         audioPlaybackHandler = new Handler(audioPlaybackHandlerThread.getLooper());
@@ -377,41 +430,13 @@ public class ConnectedActivity extends AppCompatActivity {
         audioPlaybackRunnable = new Runnable() {
             @Override
             public void run() {
-                if (audioPlaybackPcmValueQueue.size() > 0) {
-                    // Only play if we have at least a tenth of a second of audio.
-                    if (audioPlaybackPcmValueQueue.size() >= 4410) {
-                        short[] playbackVals;
-                        if (audioPlaybackPcmValueQueue.size() > 4410 * 5) {
-                            System.out.println("Speeding up");
-                            // If we're more than 5 tenths of a second behind, then let's speed it up by
-                            // playing only 9 out of every 10 bytes.
-                            playbackVals = new short[3969];
-                            int place = 0;
-                            for (int i = 0; i < 4410; i++) {
-                                short val = audioPlaybackPcmValueQueue.poll();
-                                if (i % 10 == 0) {
-                                    continue;
-                                }
-                                playbackVals[place] = val;
-                                place++;
-                            }
-                            if (place != playbackVals.length) {
-                                throw new IllegalStateException("Place was " + place + " when it should have been " + playbackVals.length);
-                            }
-                        } else {
-                            // If we're not falling behind, just play it back normally
-                            playbackVals = new short[4410];
-                            for (int i = 0; i < 4410; i++) {
-                                playbackVals[i] = audioPlaybackPcmValueQueue.poll();
-                            }
-                        }
-                        audioPlaybackTrack.write(playbackVals, 0, playbackVals.length, AudioTrack.WRITE_BLOCKING);
-                    }
-
-                    if (audioPlaybackTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
-                        audioPlaybackTrack.play();
-                    }
+                // Always write, silence included when nothing has arrived, so that the track plays
+                // at a steady pace and paces this loop.
+                audioPlayout.read(audioPlaybackVals, 0, audioPlaybackVals.length, System.currentTimeMillis());
+                if (audioPlaybackTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+                    audioPlaybackTrack.play();
                 }
+                audioPlaybackTrack.write(audioPlaybackVals, 0, audioPlaybackVals.length, AudioTrack.WRITE_BLOCKING);
 
                 Handler localHandlerRef = audioPlaybackHandler;
                 if (localHandlerRef != null) {
@@ -442,19 +467,16 @@ public class ConnectedActivity extends AppCompatActivity {
         audioRecordRunnable = new Runnable() {
             @Override
             public void run() {
-                // Our audio frame size is one tenth of one second...
-                short[] audioFrameVals = new short[4410];
-
                 // Make sure we're actually recording!
                 if (audioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
                     audioRecord.startRecording();
                 }
 
                 // We can use READ_BLOCKING since we have our own handler / thread here..
-                audioRecord.read(audioFrameVals, 0, audioFrameVals.length, AudioRecord.READ_BLOCKING);
+                audioRecord.read(audioRecordVals, 0, audioRecordVals.length, AudioRecord.READ_BLOCKING);
 
                 if (projectRoverClient != null) {
-                    projectRoverClient.doEnqueueAudioFrame(audioFrameVals);
+                    projectRoverClient.doEnqueueAudioFrame(audioRecordVals);
                 }
 
                 Handler localHandlerCopy = audioRecordHandler;
@@ -485,27 +507,30 @@ public class ConnectedActivity extends AppCompatActivity {
             public void run() {
                 try {
                     projectRoverClient = new ProjectRoverClient(host, port);
-                    projectRoverClient.setOnFrameReceivedListener(new OnFrameReceivedListener() {
+                    projectRoverClient.setOnFrameDecodedListener(new OnFrameDecodedListener() {
                         @Override
-                        public void OnFrameReceived(final Bitmap bitmap) {
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    if (imgCameraView != null) {
-                                        imgCameraView.setImageBitmap(bitmap);
-                                    }
-                                }
-                            });
+                        public void onFrameDecoded() {
+                            if (isFramePresentationScheduled.compareAndSet(false, true)) {
+                                runOnUiThread(scheduleFramePresentation);
+                            }
                         }
                     });
                     projectRoverClient.setOnPCMFrameMessageReceivedListener(new OnPCMFrameMessageReceivedListener() {
                         @Override
                         public void onPCMFrameMessageReceived(PCMFrameMessage message) {
-                            // Enqueue all PCM values
+                            // Buffer all PCM values
                             if (audioPlaybackHandler != null) {
-                                for (short val : message.getPCMValues()) {
-                                    audioPlaybackPcmValueQueue.add(val);
-                                }
+                                short[] pcmValues = message.getPCMValues();
+                                audioPlayout.write(message.getTimestamp(), pcmValues, System.currentTimeMillis());
+                            }
+                        }
+                    });
+                    projectRoverClient.setOnAudioSilenceMessageReceivedListener(new OnAudioSilenceMessageReceivedListener() {
+                        @Override
+                        public void onAudioSilenceMessageReceived(AudioSilenceMessage message) {
+                            // Nobody was talking, so play background noise for as long instead
+                            if (audioPlaybackHandler != null) {
+                                audioPlayout.writeSilence(message.getTimestamp(), message.getSampleCount(), message.getSampleRate(), message.getNoiseLevel(), System.currentTimeMillis());
                             }
                         }
                     });
@@ -538,6 +563,21 @@ public class ConnectedActivity extends AppCompatActivity {
                                     sb.append("Robot Primary Battery: " + serverStateMessage.getPrimaryBatteryLevel() + "%");
                                     sb.append(System.lineSeparator());
                                     sb.append("Robot Tablet Battery: " + serverStateMessage.getPhoneBatteryLevel() + "%");
+                                    if (serverStateMessage.getJpegQuality() >= 0) {
+                                        sb.append(System.lineSeparator());
+                                        sb.append("Video: " + serverStateMessage.getCaptureWidth() + "x" + serverStateMessage.getCaptureHeight() + " at quality " + serverStateMessage.getJpegQuality());
+                                    }
+                                    ProjectRoverClient client = projectRoverClient;
+                                    if (client != null) {
+                                        FrameDecodingStage<Bitmap> frameDecodingStage = client.getFrameDecodingStage();
+                                        sb.append(System.lineSeparator());
+                                        sb.append("Decode: " + Math.round(frameDecodingStage.getAverageDecodeMillis()*10)/10.0 + " ms, dropped "
+                                                + frameDecodingStage.getDroppedBeforeDecodeCount() + " waiting and "
+                                                + frameDecodingStage.getDroppedBeforePresentCount() + " unshown");
+                                        sb.append(System.lineSeparator());
+                                        sb.append("Bitmaps: " + client.getBitmapPool().getHitCount() + " reused, "
+                                                + client.getBitmapPool().getMissCount() + " allocated");
+                                    }
                                     txtHUDInfo.setText(sb.toString());
                                 }
                             });
@@ -586,25 +626,32 @@ public class ConnectedActivity extends AppCompatActivity {
             lastArmUpdate.set(System.currentTimeMillis());
         }
 
+        // Pull the target back within reach, rather than have the robot drop it. The trackpad
+        // positions are left alone, so the arm follows again once they come back within reach.
+        double[] clamped = armWorkspace.clampToWorkspace(armXf, armYf, armZf);
+        float x = (float) clamped[0];
+        float y = (float) clamped[1];
+        float z = (float) clamped[2];
+
         // Update string
         StringBuilder sb = new StringBuilder();
         sb.append("(");
-        sb.append(armXf);
+        sb.append(x);
         sb.append(", ");
-        sb.append(armYf);
+        sb.append(y);
         sb.append(", ");
-        sb.append(armZf);
+        sb.append(z);
         sb.append(")");
         txtArmXYZ.setText(sb.toString());
 
         // Send to server if distance enough
-        double dist = Math.sqrt(Math.pow(armXf-lastX, 2.0)+Math.pow(armYf-lastY, 2.0)+Math.pow(armZf-lastZ, 2.0));
+        double dist = Math.sqrt(Math.pow(x-lastX, 2.0)+Math.pow(y-lastY, 2.0)+Math.pow(z-lastZ, 2.0));
         if (force || dist > armEpspilon) {
             if (projectRoverClient != null) {
-                projectRoverClient.doEnqueueArmPositionMessage(new ArmPositionMessage(System.currentTimeMillis(), armXf, armYf, armZf));
-                lastX = armXf;
-                lastY = armYf;
-                lastZ = armZf;
+                projectRoverClient.doEnqueueArmPositionMessage(new ArmPositionMessage(System.currentTimeMillis(), x, y, z));
+                lastX = x;
+                lastY = y;
+                lastZ = z;
             }
         }
     }
@@ -617,7 +664,10 @@ public class ConnectedActivity extends AppCompatActivity {
         View rootView = layoutInflater.inflate(R.layout.dialog_server_settings, null);
 
         Switch headlightOn = rootView.findViewById(R.id.switchHeadlightOn);
-        SeekBar jpegQuality = rootView.findViewById(R.id.sebJpegQuality);
+        Switch adaptiveVideo = rootView.findViewById(R.id.switchAdaptiveVideo);
+        Switch tiledVideo = rootView.findViewById(R.id.switchTiledVideo);
+        Switch voiceActivityDetection = rootView.findViewById(R.id.switchVoiceActivityDetection);
+        final SeekBar jpegQuality = rootView.findViewById(R.id.sebJpegQuality);
         SeekBar servoRot = rootView.findViewById(R.id.sebServoRot);
 
         // Keep in mind that robotTrim is actually a client-side setting, not a server-side setting.
@@ -625,7 +675,12 @@ public class ConnectedActivity extends AppCompatActivity {
         SeekBar robotTrim = rootView.findViewById(R.id.sebRobotTrim);
 
         headlightOn.setChecked(projectRoverClient.getPerceivedServerSettings().getHeadlightOn());
+        adaptiveVideo.setChecked(projectRoverClient.getPerceivedServerSettings().getAdaptiveVideoEnabled());
+        tiledVideo.setChecked(projectRoverClient.getPerceivedServerSettings().getTiledVideoEnabled());
+        voiceActivityDetection.setChecked(projectRoverClient.getPerceivedServerSettings().getVoiceActivityDetectionEnabled());
         jpegQuality.setProgress(projectRoverClient.getPerceivedServerSettings().getJpegQuality());
+        // The robot picks the quality itself when adaptive video is on
+        jpegQuality.setEnabled(!adaptiveVideo.isChecked());
         servoRot.setProgress(projectRoverClient.getPerceivedServerSettings().getServoRotationAmount());
 
         // Since robotTrim is client-side, load from shared preferences.
@@ -644,6 +699,40 @@ public class ConnectedActivity extends AppCompatActivity {
             }
         });
 
+        adaptiveVideo.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                jpegQuality.setEnabled(!isChecked);
+                if (projectRoverClient != null) {
+                    ServerSettings pss = projectRoverClient.getPerceivedServerSettings();
+                    pss.setAdaptiveVideoEnabled(isChecked);
+                    projectRoverClient.doEnqueueServerSettingsMessage(new ServerSettingsMessage(System.currentTimeMillis(), pss));
+                }
+            }
+        });
+
+        tiledVideo.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (projectRoverClient != null) {
+                    ServerSettings pss = projectRoverClient.getPerceivedServerSettings();
+                    pss.setTiledVideoEnabled(isChecked);
+                    projectRoverClient.doEnqueueServerSettingsMessage(new ServerSettingsMessage(System.currentTimeMillis(), pss));
+                }
+            }
+        });
+
+        voiceActivityDetection.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (projectRoverClient != null) {
+                    ServerSettings pss = projectRoverClient.getPerceivedServerSettings();
+                    pss.setVoiceActivityDetectionEnabled(isChecked);
+                    projectRoverClient.doEnqueueServerSettingsMessage(new ServerSettingsMessage(System.currentTimeMillis(), pss));
+                }
+            }
+        });
+
         jpegQuality.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
@@ -0,0 +1,412 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class plays received audio at a steady latency, speeding playback up a little when audio
+ * has piled up and slowing it down a little when it is running low, rather than jumping or
+ * stuttering.
+ *
+ * Latency is measured from the timestamps frames were sent with. The two ends' clocks are not in
+ * step, so the quickest recent frame's arrival is taken to be no delay at all, and the latency of
+ * a sample is how much longer than that it has taken to be played.
+ *
+ * Playback speed is changed with WSOLA: output is built from overlapping, faded windows of the
+ * input, each taken a little further along or a little less far along than the last, at whichever
+ * nearby offset lines up best with where the previous window left off. That keeps the pitch and
+ * avoids clicks. Quiet stretches are skipped outright when catching up, since nobody hears them
+ * go.
+ *
+ * Frames left out for having nobody talking in them are played as comfort noise of the same
+ * length, so they keep time just like the audio they stand in for.
+ *
+ * One thread writes received frames and one thread reads audio to play. Every method takes the
+ * current time, so the whole thing can be run against a simulated clock.
+ */
+public class AdaptivePlayout {
+    public static final String CLASS_IDENTIFIER = "AdaptivePlayout";
+
+    // Output is built this many milliseconds at a time, from windows twice as long.
+    private static final int HOP_MILLIS = 10;
+    // How far either way of the nominal position a window may be taken from
+    private static final int SEARCH_MILLIS = 5;
+    // Only every this many samples are compared when searching, which is plenty for voice.
+    private static final int SEARCH_STRIDE = 4;
+
+    // Within this much of the target latency, play at normal speed.
+    private static final int DEADBAND_MILLIS = 20;
+    // Speed change per second of latency off target, beyond the deadband
+    private static final double RATE_PER_SECOND_OFF_TARGET = 1.0;
+    private static final double MIN_RATE = 0.85;
+    private static final double MAX_RATE = 1.25;
+
+    // Windows quieter than this are skipped when catching up.
+    private static final int SILENCE_RMS = 300;
+
+    // Past this much latency beyond the target, the oldest audio is thrown away instead.
+    private static final int MAX_EXTRA_LATENCY_MILLIS = 1000;
+
+    // How many received frames to remember the timestamps of. At a tenth of a second a frame,
+    // the quickest arrival is taken over the last six seconds or so.
+    private static final int FRAME_RECORD_COUNT = 64;
+
+    private final int sampleRate;
+    private final int targetLatencyMillis;
+    private final int hop;
+    private final int search;
+    private final float[] window;
+
+    private final AudioJitterBuffer jitterBuffer;
+
+    // Where each received frame starts in the jitter buffer, and when it was sent and arrived.
+    // Only touched while holding frameRecordLock.
+    private final Object frameRecordLock = new Object();
+    private final long[] recordPositions = new long[FRAME_RECORD_COUNT];
+    private final long[] recordTimestamps = new long[FRAME_RECORD_COUNT];
+    private final long[] recordTransits = new long[FRAME_RECORD_COUNT];
+    private long recordCount;
+
+    // Everything below is only touched by the reader.
+
+    // Samples taken out of the jitter buffer but not yet done with. input[0] is at inputBase in
+    // jitter buffer positions.
+    private short[] input;
+    private int inputLength;
+    private long inputBase;
+
+    // Where the next window would be taken at normal speed, and where the last one was taken, or
+    // -1 when starting over.
+    private double analysisPosition;
+    private long previousWindowStart = -1;
+    // The faded out half of the last window, to be added to the first half of the next
+    private final float[] overlap;
+
+    private final short[] hopOutput;
+    private int hopOutputStart;
+    private int hopOutputLength;
+
+    private boolean isBuffering = true;
+
+    private volatile long latencyMillis = -1;
+    private volatile double rate = 1;
+    private volatile long underrunCount;
+    private volatile long silenceSampleCount;
+    private volatile long trimmedSampleCount;
+    private volatile long stretchedHopCount;
+
+    public AdaptivePlayout(int sampleRate, int targetLatencyMillis) {
+        this.sampleRate = sampleRate;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.hop = sampleRate*HOP_MILLIS / 1000;
+        this.search = sampleRate*SEARCH_MILLIS / 1000;
+
+        // A Hann window whose overlapping halves add up to exactly one
+        this.window = new float[2*hop];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = (float) (0.5 - 0.5*Math.cos(2*Math.PI*i / window.length));
+        }
+        this.overlap = new float[hop];
+        this.hopOutput = new short[hop];
+
+        int maxLatencySamples = (int) ((long) (targetLatencyMillis + MAX_EXTRA_LATENCY_MILLIS)*sampleRate / 1000);
+        this.jitterBuffer = new AudioJitterBuffer(0, maxLatencySamples);
+        this.input = new short[4*window.length + 2*search];
+    }
+
+    /**
+     * Add a received frame. Only call this from the writing thread.
+     */
+    public void write(long timestamp, short[] pcmValues, long arrivalMillis) {
+        recordFrame(timestamp, arrivalMillis);
+        jitterBuffer.write(pcmValues, 0, pcmValues.length);
+    }
+
+    /**
+     * Add comfort noise in place of a frame that was not sent for having nobody talking in it.
+     * Only call this from the writing thread.
+     *
+     * @param sampleCount How long the frame left out was, in samples at sampleRate.
+     * @param noiseLevel The root mean square level of the background noise, in sample units.
+     */
+    public void writeSilence(long timestamp, int sampleCount, int sampleRate, int noiseLevel, long arrivalMillis) {
+        recordFrame(timestamp, arrivalMillis);
+        jitterBuffer.writeComfortNoise((int) ((long) sampleCount*this.sampleRate / sampleRate), noiseLevel);
+    }
+
+    private void recordFrame(long timestamp, long arrivalMillis) {
+        synchronized (frameRecordLock) {
+            int index = (int) (recordCount % FRAME_RECORD_COUNT);
+            recordPositions[index] = jitterBuffer.getWritePosition();
+            recordTimestamps[index] = timestamp;
+            recordTransits[index] = arrivalMillis - timestamp;
+            recordCount++;
+        }
+    }
+
+    /**
+     * Fill out[offset, offset + length) with audio to play now, or silence where there is none.
+     * Only call this from the reading thread.
+     *
+     * @return how many of the samples were audio rather than silence.
+     */
+    public int read(short[] out, int offset, int length, long nowMillis) {
+        int done = 0;
+        while (done < length) {
+            if (hopOutputLength == 0 && !produceHop(nowMillis)) {
+                for (int i = offset + done; i < offset + length; i++) {
+                    out[i] = 0;
+                }
+                silenceSampleCount += length - done;
+                return done;
+            }
+            int count = Math.min(hopOutputLength, length - done);
+            System.arraycopy(hopOutput, hopOutputStart, out, offset + done, count);
+            hopOutputStart += count;
+            hopOutputLength -= count;
+            done += count;
+        }
+        return done;
+    }
+
+    /**
+     * Throw away everything buffered. Only call this from the reading thread, or while nothing is
+     * reading.
+     */
+    public void clear() {
+        jitterBuffer.clear();
+        inputBase = jitterBuffer.getReadPosition();
+        inputLength = 0;
+        hopOutputLength = 0;
+        isBuffering = true;
+        startOver();
+        analysisPosition = inputBase + search;
+    }
+
+    // Builds the next hop of output, returning false if there is not enough audio to.
+    private boolean produceHop(long nowMillis) {
+        if (isBuffering) {
+            int bufferedSamples = inputLength + jitterBuffer.getBufferedSampleCount();
+            if (bufferedSamples < Math.max(window.length + 2*search, (long) targetLatencyMillis*sampleRate / 1000)) {
+                return false;
+            }
+            isBuffering = false;
+            startOver();
+            analysisPosition = Math.max(analysisPosition, inputBase + search);
+        }
+
+        // Make sure everything the search could look at has been taken from the jitter buffer
+        long nominal = (long) analysisPosition;
+        long natural = previousWindowStart < 0 ? nominal : previousWindowStart + hop;
+        boolean hasInput = pullInput(Math.max(nominal + search, natural) + window.length);
+        if (hasInput && nominal - search < inputBase) {
+            // The jitter buffer skipped ahead while pulling, so start from there
+            nominal = (long) analysisPosition;
+            natural = nominal;
+            hasInput = pullInput(nominal + search + window.length);
+        }
+        if (!hasInput) {
+            underrunCount++;
+            isBuffering = true;
+            return false;
+        }
+
+        latencyMillis = measureLatency(nominal, nowMillis);
+        double hopRate = latencyMillis < 0 ? 1 : chooseRate(latencyMillis - targetLatencyMillis);
+        rate = hopRate;
+
+        long windowStart = nominal;
+        if (previousWindowStart >= 0 && nominal != natural) {
+            windowStart = findBestAlignment(natural, nominal);
+            stretchedHopCount++;
+        }
+
+        // Fade the new window in over the end of the last one
+        int start = (int) (windowStart - inputBase);
+        double energy = 0;
+        for (int i = 0; i < hop; i++) {
+            float sample = input[start + i];
+            energy += sample*sample;
+            float mixed = overlap[i] + sample*window[i];
+            hopOutput[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(mixed)));
+            float tailSample = input[start + hop + i];
+            energy += tailSample*tailSample;
+            overlap[i] = tailSample*window[hop + i];
+        }
+        hopOutputStart = 0;
+        hopOutputLength = hop;
+
+        // The nominal positions advance at the chosen rate whatever window was taken, so that
+        // windows drift away from simply following on and the speed really changes.
+        previousWindowStart = windowStart;
+        analysisPosition += hop*hopRate;
+        if (hopRate > 1 && Math.sqrt(energy / window.length) < SILENCE_RMS
+                && latencyMillis - targetLatencyMillis > DEADBAND_MILLIS + HOP_MILLIS) {
+            // Nothing to hear here, so catch up by a whole hop more
+            analysisPosition += hop;
+            trimmedSampleCount += hop;
+        }
+        discardInputBefore(Math.min((long) analysisPosition - search, previousWindowStart + hop));
+        return true;
+    }
+
+    private void startOver() {
+        previousWindowStart = -1;
+        for (int i = 0; i < overlap.length; i++) {
+            overlap[i] = 0;
+        }
+    }
+
+    // Of the windows within search of nominal, the one that best continues the last window, as
+    // measured by normalized cross correlation with the input that followed it.
+    private long findBestAlignment(long natural, long nominal) {
+        int naturalStart = (int) (natural - inputBase);
+        long bestStart = nominal;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (long candidate = nominal - search; candidate <= nominal + search; candidate++) {
+            int candidateStart = (int) (candidate - inputBase);
+            double correlation = 0;
+            double energy = 1;
+            for (int i = 0; i < hop; i += SEARCH_STRIDE) {
+                int sample = input[candidateStart + i];
+                correlation += sample*input[naturalStart + i];
+                energy += sample*sample;
+            }
+            double score = correlation / Math.sqrt(energy);
+            if (score > bestScore) {
+                bestScore = score;
+                bestStart = candidate;
+            }
+        }
+        return bestStart;
+    }
+
+    private double chooseRate(long errorMillis) {
+        if (Math.abs(errorMillis) <= DEADBAND_MILLIS) {
+            return 1;
+        }
+        double beyondDeadband = errorMillis - Math.signum(errorMillis)*DEADBAND_MILLIS;
+        return Math.max(MIN_RATE, Math.min(MAX_RATE, 1 + beyondDeadband / 1000*RATE_PER_SECOND_OFF_TARGET));
+    }
+
+    // How much longer than the quickest recent frame the sample at position has taken to be
+    // played, or -1 if it is not known when it was sent.
+    private long measureLatency(long position, long nowMillis) {
+        synchronized (frameRecordLock) {
+            long minTransit = Long.MAX_VALUE;
+            long sentMillis = -1;
+            long oldest = Math.max(0, recordCount - FRAME_RECORD_COUNT);
+            for (long record = recordCount - 1; record >= oldest; record--) {
+                int index = (int) (record % FRAME_RECORD_COUNT);
+                minTransit = Math.min(minTransit, recordTransits[index]);
+                if (sentMillis < 0 && recordPositions[index] <= position) {
+                    sentMillis = recordTimestamps[index] + (position - recordPositions[index])*1000 / sampleRate;
+                }
+            }
+            return sentMillis < 0 ? -1 : Math.max(0, nowMillis - sentMillis - minTransit);
+        }
+    }
+
+    // Takes samples from the jitter buffer until input reaches end, returning whether it did.
+    private boolean pullInput(long end) {
+        while (inputBase + inputLength < end) {
+            if (inputLength == input.length) {
+                short[] grown = new short[input.length*2];
+                System.arraycopy(input, 0, grown, 0, inputLength);
+                input = grown;
+            }
+            // Only as much as is needed, so that the jitter buffer can still skip what is too old
+            int wanted = (int) Math.min(input.length - inputLength, end - inputBase - inputLength);
+            int count = jitterBuffer.readAvailable(input, inputLength, wanted);
+            if (count == 0) {
+                break;
+            }
+            long first = jitterBuffer.getReadPosition() - count;
+            if (first != inputBase + inputLength) {
+                // The jitter buffer skipped ahead, so start over from what was just read
+                System.arraycopy(input, inputLength, input, 0, count);
+                inputBase = first;
+                inputLength = count;
+                startOver();
+                analysisPosition = inputBase + search;
+            } else {
+                inputLength += count;
+            }
+        }
+        return inputBase + inputLength >= end;
+    }
+
+    private void discardInputBefore(long position) {
+        int discard = (int) Math.min(inputLength, Math.max(0, position - inputBase));
+        if (discard == 0) {
+            return;
+        }
+        System.arraycopy(input, discard, input, 0, inputLength - discard);
+        inputLength -= discard;
+        inputBase += discard;
+    }
+
+    public int getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    /**
+     * @return the latency last measured, or -1 if it could not be.
+     */
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return how fast audio is currently being played, where 1 is normal speed.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return how many samples are waiting to be played.
+     */
+    public int getBufferedSampleCount() {
+        return jitterBuffer.getBufferedSampleCount() + inputLength;
+    }
+
+    /**
+     * @return how many times playing audio ran dry.
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+     * @return how many samples of silence were played in place of audio.
+     */
+    public long getSilenceSampleCount() {
+        return silenceSampleCount;
+    }
+
+    /**
+     * @return how many quiet samples were skipped to catch up.
+     */
+    public long getTrimmedSampleCount() {
+        return trimmedSampleCount;
+    }
+
+    /**
+     * @return how many hops were played faster or slower than normal.
+     */
+    public long getStretchedHopCount() {
+        return stretchedHopCount;
+    }
+
+    /**
+     * @return how many samples were thrown away for being too far behind.
+     */
+    public long getSkippedSampleCount() {
+        return jitterBuffer.getSkippedSampleCount();
+    }
+
+    @Override
+    public String toString() {
+        return "Latency " + latencyMillis + " ms (target " + targetLatencyMillis + " ms), rate " + rate
+                + ", " + underrunCount + " underruns, " + stretchedHopCount + " hops stretched, "
+                + trimmedSampleCount + " quiet samples trimmed, " + getSkippedSampleCount() + " skipped";
+    }
+}
@@ -24,20 +24,21 @@ public class ArmPositionMessage implements ByteableMessage<ArmPositionMessage> {
 
     @Override
     public byte[] getBytes() {
-        int extraLength = 8 + 8*3;
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(ReceiverThread.START_SEQUENCE.length + 1 + 4 + extraLength);
+        return MessageEncoding.toBytes(this);
+    }
 
-        // Start sequence
-        for (int i = 0; i < ReceiverThread.START_SEQUENCE.length; i++) {
-            byteBuffer.put(ReceiverThread.START_SEQUENCE[i]);
-        }
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
 
-        // Start code
-        byteBuffer.put(getStartCode());
+    private int getMessageLength() {
+        return 8 + 8*3;
+    }
 
-        // Message length
-        byteBuffer.putInt(extraLength);
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
 
         // timestamp
         byteBuffer.putLong(getTimestamp());
@@ -46,14 +47,20 @@ public class ArmPositionMessage implements ByteableMessage<ArmPositionMessage> {
         byteBuffer.putDouble(x);
         byteBuffer.putDouble(y);
         byteBuffer.putDouble(z);
+    }
 
-
-        return byteBuffer.array();
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
     }
 
     @Override
     public ArmPositionMessage fromBytes(byte[] messageBytes) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(messageBytes);
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public ArmPositionMessage fromBytes(ByteBuffer byteBuffer) {
         long ts = byteBuffer.getLong();
         double xv = byteBuffer.getDouble();
         double yv = byteBuffer.getDouble();
@@ -0,0 +1,264 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class knows which points the rover's arm can reach, so that targets can be checked, or
+ * pulled back within reach, before anything is solved for or sent.
+ *
+ * The arm turns on its base to face any direction, then its two segments move in that plane.
+ * How far out from the base the end can get, its radius, depends on its height and the joint
+ * limits: at each height it can reach from an inner radius out to an outer radius. Those are
+ * worked out exactly at heights heightStep apart when constructed, from where the edges of what
+ * the joints can reach cross each height. Queries interpolate between the two heights around the
+ * target, so they take the same time wherever it is, and are exact to within a small fraction of
+ * heightStep.
+ *
+ * Nothing changes once constructed, so one instance can be used from any number of threads.
+ */
+public class ArmWorkspace {
+    public static final String CLASS_IDENTIFIER = "ArmWorkspace";
+
+    // Joint limits the arm's Teensy allows, in radians
+    public static final double THETA_ONE_MIN = -0.1309;
+    public static final double THETA_ONE_MAX = 2.2689;
+    public static final double THETA_TWO_MIN = 0.7854;
+    public static final double THETA_TWO_MAX = 5.218;
+
+    // Segment lengths of the rover's arm, in meters. Both the robot, which drives the arm, and
+    // the client, which keeps targets within its reach, use these. They have always been given as
+    // floats, and lookup tables saved for the arm are checked against them exactly.
+    public static final double ROVER_L_1 = 0.15f;
+    public static final double ROVER_L_2 = 0.15f;
+
+    // In meters
+    public static final double DEFAULT_HEIGHT_STEP = 0.001;
+
+    private final double l_1;
+    private final double l_2;
+    private final double thetaOneMin;
+    private final double thetaOneMax;
+    private final double thetaTwoMin;
+    private final double thetaTwoMax;
+    private final double heightStep;
+    private final double zMin;
+
+    // Inner and outer radius at each height, from zMin up, or NaN at heights out of reach
+    private final double[] innerRadii;
+    private final double[] outerRadii;
+    // The lowest and highest heights in reach
+    private final int lowestRow;
+    private final int highestRow;
+
+    /**
+     * Initialize an ArmWorkspace for an arm with segments l_1 and l_2 long and the usual joint
+     * limits.
+     */
+    public ArmWorkspace(double l_1, double l_2) {
+        this(l_1, l_2, THETA_ONE_MIN, THETA_ONE_MAX, THETA_TWO_MIN, THETA_TWO_MAX, DEFAULT_HEIGHT_STEP);
+    }
+
+    public ArmWorkspace(double l_1, double l_2, double thetaOneMin, double thetaOneMax, double thetaTwoMin, double thetaTwoMax, double heightStep) {
+        if (l_1 <= 0 || l_2 <= 0 || heightStep <= 0) {
+            throw new IllegalStateException("Segment lengths and height step must be positive!");
+        }
+        this.l_1 = l_1;
+        this.l_2 = l_2;
+        this.thetaOneMin = thetaOneMin;
+        this.thetaOneMax = thetaOneMax;
+        this.thetaTwoMin = thetaTwoMin;
+        this.thetaTwoMax = thetaTwoMax;
+        this.heightStep = heightStep;
+        this.zMin = -(l_1+l_2);
+
+        int rowCount = (int) Math.ceil(2*(l_1+l_2)/heightStep)+1;
+        innerRadii = new double[rowCount];
+        outerRadii = new double[rowCount];
+        int lowest = -1;
+        int highest = -1;
+        double[] band = new double[2];
+        for (int row = 0; row < rowCount; row++) {
+            findBand(zMin+row*heightStep, band);
+            innerRadii[row] = band[0];
+            outerRadii[row] = band[1];
+            if (!Double.isNaN(band[0])) {
+                if (lowest < 0) {
+                    lowest = row;
+                }
+                highest = row;
+            }
+        }
+        if (lowest < 0) {
+            throw new IllegalStateException("The arm cannot reach anywhere with these joint limits!");
+        }
+        lowestRow = lowest;
+        highestRow = highest;
+    }
+
+    // Work out the inner and outer radius at height z into band, or NaN for both if out of reach.
+    private void findBand(double z, double[] band) {
+        band[0] = Double.POSITIVE_INFINITY;
+        band[1] = Double.NEGATIVE_INFINITY;
+
+        // The nearest and furthest points at any height are on the edge of what the joints can
+        // reach, which is made up of circular arcs: the elbow turning with the shoulder at either
+        // limit, the shoulder turning with the elbow at either limit, and the shoulder turning
+        // with the arm straight.
+        double[] shoulderLimits = {thetaOneMin, thetaOneMax};
+        for (double thetaOne : shoulderLimits) {
+            addArcCrossings(l_1*Math.cos(thetaOne), l_1*Math.sin(thetaOne), l_2,
+                    thetaOne+thetaTwoMin-Math.PI, thetaOne+thetaTwoMax-Math.PI, z, band);
+        }
+        double[] elbowAngles = {thetaTwoMin, thetaTwoMax, Math.PI};
+        for (double thetaTwo : elbowAngles) {
+            if (thetaTwo < thetaTwoMin || thetaTwo > thetaTwoMax) {
+                continue;
+            }
+            // With the elbow fixed, the end of the arm is a fixed distance from the base, and
+            // at a fixed angle from the first segment
+            double q_2 = thetaTwo-Math.PI;
+            double distance = Math.sqrt(l_1*l_1+l_2*l_2+2*l_1*l_2*Math.cos(q_2));
+            double angle = Math.atan2(l_2*Math.sin(q_2), l_1+l_2*Math.cos(q_2));
+            addArcCrossings(0, 0, distance, thetaOneMin+angle, thetaOneMax+angle, z, band);
+        }
+
+        if (band[0] == Double.POSITIVE_INFINITY) {
+            band[0] = Double.NaN;
+            band[1] = Double.NaN;
+        } else if (isReachableInPlane(0, z)) {
+            // Reaches straight up or down over the base, so right in to it
+            band[0] = 0;
+        }
+    }
+
+    // Widen band to take in where the arc of radius around (centerR, centerZ), from angleFrom to
+    // angleTo, crosses height z in front of the base.
+    private static void addArcCrossings(double centerR, double centerZ, double radius, double angleFrom, double angleTo, double z, double[] band) {
+        double sinAngle = (z-centerZ)/radius;
+        if (sinAngle > 1.0 || sinAngle < -1.0) {
+            return;
+        }
+        double first = Math.asin(sinAngle);
+        double[] crossings = {first, Math.PI-first};
+        for (double crossing : crossings) {
+            // The arc may be given in any turn around the circle
+            for (int turn = -1; turn <= 1; turn++) {
+                double angle = crossing+turn*2*Math.PI;
+                if (angle < angleFrom || angle > angleTo) {
+                    continue;
+                }
+                double r = centerR+radius*Math.cos(angle);
+                if (r >= 0) {
+                    band[0] = Math.min(band[0], r);
+                    band[1] = Math.max(band[1], r);
+                }
+            }
+        }
+    }
+
+    // Whether the joints can put the end of the arm exactly at the point r out and z up in its
+    // plane, by the law of cosines with the elbow bent either way.
+    private boolean isReachableInPlane(double r, double z) {
+        double cosBend = (r*r+z*z-l_1*l_1-l_2*l_2)/(2.0*l_1*l_2);
+        if (cosBend > 1.0 || cosBend < -1.0) {
+            return false;
+        }
+        double bend = Math.acos(cosBend);
+        for (int i = 0; i < 2; i++) {
+            double q_2 = i == 0 ? -bend : bend;
+            double thetaTwo = Math.PI+q_2;
+            double thetaOne = Math.atan2(z, r)-Math.atan2(l_2*Math.sin(q_2), l_1+l_2*Math.cos(q_2));
+            if (thetaOne > Math.PI) {
+                thetaOne -= 2.0*Math.PI;
+            } else if (thetaOne < -Math.PI) {
+                thetaOne += 2.0*Math.PI;
+            }
+            if (thetaOne >= thetaOneMin && thetaOne <= thetaOneMax && thetaTwo >= thetaTwoMin && thetaTwo <= thetaTwoMax) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the end of the arm can reach the point (x, y, z).
+     */
+    public boolean isReachable(double x, double y, double z) {
+        double zPosition = (z-zMin)/heightStep;
+        if (!(zPosition >= lowestRow && zPosition <= highestRow)) {
+            return false;
+        }
+        double rSquared = x*x+y*y;
+        double innerRadius = interpolate(innerRadii, zPosition);
+        double outerRadius = interpolate(outerRadii, zPosition);
+        return rSquared >= innerRadius*innerRadius && rSquared <= outerRadius*outerRadius;
+    }
+
+    /**
+     * Pull the point (x, y, z) back within reach: first to the nearest height in reach, then in or
+     * out toward the base to the nearest radius in reach at that height, keeping its direction
+     * from the base. Points already in reach are returned as they are.
+     * @return the clamped point, as {x, y, z}.
+     */
+    public double[] clampToWorkspace(double x, double y, double z) {
+        double zClamped = Math.max(zMin+lowestRow*heightStep, Math.min(zMin+highestRow*heightStep, z));
+        double zPosition = Math.max(lowestRow, Math.min(highestRow, (zClamped-zMin)/heightStep));
+        double innerRadius = interpolate(innerRadii, zPosition);
+        double outerRadius = interpolate(outerRadii, zPosition);
+
+        double r = Math.sqrt(x*x+y*y);
+        double rClamped = Math.max(innerRadius, Math.min(outerRadius, r));
+        if (rClamped == r) {
+            return new double[] {x, y, zClamped};
+        }
+        if (r == 0) {
+            // No direction to keep, so straight out in front
+            return new double[] {0, rClamped, zClamped};
+        }
+        return new double[] {x*rClamped/r, y*rClamped/r, zClamped};
+    }
+
+    /**
+     * @return the inner radius at height z_t, or NaN if the arm cannot reach that height.
+     */
+    public double getInnerRadius(double z_t) {
+        double zPosition = (z_t-zMin)/heightStep;
+        if (!(zPosition >= lowestRow && zPosition <= highestRow)) {
+            return Double.NaN;
+        }
+        return interpolate(innerRadii, zPosition);
+    }
+
+    /**
+     * @return the outer radius at height z_t, or NaN if the arm cannot reach that height.
+     */
+    public double getOuterRadius(double z_t) {
+        double zPosition = (z_t-zMin)/heightStep;
+        if (!(zPosition >= lowestRow && zPosition <= highestRow)) {
+            return Double.NaN;
+        }
+        return interpolate(outerRadii, zPosition);
+    }
+
+    // The value in radii at a fractional row between lowestRow and highestRow.
+    private double interpolate(double[] radii, double zPosition) {
+        int row = (int) zPosition;
+        int nextRow = Math.min(row+1, highestRow);
+        return radii[row]+(radii[nextRow]-radii[row])*(zPosition-row);
+    }
+
+    public double getLowestHeight() {
+        return zMin+lowestRow*heightStep;
+    }
+
+    public double getHighestHeight() {
+        return zMin+highestRow*heightStep;
+    }
+
+    public double getHeightStep() {
+        return heightStep;
+    }
+
+    @Override
+    public String toString() {
+        return "Reach from " + getLowestHeight() + " to " + getHighestHeight() + " m high, " + (highestRow-lowestRow+1) + " heights " + heightStep + " m apart";
+    }
+}
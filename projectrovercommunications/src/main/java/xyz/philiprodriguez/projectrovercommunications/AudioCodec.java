@@ -0,0 +1,28 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * Compresses and decompresses frames of 16 bit mono audio. An encoder may carry state from one
+ * frame to the next, but every encoded frame must be decodable on its own, since audio frames can
+ * be dropped on the way. Decoding must not depend on any state at all.
+ */
+public interface AudioCodec {
+    /**
+     * @return the number identifying this codec in a CompressedAudioFrameMessage.
+     */
+    byte getCodecId();
+
+    /**
+     * @return the most bytes encoding sampleCount samples can produce.
+     */
+    int getMaxEncodedLength(int sampleCount);
+
+    /**
+     * @return how many bytes were written to out.
+     */
+    int encode(short[] samples, int offset, int sampleCount, byte[] out);
+
+    /**
+     * Decode sampleCount samples from encoded into out, starting at index 0.
+     */
+    void decode(byte[] encoded, int sampleCount, short[] out);
+}
@@ -0,0 +1,87 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class turns CompressedAudioFrameMessages back into PCM audio at the rate it is played back
+ * at. Nothing is carried from one frame to the next, so frames that were dropped on the way are
+ * simply missing, and one decoder can be shared between threads.
+ */
+public class AudioFrameDecoder {
+    public static final String CLASS_IDENTIFIER = "AudioFrameDecoder";
+
+    // Well above any rate audio is recorded at, so that nothing real is turned away.
+    private static final int MAX_SAMPLE_RATE = 192000;
+
+    // No frame is sent holding more than this much audio.
+    private static final int MAX_FRAME_SECONDS = 1;
+
+    private final int outputSampleRate;
+
+    public AudioFrameDecoder(int outputSampleRate) {
+        this.outputSampleRate = outputSampleRate;
+    }
+
+    /**
+     * @return the decoded frame, or null if the frame does not make sense and was dropped. Every
+     * field comes from the other end of the connection, so nothing is taken on trust.
+     */
+    public PCMFrameMessage decode(CompressedAudioFrameMessage compressedAudioFrameMessage) {
+        AudioCodec audioCodec = createCodec(compressedAudioFrameMessage.getCodecId());
+        if (audioCodec == null) {
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Dropping audio frame in unknown codec " + compressedAudioFrameMessage.getCodecId() + ".");
+            return null;
+        }
+        int sampleRate = compressedAudioFrameMessage.getSampleRate();
+        int sampleCount = compressedAudioFrameMessage.getSampleCount();
+        // Checking the length of the frame first also keeps both the samples decoded and the
+        // samples upsampled to at most MAX_FRAME_SECONDS of audio
+        if (sampleRate <= 0 || sampleRate > MAX_SAMPLE_RATE || sampleCount < 0 || sampleCount > sampleRate*MAX_FRAME_SECONDS) {
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Dropping audio frame of " + sampleCount + " samples at " + sampleRate + " Hz.");
+            return null;
+        }
+        if (compressedAudioFrameMessage.getEncodedSampleLength() < audioCodec.getMaxEncodedLength(sampleCount)) {
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Dropping audio frame of " + sampleCount + " samples in only "
+                    + compressedAudioFrameMessage.getEncodedSampleLength() + " bytes.");
+            return null;
+        }
+        short[] decoded = new short[sampleCount];
+        audioCodec.decode(compressedAudioFrameMessage.getEncodedSamples(), sampleCount, decoded);
+        short[] pcmValues = upsample(decoded, sampleRate);
+        return new PCMFrameMessage(compressedAudioFrameMessage.getTimestamp(), pcmValues);
+    }
+
+    // Null if the codec is not known.
+    private static AudioCodec createCodec(byte codecId) {
+        switch (codecId) {
+            case ImaAdpcmCodec.CODEC_ID:
+                return new ImaAdpcmCodec();
+            default:
+                return null;
+        }
+    }
+
+    // Linear interpolation between the samples received. The last one is held for the end of the
+    // frame, since the next frame may never arrive.
+    private short[] upsample(short[] samples, int inputSampleRate) {
+        if (inputSampleRate == outputSampleRate || samples.length == 0) {
+            return samples;
+        }
+        int outputCount = (int) ((long) samples.length*outputSampleRate / inputSampleRate);
+        short[] upsampled = new short[outputCount];
+        double step = (double) inputSampleRate / outputSampleRate;
+        for (int i = 0; i < outputCount; i++) {
+            double position = i*step;
+            int index = (int) position;
+            if (index >= samples.length - 1) {
+                upsampled[i] = samples[samples.length - 1];
+            } else {
+                double fraction = position - index;
+                upsampled[i] = (short) Math.round(samples[index] + (samples[index + 1] - samples[index])*fraction);
+            }
+        }
+        return upsampled;
+    }
+
+    public int getOutputSampleRate() {
+        return outputSampleRate;
+    }
+}
@@ -0,0 +1,132 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class turns frames of recorded 16 bit mono audio into CompressedAudioFrameMessages. Audio
+ * is first brought down to a lower sample rate, which for voice loses little, by low pass
+ * filtering it and keeping every so many samples, and is then compressed with an AudioCodec.
+ * Filter state is carried from one frame to the next, so frames must be handed over in the order
+ * they were recorded, from one thread at a time.
+ *
+ * Frames are encoded straight into arrays from a ByteArrayPool if given one, which go back to it
+ * once the messages are released.
+ */
+public class AudioFrameEncoder {
+    public static final String CLASS_IDENTIFIER = "AudioFrameEncoder";
+
+    // A quarter of the 44.1 kHz recorded at, which keeps everything up to about 5 kHz.
+    public static final int DEFAULT_VOICE_SAMPLE_RATE = 11025;
+
+    // Length of the low pass filter for each sample kept, in samples of the input
+    private static final int TAPS_PER_FACTOR = 8;
+
+    private final AudioCodec audioCodec;
+    private final int inputSampleRate;
+    private final int outputSampleRate;
+    private final int factor;
+    private final float[] taps;
+
+    // The end of the previous frame, which the filter still needs, followed by the current frame.
+    private float[] window = new float[0];
+    private int historyLength;
+    // Where in the window the next output sample's filter starts
+    private int nextStart;
+
+    private short[] downsampled = new short[0];
+
+    // Where encoded frames are put, or null to allocate a new array for each.
+    private final ByteArrayPool byteArrayPool;
+
+    public AudioFrameEncoder(int inputSampleRate) {
+        this(inputSampleRate, null);
+    }
+
+    public AudioFrameEncoder(int inputSampleRate, ByteArrayPool byteArrayPool) {
+        this(new ImaAdpcmCodec(), inputSampleRate, DEFAULT_VOICE_SAMPLE_RATE, byteArrayPool);
+    }
+
+    public AudioFrameEncoder(AudioCodec audioCodec, int inputSampleRate, int outputSampleRate, ByteArrayPool byteArrayPool) {
+        if (inputSampleRate % outputSampleRate != 0) {
+            throw new IllegalStateException("Input sample rate " + inputSampleRate + " must be a multiple of output sample rate " + outputSampleRate + "!");
+        }
+        this.audioCodec = audioCodec;
+        this.byteArrayPool = byteArrayPool;
+        this.inputSampleRate = inputSampleRate;
+        this.outputSampleRate = outputSampleRate;
+        this.factor = inputSampleRate / outputSampleRate;
+        this.taps = factor == 1 ? new float[] {1} : createLowPassTaps(factor*TAPS_PER_FACTOR + 1, 0.45 / factor);
+        this.historyLength = taps.length - 1;
+        this.window = new float[historyLength];
+    }
+
+    // A windowed sinc filter passing frequencies below cutoff, given as a fraction of the sample
+    // rate, with a gain of one.
+    private static float[] createLowPassTaps(int length, double cutoff) {
+        float[] taps = new float[length];
+        double sum = 0;
+        int middle = length / 2;
+        for (int i = 0; i < length; i++) {
+            int n = i - middle;
+            double sinc = n == 0 ? 2*cutoff : Math.sin(2*Math.PI*cutoff*n) / (Math.PI*n);
+            double hamming = 0.54 - 0.46*Math.cos(2*Math.PI*i / (length - 1));
+            taps[i] = (float) (sinc*hamming);
+            sum += taps[i];
+        }
+        for (int i = 0; i < length; i++) {
+            taps[i] /= sum;
+        }
+        return taps;
+    }
+
+    /**
+     * Everything needed from pcmValues is copied out before this returns, so the array can be
+     * reused straight away.
+     */
+    public CompressedAudioFrameMessage encode(long timestamp, short[] pcmValues) {
+        int sampleCount = downsample(pcmValues);
+        int maxLength = audioCodec.getMaxEncodedLength(sampleCount);
+        byte[] encodedSamples = byteArrayPool == null ? new byte[maxLength] : byteArrayPool.acquire(maxLength);
+        int length = audioCodec.encode(downsampled, 0, sampleCount, encodedSamples);
+        return new CompressedAudioFrameMessage(timestamp, audioCodec.getCodecId(), outputSampleRate, sampleCount, encodedSamples, length, byteArrayPool);
+    }
+
+    // Filters and decimates into downsampled, returning how many samples it holds.
+    private int downsample(short[] pcmValues) {
+        int windowLength = historyLength + pcmValues.length;
+        if (window.length < windowLength) {
+            float[] grown = new float[windowLength];
+            System.arraycopy(window, 0, grown, 0, historyLength);
+            window = grown;
+        }
+        for (int i = 0; i < pcmValues.length; i++) {
+            window[historyLength + i] = pcmValues[i];
+        }
+        int maxCount = pcmValues.length / factor + 1;
+        if (downsampled.length < maxCount) {
+            downsampled = new short[maxCount];
+        }
+
+        int count = 0;
+        int start = nextStart;
+        while (start + taps.length <= windowLength) {
+            float sum = 0;
+            for (int k = 0; k < taps.length; k++) {
+                sum += taps[k]*window[start + k];
+            }
+            downsampled[count++] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sum)));
+            start += factor;
+        }
+
+        // Keep the end of this frame for the start of the next
+        System.arraycopy(window, pcmValues.length, window, 0, historyLength);
+        nextStart = start - pcmValues.length;
+        return count;
+    }
+
+    public int getInputSampleRate() {
+        return inputSampleRate;
+    }
+
+    public int getOutputSampleRate() {
+        return outputSampleRate;
+    }
+}
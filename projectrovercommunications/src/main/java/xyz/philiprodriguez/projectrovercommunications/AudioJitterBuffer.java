@@ -0,0 +1,254 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class holds received audio samples until they are played, smoothing over frames arriving
+ * unevenly. Samples are kept in a ring of shorts, so nothing is allocated per sample, and copied
+ * in and out in bulk.
+ *
+ * One thread writes and one thread reads. Neither ever waits on the other: writing more than fits
+ * drops the samples that do not fit, and reading more than is buffered fills the rest with
+ * silence. After running dry, silence is read until targetLatencySamples have built up again, so
+ * that playback does not stutter on every late frame. Whenever more than maxLatencySamples are
+ * buffered, the oldest are skipped so that playback never falls too far behind.
+ *
+ * Where the sender left out audio with nobody talking in it, comfort noise can be written instead,
+ * so that the listener hears the same quiet hiss rather than the line going dead.
+ */
+public class AudioJitterBuffer {
+    public static final String CLASS_IDENTIFIER = "AudioJitterBuffer";
+
+    private final short[] ring;
+    private final int mask;
+    private final int targetLatencySamples;
+    private final int maxLatencySamples;
+
+    // Total samples ever written and read. Only the writer changes writePosition and only the
+    // reader changes readPosition, so each is safe to read from the other thread.
+    private volatile long writePosition;
+    private volatile long readPosition;
+
+    // Only touched by the reader.
+    private boolean isBuffering = true;
+
+    // Only touched by the writer. State of the comfort noise generator, never zero.
+    private int noiseSeed = 0x2545F491;
+
+    private volatile long overflowSampleCount;
+    private volatile long skippedSampleCount;
+    private volatile long silenceSampleCount;
+    private volatile long underrunCount;
+
+    /**
+     * @param targetLatencySamples How many samples to build up before playing, after starting or
+     *                             running dry.
+     * @param maxLatencySamples The most samples kept buffered when reading. Anything older is
+     *                          skipped.
+     */
+    public AudioJitterBuffer(int targetLatencySamples, int maxLatencySamples) {
+        if (targetLatencySamples < 0 || maxLatencySamples < targetLatencySamples) {
+            throw new IllegalStateException("Need 0 <= target latency (" + targetLatencySamples + ") <= max latency (" + maxLatencySamples + ")!");
+        }
+        this.targetLatencySamples = targetLatencySamples;
+        this.maxLatencySamples = maxLatencySamples;
+
+        // Room for twice the max latency, so that a writer getting ahead between reads is not cut off
+        int capacity = Integer.highestOneBit(Math.max(1, 2*maxLatencySamples - 1)) << 1;
+        this.ring = new short[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Add samples to the end of the buffer. Only call this from the writing thread.
+     *
+     * @return how many samples were added. The rest did not fit and were dropped.
+     */
+    public int write(short[] samples, int offset, int length) {
+        long write = writePosition;
+        int free = ring.length - (int) (write - readPosition);
+        int count = Math.min(length, free);
+        if (count < length) {
+            overflowSampleCount += length - count;
+        }
+
+        int start = (int) (write & mask);
+        int firstPart = Math.min(count, ring.length - start);
+        System.arraycopy(samples, offset, ring, start, firstPart);
+        System.arraycopy(samples, offset + firstPart, ring, 0, count - firstPart);
+
+        writePosition = write + count;
+        return count;
+    }
+
+    /**
+     * Add sampleCount samples of random noise at about noiseLevel, the root mean square level in
+     * sample units, to the end of the buffer. Only call this from the writing thread.
+     *
+     * @return how many samples were added. The rest did not fit and were dropped.
+     */
+    public int writeComfortNoise(int sampleCount, int noiseLevel) {
+        long write = writePosition;
+        int free = ring.length - (int) (write - readPosition);
+        int count = Math.min(sampleCount, free);
+        if (count < sampleCount) {
+            overflowSampleCount += sampleCount - count;
+        }
+
+        // Evenly spread between -amplitude and amplitude has a root mean square of amplitude over
+        // the square root of three.
+        int amplitude = (int) Math.min(Short.MAX_VALUE, Math.round(Math.max(0, noiseLevel)*Math.sqrt(3)));
+        int seed = noiseSeed;
+        for (int i = 0; i < count; i++) {
+            // xorshift
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            ring[(int) ((write + i) & mask)] = (short) (((long) (seed >> 16)*amplitude) >> 15);
+        }
+        noiseSeed = seed;
+
+        writePosition = write + count;
+        return count;
+    }
+
+    /**
+     * Fill out[offset, offset + length) with the next samples, or silence where there are none to
+     * play. Only call this from the reading thread.
+     *
+     * @return how many of the samples read were real audio rather than silence.
+     */
+    public int read(short[] out, int offset, int length) {
+        long read = skipToMaxLatency();
+        int buffered = (int) (writePosition - read);
+        if (isBuffering && buffered >= Math.max(1, targetLatencySamples)) {
+            isBuffering = false;
+        }
+
+        int count = isBuffering ? 0 : Math.min(length, buffered);
+        copyOut(read, out, offset, count);
+
+        if (count < length) {
+            for (int i = offset + count; i < offset + length; i++) {
+                out[i] = 0;
+            }
+            silenceSampleCount += length - count;
+            if (!isBuffering) {
+                // Ran dry, so wait for the buffer to build back up
+                underrunCount++;
+                isBuffering = true;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copy up to maxLength of the next samples into out, without filling in silence or waiting for
+     * the target latency to build up, for readers that do that themselves. Samples older than
+     * maxLatencySamples are still skipped. Only call this from the reading thread.
+     *
+     * @return how many samples were read. The first of them is at getReadPosition() minus that.
+     */
+    public int readAvailable(short[] out, int offset, int maxLength) {
+        long read = skipToMaxLatency();
+        int count = Math.min(maxLength, (int) (writePosition - read));
+        copyOut(read, out, offset, count);
+        return count;
+    }
+
+    // Returns the read position to continue from.
+    private long skipToMaxLatency() {
+        long read = readPosition;
+        int buffered = (int) (writePosition - read);
+        if (buffered > maxLatencySamples) {
+            int skipped = buffered - maxLatencySamples;
+            skippedSampleCount += skipped;
+            read += skipped;
+            readPosition = read;
+        }
+        return read;
+    }
+
+    private void copyOut(long read, short[] out, int offset, int count) {
+        int start = (int) (read & mask);
+        int firstPart = Math.min(count, ring.length - start);
+        System.arraycopy(ring, start, out, offset, firstPart);
+        System.arraycopy(ring, 0, out, offset + firstPart, count - firstPart);
+        readPosition = read + count;
+    }
+
+    /**
+     * Throw away everything buffered. Only call this from the reading thread, or while nothing is
+     * reading.
+     */
+    public void clear() {
+        readPosition = writePosition;
+        isBuffering = true;
+    }
+
+    /**
+     * @return how many samples are waiting to be read.
+     */
+    public int getBufferedSampleCount() {
+        return (int) (writePosition - readPosition);
+    }
+
+    /**
+     * @return how many samples have been added since this buffer was created.
+     */
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * @return how many samples have been read or skipped since this buffer was created.
+     */
+    public long getReadPosition() {
+        return readPosition;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public int getTargetLatencySamples() {
+        return targetLatencySamples;
+    }
+
+    public int getMaxLatencySamples() {
+        return maxLatencySamples;
+    }
+
+    /**
+     * @return how many written samples were dropped for not fitting.
+     */
+    public long getOverflowSampleCount() {
+        return overflowSampleCount;
+    }
+
+    /**
+     * @return how many samples were skipped to keep the latency under maxLatencySamples.
+     */
+    public long getSkippedSampleCount() {
+        return skippedSampleCount;
+    }
+
+    /**
+     * @return how many samples of silence were read in place of audio.
+     */
+    public long getSilenceSampleCount() {
+        return silenceSampleCount;
+    }
+
+    /**
+     * @return how many times playing audio ran dry.
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    @Override
+    public String toString() {
+        return getBufferedSampleCount() + " samples buffered, " + underrunCount + " underruns, "
+                + silenceSampleCount + " samples of silence, " + skippedSampleCount + " skipped, "
+                + overflowSampleCount + " overflowed";
+    }
+}
@@ -0,0 +1,102 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sent in place of a frame of audio that had nobody talking in it, so the other end can keep time
+ * and play quiet background noise instead of dead silence.
+ */
+public class AudioSilenceMessage implements ByteableMessage<AudioSilenceMessage> {
+
+    // When the silent frame was recorded
+    private final long timestamp;
+
+    // How long the frame was
+    private final int sampleRate;
+    private final int sampleCount;
+
+    // The root mean square level of the background noise, in sample units
+    private final short noiseLevel;
+
+    public AudioSilenceMessage() {
+        this(-1, 0, 0, 0);
+    }
+
+    public AudioSilenceMessage(long timestamp, int sampleRate, int sampleCount, int noiseLevel) {
+        this.timestamp = timestamp;
+        this.sampleRate = sampleRate;
+        this.sampleCount = sampleCount;
+        this.noiseLevel = (short) Math.max(0, Math.min(Short.MAX_VALUE, noiseLevel));
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return MessageEncoding.toBytes(this);
+    }
+
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
+
+    private int getMessageLength() {
+        return 8 + 4 + 4 + 2;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
+
+        // timestamp
+        byteBuffer.putLong(getTimestamp());
+
+        byteBuffer.putInt(sampleRate);
+        byteBuffer.putInt(sampleCount);
+        byteBuffer.putShort(noiseLevel);
+    }
+
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
+    }
+
+    @Override
+    public AudioSilenceMessage fromBytes(byte[] messageBytes) {
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public AudioSilenceMessage fromBytes(ByteBuffer byteBuffer) {
+        long timestamp = byteBuffer.getLong();
+        int sampleRate = byteBuffer.getInt();
+        int sampleCount = byteBuffer.getInt();
+        short noiseLevel = byteBuffer.getShort();
+        return new AudioSilenceMessage(timestamp, sampleRate, sampleCount, noiseLevel);
+    }
+
+    @Override
+    public byte getStartCode() {
+        return 46;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getNoiseLevel() {
+        return noiseLevel;
+    }
+
+    public String toString() {
+        return "AudioSilenceMessage of " + sampleCount + " samples at " + sampleRate + " Hz, noise level " + noiseLevel + " and time " + getTimestamp();
+    }
+}
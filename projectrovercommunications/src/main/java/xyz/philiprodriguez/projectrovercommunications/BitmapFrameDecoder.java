@@ -0,0 +1,51 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes JPEG frames into Android Bitmaps. Frames are decoded into Bitmaps taken from a
+ * BitmapPool, and go back to it when released, rather than allocating a new one for every frame.
+ */
+public class BitmapFrameDecoder implements FrameDecoder<Bitmap> {
+    public static final String CLASS_IDENTIFIER = "BitmapFrameDecoder";
+
+    private final BitmapPool bitmapPool;
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+
+    public BitmapFrameDecoder(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public Bitmap decode(EncodedFrame encodedFrame) {
+        byte[] bytes = encodedFrame.getBytes();
+        if (encodedFrame.getWidth() <= 0 || encodedFrame.getHeight() <= 0) {
+            // Without knowing the size up front there is nothing to pick from the pool
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+        Bitmap target = bitmapPool.acquire(encodedFrame.getWidth(), encodedFrame.getHeight(), Bitmap.Config.ARGB_8888);
+        options.inBitmap = target;
+        try {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            if (bitmap == null) {
+                bitmapPool.release(target);
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // The frame is not the size it claims to be
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Could not decode into a " + target.getWidth() + "x" + target.getHeight() + " bitmap.");
+            bitmapPool.release(target);
+        } finally {
+            options.inBitmap = null;
+        }
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    @Override
+    public void release(Bitmap image) {
+        bitmapPool.release(image);
+    }
+}
@@ -0,0 +1,40 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * JPEG compresses Android Bitmaps.
+ */
+public class BitmapFrameEncoder implements FrameEncoder<Bitmap> {
+    // Reset rather than recreated for each frame so that its buffer only grows once.
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64*1024);
+
+    // Where images go once compressed, or null to recycle them.
+    private final BitmapPool bitmapPool;
+
+    public BitmapFrameEncoder() {
+        this(null);
+    }
+
+    public BitmapFrameEncoder(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    @Override
+    public EncodedFrame encode(Bitmap image, int quality, long timestamp, long sequenceNumber) {
+        outputStream.reset();
+        image.compress(Bitmap.CompressFormat.JPEG, quality, outputStream);
+        return new EncodedFrame(timestamp, sequenceNumber, image.getWidth(), image.getHeight(), quality, outputStream.toByteArray());
+    }
+
+    @Override
+    public void release(Bitmap image) {
+        if (bitmapPool != null) {
+            bitmapPool.release(image);
+        } else {
+            image.recycle();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import android.graphics.Bitmap;
+
+/**
+ * Samples the luminance of Android Bitmaps. Only every other pixel of every other row is looked
+ * at, which is plenty for averages over cells of hundreds of pixels.
+ */
+public class BitmapLuminanceSampler implements LuminanceSampler<Bitmap> {
+    // Reused for every image of the same width, and every signature of the same size.
+    private int[] rowPixels = new int[0];
+    private int[] counts = new int[0];
+
+    @Override
+    public void sample(Bitmap image, int columns, int rows, int[] signature) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (rowPixels.length != width) {
+            rowPixels = new int[width];
+        }
+
+        if (counts.length != columns*rows) {
+            counts = new int[columns*rows];
+        }
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = 0;
+            counts[i] = 0;
+        }
+        for (int y = 0; y < height; y += 2) {
+            image.getPixels(rowPixels, 0, width, 0, y, width, 1);
+            int cellRow = y*rows/height;
+            for (int x = 0; x < width; x += 2) {
+                int pixel = rowPixels[x];
+                int cell = cellRow*columns + x*columns/width;
+                // Integer approximation of 0.299 R + 0.587 G + 0.114 B
+                signature[cell] += (77*((pixel >> 16) & 0xFF) + 150*((pixel >> 8) & 0xFF) + 29*(pixel & 0xFF)) >> 8;
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = counts[i] == 0 ? 0 : signature[i] / counts[i];
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import android.graphics.Bitmap;
+
+/**
+ * Pools mutable Android Bitmaps, so that camera frames can be captured into them with
+ * TextureView.getBitmap(Bitmap) and received frames decoded into them with
+ * BitmapFactory.Options.inBitmap.
+ */
+public class BitmapPool extends ImagePool<Bitmap, Bitmap.Config> {
+    public static final int DEFAULT_MAX_BITMAPS = 4;
+
+    public BitmapPool() {
+        this(DEFAULT_MAX_BITMAPS);
+    }
+
+    public BitmapPool(int maxBitmaps) {
+        super(maxBitmaps);
+    }
+
+    @Override
+    protected Bitmap create(int width, int height, Bitmap.Config config) {
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    @Override
+    protected int getWidth(Bitmap image) {
+        return image.getWidth();
+    }
+
+    @Override
+    protected int getHeight(Bitmap image) {
+        return image.getHeight();
+    }
+
+    @Override
+    protected Bitmap.Config getConfig(Bitmap image) {
+        return image.getConfig();
+    }
+
+    @Override
+    protected boolean isReusable(Bitmap image) {
+        return !image.isRecycled() && image.isMutable() && image.getConfig() != null;
+    }
+
+    @Override
+    protected void discard(Bitmap image) {
+        image.recycle();
+    }
+}
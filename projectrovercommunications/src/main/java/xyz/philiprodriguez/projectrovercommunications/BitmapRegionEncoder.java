@@ -0,0 +1,31 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * JPEG compresses regions of Android Bitmaps.
+ */
+public class BitmapRegionEncoder implements RegionEncoder<Bitmap> {
+    @Override
+    public int getWidth(Bitmap image) {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight(Bitmap image) {
+        return image.getHeight();
+    }
+
+    @Override
+    public void encodeRegion(Bitmap image, int x, int y, int width, int height, int quality, ByteArrayOutputStream outputStream) {
+        if (x == 0 && y == 0 && width == image.getWidth() && height == image.getHeight()) {
+            image.compress(Bitmap.CompressFormat.JPEG, quality, outputStream);
+            return;
+        }
+        Bitmap region = Bitmap.createBitmap(image, x, y, width, height);
+        region.compress(Bitmap.CompressFormat.JPEG, quality, outputStream);
+        region.recycle();
+    }
+}
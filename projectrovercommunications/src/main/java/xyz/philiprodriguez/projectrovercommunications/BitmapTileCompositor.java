@@ -0,0 +1,64 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+
+/**
+ * This class rebuilds video frames sent as TileFrameMessages. Each message's regions are drawn
+ * over a copy of the previous frame, since the previous frame may still be on screen while the
+ * next one is being put together. Frames are drawn into Bitmaps taken from a BitmapPool, and go
+ * back to it when released. The small Bitmaps regions are decoded into are not pooled, since
+ * regions come in many sizes.
+ */
+public class BitmapTileCompositor implements TileFrameDecoder<Bitmap> {
+    public static final String CLASS_IDENTIFIER = "BitmapTileCompositor";
+
+    // The last frame put together, which the next one is drawn over. Only changed by the
+    // decoding thread.
+    private volatile Bitmap composite;
+
+    private final BitmapPool bitmapPool;
+
+    public BitmapTileCompositor(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    @Override
+    public Bitmap decode(TileFrameMessage tileFrameMessage) {
+        int width = tileFrameMessage.getFrameWidth();
+        int height = tileFrameMessage.getFrameHeight();
+        boolean hasBase = composite != null && composite.getWidth() == width && composite.getHeight() == height;
+        if (!tileFrameMessage.isKeyframe() && !hasBase) {
+            // Nothing to draw the changes onto until the next keyframe
+            return null;
+        }
+
+        Bitmap output = bitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+        if (!tileFrameMessage.isKeyframe()) {
+            canvas.drawBitmap(composite, 0, 0, null);
+        }
+        byte[] bytes = tileFrameMessage.getRegionBytes();
+        for (int i = 0; i < tileFrameMessage.getRegionCount(); i++) {
+            Bitmap region = BitmapFactory.decodeByteArray(bytes, tileFrameMessage.getRegionOffset(i), tileFrameMessage.getRegionLength(i));
+            if (region == null) {
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Failed to decode region " + i + " of " + tileFrameMessage);
+                continue;
+            }
+            canvas.drawBitmap(region, tileFrameMessage.getRegionX(i), tileFrameMessage.getRegionY(i), null);
+            region.recycle();
+        }
+        composite = output;
+        return output;
+    }
+
+    @Override
+    public void release(Bitmap image) {
+        if (image == composite) {
+            // Still needed to draw the next frame over
+            return;
+        }
+        bitmapPool.release(image);
+    }
+}
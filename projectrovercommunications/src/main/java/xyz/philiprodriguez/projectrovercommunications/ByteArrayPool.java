@@ -0,0 +1,92 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.ArrayDeque;
+
+/**
+ * This class keeps byte arrays that are no longer in use so that later messages can be encoded
+ * into them, rather than allocating a new array for each. Arrays handed out are at least as long
+ * as asked for, and may be longer.
+ */
+public class ByteArrayPool {
+    // Enough to cover a client's whole droppable queue of audio frames and then some
+    public static final int DEFAULT_MAX_ARRAYS = 16;
+
+    private final int maxArrays;
+
+    // Only touched while holding this.
+    private final ArrayDeque<byte[]> arrays;
+
+    private long hitCount;
+    private long missCount;
+    private long discardCount;
+
+    public ByteArrayPool() {
+        this(DEFAULT_MAX_ARRAYS);
+    }
+
+    /**
+     * @param maxArrays The most arrays held at once, or 0 to hold none so that every array is
+     *                  newly allocated.
+     */
+    public ByteArrayPool(int maxArrays) {
+        this.maxArrays = maxArrays;
+        this.arrays = new ArrayDeque<>(Math.max(1, maxArrays));
+    }
+
+    /**
+     * @return an array of at least minLength bytes, either one released earlier or a new one. Its
+     * contents are whatever was last put into it.
+     */
+    public byte[] acquire(int minLength) {
+        synchronized (this) {
+            byte[] array = arrays.pollLast();
+            if (array != null && array.length >= minLength) {
+                hitCount++;
+                return array;
+            }
+            if (array != null) {
+                // Too short to be any use now, so make room for a longer one
+                discardCount++;
+            }
+            missCount++;
+        }
+        return new byte[minLength];
+    }
+
+    /**
+     * Hand back an array that is no longer in use. It must not be touched afterwards.
+     */
+    public synchronized void release(byte[] array) {
+        if (arrays.size() < maxArrays) {
+            arrays.addLast(array);
+        } else {
+            discardCount++;
+        }
+    }
+
+    /**
+     * @return how many acquires were handed an array released earlier.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return how many acquires had to allocate a new array.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return how many arrays were thrown away rather than held.
+     */
+    public synchronized long getDiscardCount() {
+        return discardCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return hitCount + " hits, " + missCount + " misses, " + discardCount + " discarded, " + arrays.size() + " held";
+    }
+}
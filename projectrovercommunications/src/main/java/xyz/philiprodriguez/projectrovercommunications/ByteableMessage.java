@@ -1,8 +1,26 @@
 package xyz.philiprodriguez.projectrovercommunications;
 
+import java.nio.ByteBuffer;
+
 public interface ByteableMessage<T> {
+    // Kept for compatibility, this allocates a new array holding the whole encoded message.
     byte[] getBytes();
     T fromBytes(byte[] messageBytes);
+
+    // Decode from the remaining bytes of messageBuffer. The buffer may be a view over a reused
+    // receive buffer, so anything kept by the returned message must be copied out.
+    T fromBytes(ByteBuffer messageBuffer);
+
+    // Total number of bytes this message takes on the wire, header and bulk payload included.
+    int getEncodedLength();
+
+    // Write the encoded message into byteBuffer, leaving out the bulk payload if there is one.
+    void writeTo(ByteBuffer byteBuffer);
+
+    // The trailing bytes of the message, wrapped straight from the message's own array so they can
+    // be sent without copying, or null if writeTo already writes the whole message.
+    ByteBuffer getBulkPayload();
+
     byte getStartCode();
     long getTimestamp();
 }
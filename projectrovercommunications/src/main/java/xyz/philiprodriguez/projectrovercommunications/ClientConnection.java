@@ -0,0 +1,42 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * One client connected to a ProjectRoverServer, regardless of which transport is serving it.
+ */
+public interface ClientConnection {
+    /**
+     * Enqueue a message that is guaranteed to eventually be sent unless the connection closes.
+     */
+    void enqueueStrict(ByteableMessage message);
+
+    /**
+     * Enqueue a message that may be dropped if messages are enqueued faster than they can be sent.
+     */
+    void enqueueDroppable(ByteableMessage message);
+
+    /**
+     * Enqueue a message that replaces any unsent message with the same start code, and is sent
+     * ahead of strict and droppable messages.
+     */
+    void enqueueLatest(ByteableMessage message);
+
+    /**
+     * @return how many droppable messages have been evicted so far because this client could not
+     * keep up.
+     */
+    long getDroppedMessageCount();
+
+    /**
+     * @return how many messages, strict and droppable, are waiting to be sent to this client.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return how many bytes have been written to this client's socket so far.
+     */
+    long getBytesSent();
+
+    String getRemoteAddress();
+
+    void close();
+}
@@ -0,0 +1,109 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sent by the client every so often to tell the server how the video stream is getting through.
+ * The timestamp of the newest frame received is echoed back as it was stamped by the server, so
+ * the server can work out how long frames are taking to arrive using only its own clock.
+ */
+public class ClientFeedbackMessage implements ByteableMessage<ClientFeedbackMessage> {
+
+    private final long timestamp;
+
+    // The server's timestamp and sequence number of the newest frame the client has received
+    private final long lastFrameTimestamp;
+    private final long lastFrameSequenceNumber;
+
+    // How many frames the client has received so far
+    private final long framesReceived;
+
+    // Set when the client missed part of a tiled frame and needs a whole one to catch up
+    private final boolean needsKeyframe;
+
+    public ClientFeedbackMessage() {
+        this(-1, -1, -1, -1, false);
+    }
+
+    public ClientFeedbackMessage(long timestamp, long lastFrameTimestamp, long lastFrameSequenceNumber, long framesReceived, boolean needsKeyframe) {
+        this.timestamp = timestamp;
+        this.lastFrameTimestamp = lastFrameTimestamp;
+        this.lastFrameSequenceNumber = lastFrameSequenceNumber;
+        this.framesReceived = framesReceived;
+        this.needsKeyframe = needsKeyframe;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return MessageEncoding.toBytes(this);
+    }
+
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
+
+    private int getMessageLength() {
+        return 8 + 8*3 + 1;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
+
+        // timestamp
+        byteBuffer.putLong(getTimestamp());
+
+        // Bytes
+        byteBuffer.putLong(lastFrameTimestamp);
+        byteBuffer.putLong(lastFrameSequenceNumber);
+        byteBuffer.putLong(framesReceived);
+        byteBuffer.put(needsKeyframe ? (byte)1 : (byte)0);
+    }
+
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
+    }
+
+    @Override
+    public ClientFeedbackMessage fromBytes(byte[] messageBytes) {
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public ClientFeedbackMessage fromBytes(ByteBuffer byteBuffer) {
+        long ts = byteBuffer.getLong();
+        long frameTs = byteBuffer.getLong();
+        long frameSeq = byteBuffer.getLong();
+        long received = byteBuffer.getLong();
+        boolean keyframe = byteBuffer.get() == (byte)1;
+        return new ClientFeedbackMessage(ts, frameTs, frameSeq, received, keyframe);
+    }
+
+    @Override
+    public byte getStartCode() {
+        return 71;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getLastFrameTimestamp() {
+        return lastFrameTimestamp;
+    }
+
+    public long getLastFrameSequenceNumber() {
+        return lastFrameSequenceNumber;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public boolean getNeedsKeyframe() {
+        return needsKeyframe;
+    }
+}
@@ -0,0 +1,160 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * One frame of mono audio compressed with an AudioCodec, usually at a lower sample rate than it
+ * was recorded at. This is sent in place of a PCMFrameMessage, and turned back into one by an
+ * AudioFrameDecoder on arrival.
+ *
+ * The encoded samples may be held in an array borrowed from a ByteArrayPool, which goes back to
+ * it once the message is released for the last time.
+ */
+public class CompressedAudioFrameMessage implements ByteableMessage<CompressedAudioFrameMessage>, ReleasableMessage {
+    private final long timestamp;
+    private final byte codecId;
+    private final int sampleRate;
+    private final int sampleCount;
+    private final byte[] encodedSamples;
+    private final int encodedLength;
+
+    // Where encodedSamples goes back to, or null if it was not borrowed.
+    private final ByteArrayPool byteArrayPool;
+    // Only touched while holding this.
+    private int referenceCount = 1;
+
+    public CompressedAudioFrameMessage() {
+        this(-1, (byte) 0, 0, 0, new byte[0]);
+    }
+
+    public CompressedAudioFrameMessage(long timestamp, byte codecId, int sampleRate, int sampleCount, byte[] encodedSamples) {
+        this(timestamp, codecId, sampleRate, sampleCount, encodedSamples, encodedSamples.length, null);
+    }
+
+    /**
+     * @param encodedLength How many bytes at the start of encodedSamples hold the encoded samples.
+     * @param byteArrayPool The pool encodedSamples was borrowed from, or null if it was not.
+     */
+    public CompressedAudioFrameMessage(long timestamp, byte codecId, int sampleRate, int sampleCount, byte[] encodedSamples, int encodedLength, ByteArrayPool byteArrayPool) {
+        this.timestamp = timestamp;
+        this.codecId = codecId;
+        this.sampleRate = sampleRate;
+        this.sampleCount = sampleCount;
+        this.encodedSamples = encodedSamples;
+        this.encodedLength = encodedLength;
+        this.byteArrayPool = byteArrayPool;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return MessageEncoding.toBytes(this);
+    }
+
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
+
+    private int getMessageLength() {
+        return 8 + 1 + 4 + 4 + encodedLength;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
+
+        // timestamp
+        byteBuffer.putLong(getTimestamp());
+
+        byteBuffer.put(codecId);
+        byteBuffer.putInt(sampleRate);
+        byteBuffer.putInt(sampleCount);
+
+        // The encoded samples follow as the bulk payload
+    }
+
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return ByteBuffer.wrap(encodedSamples, 0, encodedLength);
+    }
+
+    @Override
+    public CompressedAudioFrameMessage fromBytes(byte[] messageBytes) {
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public CompressedAudioFrameMessage fromBytes(ByteBuffer byteBuffer) {
+        long timestamp = byteBuffer.getLong();
+        byte codecId = byteBuffer.get();
+        int sampleRate = byteBuffer.getInt();
+        int sampleCount = byteBuffer.getInt();
+        byte[] encodedSamples = new byte[byteBuffer.remaining()];
+        byteBuffer.get(encodedSamples);
+        return new CompressedAudioFrameMessage(timestamp, codecId, sampleRate, sampleCount, encodedSamples);
+    }
+
+    @Override
+    public byte getStartCode() {
+        return 45;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte getCodecId() {
+        return codecId;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the array holding the encoded samples, of which only the first getEncodedSampleLength()
+     * bytes are used.
+     */
+    public byte[] getEncodedSamples() {
+        return encodedSamples;
+    }
+
+    public int getEncodedSampleLength() {
+        return encodedLength;
+    }
+
+    @Override
+    public synchronized void retain() {
+        if (referenceCount <= 0) {
+            throw new IllegalStateException("Retained " + this + " after it was released!");
+        }
+        referenceCount++;
+    }
+
+    @Override
+    public void release() {
+        synchronized (this) {
+            if (referenceCount <= 0) {
+                throw new IllegalStateException("Released " + this + " more times than it was retained!");
+            }
+            referenceCount--;
+            if (referenceCount > 0) {
+                return;
+            }
+        }
+        if (byteArrayPool != null) {
+            byteArrayPool.release(encodedSamples);
+        }
+    }
+
+    public String toString() {
+        return "CompressedAudioFrameMessage of " + sampleCount + " samples at " + sampleRate + " Hz in "
+                + encodedLength + " bytes and time " + new Date(getTimestamp());
+    }
+}
@@ -0,0 +1,40 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * A frame decoded by a FrameDecodingStage, waiting to be shown. Once something newer is shown in
+ * its place it should be handed back through FrameDecodingStage.release().
+ *
+ * @param <T> The type of image held.
+ */
+public class DecodedFrame<T> {
+    private final T image;
+    private final long timestamp;
+    private final long sequenceNumber;
+    private final boolean isFromTiles;
+
+    DecodedFrame(T image, long timestamp, long sequenceNumber, boolean isFromTiles) {
+        this.image = image;
+        this.timestamp = timestamp;
+        this.sequenceNumber = sequenceNumber;
+        this.isFromTiles = isFromTiles;
+    }
+
+    public T getImage() {
+        return image;
+    }
+
+    /**
+     * @return when the frame was captured, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    boolean isFromTiles() {
+        return isFromTiles;
+    }
+}
@@ -0,0 +1,61 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * One compressed video frame along with what is needed to make sense of it. Nothing here depends
+ * on Android, so frames can be produced, sent and consumed on a plain JVM; converting to and from
+ * platform images is left to FrameEncoder and FrameDecoder implementations.
+ */
+public class EncodedFrame {
+    private final long timestamp;
+    private final long sequenceNumber;
+    private final int width;
+    private final int height;
+    private final int quality;
+    private final byte[] bytes;
+
+    /**
+     * @param timestamp When the frame was captured, in milliseconds since the epoch.
+     * @param sequenceNumber Counts up by one for each frame captured, including skipped ones.
+     * @param width Width of the image in pixels, or 0 if unknown.
+     * @param height Height of the image in pixels, or 0 if unknown.
+     * @param quality The quality the frame was compressed at, from 0 to 100, or -1 if unknown.
+     * @param bytes The compressed image.
+     */
+    public EncodedFrame(long timestamp, long sequenceNumber, int width, int height, int quality, byte[] bytes) {
+        this.timestamp = timestamp;
+        this.sequenceNumber = sequenceNumber;
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+        this.bytes = bytes;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedFrame " + sequenceNumber + " of " + width + "x" + height + " at quality " + quality + ", " + bytes.length + " bytes";
+    }
+}
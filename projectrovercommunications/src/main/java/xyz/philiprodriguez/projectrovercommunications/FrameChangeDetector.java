@@ -0,0 +1,94 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class decides whether a frame is effectively the same as the last frame sent, by comparing
+ * luminance signatures (see LuminanceSampler) rather than pixels. A frame counts as changed if the
+ * average cell differs by more than a small amount, which catches lighting changes and the camera
+ * moving, or if any single cell differs by more than a larger amount, which catches something
+ * small moving in an otherwise still scene. Sensor noise averages out within each cell.
+ *
+ * Comparisons are always against the reference set by setReference(), so a scene that drifts
+ * slowly is still eventually found to have changed.
+ */
+public class FrameChangeDetector {
+    public static final String CLASS_IDENTIFIER = "FrameChangeDetector";
+
+    // A grid of cells with about the aspect ratio of a portrait camera frame.
+    public static final int DEFAULT_COLUMNS = 12;
+    public static final int DEFAULT_ROWS = 16;
+
+    // In luminance levels from 0 to 255
+    public static final double DEFAULT_MEAN_THRESHOLD = 2.0;
+    public static final int DEFAULT_CELL_THRESHOLD = 6;
+
+    private final int columns;
+    private final int rows;
+    private final double meanThreshold;
+    private final int cellThreshold;
+
+    private final int[] reference;
+    private boolean hasReference;
+
+    public FrameChangeDetector() {
+        this(DEFAULT_COLUMNS, DEFAULT_ROWS, DEFAULT_MEAN_THRESHOLD, DEFAULT_CELL_THRESHOLD);
+    }
+
+    public FrameChangeDetector(int columns, int rows, double meanThreshold, int cellThreshold) {
+        this.columns = columns;
+        this.rows = rows;
+        this.meanThreshold = meanThreshold;
+        this.cellThreshold = cellThreshold;
+        this.reference = new int[columns*rows];
+    }
+
+    /**
+     * @return a signature array of the right size for this detector to be filled by a
+     * LuminanceSampler.
+     */
+    public int[] createSignature() {
+        return new int[columns*rows];
+    }
+
+    /**
+     * @return whether the frame with the provided signature is effectively the same as the
+     * reference. With no reference, every frame has changed.
+     */
+    public boolean isUnchanged(int[] signature) {
+        if (!hasReference) {
+            return false;
+        }
+        long totalDifference = 0;
+        for (int i = 0; i < reference.length; i++) {
+            int difference = Math.abs(signature[i] - reference[i]);
+            if (difference > cellThreshold) {
+                return false;
+            }
+            totalDifference += difference;
+        }
+        return totalDifference <= meanThreshold * reference.length;
+    }
+
+    /**
+     * Make the provided signature the one later frames are compared against. This should be the
+     * signature of the last frame actually sent.
+     */
+    public void setReference(int[] signature) {
+        System.arraycopy(signature, 0, reference, 0, reference.length);
+        hasReference = true;
+    }
+
+    /**
+     * Forget the reference, so that the next frame is taken to have changed.
+     */
+    public void reset() {
+        hasReference = false;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+}
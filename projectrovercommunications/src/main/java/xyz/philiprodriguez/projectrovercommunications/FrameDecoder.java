@@ -0,0 +1,20 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * Turns EncodedFrames back into images of some platform specific type. A decoder is only ever
+ * used from one thread at a time, apart from release(), which may be called from any thread.
+ *
+ * @param <T> The type of image produced.
+ */
+public interface FrameDecoder<T> {
+    /**
+     * @return the decoded image, or null if the frame could not be decoded.
+     */
+    T decode(EncodedFrame encodedFrame);
+
+    /**
+     * Called once an image this decoder produced will not be used any more, so that its memory
+     * can be reused for a later frame.
+     */
+    void release(T image);
+}
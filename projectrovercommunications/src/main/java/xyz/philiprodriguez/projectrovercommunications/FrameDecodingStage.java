@@ -0,0 +1,247 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class decodes received video frames on a thread of its own, so that a slow decode never
+ * holds up the thread reading messages off the socket, and hands out only the newest decoded frame
+ * to whoever shows them.
+ *
+ * Frames waiting to be decoded are dropped as soon as something newer makes them pointless. A
+ * whole frame or a keyframe makes everything before it pointless, but a TileFrameMessage that only
+ * carries changes has to be decoded after everything it builds on, so those wait their turn.
+ *
+ * Decoded frames go into a slot of their own, which also only keeps the newest. The
+ * OnFrameDecodedListener is told when the slot fills, and whatever shows the frames takes them
+ * with takeLatestFrame(), for instance once per display refresh. Frames replaced in the slot before
+ * being taken are dropped too.
+ *
+ * @param <T> The type of image produced.
+ */
+public class FrameDecodingStage<T> {
+    public static final String CLASS_IDENTIFIER = "FrameDecodingStage";
+
+    private final FrameDecoder<T> frameDecoder;
+    private final TileFrameDecoder<T> tileFrameDecoder;
+    private final ExecutorService executor;
+
+    // Holds EncodedFrames and TileFrameMessages in the order they arrived.
+    private final ArrayDeque<Object> pendingFrames = new ArrayDeque<>();
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
+    private volatile boolean isShutdown;
+
+    private final AtomicReference<DecodedFrame<T>> latestFrame = new AtomicReference<>(null);
+    private volatile OnFrameDecodedListener onFrameDecodedListener;
+
+    private final AtomicLong droppedBeforeDecodeCount = new AtomicLong(0);
+    private final AtomicLong droppedBeforePresentCount = new AtomicLong(0);
+    private final AtomicLong presentedFrameCount = new AtomicLong(0);
+    private volatile long decodedFrameCount;
+    private volatile long failedFrameCount;
+    private volatile long totalDecodeNanos;
+    private volatile long maxDecodeNanos;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Object pending;
+                synchronized (pendingFrames) {
+                    pending = pendingFrames.pollFirst();
+                    if (pending == null) {
+                        // Cleared while holding the lock, so a submit either sees it cleared and
+                        // schedules another drain, or its frame was already seen here.
+                        isDrainScheduled.set(false);
+                        return;
+                    }
+                }
+                try {
+                    decode(pending);
+                } catch (RuntimeException e) {
+                    // A corrupt frame costs only itself
+                    failedFrameCount++;
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Failed to decode frame: " + e);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param tileFrameDecoder Used for TileFrameMessages, or null if they are not expected.
+     */
+    public FrameDecodingStage(FrameDecoder<T> frameDecoder, TileFrameDecoder<T> tileFrameDecoder, OnFrameDecodedListener onFrameDecodedListener) {
+        this.frameDecoder = frameDecoder;
+        this.tileFrameDecoder = tileFrameDecoder;
+        this.onFrameDecodedListener = onFrameDecodedListener;
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Hand over a whole frame to be decoded. This returns straight away, and anything still
+     * waiting to be decoded is dropped.
+     */
+    public void submit(EncodedFrame encodedFrame) {
+        enqueue(encodedFrame, true);
+    }
+
+    /**
+     * Hand over the changed parts of a frame to be decoded. This returns straight away. A keyframe
+     * drops anything still waiting to be decoded, but other messages are queued up behind it.
+     */
+    public void submit(TileFrameMessage tileFrameMessage) {
+        if (tileFrameDecoder == null) {
+            throw new IllegalStateException("This stage was not given a TileFrameDecoder!");
+        }
+        enqueue(tileFrameMessage, tileFrameMessage.isKeyframe());
+    }
+
+    private void enqueue(Object pending, boolean isSelfContained) {
+        if (isShutdown) {
+            return;
+        }
+        synchronized (pendingFrames) {
+            if (isSelfContained) {
+                droppedBeforeDecodeCount.addAndGet(pendingFrames.size());
+                pendingFrames.clear();
+            }
+            pendingFrames.addLast(pending);
+            if (!isDrainScheduled.getAndSet(true)) {
+                try {
+                    executor.execute(drainTask);
+                } catch (RejectedExecutionException e) {
+                    // Shut down since the check above
+                    pendingFrames.clear();
+                }
+            }
+        }
+    }
+
+    private void decode(Object pending) {
+        long decodeStart = System.nanoTime();
+        DecodedFrame<T> decodedFrame;
+        if (pending instanceof EncodedFrame) {
+            EncodedFrame encodedFrame = (EncodedFrame) pending;
+            T image = frameDecoder.decode(encodedFrame);
+            decodedFrame = image == null ? null : new DecodedFrame<>(image, encodedFrame.getTimestamp(), encodedFrame.getSequenceNumber(), false);
+        } else {
+            TileFrameMessage tileFrameMessage = (TileFrameMessage) pending;
+            T image = tileFrameDecoder.decode(tileFrameMessage);
+            decodedFrame = image == null ? null : new DecodedFrame<>(image, tileFrameMessage.getTimestamp(), tileFrameMessage.getSequenceNumber(), true);
+        }
+        long decodeNanos = System.nanoTime() - decodeStart;
+
+        if (decodedFrame == null) {
+            failedFrameCount++;
+            return;
+        }
+        totalDecodeNanos += decodeNanos;
+        maxDecodeNanos = Math.max(maxDecodeNanos, decodeNanos);
+        decodedFrameCount++;
+
+        DecodedFrame<T> replaced = latestFrame.getAndSet(decodedFrame);
+        if (replaced != null) {
+            // Never shown, and someone has already been told there is a frame waiting
+            droppedBeforePresentCount.incrementAndGet();
+            release(replaced);
+            return;
+        }
+        OnFrameDecodedListener listener = onFrameDecodedListener;
+        if (listener != null) {
+            listener.onFrameDecoded();
+        }
+    }
+
+    /**
+     * @return the newest decoded frame not yet taken, or null if there is none. The frame should
+     * be handed back through release() once something newer is shown in its place.
+     */
+    public DecodedFrame<T> takeLatestFrame() {
+        DecodedFrame<T> decodedFrame = latestFrame.getAndSet(null);
+        if (decodedFrame != null) {
+            presentedFrameCount.incrementAndGet();
+        }
+        return decodedFrame;
+    }
+
+    /**
+     * Give back a frame that is no longer being shown, so that its memory can be reused.
+     */
+    public void release(DecodedFrame<T> decodedFrame) {
+        if (decodedFrame.isFromTiles()) {
+            tileFrameDecoder.release(decodedFrame.getImage());
+        } else {
+            frameDecoder.release(decodedFrame.getImage());
+        }
+    }
+
+    public void setOnFrameDecodedListener(OnFrameDecodedListener onFrameDecodedListener) {
+        this.onFrameDecodedListener = onFrameDecodedListener;
+        // A frame may have been decoded before anyone was listening
+        if (onFrameDecodedListener != null && latestFrame.get() != null) {
+            onFrameDecodedListener.onFrameDecoded();
+        }
+    }
+
+    /**
+     * Stop decoding. Whatever is waiting to be decoded is dropped.
+     */
+    public void shutdown() {
+        isShutdown = true;
+        executor.shutdownNow();
+        synchronized (pendingFrames) {
+            pendingFrames.clear();
+        }
+    }
+
+    public long getDecodedFrameCount() {
+        return decodedFrameCount;
+    }
+
+    /**
+     * @return how many frames could not be decoded, or had nothing to be drawn onto yet.
+     */
+    public long getFailedFrameCount() {
+        return failedFrameCount;
+    }
+
+    /**
+     * @return how many frames were never decoded because something newer arrived first.
+     */
+    public long getDroppedBeforeDecodeCount() {
+        return droppedBeforeDecodeCount.get();
+    }
+
+    /**
+     * @return how many decoded frames were never taken because a newer one was decoded first.
+     */
+    public long getDroppedBeforePresentCount() {
+        return droppedBeforePresentCount.get();
+    }
+
+    public long getPresentedFrameCount() {
+        return presentedFrameCount.get();
+    }
+
+    public double getAverageDecodeMillis() {
+        long count = decodedFrameCount;
+        return count == 0 ? 0 : totalDecodeNanos / 1e6 / count;
+    }
+
+    public double getMaxDecodeMillis() {
+        return maxDecodeNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "Decoded " + getDecodedFrameCount() + " frames, failed " + getFailedFrameCount()
+                + ", presented " + getPresentedFrameCount() + ", dropped " + getDroppedBeforeDecodeCount()
+                + " before decoding and " + getDroppedBeforePresentCount() + " before presenting, decode "
+                + getAverageDecodeMillis() + " ms (max " + getMaxDecodeMillis() + " ms)";
+    }
+}
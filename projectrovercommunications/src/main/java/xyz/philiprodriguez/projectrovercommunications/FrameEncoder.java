@@ -0,0 +1,16 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * Compresses images of some platform specific type into EncodedFrames. An encoder is only ever
+ * used from one thread at a time, so it may reuse buffers between frames.
+ *
+ * @param <T> The type of image handled.
+ */
+public interface FrameEncoder<T> {
+    EncodedFrame encode(T image, int quality, long timestamp, long sequenceNumber);
+
+    /**
+     * Called once an image will not be used any more, whether it was encoded or skipped.
+     */
+    void release(T image);
+}
@@ -0,0 +1,343 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class compresses camera frames on its own executor so that neither the thread capturing
+ * frames nor anything it holds a lock on waits for compression. Frames wait in a single
+ * newest-wins slot: if a frame is submitted while an older one is still waiting, the older one is
+ * released without being compressed, so a slow encode skips frames instead of falling behind.
+ *
+ * If given a LuminanceSampler, frames that look the same as the last one sent are not compressed at
+ * all. A FrameUnchangedMessage is handed out in their place every so often instead, and a full
+ * frame is still sent every so often in case a client missed the last one.
+ *
+ * If also given a RegionEncoder, frames can be sent as TileFrameMessages carrying only the parts
+ * that changed instead, while tiling is turned on with setTiledEnabled().
+ *
+ * Each compressed frame is handed to the OnFrameEncodedListener on the encoding thread.
+ *
+ * @param <T> The type of image captured, which frameEncoder knows how to compress.
+ */
+public class FrameEncodingStage<T> {
+    public static final String CLASS_IDENTIFIER = "FrameEncodingStage";
+
+    // Even a scene that does not change at all is sent this often.
+    private static final long MAX_UNCHANGED_MILLIS = 2000;
+
+    // The least time between FrameUnchangedMessages.
+    private static final long UNCHANGED_MESSAGE_INTERVAL_MILLIS = 250;
+
+    private final FrameEncoder<T> frameEncoder;
+    private final OnFrameEncodedListener onFrameEncodedListener;
+    private final ExecutorService executor;
+
+    private final AtomicReference<PendingFrame<T>> pendingFrame = new AtomicReference<>(null);
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
+    private volatile boolean isShutdown;
+
+    // Read when each frame starts encoding, so a change applies from the next frame on.
+    private volatile int jpegQuality;
+
+    // Null if every frame is to be encoded. Otherwise only touched by the encoding thread, apart
+    // from isFullFrameRequested.
+    private final LuminanceSampler<T> luminanceSampler;
+    private final FrameChangeDetector frameChangeDetector;
+    private final int[] signature;
+    private volatile boolean isFullFrameRequested;
+    private long lastSentCaptureTimeMillis;
+    private long lastSentSequenceNumber = -1;
+    private long lastUnchangedMessageMillis;
+
+    // Null if frames can only be sent whole.
+    private final TileFrameEncoder<T> tileFrameEncoder;
+    private volatile boolean isTiledEnabled;
+
+    private final AtomicLong nextSequenceNumber = new AtomicLong(0);
+    private final AtomicLong droppedFrameCount = new AtomicLong(0);
+
+    // Only written by the encoding thread.
+    private volatile long encodedFrameCount;
+    private volatile long encodedByteCount;
+    private volatile long unchangedFrameCount;
+    private volatile long totalWaitNanos;
+    private volatile long totalEncodeNanos;
+    private volatile long totalPublishNanos;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                PendingFrame<T> frame = pendingFrame.getAndSet(null);
+                if (frame == null) {
+                    isDrainScheduled.set(false);
+                    // A frame may have been submitted after the slot was found empty but before
+                    // the flag was cleared, in which case nobody else scheduled a drain for it.
+                    if (pendingFrame.get() == null || !isDrainScheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    encode(frame);
+                } catch (RuntimeException e) {
+                    // Only this frame is lost, the next one is encoded as usual
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Failed to encode frame " + frame.sequenceNumber + ": " + e);
+                }
+            }
+        }
+    };
+
+    public FrameEncodingStage(FrameEncoder<T> frameEncoder, int jpegQuality, OnFrameEncodedListener onFrameEncodedListener) {
+        this(frameEncoder, null, jpegQuality, onFrameEncodedListener);
+    }
+
+    /**
+     * @param luminanceSampler Used to skip frames that look the same as the last one sent, or null
+     *                         to encode every frame.
+     */
+    public FrameEncodingStage(FrameEncoder<T> frameEncoder, LuminanceSampler<T> luminanceSampler, int jpegQuality, OnFrameEncodedListener onFrameEncodedListener) {
+        this(frameEncoder, luminanceSampler, null, jpegQuality, onFrameEncodedListener);
+    }
+
+    /**
+     * @param luminanceSampler Used to skip frames that look the same as the last one sent, or null
+     *                         to encode every frame.
+     * @param regionEncoder Used to send only the parts of frames that changed while tiling is
+     *                      turned on, or null if frames are always to be sent whole. This needs a
+     *                      luminanceSampler as well.
+     */
+    public FrameEncodingStage(FrameEncoder<T> frameEncoder, LuminanceSampler<T> luminanceSampler, RegionEncoder<T> regionEncoder, int jpegQuality, OnFrameEncodedListener onFrameEncodedListener) {
+        this.frameEncoder = frameEncoder;
+        this.luminanceSampler = luminanceSampler;
+        this.frameChangeDetector = luminanceSampler == null ? null : new FrameChangeDetector();
+        this.signature = luminanceSampler == null ? null : frameChangeDetector.createSignature();
+        this.tileFrameEncoder = luminanceSampler == null || regionEncoder == null ? null : new TileFrameEncoder<>(regionEncoder, luminanceSampler);
+        this.jpegQuality = jpegQuality;
+        this.onFrameEncodedListener = onFrameEncodedListener;
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Hand a frame over to be compressed. This returns straight away. The image belongs to this
+     * stage from here on and is released through the encoder once compressed or skipped.
+     */
+    public void submit(T image) {
+        if (isShutdown) {
+            frameEncoder.release(image);
+            return;
+        }
+        PendingFrame<T> replaced = pendingFrame.getAndSet(new PendingFrame<>(image, System.currentTimeMillis(), nextSequenceNumber.getAndIncrement(), System.nanoTime()));
+        if (replaced != null) {
+            frameEncoder.release(replaced.image);
+            droppedFrameCount.incrementAndGet();
+        }
+        if (isShutdown) {
+            // Shut down since the check above, which may have missed this frame
+            releasePendingFrame();
+            return;
+        }
+        if (isDrainScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Frame submitted while shutting down, ignoring it.");
+                releasePendingFrame();
+            }
+        }
+    }
+
+    /**
+     * Make sure the next frame is sent in full even if nothing has changed, for instance because
+     * a client just connected.
+     */
+    public void requestFullFrame() {
+        isFullFrameRequested = true;
+    }
+
+    /**
+     * Turn sending only the parts of frames that changed on or off. This does nothing if the stage
+     * was not given a RegionEncoder.
+     */
+    public void setTiledEnabled(boolean isTiledEnabled) {
+        if (this.isTiledEnabled != isTiledEnabled) {
+            this.isTiledEnabled = isTiledEnabled;
+            // Whatever the client has is from the other mode, so start over with a whole frame
+            requestFullFrame();
+        }
+    }
+
+    public boolean isTiledEnabled() {
+        return isTiledEnabled && tileFrameEncoder != null;
+    }
+
+    private void encode(PendingFrame<T> frame) {
+        boolean isTiled = isTiledEnabled();
+        long encodeStart = 0;
+        boolean isSkipped = false;
+        JPEGFrameMessage jpegFrameMessage = null;
+        TileFrameMessage tileFrameMessage = null;
+        int encodedBytes = 0;
+        // The image is released whatever happens, even if sampling or compressing it throws
+        try {
+            if (!isTiled && luminanceSampler != null && isUnchanged(frame)) {
+                isSkipped = true;
+            } else if (isTiled) {
+                encodeStart = System.nanoTime();
+                if (isFullFrameRequested) {
+                    isFullFrameRequested = false;
+                    tileFrameEncoder.requestKeyframe();
+                }
+                tileFrameMessage = tileFrameEncoder.encode(frame.image, jpegQuality, frame.captureTimeMillis, frame.sequenceNumber);
+                encodedBytes = tileFrameMessage == null ? 0 : tileFrameMessage.getRegionBytes().length;
+            } else {
+                encodeStart = System.nanoTime();
+                EncodedFrame encodedFrame = frameEncoder.encode(frame.image, jpegQuality, frame.captureTimeMillis, frame.sequenceNumber);
+                jpegFrameMessage = new JPEGFrameMessage(encodedFrame);
+                encodedBytes = encodedFrame.getBytes().length;
+            }
+        } finally {
+            frameEncoder.release(frame.image);
+        }
+        if (isSkipped || (isTiled && tileFrameMessage == null)) {
+            // Nothing, or no tile, changed
+            skipUnchanged(frame);
+            return;
+        }
+        lastSentCaptureTimeMillis = frame.captureTimeMillis;
+        lastSentSequenceNumber = frame.sequenceNumber;
+        lastUnchangedMessageMillis = frame.captureTimeMillis;
+
+        long publishStart = System.nanoTime();
+        if (isTiled) {
+            onFrameEncodedListener.onTileFrameEncoded(tileFrameMessage);
+        } else {
+            onFrameEncodedListener.onFrameEncoded(jpegFrameMessage);
+        }
+        long publishEnd = System.nanoTime();
+
+        totalWaitNanos += encodeStart - frame.submitNanos;
+        totalEncodeNanos += publishStart - encodeStart;
+        totalPublishNanos += publishEnd - publishStart;
+        encodedFrameCount++;
+        encodedByteCount += encodedBytes;
+    }
+
+    private void skipUnchanged(PendingFrame<T> frame) {
+        unchangedFrameCount++;
+        if (frame.captureTimeMillis - lastUnchangedMessageMillis >= UNCHANGED_MESSAGE_INTERVAL_MILLIS) {
+            lastUnchangedMessageMillis = frame.captureTimeMillis;
+            onFrameEncodedListener.onFrameUnchanged(new FrameUnchangedMessage(frame.captureTimeMillis, lastSentSequenceNumber));
+        }
+    }
+
+    // Whether the frame can be skipped. If not, it becomes what later frames are compared against.
+    private boolean isUnchanged(PendingFrame<T> frame) {
+        luminanceSampler.sample(frame.image, frameChangeDetector.getColumns(), frameChangeDetector.getRows(), signature);
+        boolean isDue = isFullFrameRequested || frame.captureTimeMillis - lastSentCaptureTimeMillis >= MAX_UNCHANGED_MILLIS;
+        if (!isDue && frameChangeDetector.isUnchanged(signature)) {
+            return true;
+        }
+        isFullFrameRequested = false;
+        frameChangeDetector.setReference(signature);
+        return false;
+    }
+
+    /**
+     * Stop encoding. Whatever frame is waiting is released without being compressed.
+     */
+    public void shutdown() {
+        isShutdown = true;
+        executor.shutdownNow();
+        releasePendingFrame();
+    }
+
+    private void releasePendingFrame() {
+        PendingFrame<T> frame = pendingFrame.getAndSet(null);
+        if (frame != null) {
+            frameEncoder.release(frame.image);
+        }
+    }
+
+    public void setJpegQuality(int jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    public long getEncodedFrameCount() {
+        return encodedFrameCount;
+    }
+
+    /**
+     * @return how many bytes of compressed frames have been produced so far.
+     */
+    public long getEncodedByteCount() {
+        return encodedByteCount;
+    }
+
+    /**
+     * @return how many frames were not encoded because they looked the same as the last one sent.
+     */
+    public long getUnchangedFrameCount() {
+        return unchangedFrameCount;
+    }
+
+    /**
+     * @return how many frames were skipped because a newer frame arrived before they were encoded.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * @return the average time from a frame being submitted to its compression starting.
+     */
+    public double getAverageWaitMillis() {
+        return averageMillis(totalWaitNanos);
+    }
+
+    public double getAverageEncodeMillis() {
+        return averageMillis(totalEncodeNanos);
+    }
+
+    /**
+     * @return the average time taken to hand a compressed frame to the sender(s).
+     */
+    public double getAveragePublishMillis() {
+        return averageMillis(totalPublishNanos);
+    }
+
+    private double averageMillis(long totalNanos) {
+        long count = encodedFrameCount;
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return "Encoded " + getEncodedFrameCount() + " frames, " + getUnchangedFrameCount() + " unchanged, skipped " + getDroppedFrameCount()
+                + ", wait " + getAverageWaitMillis() + " ms, encode " + getAverageEncodeMillis()
+                + " ms, publish " + getAveragePublishMillis() + " ms";
+    }
+
+    private static class PendingFrame<T> {
+        private final T image;
+        private final long captureTimeMillis;
+        private final long sequenceNumber;
+        private final long submitNanos;
+
+        private PendingFrame(T image, long captureTimeMillis, long sequenceNumber, long submitNanos) {
+            this.image = image;
+            this.captureTimeMillis = captureTimeMillis;
+            this.sequenceNumber = sequenceNumber;
+            this.submitNanos = submitNanos;
+        }
+    }
+}
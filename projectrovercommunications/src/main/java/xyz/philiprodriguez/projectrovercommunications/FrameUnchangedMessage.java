@@ -0,0 +1,82 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sent in place of a frame that looked the same as the last one sent, so the client knows the
+ * picture it is showing is still current and the stream has not stalled.
+ */
+public class FrameUnchangedMessage implements ByteableMessage<FrameUnchangedMessage> {
+
+    // When the unchanged frame was captured
+    private final long timestamp;
+
+    // The sequence number of the last frame actually sent, which is what the client should still
+    // be showing
+    private final long lastFrameSequenceNumber;
+
+    public FrameUnchangedMessage() {
+        this(-1, -1);
+    }
+
+    public FrameUnchangedMessage(long timestamp, long lastFrameSequenceNumber) {
+        this.timestamp = timestamp;
+        this.lastFrameSequenceNumber = lastFrameSequenceNumber;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return MessageEncoding.toBytes(this);
+    }
+
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
+
+    private int getMessageLength() {
+        return 8 + 8;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
+
+        // timestamp
+        byteBuffer.putLong(getTimestamp());
+
+        // Bytes
+        byteBuffer.putLong(lastFrameSequenceNumber);
+    }
+
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
+    }
+
+    @Override
+    public FrameUnchangedMessage fromBytes(byte[] messageBytes) {
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public FrameUnchangedMessage fromBytes(ByteBuffer byteBuffer) {
+        long ts = byteBuffer.getLong();
+        long seq = byteBuffer.getLong();
+        return new FrameUnchangedMessage(ts, seq);
+    }
+
+    @Override
+    public byte getStartCode() {
+        return 6;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getLastFrameSequenceNumber() {
+        return lastFrameSequenceNumber;
+    }
+}
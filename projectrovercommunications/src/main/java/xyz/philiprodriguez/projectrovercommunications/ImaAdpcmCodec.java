@@ -0,0 +1,124 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * The IMA ADPCM codec, which stores each 16 bit sample as a 4 bit step from a prediction of it,
+ * with the step size adapting to how loud the audio is. Each frame starts with the predictor and
+ * step index it was encoded from, so frames decode on their own even though the encoder carries
+ * both over from one frame to the next.
+ */
+public class ImaAdpcmCodec implements AudioCodec {
+    public static final byte CODEC_ID = 1;
+
+    // Predicted sample as a short, then step index as a byte
+    private static final int HEADER_LENGTH = 3;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    // Only used when encoding.
+    private int predictor;
+    private int stepIndex;
+
+    @Override
+    public byte getCodecId() {
+        return CODEC_ID;
+    }
+
+    @Override
+    public int getMaxEncodedLength(int sampleCount) {
+        return HEADER_LENGTH + (sampleCount + 1) / 2;
+    }
+
+    @Override
+    public int encode(short[] samples, int offset, int sampleCount, byte[] out) {
+        out[0] = (byte) (predictor >> 8);
+        out[1] = (byte) predictor;
+        out[2] = (byte) stepIndex;
+        int outIndex = HEADER_LENGTH;
+        for (int i = 0; i < sampleCount; i++) {
+            int step = STEP_TABLE[stepIndex];
+            int diff = samples[offset + i] - predictor;
+            int code = 0;
+            if (diff < 0) {
+                code = 8;
+                diff = -diff;
+            }
+            // Work out the 3 magnitude bits, and the difference they actually decode to
+            int delta = step >> 3;
+            if (diff >= step) {
+                code |= 4;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                code |= 2;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                code |= 1;
+                delta += step;
+            }
+            predictor = clampSample((code & 8) != 0 ? predictor - delta : predictor + delta);
+            stepIndex = clampStepIndex(stepIndex + INDEX_TABLE[code & 7]);
+
+            // Two samples to a byte, the first in the low bits
+            if ((i & 1) == 0) {
+                out[outIndex] = (byte) code;
+            } else {
+                out[outIndex++] |= (byte) (code << 4);
+            }
+        }
+        return HEADER_LENGTH + (sampleCount + 1) / 2;
+    }
+
+    @Override
+    public void decode(byte[] encoded, int sampleCount, short[] out) {
+        if (encoded.length < getMaxEncodedLength(sampleCount)) {
+            throw new IllegalStateException("Expected " + getMaxEncodedLength(sampleCount) + " bytes for " + sampleCount + " samples but got " + encoded.length + "!");
+        }
+        int predictor = (short) (((encoded[0] & 0xFF) << 8) | (encoded[1] & 0xFF));
+        int stepIndex = clampStepIndex(encoded[2]);
+        for (int i = 0; i < sampleCount; i++) {
+            int packed = encoded[HEADER_LENGTH + i/2];
+            int code = (i & 1) == 0 ? packed & 0x0F : (packed >> 4) & 0x0F;
+            int step = STEP_TABLE[stepIndex];
+            int delta = step >> 3;
+            if ((code & 4) != 0) {
+                delta += step;
+            }
+            if ((code & 2) != 0) {
+                delta += step >> 1;
+            }
+            if ((code & 1) != 0) {
+                delta += step >> 2;
+            }
+            predictor = clampSample((code & 8) != 0 ? predictor - delta : predictor + delta);
+            stepIndex = clampStepIndex(stepIndex + INDEX_TABLE[code & 7]);
+            out[i] = (short) predictor;
+        }
+    }
+
+    private static int clampSample(int sample) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+
+    private static int clampStepIndex(int stepIndex) {
+        return Math.max(0, Math.min(STEP_TABLE.length - 1, stepIndex));
+    }
+}
@@ -0,0 +1,182 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * This class keeps images that are no longer in use so that later frames of the same size can be
+ * put into them, rather than allocating a new image for every frame and leaving the old one to the
+ * garbage collector. Images are grouped by width, height and config. Only a handful of sizes are
+ * ever in use at once, so the groups are found by searching a short list, which unlike a map
+ * lookup allocates nothing.
+ *
+ * Once maxImages are held, releasing another image makes room by throwing away one from the
+ * group used least recently, or the image itself if that is its own group.
+ *
+ * @param <T> The type of image pooled.
+ * @param <C> The type describing how an image stores its pixels.
+ */
+public abstract class ImagePool<T, C> {
+    private final int maxImages;
+
+    // Most recently used first. Only touched while holding this.
+    private final ArrayList<Bucket<T, C>> buckets = new ArrayList<>();
+    private int heldImageCount;
+
+    private long hitCount;
+    private long missCount;
+    private long discardCount;
+
+    /**
+     * @param maxImages The most images held at once, or 0 to hold none so that every image is
+     *                  newly allocated.
+     */
+    protected ImagePool(int maxImages) {
+        this.maxImages = maxImages;
+    }
+
+    /**
+     * @return an image of the given size and config, either one released earlier or a new one.
+     * Its contents are whatever was last put into it.
+     */
+    public T acquire(int width, int height, C config) {
+        synchronized (this) {
+            Bucket<T, C> bucket = findBucket(width, height, config);
+            if (bucket != null && !bucket.images.isEmpty()) {
+                hitCount++;
+                heldImageCount--;
+                return bucket.images.pollLast();
+            }
+            missCount++;
+        }
+        return create(width, height, config);
+    }
+
+    /**
+     * Hand back an image that is no longer in use. It must not be touched afterwards.
+     */
+    public void release(T image) {
+        T discarded = null;
+        if (!isReusable(image)) {
+            discarded = image;
+        } else {
+            synchronized (this) {
+                Bucket<T, C> bucket = findBucket(getWidth(image), getHeight(image), getConfig(image));
+                if (bucket == null) {
+                    bucket = new Bucket<>(getWidth(image), getHeight(image), getConfig(image));
+                    buckets.add(0, bucket);
+                }
+                if (heldImageCount >= maxImages) {
+                    discarded = evictFromOtherThan(bucket);
+                }
+                if (heldImageCount < maxImages) {
+                    bucket.images.addLast(image);
+                    heldImageCount++;
+                } else {
+                    discarded = image;
+                    if (bucket.images.isEmpty()) {
+                        buckets.remove(bucket);
+                    }
+                }
+            }
+        }
+        if (discarded != null) {
+            synchronized (this) {
+                discardCount++;
+            }
+            discard(discarded);
+        }
+    }
+
+    // Moves the bucket found to the front, since it is about to be used.
+    private Bucket<T, C> findBucket(int width, int height, C config) {
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket<T, C> bucket = buckets.get(i);
+            if (bucket.width == width && bucket.height == height && bucket.config == config) {
+                if (i > 0) {
+                    buckets.remove(i);
+                    buckets.add(0, bucket);
+                }
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    // Returns null if every image held is in the bucket to keep.
+    private T evictFromOtherThan(Bucket<T, C> keep) {
+        for (int i = buckets.size() - 1; i >= 0; i--) {
+            Bucket<T, C> bucket = buckets.get(i);
+            if (bucket != keep && !bucket.images.isEmpty()) {
+                T evicted = bucket.images.pollFirst();
+                heldImageCount--;
+                if (bucket.images.isEmpty()) {
+                    buckets.remove(i);
+                }
+                return evicted;
+            }
+        }
+        return null;
+    }
+
+    protected abstract T create(int width, int height, C config);
+
+    protected abstract int getWidth(T image);
+
+    protected abstract int getHeight(T image);
+
+    protected abstract C getConfig(T image);
+
+    /**
+     * @return whether the image can be handed out again, rather than thrown away.
+     */
+    protected abstract boolean isReusable(T image);
+
+    /**
+     * Called for images the pool will not hold on to.
+     */
+    protected abstract void discard(T image);
+
+    /**
+     * @return how many acquires were handed an image released earlier.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return how many acquires had to allocate a new image.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return how many released images were thrown away.
+     */
+    public synchronized long getDiscardCount() {
+        return discardCount;
+    }
+
+    public synchronized int getHeldImageCount() {
+        return heldImageCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return hitCount + " hits, " + missCount + " misses, " + discardCount + " discarded, " + heldImageCount + " held";
+    }
+
+    private static class Bucket<T, C> {
+        private final int width;
+        private final int height;
+        private final C config;
+        private final ArrayDeque<T> images = new ArrayDeque<>();
+
+        private Bucket(int width, int height, C config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+    }
+}
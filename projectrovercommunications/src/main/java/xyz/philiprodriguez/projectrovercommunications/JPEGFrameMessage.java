@@ -1,73 +1,77 @@
 package xyz.philiprodriguez.projectrovercommunications;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Date;
 
 public class JPEGFrameMessage implements ByteableMessage<JPEGFrameMessage> {
-    private final long timestamp;
-    private final byte[] frameBytes;
+    private final EncodedFrame encodedFrame;
 
     public JPEGFrameMessage() {
         this(-1, null);
     }
 
     public JPEGFrameMessage(long timestamp, byte[] frameBytes) {
-        this.timestamp = timestamp;
-        this.frameBytes = frameBytes;
+        this(new EncodedFrame(timestamp, -1, 0, 0, -1, frameBytes));
     }
 
-    public JPEGFrameMessage(long timestamp, Bitmap bitmap, int jpegQuality) {
-        this.timestamp = timestamp;
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, byteArrayOutputStream);
-        this.frameBytes = byteArrayOutputStream.toByteArray();
+    public JPEGFrameMessage(EncodedFrame encodedFrame) {
+        this.encodedFrame = encodedFrame;
     }
 
-    public Bitmap getImage() {
-        return BitmapFactory.decodeByteArray(frameBytes, 0, frameBytes.length);
+    public EncodedFrame getEncodedFrame() {
+        return encodedFrame;
     }
 
     @Override
     public byte[] getBytes() {
-        int extraLength = 8 + frameBytes.length;
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(ReceiverThread.START_SEQUENCE.length + 1 + 4 + extraLength);
+        return MessageEncoding.toBytes(this);
+    }
 
-        // Start sequence
-        for (int i = 0; i < ReceiverThread.START_SEQUENCE.length; i++) {
-            byteBuffer.put(ReceiverThread.START_SEQUENCE[i]);
-        }
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
 
-        // Start code
-        byteBuffer.put(getStartCode());
+    private int getMessageLength() {
+        return 8 + 8 + 4 + 4 + 4 + encodedFrame.getBytes().length;
+    }
 
-        // Message length
-        byteBuffer.putInt(extraLength);
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
 
         // timestamp
         byteBuffer.putLong(getTimestamp());
 
-        // Frame bytes
-        for (int i = 0; i < frameBytes.length; i++) {
-            byteBuffer.put(frameBytes[i]);
-        }
+        // frame metadata
+        byteBuffer.putLong(encodedFrame.getSequenceNumber());
+        byteBuffer.putInt(encodedFrame.getWidth());
+        byteBuffer.putInt(encodedFrame.getHeight());
+        byteBuffer.putInt(encodedFrame.getQuality());
 
-        return byteBuffer.array();
+        // The frame bytes follow as the bulk payload
+    }
+
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return ByteBuffer.wrap(encodedFrame.getBytes());
     }
 
     @Override
     public JPEGFrameMessage fromBytes(byte[] messageBytes) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(messageBytes);
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public JPEGFrameMessage fromBytes(ByteBuffer byteBuffer) {
         long timestamp = byteBuffer.getLong();
-        byte[] frameBytes = new byte[messageBytes.length - 8];
-        for (int i = 0; i < frameBytes.length; i++) {
-            frameBytes[i] = byteBuffer.get();
-        }
-        return new JPEGFrameMessage(timestamp, frameBytes);
+        long sequenceNumber = byteBuffer.getLong();
+        int width = byteBuffer.getInt();
+        int height = byteBuffer.getInt();
+        int quality = byteBuffer.getInt();
+        byte[] frameBytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(frameBytes);
+        return new JPEGFrameMessage(new EncodedFrame(timestamp, sequenceNumber, width, height, quality, frameBytes));
     }
 
     @Override
@@ -77,10 +81,10 @@ public class JPEGFrameMessage implements ByteableMessage<JPEGFrameMessage> {
 
     @Override
     public long getTimestamp() {
-        return timestamp;
+        return encodedFrame.getTimestamp();
     }
 
     public String toString() {
-        return "JPEGFrameMessage of size " + frameBytes.length + " and time " + new Date(getTimestamp());
+        return "JPEGFrameMessage of size " + encodedFrame.getBytes().length + " and time " + new Date(getTimestamp());
     }
 }
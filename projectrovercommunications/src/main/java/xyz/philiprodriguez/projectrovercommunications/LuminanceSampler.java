@@ -0,0 +1,16 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * Reduces images of some platform specific type to a coarse grid of average luminance values,
+ * which is enough to tell whether anything in the scene has changed without compressing it. A
+ * sampler is only ever used from one thread at a time, so it may reuse buffers between images.
+ *
+ * @param <T> The type of image handled.
+ */
+public interface LuminanceSampler<T> {
+    /**
+     * Divide the image into columns by rows cells and fill signature, row by row, with the average
+     * luminance of each cell from 0 to 255.
+     */
+    void sample(T image, int columns, int rows, int[] signature);
+}
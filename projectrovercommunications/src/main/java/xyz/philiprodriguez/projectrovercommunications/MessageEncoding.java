@@ -0,0 +1,44 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers shared by all ByteableMessage implementations for laying out the frame header, which is
+ * the start sequence, the start code and the message length, in that order.
+ */
+public final class MessageEncoding {
+    // Number of bytes that come before the message bytes of every frame.
+    public static final int HEADER_LENGTH = ReceiverThread.START_SEQUENCE.length + 1 + 4;
+
+    private MessageEncoding() {
+    }
+
+    /**
+     * Write the frame header for a message with the provided start code and message length.
+     */
+    public static void writeHeader(ByteBuffer byteBuffer, byte startCode, int messageLength) {
+        // Start sequence
+        byteBuffer.put(ReceiverThread.START_SEQUENCE);
+
+        // Start code
+        byteBuffer.put(startCode);
+
+        // Message length
+        byteBuffer.putInt(messageLength);
+    }
+
+    /**
+     * Encode a whole message into a freshly allocated array. This exists so that getBytes() can be
+     * kept around for anything that still wants the message as a single array, but SenderThread
+     * no longer goes through it.
+     */
+    public static byte[] toBytes(ByteableMessage message) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(message.getEncodedLength());
+        message.writeTo(byteBuffer);
+        ByteBuffer bulkPayload = message.getBulkPayload();
+        if (bulkPayload != null) {
+            byteBuffer.put(bulkPayload);
+        }
+        return byteBuffer.array();
+    }
+}
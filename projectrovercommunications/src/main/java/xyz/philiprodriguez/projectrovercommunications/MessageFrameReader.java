@@ -0,0 +1,190 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class reads framed messages (start sequence, start code, message length and then the
+ * message bytes) off of an InputStream. Reads are done in bulk into a single reusable buffer, and
+ * the message bytes of each frame are handed out as a ByteBuffer view over that buffer, so in the
+ * steady state no memory is allocated per frame.
+ *
+ * The view returned by getPayload() is only valid until the next call to readFrame(), so decoders
+ * must copy out anything they want to keep.
+ */
+public class MessageFrameReader {
+    public static final String CLASS_IDENTIFIER = "MessageFrameReader";
+
+    // Size of the buffer when first created. It grows if a bigger message comes through.
+    private static final int INITIAL_BUFFER_SIZE = 64*1024;
+
+    // Start code byte plus the four byte message length.
+    private static final int HEADER_LENGTH = 1 + 4;
+
+    // Failure function of ReceiverThread.START_SEQUENCE for the KMP style scan in findStartSequence.
+    private static final int[] START_SEQUENCE_FAILURE = computeFailure(ReceiverThread.START_SEQUENCE);
+
+    private final InputStream inputStream;
+
+    // Bytes in [bufferPosition, bufferLimit) have been read from the stream but not consumed yet.
+    private byte[] buffer;
+    private int bufferPosition;
+    private int bufferLimit;
+
+    // A view over buffer that is repositioned for each frame instead of wrapping a new one.
+    private ByteBuffer payloadView;
+
+    private int startCode;
+    private long bufferAllocations;
+
+    public MessageFrameReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+        allocateBuffer(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Blocks until the next complete frame has been read. Frames with an invalid message size are
+     * logged and skipped.
+     *
+     * @return true if a frame was read, or false if the stream was closed.
+     * @throws IOException If reading from the underlying stream fails.
+     */
+    public boolean readFrame() throws IOException {
+        while (true) {
+            if (!findStartSequence()) {
+                return false;
+            }
+
+            if (!ensureAvailable(HEADER_LENGTH)) {
+                return false;
+            }
+            startCode = buffer[bufferPosition] & 0xFF;
+            int messageSize = ((buffer[bufferPosition + 1] & 0xFF) << 24)
+                    | ((buffer[bufferPosition + 2] & 0xFF) << 16)
+                    | ((buffer[bufferPosition + 3] & 0xFF) << 8)
+                    | (buffer[bufferPosition + 4] & 0xFF);
+            bufferPosition += HEADER_LENGTH;
+
+            if (messageSize < 0 || messageSize >= ReceiverThread.MAX_MESSAGE_SIZE) {
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Invalid message size of " + messageSize + "!");
+                continue;
+            }
+
+            if (!ensureAvailable(messageSize)) {
+                return false;
+            }
+            payloadView.limit(bufferPosition + messageSize);
+            payloadView.position(bufferPosition);
+            bufferPosition += messageSize;
+            return true;
+        }
+    }
+
+    /**
+     * @return the start code of the frame last read by readFrame().
+     */
+    public int getStartCode() {
+        return startCode;
+    }
+
+    /**
+     * @return a view of the message bytes of the frame last read by readFrame(). The view is only
+     * valid until the next call to readFrame().
+     */
+    public ByteBuffer getPayload() {
+        return payloadView;
+    }
+
+    /**
+     * @return the number of times the internal buffer has been allocated, including the initial
+     * allocation. This only goes up when a message bigger than any seen so far comes through.
+     */
+    public long getBufferAllocations() {
+        return bufferAllocations;
+    }
+
+    // Consumes bytes up to and including the next occurrence of the start sequence. Returns false
+    // if the stream closed first.
+    private boolean findStartSequence() throws IOException {
+        byte[] startSequence = ReceiverThread.START_SEQUENCE;
+        int matched = 0;
+        while (true) {
+            if (bufferPosition >= bufferLimit && !ensureAvailable(1)) {
+                return false;
+            }
+            while (bufferPosition < bufferLimit) {
+                matched = advanceStartSequenceMatch(matched, buffer[bufferPosition++]);
+                if (matched == startSequence.length) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Given that the last matched bytes seen were the start of the start sequence, return how many
+     * bytes of the start sequence are matched once next is seen as well.
+     */
+    static int advanceStartSequenceMatch(int matched, byte next) {
+        byte[] startSequence = ReceiverThread.START_SEQUENCE;
+        while (matched > 0 && next != startSequence[matched]) {
+            matched = START_SEQUENCE_FAILURE[matched - 1];
+        }
+        if (next == startSequence[matched]) {
+            matched++;
+        }
+        return matched;
+    }
+
+    // Makes sure at least count unconsumed bytes are sitting contiguously in the buffer, reading
+    // from the stream in bulk as needed. Returns false if the stream closed first.
+    private boolean ensureAvailable(int count) throws IOException {
+        if (bufferLimit - bufferPosition >= count) {
+            return true;
+        }
+
+        if (count > buffer.length) {
+            byte[] old = buffer;
+            allocateBuffer(Math.max(Integer.highestOneBit(count - 1) << 1, count));
+            System.arraycopy(old, bufferPosition, buffer, 0, bufferLimit - bufferPosition);
+            bufferLimit -= bufferPosition;
+            bufferPosition = 0;
+        } else if (count > buffer.length - bufferPosition) {
+            System.arraycopy(buffer, bufferPosition, buffer, 0, bufferLimit - bufferPosition);
+            bufferLimit -= bufferPosition;
+            bufferPosition = 0;
+        }
+
+        while (bufferLimit - bufferPosition < count) {
+            int read = inputStream.read(buffer, bufferLimit, buffer.length - bufferLimit);
+            if (read < 0) {
+                // The stream is closed!
+                return false;
+            }
+            bufferLimit += read;
+        }
+        return true;
+    }
+
+    private void allocateBuffer(int size) {
+        buffer = new byte[size];
+        payloadView = ByteBuffer.wrap(buffer);
+        bufferAllocations++;
+    }
+
+    private static int[] computeFailure(byte[] pattern) {
+        int[] failure = new int[pattern.length];
+        int matched = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (matched > 0 && pattern[i] != pattern[matched]) {
+                matched = failure[matched - 1];
+            }
+            if (pattern[i] == pattern[matched]) {
+                matched++;
+            }
+            failure[i] = matched;
+        }
+        return failure;
+    }
+}
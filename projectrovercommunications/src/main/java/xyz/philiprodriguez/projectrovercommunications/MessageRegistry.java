@@ -0,0 +1,197 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class maps the start code of a received message to the decoder for that message type and
+ * the listener that should be handed the decoded message. Lookup is a single array access, so
+ * dispatching a message does not depend on how many message types are registered and does not
+ * allocate anything beyond the decoded message itself.
+ *
+ * New message types can be registered at any time, from any thread.
+ */
+public class MessageRegistry {
+    public static final String CLASS_IDENTIFIER = "MessageRegistry";
+
+    private static final int START_CODE_COUNT = 256;
+
+    // Indexed by start code. Each entry is replaced as a whole so that a receiving thread always
+    // sees a decoder and listener that belong together.
+    private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(START_CODE_COUNT);
+
+    /**
+     * @return a registry with all of the built in message types registered, without listeners.
+     */
+    public static MessageRegistry createDefault() {
+        MessageRegistry messageRegistry = new MessageRegistry();
+        messageRegistry.register(new JPEGFrameMessage(), null);
+        messageRegistry.register(new MotorStateMessage(), null);
+        messageRegistry.register(new ArmPositionMessage(), null);
+        messageRegistry.register(new ServerSettingsMessage(), null);
+        messageRegistry.register(new ServerStateMessage(), null);
+        messageRegistry.register(new PCMFrameMessage(), null);
+        messageRegistry.register(new ClientFeedbackMessage(), null);
+        messageRegistry.register(new FrameUnchangedMessage(), null);
+        messageRegistry.register(new TileFrameMessage(), null);
+        messageRegistry.register(new CompressedAudioFrameMessage(), null);
+        messageRegistry.register(new AudioSilenceMessage(), null);
+        return messageRegistry;
+    }
+
+    /**
+     * Register a message type, replacing whatever was registered under its start code.
+     *
+     * @param decoder Any instance of the message type, used to decode received messages.
+     * @param listener The listener to hand decoded messages to, or null to have messages of this
+     *                 type skipped without being decoded.
+     */
+    public <T> void register(ByteableMessage<T> decoder, OnMessageReceivedListener<? super T> listener) {
+        entries.set(decoder.getStartCode() & 0xFF, new Entry(decoder, listener));
+    }
+
+    /**
+     * @return whether some message type is registered under the provided start code.
+     */
+    public boolean isRegistered(int startCode) {
+        return entries.get(startCode & 0xFF) != null;
+    }
+
+    /**
+     * Decode the message bytes according to the provided start code and pass the message on to
+     * the registered listener, if there is one.
+     *
+     * @return false if no message type is registered under the start code.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean dispatch(int startCode, ByteBuffer messageBytes) {
+        Entry entry = entries.get(startCode & 0xFF);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.listener != null) {
+            entry.listener.onMessageReceived(entry.decoder.fromBytes(messageBytes));
+        }
+        return true;
+    }
+
+    /*
+        Convenience methods for hooking up the listener interfaces of the built in message types.
+     */
+
+    public void setOnServerStateMessageReceivedListener(final OnServerStateMessageReceivedListener onServerStateMessageReceivedListener) {
+        register(new ServerStateMessage(), onServerStateMessageReceivedListener == null ? null : new OnMessageReceivedListener<ServerStateMessage>() {
+            @Override
+            public void onMessageReceived(ServerStateMessage message) {
+                onServerStateMessageReceivedListener.OnServerStateMessageReceived(message);
+            }
+        });
+    }
+
+    public void setOnFrameReceivedListener(final OnFrameReceivedListener onFrameReceivedListener) {
+        // The listener keeps the bitmaps, so none are ever given back to be pooled
+        final BitmapFrameDecoder bitmapFrameDecoder = new BitmapFrameDecoder(new BitmapPool(0));
+        register(new JPEGFrameMessage(), onFrameReceivedListener == null ? null : new OnMessageReceivedListener<JPEGFrameMessage>() {
+            @Override
+            public void onMessageReceived(JPEGFrameMessage message) {
+                onFrameReceivedListener.OnFrameReceived(bitmapFrameDecoder.decode(message.getEncodedFrame()));
+            }
+        });
+    }
+
+    public void setOnMotorStateMessageReceivedListener(final OnMotorStateMessageReceivedListener onMotorStateMessageReceivedListener) {
+        register(new MotorStateMessage(), onMotorStateMessageReceivedListener == null ? null : new OnMessageReceivedListener<MotorStateMessage>() {
+            @Override
+            public void onMessageReceived(MotorStateMessage message) {
+                onMotorStateMessageReceivedListener.OnMotorStateMessageReceived(message);
+            }
+        });
+    }
+
+    public void setOnArmPositionMessageReceivedListener(final OnArmPositionMessageReceivedListener onArmPositionMessageReceivedListener) {
+        register(new ArmPositionMessage(), onArmPositionMessageReceivedListener == null ? null : new OnMessageReceivedListener<ArmPositionMessage>() {
+            @Override
+            public void onMessageReceived(ArmPositionMessage message) {
+                onArmPositionMessageReceivedListener.OnArmPositionMessageReceived(message);
+            }
+        });
+    }
+
+    public void setOnServerSettingsMessageReceivedListener(final OnServerSettingsMessageReceivedListener onServerSettingsMessageReceivedListener) {
+        register(new ServerSettingsMessage(), onServerSettingsMessageReceivedListener == null ? null : new OnMessageReceivedListener<ServerSettingsMessage>() {
+            @Override
+            public void onMessageReceived(ServerSettingsMessage message) {
+                onServerSettingsMessageReceivedListener.OnServerSettingsMessageReceived(message);
+            }
+        });
+    }
+
+    /**
+     * The listener is also handed CompressedAudioFrameMessages, decoded back into PCMFrameMessages
+     * at PCMFrameMessage.SAMPLE_RATE.
+     */
+    public void setOnPCMFrameMessageReceivedListener(final OnPCMFrameMessageReceivedListener onPCMFrameMessageReceivedListener) {
+        register(new PCMFrameMessage(), onPCMFrameMessageReceivedListener == null ? null : new OnMessageReceivedListener<PCMFrameMessage>() {
+            @Override
+            public void onMessageReceived(PCMFrameMessage message) {
+                onPCMFrameMessageReceivedListener.onPCMFrameMessageReceived(message);
+            }
+        });
+        final AudioFrameDecoder audioFrameDecoder = new AudioFrameDecoder(PCMFrameMessage.SAMPLE_RATE);
+        register(new CompressedAudioFrameMessage(), onPCMFrameMessageReceivedListener == null ? null : new OnMessageReceivedListener<CompressedAudioFrameMessage>() {
+            @Override
+            public void onMessageReceived(CompressedAudioFrameMessage message) {
+                PCMFrameMessage pcmFrameMessage = audioFrameDecoder.decode(message);
+                if (pcmFrameMessage != null) {
+                    onPCMFrameMessageReceivedListener.onPCMFrameMessageReceived(pcmFrameMessage);
+                }
+            }
+        });
+    }
+
+    public void setOnAudioSilenceMessageReceivedListener(final OnAudioSilenceMessageReceivedListener onAudioSilenceMessageReceivedListener) {
+        register(new AudioSilenceMessage(), onAudioSilenceMessageReceivedListener == null ? null : new OnMessageReceivedListener<AudioSilenceMessage>() {
+            @Override
+            public void onMessageReceived(AudioSilenceMessage message) {
+                onAudioSilenceMessageReceivedListener.onAudioSilenceMessageReceived(message);
+            }
+        });
+    }
+
+    public void setOnClientFeedbackMessageReceivedListener(final OnClientFeedbackMessageReceivedListener onClientFeedbackMessageReceivedListener) {
+        register(new ClientFeedbackMessage(), onClientFeedbackMessageReceivedListener == null ? null : new OnMessageReceivedListener<ClientFeedbackMessage>() {
+            @Override
+            public void onMessageReceived(ClientFeedbackMessage message) {
+                onClientFeedbackMessageReceivedListener.onClientFeedbackMessageReceived(message);
+            }
+        });
+    }
+
+    public void setOnFrameUnchangedMessageReceivedListener(final OnFrameUnchangedMessageReceivedListener onFrameUnchangedMessageReceivedListener) {
+        register(new FrameUnchangedMessage(), onFrameUnchangedMessageReceivedListener == null ? null : new OnMessageReceivedListener<FrameUnchangedMessage>() {
+            @Override
+            public void onMessageReceived(FrameUnchangedMessage message) {
+                onFrameUnchangedMessageReceivedListener.onFrameUnchangedMessageReceived(message);
+            }
+        });
+    }
+
+    public void setOnTileFrameMessageReceivedListener(final OnTileFrameMessageReceivedListener onTileFrameMessageReceivedListener) {
+        register(new TileFrameMessage(), onTileFrameMessageReceivedListener == null ? null : new OnMessageReceivedListener<TileFrameMessage>() {
+            @Override
+            public void onMessageReceived(TileFrameMessage message) {
+                onTileFrameMessageReceivedListener.onTileFrameMessageReceived(message);
+            }
+        });
+    }
+
+    private static class Entry {
+        private final ByteableMessage decoder;
+        private final OnMessageReceivedListener listener;
+
+        private Entry(ByteableMessage decoder, OnMessageReceivedListener listener) {
+            this.decoder = decoder;
+            this.listener = listener;
+        }
+    }
+}
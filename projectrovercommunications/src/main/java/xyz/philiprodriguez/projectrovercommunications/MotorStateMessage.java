@@ -38,22 +38,30 @@ public class MotorStateMessage implements ByteableMessage<MotorStateMessage> {
         return rightForward;
     }
 
+    /**
+     * @return whether this message turns every motor off.
+     */
+    public boolean isStop() {
+        return leftForward == 0 && leftBackward == 0 && rightForward == 0 && rightBackward == 0;
+    }
+
     @Override
     public byte[] getBytes() {
-        int extraLength = 8 + 4*4;
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(ReceiverThread.START_SEQUENCE.length + 1 + 4 + extraLength);
+        return MessageEncoding.toBytes(this);
+    }
 
-        // Start sequence
-        for (int i = 0; i < ReceiverThread.START_SEQUENCE.length; i++) {
-            byteBuffer.put(ReceiverThread.START_SEQUENCE[i]);
-        }
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
 
-        // Start code
-        byteBuffer.put(getStartCode());
+    private int getMessageLength() {
+        return 8 + 4*4;
+    }
 
-        // Message length
-        byteBuffer.putInt(extraLength);
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
 
         // timestamp
         byteBuffer.putLong(getTimestamp());
@@ -63,14 +71,20 @@ public class MotorStateMessage implements ByteableMessage<MotorStateMessage> {
         byteBuffer.putInt(leftBackward);
         byteBuffer.putInt(rightForward);
         byteBuffer.putInt(rightBackward);
+    }
 
-
-        return byteBuffer.array();
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
     }
 
     @Override
     public MotorStateMessage fromBytes(byte[] messageBytes) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(messageBytes);
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public MotorStateMessage fromBytes(ByteBuffer byteBuffer) {
         long timestamp = byteBuffer.getLong();
         int lf = byteBuffer.getInt();
         int lb = byteBuffer.getInt();
@@ -0,0 +1,101 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue that any number of threads may offer to but only one thread may poll from. No
+ * locks are taken on either side: producers claim a slot with a single compare and set, and each
+ * slot carries a sequence number so the consumer can tell when the element in it is ready.
+ *
+ * @param <T> The type of element held.
+ */
+public class MpscRingBuffer<T> {
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+
+    // For the slot that index i maps to, sequences holds i when the slot is free for the producer
+    // claiming index i, and i + 1 once that producer has published its element.
+    private final AtomicLongArray sequences;
+
+    // Next index to be claimed by a producer.
+    private final AtomicLong tail = new AtomicLong(0);
+
+    // Next index to be polled. Only written by the consumer.
+    private volatile long head = 0;
+
+    /**
+     * @param minimumCapacity The ring is sized to the next power of two at or above this.
+     */
+    public MpscRingBuffer(int minimumCapacity) {
+        if (minimumCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive!");
+        }
+        this.capacity = minimumCapacity == 1 ? 1 : Integer.highestOneBit(minimumCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element, from any thread.
+     *
+     * @return false if the ring was full, in which case nothing was added.
+     */
+    public boolean offer(T element) {
+        long index;
+        while (true) {
+            index = tail.get();
+            long difference = sequences.get((int) index & mask) - index;
+            if (difference == 0) {
+                if (tail.compareAndSet(index, index + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                // The consumer has not freed this slot from the last time around yet
+                return false;
+            }
+            // Otherwise another producer claimed this index first, so try the next one
+        }
+        int slot = (int) index & mask;
+        slots.set(slot, element);
+        sequences.set(slot, index + 1);
+        return true;
+    }
+
+    /**
+     * Remove the oldest element. Must only ever be called from the one consumer thread.
+     *
+     * @return the element, or null if there is none ready.
+     */
+    public T poll() {
+        long index = head;
+        int slot = (int) index & mask;
+        if (sequences.get(slot) != index + 1) {
+            return null;
+        }
+        T element = slots.get(slot);
+        slots.set(slot, null);
+        sequences.lazySet(slot, index + capacity);
+        head = index + 1;
+        return element;
+    }
+
+    /**
+     * @return roughly how many elements are waiting. Elements still being published by a producer
+     * are counted too.
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnAudioSilenceMessageReceivedListener {
+    void onAudioSilenceMessageReceived(AudioSilenceMessage message);
+}
@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnClientConnectedListener {
+    void onClientConnected(ClientConnection clientConnection);
+}
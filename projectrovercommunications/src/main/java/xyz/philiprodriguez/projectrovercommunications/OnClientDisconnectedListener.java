@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnClientDisconnectedListener {
+    void onClientDisconnected(ClientConnection clientConnection);
+}
@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnClientFeedbackMessageReceivedListener {
+    void onClientFeedbackMessageReceived(ClientFeedbackMessage message);
+}
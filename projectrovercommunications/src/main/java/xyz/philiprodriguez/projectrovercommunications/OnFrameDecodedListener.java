@@ -0,0 +1,9 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnFrameDecodedListener {
+    /**
+     * Called on the decoding thread when a decoded frame becomes ready to be taken from the
+     * FrameDecodingStage, but not again for newer frames until that one has been taken.
+     */
+    void onFrameDecoded();
+}
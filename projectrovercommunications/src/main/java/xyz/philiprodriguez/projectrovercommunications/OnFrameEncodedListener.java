@@ -0,0 +1,17 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnFrameEncodedListener {
+    void onFrameEncoded(JPEGFrameMessage jpegFrameMessage);
+
+    /**
+     * Called instead of onFrameEncoded while the stage is sending only the parts of frames that
+     * changed.
+     */
+    void onTileFrameEncoded(TileFrameMessage tileFrameMessage);
+
+    /**
+     * Called instead of onFrameEncoded, at a limited rate, while frames are being skipped for
+     * looking the same as the last one sent.
+     */
+    void onFrameUnchanged(FrameUnchangedMessage frameUnchangedMessage);
+}
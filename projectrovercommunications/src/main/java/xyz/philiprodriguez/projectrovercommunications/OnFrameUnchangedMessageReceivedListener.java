@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnFrameUnchangedMessageReceivedListener {
+    void onFrameUnchangedMessageReceived(FrameUnchangedMessage message);
+}
@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnMessageReceivedListener<T> {
+    void onMessageReceived(T message);
+}
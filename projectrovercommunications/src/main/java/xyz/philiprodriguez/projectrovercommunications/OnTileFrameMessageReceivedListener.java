@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+public interface OnTileFrameMessageReceivedListener {
+    void onTileFrameMessageReceived(TileFrameMessage message);
+}
@@ -5,6 +5,9 @@ import java.util.Date;
 
 // Message containing one "frame" of audio 8-bit PCM data
 public class PCMFrameMessage implements ByteableMessage<PCMFrameMessage>{
+    // The rate audio is recorded and played back at on both ends
+    public static final int SAMPLE_RATE = 44100;
+
     private final long timestamp;
     private final short[] pcmValues;
 
@@ -23,40 +26,45 @@ public class PCMFrameMessage implements ByteableMessage<PCMFrameMessage>{
 
     @Override
     public byte[] getBytes() {
-        int extraLength = 8 + 2*pcmValues.length;
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(ReceiverThread.START_SEQUENCE.length + 1 + 4 + extraLength);
+        return MessageEncoding.toBytes(this);
+    }
 
-        // Start sequence
-        for (int i = 0; i < ReceiverThread.START_SEQUENCE.length; i++) {
-            byteBuffer.put(ReceiverThread.START_SEQUENCE[i]);
-        }
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
 
-        // Start code
-        byteBuffer.put(getStartCode());
+    private int getMessageLength() {
+        return 8 + 2*pcmValues.length;
+    }
 
-        // Message length
-        byteBuffer.putInt(extraLength);
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
 
         // timestamp
         byteBuffer.putLong(getTimestamp());
 
         // Frame bytes
-        for (int i = 0; i < pcmValues.length; i++) {
-            byteBuffer.putShort(pcmValues[i]);
-        }
+        byteBuffer.asShortBuffer().put(pcmValues);
+        byteBuffer.position(byteBuffer.position() + 2*pcmValues.length);
+    }
 
-        return byteBuffer.array();
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
     }
 
     @Override
     public PCMFrameMessage fromBytes(byte[] messageBytes) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(messageBytes);
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public PCMFrameMessage fromBytes(ByteBuffer byteBuffer) {
         long timestamp = byteBuffer.getLong();
-        short[] pcmValues = new short[(messageBytes.length - 8)/2];
-        for (int i = 0; i < pcmValues.length; i++) {
-            pcmValues[i] = byteBuffer.getShort();
-        }
+        short[] pcmValues = new short[byteBuffer.remaining()/2];
+        byteBuffer.asShortBuffer().get(pcmValues);
         return new PCMFrameMessage(timestamp, pcmValues);
     }
 
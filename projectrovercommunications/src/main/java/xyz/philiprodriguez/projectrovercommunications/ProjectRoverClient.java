@@ -1,7 +1,11 @@
 package xyz.philiprodriguez.projectrovercommunications;
 
+import android.graphics.Bitmap;
+
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -13,6 +17,9 @@ public class ProjectRoverClient {
     // The class identifier, just for logging purposes.
     public static final String CLASS_IDENTIFIER = "ProjectRoverClient";
 
+    // The least time between two ClientFeedbackMessages.
+    private static final long FEEDBACK_INTERVAL_MILLIS = 250;
+
     // The address and port of the server this client was constructed to connect to
     private final String address;
     private final int port;
@@ -26,6 +33,20 @@ public class ProjectRoverClient {
     private final ReceiverThread receiverThread;
     private final SenderThread senderThread;
 
+    // Frames are decoded here rather than on the receiverThread, so that a slow decode does not
+    // hold up other messages. Decoded frames are put into bitmaps from the pool.
+    private final BitmapPool bitmapPool;
+    private final FrameDecodingStage<Bitmap> frameDecodingStage;
+
+    // Recorded audio is brought down to a voice sample rate and compressed before being sent.
+    // Carries filter and codec state between frames, so only used while holding it. Frames are
+    // encoded into arrays from the pool, which go back to it once sent or dropped.
+    private final ByteArrayPool audioByteArrayPool = new ByteArrayPool();
+    private final AudioFrameEncoder audioFrameEncoder = new AudioFrameEncoder(PCMFrameMessage.SAMPLE_RATE, audioByteArrayPool);
+    // Decides which recorded frames are worth sending, as the server's settings say. Also only
+    // used while holding audioFrameEncoder.
+    private final VoiceActivityDetector voiceActivityDetector = new VoiceActivityDetector(PCMFrameMessage.SAMPLE_RATE);
+
     // A boolean representing whether or not this client has been "killed". Killed, in this case,
     // means that both the inThread and outThread have been interrupted, and the client socket has
     // been closed.
@@ -41,6 +62,10 @@ public class ProjectRoverClient {
     // sensor information of the robot, etc.
     private volatile ServerStateMessage latestServerStateMessage;
 
+    // Only touched by the receiverThread, for reporting back how frames are arriving.
+    private long framesReceived;
+    private long lastFeedbackMillis;
+    private long lastTileFrameSequenceNumber = -1;
 
     /**
      * This not only constructs the object but also does the following:
@@ -65,7 +90,12 @@ public class ProjectRoverClient {
         this.perceivedServerSettings = new ServerSettings();
 
         GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Attempting to connect to server...");
-        this.clientSocket = new Socket(address, port);
+        InetSocketAddress serverAddress = new InetSocketAddress(address, port);
+        if (serverAddress.isUnresolved()) {
+            throw new IOException("Failed to resolve server address " + address);
+        }
+        // Connected through a SocketChannel so that the senderThread can use gathering writes.
+        this.clientSocket = SocketChannel.open(serverAddress).socket();
         this.clientSocket.setSoTimeout(5000);
 
         receiverThread = new ReceiverThread(clientSocket, new OnThreadFinishedListener() {
@@ -88,6 +118,26 @@ public class ProjectRoverClient {
             }
         }, 10);
 
+        bitmapPool = new BitmapPool();
+        frameDecodingStage = new FrameDecodingStage<>(new BitmapFrameDecoder(bitmapPool), new BitmapTileCompositor(bitmapPool), null);
+        getMessageRegistry().register(new JPEGFrameMessage(), new OnMessageReceivedListener<JPEGFrameMessage>() {
+            @Override
+            public void onMessageReceived(JPEGFrameMessage message) {
+                onFrameMessageReceived(message.getEncodedFrame());
+                frameDecodingStage.submit(message.getEncodedFrame());
+            }
+        });
+        getMessageRegistry().register(new TileFrameMessage(), new OnMessageReceivedListener<TileFrameMessage>() {
+            @Override
+            public void onMessageReceived(TileFrameMessage message) {
+                onTileFrameMessageReceived(message);
+                frameDecodingStage.submit(message);
+            }
+        });
+
+        // Frames are always reported back on, even before anyone is listening for them
+        setOnFrameUnchangedMessageReceivedListener(null);
+
         senderThread.start();
         receiverThread.start();
     }
@@ -112,6 +162,9 @@ public class ProjectRoverClient {
         if (senderThread != null) {
             senderThread.interrupt();
         }
+        if (frameDecodingStage != null) {
+            frameDecodingStage.shutdown();
+        }
         if (!isKilled.getAndSet(true)) {
             if (onClientConnectionKilledListener != null) {
                 onClientConnectionKilledListener.OnClientConnectionKilled();
@@ -147,12 +200,76 @@ public class ProjectRoverClient {
         }
     }
 
+    /**
+     * @return the registry that received messages are dispatched through, on which additional
+     * message types can be registered.
+     */
+    public MessageRegistry getMessageRegistry() {
+        return receiverThread.getMessageRegistry();
+    }
+
     public void setOnPCMFrameMessageReceivedListener(OnPCMFrameMessageReceivedListener onPCMFrameMessageReceivedListener) {
         this.receiverThread.setOnPCMFrameMessageReceivedListener(onPCMFrameMessageReceivedListener);
     }
 
-    public void setOnFrameReceivedListener(OnFrameReceivedListener onFrameReceivedListener) {
-        this.receiverThread.setOnFrameReceivedListener(onFrameReceivedListener);
+    public void setOnAudioSilenceMessageReceivedListener(OnAudioSilenceMessageReceivedListener onAudioSilenceMessageReceivedListener) {
+        this.receiverThread.setOnAudioSilenceMessageReceivedListener(onAudioSilenceMessageReceivedListener);
+    }
+
+    /**
+     * Set the listener told when a newly decoded frame is waiting to be taken from
+     * getFrameDecodingStage(). It is called on the decoding thread.
+     */
+    public void setOnFrameDecodedListener(OnFrameDecodedListener onFrameDecodedListener) {
+        frameDecodingStage.setOnFrameDecodedListener(onFrameDecodedListener);
+    }
+
+    public FrameDecodingStage<Bitmap> getFrameDecodingStage() {
+        return frameDecodingStage;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Set the listener told whenever the server skips sending a frame because the scene has not
+     * changed, meaning the last frame received is still current.
+     */
+    public void setOnFrameUnchangedMessageReceivedListener(final OnFrameUnchangedMessageReceivedListener onFrameUnchangedMessageReceivedListener) {
+        getMessageRegistry().register(new FrameUnchangedMessage(), new OnMessageReceivedListener<FrameUnchangedMessage>() {
+            @Override
+            public void onMessageReceived(FrameUnchangedMessage message) {
+                sendFeedback(message.getTimestamp(), message.getLastFrameSequenceNumber(), false);
+                if (onFrameUnchangedMessageReceivedListener != null) {
+                    onFrameUnchangedMessageReceivedListener.onFrameUnchangedMessageReceived(message);
+                }
+            }
+        });
+    }
+
+    private void onFrameMessageReceived(EncodedFrame encodedFrame) {
+        framesReceived++;
+        sendFeedback(encodedFrame.getTimestamp(), encodedFrame.getSequenceNumber(), false);
+    }
+
+    private void onTileFrameMessageReceived(TileFrameMessage message) {
+        framesReceived++;
+        // If the frame this one builds on never arrived, part of the picture stays wrong until
+        // the next keyframe, so ask for one now rather than waiting
+        boolean isMissingReference = !message.isKeyframe() && message.getReferenceSequenceNumber() != lastTileFrameSequenceNumber;
+        lastTileFrameSequenceNumber = message.getSequenceNumber();
+        sendFeedback(message.getTimestamp(), message.getSequenceNumber(), isMissingReference);
+    }
+
+    // Lets the server know how frames are getting through, so that it can adapt the video stream.
+    // This is sent as soon as a frame arrives so the server can tell how long the frame took.
+    private void sendFeedback(long frameTimestamp, long frameSequenceNumber, boolean needsKeyframe) {
+        long now = System.currentTimeMillis();
+        if (needsKeyframe || now - lastFeedbackMillis >= FEEDBACK_INTERVAL_MILLIS) {
+            lastFeedbackMillis = now;
+            senderThread.enqueueLatest(new ClientFeedbackMessage(now, frameTimestamp, frameSequenceNumber, framesReceived, needsKeyframe));
+        }
     }
 
     public void setOnClientConnectionKilledListener(OnClientConnectionKilledListener onClientConnectionKilledListener) {
@@ -163,20 +280,57 @@ public class ProjectRoverClient {
         this.receiverThread.setOnServerStateMessageReceivedListener(onServerStateMessageReceivedListener);
     }
 
+    /**
+     * Only the newest motor state waiting to be sent is kept, so that after a stall the rover is
+     * not driven through a backlog of stale commands. Stops are always delivered.
+     */
     public void doEnqueueMotorStateMessage(MotorStateMessage motorStateMessage) {
-        senderThread.enqueueStrict(motorStateMessage);
+        senderThread.enqueueLatest(motorStateMessage, motorStateMessage.isStop());
     }
 
     public void doEnqueueServerSettingsMessage(ServerSettingsMessage serverSettingsMessage) {
         senderThread.enqueueStrict(serverSettingsMessage);
     }
 
+    /**
+     * Only the newest arm position waiting to be sent is kept.
+     */
     public void doEnqueueArmPositionMessage(ArmPositionMessage armPositionMessage) {
-        senderThread.enqueueStrict(armPositionMessage);
+        senderThread.enqueueLatest(armPositionMessage);
     }
 
+    /**
+     * Send a frame of audio recorded at PCMFrameMessage.SAMPLE_RATE, compressed for voice. The
+     * samples are encoded before this returns, so pcmValues can be recorded into again straight
+     * away. Frames with nobody talking in them are sent as just an AudioSilenceMessage, when
+     * voice activity detection is turned on in the ServerSettings.
+     */
     public void doEnqueueAudioFrame(short[] pcmValues) {
-        senderThread.enqueueDroppable(new PCMFrameMessage(System.currentTimeMillis(), pcmValues));
+        long timestamp = System.currentTimeMillis();
+        CompressedAudioFrameMessage compressedAudioFrameMessage = null;
+        AudioSilenceMessage audioSilenceMessage = null;
+        synchronized (audioFrameEncoder) {
+            voiceActivityDetector.setEnabled(perceivedServerSettings.getVoiceActivityDetectionEnabled());
+            voiceActivityDetector.setThresholdDb(perceivedServerSettings.getVoiceActivityThresholdDb());
+            voiceActivityDetector.setHangoverMillis(perceivedServerSettings.getVoiceActivityHangoverMillis());
+            if (voiceActivityDetector.isSpeech(pcmValues, 0, pcmValues.length)) {
+                compressedAudioFrameMessage = audioFrameEncoder.encode(timestamp, pcmValues);
+            } else {
+                audioSilenceMessage = new AudioSilenceMessage(timestamp, PCMFrameMessage.SAMPLE_RATE, pcmValues.length, voiceActivityDetector.getNoiseLevel());
+            }
+        }
+        if (compressedAudioFrameMessage != null) {
+            senderThread.enqueueDroppable(compressedAudioFrameMessage);
+        } else {
+            senderThread.enqueueDroppable(audioSilenceMessage);
+        }
+    }
+
+    /**
+     * @return the sender used for this connection, for tuning batching and reading its metrics.
+     */
+    public SenderThread getSenderThread() {
+        return senderThread;
     }
 
     public ServerSettings getPerceivedServerSettings() {
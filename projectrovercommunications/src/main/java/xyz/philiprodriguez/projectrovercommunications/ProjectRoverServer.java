@@ -3,24 +3,45 @@ package xyz.philiprodriguez.projectrovercommunications;
 import android.graphics.Bitmap;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ProjectRoverServer {
     // A class identifier just for logging purposes.
     public static final String CLASS_IDENTIFIER = "ProjectRoverServer";
 
+    // Capture size used when adaptive video is turned off.
+    public static final int DEFAULT_CAPTURE_WIDTH = 360;
+    public static final int DEFAULT_CAPTURE_HEIGHT = 480;
+
+    // What the video rate controller aims for, and how often it is updated.
+    private static final int VIDEO_TARGET_FPS = 20;
+    private static final long VIDEO_LATENCY_BUDGET_MILLIS = 300;
+    private static final long VIDEO_RATE_UPDATE_PERIOD_MILLIS = 500;
+
     // This is the port on which the server is running.
     private final int port;
 
-    // Listeners to be attached to the underlying receiverThread once it is started
-    private volatile OnMotorStateMessageReceivedListener onMotorStateMessageReceivedListener;
-    private volatile OnArmPositionMessageReceivedListener onArmPositionMessageReceivedListener;
+    // Messages received from clients are dispatched through this registry no matter which
+    // transport is in use, so listeners can be set at any time.
+    private final MessageRegistry messageRegistry;
+
+    // Listeners to be attached to each client's receiverThread once it is started
     private volatile OnLoggableEventListener onLoggableEventListener;
     private volatile OnServerSettingsMessageReceivedListener onServerSettingsMessageReceivedListener;
-    private volatile OnPCMFrameMessageReceivedListener onPCMFrameMessageReceivedListener;
 
     // This is the container for the server's current client-mutable settings.
     private final ServerSettings serverSettings;
@@ -28,79 +49,191 @@ public class ProjectRoverServer {
     // This represents whether or not the server is in the killed state.
     private final AtomicBoolean isKilled;
 
+    // Used when serving each client with its own ReceiverThread and SenderThread.
     private volatile ServerSocket serverSocket;
     private final Thread connectorThread;
-    private volatile ReceiverThread receiverThread;
-    private volatile SenderThread senderThread;
-
-    private volatile Socket clientSocket;
-    private final AtomicBoolean isClientConnected;
+    private final List<ThreadedClientConnection> threadedClientConnections;
+    // Connections closed by killClientConnection, until waitForKillClientConnection has joined
+    // their threads. Closing one takes it out of threadedClientConnections straight away.
+    private final List<ThreadedClientConnection> closingClientConnections;
+
+    // Used instead of all of the above when serving clients from a single selector thread.
+    private final SelectorServerTransport selectorServerTransport;
+
+    // Compresses camera frames off of the capturing thread and fans them out to every client.
+    // Frames are captured into bitmaps from the pool, which go back to it once compressed.
+    private final BitmapPool bitmapPool;
+    private final FrameEncodingStage<Bitmap> frameEncodingStage;
+
+    // Recorded audio is brought down to a voice sample rate and compressed before being sent.
+    // Carries filter and codec state between frames, so only used while holding it. Frames are
+    // encoded into arrays from the pool, which go back to it once sent or dropped.
+    private final ByteArrayPool audioByteArrayPool = new ByteArrayPool();
+    private final AudioFrameEncoder audioFrameEncoder = new AudioFrameEncoder(PCMFrameMessage.SAMPLE_RATE, audioByteArrayPool);
+    // Decides which recorded frames are worth sending. Also only used while holding
+    // audioFrameEncoder.
+    private final VoiceActivityDetector voiceActivityDetector = new VoiceActivityDetector(PCMFrameMessage.SAMPLE_RATE);
+
+    // Picks the JPEG quality and capture size from how well frames are getting through, when
+    // adaptive video is turned on.
+    private final VideoRateController videoRateController;
+    private final ScheduledExecutorService videoRateExecutor;
+
+    // The worst latency reported by any client since the last rate update, or -1 if none.
+    private final AtomicLong worstReportedLatencyMillis = new AtomicLong(-1);
+
+    // Only touched by the videoRateExecutor. Counters of each client, {bytes sent, messages
+    // dropped}, as of the last rate update.
+    private Map<ClientConnection, long[]> lastClientCounters = new IdentityHashMap<>();
+    private long lastEncodedFrameCount;
+    private long lastEncodedByteCount;
+    private long lastRateUpdateNanos = System.nanoTime();
 
     public ProjectRoverServer(final int port, final ServerSettings serverSettings) {
+        this(port, serverSettings, false);
+    }
+
+    /**
+     * @param useSelectorTransport If true, clients are served by a SelectorServerTransport, which
+     *                             handles any number of clients from a single thread. Otherwise
+     *                             each client is served by its own ReceiverThread and
+     *                             SenderThread.
+     */
+    public ProjectRoverServer(final int port, final ServerSettings serverSettings, boolean useSelectorTransport) {
         this.port = port;
         this.serverSettings = serverSettings;
         this.isKilled = new AtomicBoolean(false);
-        this.isClientConnected = new AtomicBoolean(false);
+        this.threadedClientConnections = new CopyOnWriteArrayList<>();
+        this.closingClientConnections = new CopyOnWriteArrayList<>();
+
+        this.videoRateController = new VideoRateController(VIDEO_TARGET_FPS, VIDEO_LATENCY_BUDGET_MILLIS, serverSettings.getJpegQuality());
+        this.bitmapPool = new BitmapPool();
+        this.frameEncodingStage = new FrameEncodingStage<>(new BitmapFrameEncoder(bitmapPool), new BitmapLuminanceSampler(), new BitmapRegionEncoder(), getJpegQuality(), new OnFrameEncodedListener() {
+            @Override
+            public void onFrameEncoded(JPEGFrameMessage jpegFrameMessage) {
+                enqueueDroppable(jpegFrameMessage);
+            }
+
+            @Override
+            public void onTileFrameEncoded(TileFrameMessage tileFrameMessage) {
+                // A client that misses one of these asks for a keyframe
+                enqueueDroppable(tileFrameMessage);
+            }
+
+            @Override
+            public void onFrameUnchanged(FrameUnchangedMessage frameUnchangedMessage) {
+                // Only the newest one means anything
+                enqueueLatest(frameUnchangedMessage);
+            }
+        });
+        this.frameEncodingStage.setTiledEnabled(serverSettings.getTiledVideoEnabled());
+
+        this.messageRegistry = MessageRegistry.createDefault();
+        this.messageRegistry.setOnServerSettingsMessageReceivedListener(new OnServerSettingsMessageReceivedListener() {
+            @Override
+            public void OnServerSettingsMessageReceived(ServerSettingsMessage serverSettingsMessage) {
+                // Update our ServerSettings
+                serverSettings.setFromServerSettings(serverSettingsMessage.getServerSettings());
+                frameEncodingStage.setJpegQuality(getJpegQuality());
+                frameEncodingStage.setTiledEnabled(serverSettings.getTiledVideoEnabled());
+
+                // Pass through
+                if (onServerSettingsMessageReceivedListener != null) {
+                    onServerSettingsMessageReceivedListener.OnServerSettingsMessageReceived(serverSettingsMessage);
+                }
+            }
+        });
+        this.messageRegistry.setOnClientFeedbackMessageReceivedListener(new OnClientFeedbackMessageReceivedListener() {
+            @Override
+            public void onClientFeedbackMessageReceived(ClientFeedbackMessage message) {
+                // The frame timestamp is our own, so no clock skew between devices gets in here
+                if (message.getNeedsKeyframe()) {
+                    frameEncodingStage.requestFullFrame();
+                }
+                long latencyMillis = System.currentTimeMillis() - message.getLastFrameTimestamp();
+                while (true) {
+                    long worst = worstReportedLatencyMillis.get();
+                    if (latencyMillis <= worst || worstReportedLatencyMillis.compareAndSet(worst, latencyMillis)) {
+                        break;
+                    }
+                }
+            }
+        });
 
+        this.videoRateExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.videoRateExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    updateVideoRate();
+                } catch (RuntimeException e) {
+                    // Anything escaping here would silently cancel all future updates
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Failed to update video rate: " + e);
+                }
+            }
+        }, VIDEO_RATE_UPDATE_PERIOD_MILLIS, VIDEO_RATE_UPDATE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (useSelectorTransport) {
+            connectorThread = null;
+            try {
+                selectorServerTransport = new SelectorServerTransport(port, messageRegistry, 10, new OnClientConnectedListener() {
+                    @Override
+                    public void onClientConnected(ClientConnection clientConnection) {
+                        // Send out an initial ServerSettings message to let the client know where we are at!
+                        clientConnection.enqueueStrict(new ServerSettingsMessage(System.currentTimeMillis(), serverSettings));
+
+                        // The new client has no picture yet, even if the scene has not changed
+                        frameEncodingStage.requestFullFrame();
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new IllegalStateException("Failed to start server!", e);
+            }
+            return;
+        }
+
+        selectorServerTransport = null;
         connectorThread = new Thread(new Runnable() {
             @Override
             public void run() {
                 GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Server connectorThread starting...");
                 try {
-                    serverSocket = new ServerSocket(port);
+                    // Accepted through a ServerSocketChannel so that each client socket has a
+                    // channel the senderThread can use for gathering writes.
+                    ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+                    serverSocket = serverSocketChannel.socket();
+                    serverSocket.bind(new InetSocketAddress(port));
 
                     while (!Thread.currentThread().isInterrupted()) {
-                        isClientConnected.set(false);
-
                         // Accept client
                         GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Server connectorThread listening on port " + port + "...");
-                        Socket cs = serverSocket.accept();
+                        Socket clientSocket = serverSocketChannel.accept().socket();
                         GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Accepted client on socket " + clientSocket);
-                        clientSocket = cs;
 
-
-                        receiverThread = new ReceiverThread(clientSocket, new OnThreadFinishedListener() {
-                            @Override
-                            public void onThreadFinished() {
-                                killClientConnection();
-                            }
-                        });
-                        receiverThread.setOnServerSettingsMessageReceivedListener(new OnServerSettingsMessageReceivedListener() {
+                        ThreadedClientConnection clientConnection = new ThreadedClientConnection(clientSocket, messageRegistry, 10, new OnClientDisconnectedListener() {
                             @Override
-                            public void OnServerSettingsMessageReceived(ServerSettingsMessage serverSettingsMessage) {
-                                // Update our ServerSettings
-                                serverSettings.setFromServerSettings(serverSettingsMessage.getServerSettings());
-
-                                // Pass through
-                                if (onServerSettingsMessageReceivedListener != null) {
-                                    onServerSettingsMessageReceivedListener.OnServerSettingsMessageReceived(serverSettingsMessage);
-                                }
+                            public void onClientDisconnected(ClientConnection clientConnection) {
+                                threadedClientConnections.remove(clientConnection);
                             }
                         });
-                        receiverThread.setOnLoggableEventListener(onLoggableEventListener);
-                        receiverThread.setOnMotorStateMessageReceivedListener(onMotorStateMessageReceivedListener);
-                        receiverThread.setOnArmPositionMessageReceivedListener(onArmPositionMessageReceivedListener);
-                        receiverThread.setOnPCMFrameMessageReceivedListener(onPCMFrameMessageReceivedListener);
-
-                        senderThread = new SenderThread(clientSocket, new OnThreadFinishedListener() {
-                            @Override
-                            public void onThreadFinished() {
-                                killClientConnection();
-                            }
-                        }, 10);
-
-                        receiverThread.start();
-                        senderThread.start();
-                        isClientConnected.set(true);
+                        clientConnection.setOnLoggableEventListener(onLoggableEventListener);
+                        threadedClientConnections.add(clientConnection);
+                        clientConnection.start();
 
                         // Send out an initial ServerSettings message to let the client know where we are at!
-                        senderThread.enqueueStrict(new ServerSettingsMessage(System.currentTimeMillis(), serverSettings));
+                        clientConnection.enqueueStrict(new ServerSettingsMessage(System.currentTimeMillis(), serverSettings));
 
-                        waitForKillClientConnection();
+                        // The new client has no picture yet, even if the scene has not changed
+                        frameEncodingStage.requestFullFrame();
                     }
                 } catch (SocketException e) {
                     GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Socket exception occurred...");
                     e.printStackTrace();
+                } catch (AsynchronousCloseException e) {
+                    // This is how accept() ends when killServer closes the channel under it.
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Server socket closed while accepting...");
+                    e.printStackTrace();
                 } catch (IOException e) {
                     e.printStackTrace();
                     throw new IllegalStateException("Failed to start server!", e);
@@ -114,28 +247,29 @@ public class ProjectRoverServer {
         connectorThread.start();
     }
 
+    /**
+     * Close every client connection. The server keeps accepting new clients.
+     */
     public void killClientConnection() {
-        GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Killing client connection...");
-        if (receiverThread != null)
-            receiverThread.interrupt();
-        if (senderThread != null)
-            senderThread.interrupt();
-        try {
-            clientSocket.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Killing client connections...");
+        if (selectorServerTransport != null) {
+            selectorServerTransport.closeAllConnections();
+            return;
+        }
+        for (ThreadedClientConnection clientConnection : threadedClientConnections) {
+            closingClientConnections.add(clientConnection);
+            clientConnection.close();
         }
     }
 
     public void waitForKillClientConnection() {
         GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "waitForKillClientConnection called!");
         try {
-            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.EXCESS, "Joining receiverThread");
-            if (receiverThread != null)
-                receiverThread.join();
-            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.EXCESS, "Joining senderThread");
-            if (senderThread != null)
-                senderThread.join();
+            for (ThreadedClientConnection clientConnection : closingClientConnections) {
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.EXCESS, "Joining threads of " + clientConnection.getRemoteAddress());
+                clientConnection.waitForClose();
+                closingClientConnections.remove(clientConnection);
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
             GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.EXCESS, "waitForKillClientConnection interrupted!");
@@ -146,6 +280,13 @@ public class ProjectRoverServer {
 
     public void killServer() {
         GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Killing server...");
+        frameEncodingStage.shutdown();
+        videoRateExecutor.shutdownNow();
+        if (selectorServerTransport != null) {
+            selectorServerTransport.kill();
+            isKilled.set(true);
+            return;
+        }
         killClientConnection();
         connectorThread.interrupt();
         try {
@@ -158,8 +299,12 @@ public class ProjectRoverServer {
     }
     public void waitForKillServer() {
         try {
-            waitForKillClientConnection();
+            if (selectorServerTransport != null) {
+                selectorServerTransport.waitForKill();
+                return;
+            }
             connectorThread.join();
+            waitForKillClientConnection();
         } catch (InterruptedException e) {
             e.printStackTrace();
             throw new IllegalStateException("Failed to kill server!", e);
@@ -168,37 +313,192 @@ public class ProjectRoverServer {
         }
     }
 
-    public synchronized boolean isKilled() {
+    public boolean isKilled() {
         return isKilled.get();
     }
 
-    public synchronized void doEnqueueImageAndRecycleBitmap(Bitmap bitmap) {
-        if (!isKilled() && isClientConnected.get()) {
-            JPEGFrameMessage jpegFrameMessage = new JPEGFrameMessage(System.currentTimeMillis(), bitmap, serverSettings.getJpegQuality());
-            senderThread.enqueueDroppable(jpegFrameMessage);
-            bitmap.recycle();
+    /**
+     * @return the clients currently connected. Each one reports how many messages it has waiting
+     * and how many it has had to drop.
+     */
+    public List<? extends ClientConnection> getClientConnections() {
+        if (selectorServerTransport != null) {
+            return selectorServerTransport.getConnections();
+        }
+        return threadedClientConnections;
+    }
+
+    private boolean isClientConnected() {
+        return !getClientConnections().isEmpty();
+    }
+
+    // Each client has its own queues, so a slow client only ever drops its own messages. Each
+    // queue takes over a reference to a ReleasableMessage, and the caller's own reference is
+    // released once every client has one.
+    private void enqueueStrict(ByteableMessage message) {
+        for (ClientConnection clientConnection : getClientConnections()) {
+            retain(message);
+            clientConnection.enqueueStrict(message);
+        }
+        release(message);
+    }
+
+    private void enqueueLatest(ByteableMessage message) {
+        for (ClientConnection clientConnection : getClientConnections()) {
+            retain(message);
+            clientConnection.enqueueLatest(message);
+        }
+        release(message);
+    }
+
+    private void enqueueDroppable(ByteableMessage message) {
+        for (ClientConnection clientConnection : getClientConnections()) {
+            retain(message);
+            clientConnection.enqueueDroppable(message);
         }
+        release(message);
     }
 
-    public synchronized void doEnqueueAudioFrame(short[] pcmValues) {
-        if (!isKilled() && isClientConnected.get()) {
-            PCMFrameMessage pcmFrameMessage = new PCMFrameMessage(System.currentTimeMillis(), pcmValues);
-            senderThread.enqueueDroppable(pcmFrameMessage);
+    private static void retain(ByteableMessage message) {
+        if (message instanceof ReleasableMessage) {
+            ((ReleasableMessage) message).retain();
         }
     }
 
-    public synchronized void doEnqueueServerStateMessage(ServerStateMessage serverStateMessage) {
-        if (!isKilled() && isClientConnected.get()) {
-            senderThread.enqueueStrict(serverStateMessage);
+    private static void release(ByteableMessage message) {
+        if (message instanceof ReleasableMessage) {
+            ((ReleasableMessage) message).release();
+        }
+    }
+
+    /**
+     * @return a bitmap at the current capture size to copy a camera frame into, for instance with
+     * TextureView.getBitmap(Bitmap), before handing it to doEnqueueImageAndReleaseBitmap().
+     */
+    public Bitmap acquireCaptureBitmap() {
+        return bitmapPool.acquire(getCaptureWidth(), getCaptureHeight(), Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Hand a camera frame over to be compressed and sent to every client. This returns without
+     * waiting for compression, and if frames come in faster than they can be compressed the older
+     * ones are skipped. The bitmap goes back to the pool either way.
+     */
+    public void doEnqueueImageAndReleaseBitmap(Bitmap bitmap) {
+        if (!isKilled() && isClientConnected()) {
+            frameEncodingStage.submit(bitmap);
+        } else {
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Send a frame of audio recorded at PCMFrameMessage.SAMPLE_RATE, compressed for voice. The
+     * samples are encoded before this returns, so pcmValues can be recorded into again straight
+     * away. Frames with nobody talking in them are sent as just an AudioSilenceMessage, when
+     * voice activity detection is turned on in the ServerSettings.
+     */
+    public void doEnqueueAudioFrame(short[] pcmValues) {
+        if (!isKilled() && isClientConnected()) {
+            long timestamp = System.currentTimeMillis();
+            CompressedAudioFrameMessage compressedAudioFrameMessage = null;
+            AudioSilenceMessage audioSilenceMessage = null;
+            synchronized (audioFrameEncoder) {
+                voiceActivityDetector.setEnabled(serverSettings.getVoiceActivityDetectionEnabled());
+                voiceActivityDetector.setThresholdDb(serverSettings.getVoiceActivityThresholdDb());
+                voiceActivityDetector.setHangoverMillis(serverSettings.getVoiceActivityHangoverMillis());
+                if (voiceActivityDetector.isSpeech(pcmValues, 0, pcmValues.length)) {
+                    compressedAudioFrameMessage = audioFrameEncoder.encode(timestamp, pcmValues);
+                } else {
+                    audioSilenceMessage = new AudioSilenceMessage(timestamp, PCMFrameMessage.SAMPLE_RATE, pcmValues.length, voiceActivityDetector.getNoiseLevel());
+                }
+            }
+            if (compressedAudioFrameMessage != null) {
+                enqueueDroppable(compressedAudioFrameMessage);
+            } else {
+                enqueueDroppable(audioSilenceMessage);
+            }
         }
     }
 
+    /**
+     * Send the state to every client, along with the video settings currently in use.
+     */
+    public void doEnqueueServerStateMessage(ServerStateMessage serverStateMessage) {
+        if (!isKilled() && isClientConnected()) {
+            ServerStateMessage withVideoSettings = new ServerStateMessage(serverStateMessage.getTimestamp(),
+                    serverStateMessage.getPhoneBatteryLevel(), serverStateMessage.getPrimaryBatteryLevel(),
+                    frameEncodingStage.getJpegQuality(), getCaptureWidth(), getCaptureHeight());
+
+            // Only the newest state is worth sending to a client that has fallen behind
+            enqueueLatest(withVideoSettings);
+        }
+    }
+
+    // Feeds the videoRateController what happened since the last call, using the worst off client.
+    private void updateVideoRate() {
+        long now = System.nanoTime();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - lastRateUpdateNanos);
+        lastRateUpdateNanos = now;
+
+        // Frames skipped for being unchanged still count towards the frame rate being kept up
+        long encodedFrameCount = frameEncodingStage.getEncodedFrameCount() + frameEncodingStage.getUnchangedFrameCount();
+        long framesEncoded = encodedFrameCount - lastEncodedFrameCount;
+        lastEncodedFrameCount = encodedFrameCount;
+        long encodedByteCount = frameEncodingStage.getEncodedByteCount();
+        long bytesEncoded = encodedByteCount - lastEncodedByteCount;
+        lastEncodedByteCount = encodedByteCount;
+
+        long latencyMillis = worstReportedLatencyMillis.getAndSet(-1);
+
+        long minBytesSent = -1;
+        long maxMessagesDropped = 0;
+        Map<ClientConnection, long[]> clientCounters = new IdentityHashMap<>();
+        for (ClientConnection clientConnection : getClientConnections()) {
+            long[] counters = new long[] {clientConnection.getBytesSent(), clientConnection.getDroppedMessageCount()};
+            long[] lastCounters = lastClientCounters.get(clientConnection);
+            if (lastCounters != null) {
+                long bytesSent = counters[0] - lastCounters[0];
+                minBytesSent = minBytesSent < 0 ? bytesSent : Math.min(minBytesSent, bytesSent);
+                maxMessagesDropped = Math.max(maxMessagesDropped, counters[1] - lastCounters[1]);
+            }
+            clientCounters.put(clientConnection, counters);
+        }
+        lastClientCounters = clientCounters;
+
+        if (minBytesSent < 0 || !serverSettings.getAdaptiveVideoEnabled()) {
+            // Nobody has been connected for the whole interval, or the client is choosing
+            return;
+        }
+        videoRateController.update(elapsedMillis, bytesEncoded, minBytesSent, framesEncoded, maxMessagesDropped, latencyMillis);
+        frameEncodingStage.setJpegQuality(videoRateController.getJpegQuality());
+        GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.EXCESS, "Video rate updated to " + videoRateController);
+    }
+
+    private int getJpegQuality() {
+        return serverSettings.getAdaptiveVideoEnabled() ? videoRateController.getJpegQuality() : serverSettings.getJpegQuality();
+    }
+
+    /**
+     * @return the width that camera frames should be captured at.
+     */
+    public int getCaptureWidth() {
+        return serverSettings.getAdaptiveVideoEnabled() ? videoRateController.getCaptureWidth() : DEFAULT_CAPTURE_WIDTH;
+    }
+
+    /**
+     * @return the height that camera frames should be captured at.
+     */
+    public int getCaptureHeight() {
+        return serverSettings.getAdaptiveVideoEnabled() ? videoRateController.getCaptureHeight() : DEFAULT_CAPTURE_HEIGHT;
+    }
+
     public synchronized void setOnMotorStateMessageReceivedListener(OnMotorStateMessageReceivedListener onMotorStateMessageReceivedListener) {
-        this.onMotorStateMessageReceivedListener = onMotorStateMessageReceivedListener;
+        messageRegistry.setOnMotorStateMessageReceivedListener(onMotorStateMessageReceivedListener);
     }
 
     public synchronized void setOnArmPositionMessageReceivedListener(OnArmPositionMessageReceivedListener onArmPositionMessageReceivedListener) {
-        this.onArmPositionMessageReceivedListener = onArmPositionMessageReceivedListener;
+        messageRegistry.setOnArmPositionMessageReceivedListener(onArmPositionMessageReceivedListener);
     }
 
     public synchronized void setOnLoggableEventListener(OnLoggableEventListener onLoggableEventListener) {
@@ -206,13 +506,43 @@ public class ProjectRoverServer {
     }
 
     public synchronized void setOnPCMFrameMessageReceivedListener(OnPCMFrameMessageReceivedListener onPCMFrameMessageReceivedListener) {
-        this.onPCMFrameMessageReceivedListener = onPCMFrameMessageReceivedListener;
+        messageRegistry.setOnPCMFrameMessageReceivedListener(onPCMFrameMessageReceivedListener);
+    }
+
+    public synchronized void setOnAudioSilenceMessageReceivedListener(OnAudioSilenceMessageReceivedListener onAudioSilenceMessageReceivedListener) {
+        messageRegistry.setOnAudioSilenceMessageReceivedListener(onAudioSilenceMessageReceivedListener);
     }
 
     public synchronized void setOnServerSettingsMessageReceivedListener(OnServerSettingsMessageReceivedListener onServerSettingsMessageReceivedListener) {
         this.onServerSettingsMessageReceivedListener = onServerSettingsMessageReceivedListener;
     }
 
+    /**
+     * @return the registry that messages from clients are dispatched through, on which additional
+     * message types can be registered.
+     */
+    public MessageRegistry getMessageRegistry() {
+        return messageRegistry;
+    }
+
+    /**
+     * @return the pool that capture bitmaps are taken from and given back to once compressed.
+     */
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * @return the stage compressing camera frames, which keeps timings for each step.
+     */
+    public FrameEncodingStage<Bitmap> getFrameEncodingStage() {
+        return frameEncodingStage;
+    }
+
+    public VideoRateController getVideoRateController() {
+        return videoRateController;
+    }
+
     public ServerSettings getServerSettings() {
         return serverSettings;
     }
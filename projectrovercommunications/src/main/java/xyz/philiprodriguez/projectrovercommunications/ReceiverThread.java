@@ -1,6 +1,5 @@
 package xyz.philiprodriguez.projectrovercommunications;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
@@ -17,16 +16,18 @@ public class ReceiverThread extends Thread {
     private final Socket clientSocket;
     private final OnThreadFinishedListener onThreadFinishedListener;
 
-    private volatile OnFrameReceivedListener onFrameReceivedListener;
+    // Decides what to do with each received message based on its start code.
+    private final MessageRegistry messageRegistry;
+
     private volatile OnLoggableEventListener onLoggableEventListener;
-    private volatile OnMotorStateMessageReceivedListener onMotorStateMessageReceivedListener;
-    private volatile OnArmPositionMessageReceivedListener onArmPositionMessageReceivedListener;
-    private volatile OnServerSettingsMessageReceivedListener onServerSettingsMessageReceivedListener;
-    private volatile OnServerStateMessageReceivedListener onServerStateMessageReceivedListener;
-    private volatile OnPCMFrameMessageReceivedListener onPCMFrameMessageReceivedListener;
 
     public ReceiverThread(Socket clientSocket, OnThreadFinishedListener onThreadFinishedListener) {
+        this(clientSocket, MessageRegistry.createDefault(), onThreadFinishedListener);
+    }
+
+    public ReceiverThread(Socket clientSocket, MessageRegistry messageRegistry, OnThreadFinishedListener onThreadFinishedListener) {
         this.clientSocket = clientSocket;
+        this.messageRegistry = messageRegistry;
         this.onThreadFinishedListener = onThreadFinishedListener;
     }
 
@@ -37,70 +38,17 @@ public class ReceiverThread extends Thread {
         GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "ReceiverThread is starting!");
 
         try {
-            BufferedInputStream socketInput = new BufferedInputStream(clientSocket.getInputStream());
-            outer:
+            MessageFrameReader frameReader = new MessageFrameReader(clientSocket.getInputStream());
             while (!Thread.currentThread().isInterrupted()) {
-                for (int i = 0; i < START_SEQUENCE.length; i++) {
-                    int nextByte = socketInput.read();
-                    if (nextByte < 0) {
-                        // The stream is closed!
-                        break outer;
-                    }
-                    if (nextByte != START_SEQUENCE[i]) {
-                        continue outer;
-                    }
-                }
-
-                int startCode = socketInput.read();
-
-                ByteBuffer messageSizeBB = ByteBuffer.allocate(4);
-                messageSizeBB.put((byte) socketInput.read());
-                messageSizeBB.put((byte) socketInput.read());
-                messageSizeBB.put((byte) socketInput.read());
-                messageSizeBB.put((byte) socketInput.read());
-                messageSizeBB.rewind();
-                int messageSize = messageSizeBB.getInt();
-
-                if (messageSize < 0 || messageSize >= MAX_MESSAGE_SIZE) {
-                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Invalid message size of " + messageSize + "!");
-                    continue outer;
+                if (!frameReader.readFrame()) {
+                    // The stream is closed!
+                    break;
                 }
 
-                byte[] messageBytes = new byte[messageSize];
-                for (int i = 0; i < messageBytes.length; i++) {
-                    int nextByte = socketInput.read();
-                    if (nextByte < 0) {
-                        // The stream is closed!
-                        break outer;
-                    }
-                    messageBytes[i] = (byte) nextByte;
-                }
+                int startCode = frameReader.getStartCode();
+                ByteBuffer messageBytes = frameReader.getPayload();
 
-                if (startCode == new JPEGFrameMessage().getStartCode()) {
-                    JPEGFrameMessage message = new JPEGFrameMessage().fromBytes(messageBytes);
-                    if (onFrameReceivedListener != null)
-                        onFrameReceivedListener.OnFrameReceived(message.getImage());
-                } else if (startCode == new MotorStateMessage().getStartCode()) {
-                    MotorStateMessage message = new MotorStateMessage().fromBytes(messageBytes);
-                    if (onMotorStateMessageReceivedListener != null)
-                        onMotorStateMessageReceivedListener.OnMotorStateMessageReceived(message);
-                } else if (startCode == new ArmPositionMessage().getStartCode()) {
-                    ArmPositionMessage message = new ArmPositionMessage().fromBytes(messageBytes);
-                    if (onArmPositionMessageReceivedListener != null)
-                        onArmPositionMessageReceivedListener.OnArmPositionMessageReceived(message);
-                } else if (startCode == new ServerSettingsMessage().getStartCode()) {
-                    ServerSettingsMessage message = new ServerSettingsMessage().fromBytes(messageBytes);
-                    if (onServerSettingsMessageReceivedListener != null)
-                        onServerSettingsMessageReceivedListener.OnServerSettingsMessageReceived(message);
-                } else if (startCode == new ServerStateMessage().getStartCode()) {
-                    ServerStateMessage message = new ServerStateMessage().fromBytes(messageBytes);
-                    if (onServerStateMessageReceivedListener != null)
-                        onServerStateMessageReceivedListener.OnServerStateMessageReceived(message);
-                } else if (startCode == new PCMFrameMessage().getStartCode()) {
-                    PCMFrameMessage message = new PCMFrameMessage().fromBytes(messageBytes);
-                    if (onPCMFrameMessageReceivedListener != null)
-                        onPCMFrameMessageReceivedListener.onPCMFrameMessageReceived(message);
-                } else {
+                if (!messageRegistry.dispatch(startCode, messageBytes)) {
                     GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Received illegal start code of " + startCode);
                 }
             }
@@ -112,12 +60,20 @@ public class ReceiverThread extends Thread {
         }
     }
 
+    /**
+     * @return the registry used to dispatch received messages. Additional message types can be
+     * registered on it directly.
+     */
+    public MessageRegistry getMessageRegistry() {
+        return messageRegistry;
+    }
+
     public void setOnServerStateMessageReceivedListener(OnServerStateMessageReceivedListener onServerStateMessageReceivedListener) {
-        this.onServerStateMessageReceivedListener = onServerStateMessageReceivedListener;
+        messageRegistry.setOnServerStateMessageReceivedListener(onServerStateMessageReceivedListener);
     }
 
     public void setOnFrameReceivedListener(OnFrameReceivedListener onFrameReceivedListener) {
-        this.onFrameReceivedListener = onFrameReceivedListener;
+        messageRegistry.setOnFrameReceivedListener(onFrameReceivedListener);
     }
 
     public void setOnLoggableEventListener(OnLoggableEventListener onLoggableEventListener) {
@@ -125,18 +81,22 @@ public class ReceiverThread extends Thread {
     }
 
     public void setOnMotorStateMessageReceivedListener(OnMotorStateMessageReceivedListener onMotorStateMessageReceivedListener) {
-        this.onMotorStateMessageReceivedListener = onMotorStateMessageReceivedListener;
+        messageRegistry.setOnMotorStateMessageReceivedListener(onMotorStateMessageReceivedListener);
     }
 
     public void setOnArmPositionMessageReceivedListener(OnArmPositionMessageReceivedListener onArmPositionMessageReceivedListener) {
-        this.onArmPositionMessageReceivedListener = onArmPositionMessageReceivedListener;
+        messageRegistry.setOnArmPositionMessageReceivedListener(onArmPositionMessageReceivedListener);
     }
 
     public void setOnServerSettingsMessageReceivedListener(OnServerSettingsMessageReceivedListener onServerSettingsMessageReceivedListener) {
-        this.onServerSettingsMessageReceivedListener = onServerSettingsMessageReceivedListener;
+        messageRegistry.setOnServerSettingsMessageReceivedListener(onServerSettingsMessageReceivedListener);
     }
 
     public void setOnPCMFrameMessageReceivedListener(OnPCMFrameMessageReceivedListener onPCMFrameMessageReceivedListener) {
-        this.onPCMFrameMessageReceivedListener = onPCMFrameMessageReceivedListener;
+        messageRegistry.setOnPCMFrameMessageReceivedListener(onPCMFrameMessageReceivedListener);
+    }
+
+    public void setOnAudioSilenceMessageReceivedListener(OnAudioSilenceMessageReceivedListener onAudioSilenceMessageReceivedListener) {
+        messageRegistry.setOnAudioSilenceMessageReceivedListener(onAudioSilenceMessageReceivedListener);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,20 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compresses rectangular regions of images of some platform specific type, for sending only the
+ * parts of a frame that changed. An encoder is only ever used from one thread at a time.
+ *
+ * @param <T> The type of image handled.
+ */
+public interface RegionEncoder<T> {
+    int getWidth(T image);
+
+    int getHeight(T image);
+
+    /**
+     * Compress the region with its top left corner at (x, y) and write it to outputStream.
+     */
+    void encodeRegion(T image, int x, int y, int width, int height, int quality, ByteArrayOutputStream outputStream);
+}
@@ -0,0 +1,14 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * A message holding buffers borrowed from a pool, which go back once nothing needs the message
+ * any more. Whoever creates the message holds the first reference. Every queue the message is put
+ * on takes over one reference, and releases it once the message has been written or dropped, so
+ * to put one message on several queues call retain() once more for each queue past the first
+ * before putting it on any of them.
+ */
+public interface ReleasableMessage {
+    void retain();
+
+    void release();
+}
@@ -0,0 +1,524 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is an alternative to running a ReceiverThread and a SenderThread per client. A single
+ * event loop thread accepts clients and does all reading and writing for every connection using
+ * non-blocking channels and direct buffers. Received messages are dispatched through the provided
+ * MessageRegistry on the event loop thread, so listeners registered there should return quickly.
+ */
+public class SelectorServerTransport {
+    public static final String CLASS_IDENTIFIER = "SelectorServerTransport";
+
+    private static final int INITIAL_READ_BUFFER_SIZE = 64*1024;
+    private static final int INITIAL_HEADER_BUFFER_SIZE = 1024;
+    // Strict messages a connection may have waiting. A client that falls this far behind on
+    // messages that cannot be dropped is disconnected, rather than blocking whoever enqueues.
+    private static final int STRICT_QUEUE_SIZE_LIMIT = 256;
+
+    private final MessageRegistry messageRegistry;
+    private final int droppableQueueSizeLimit;
+    private final OnClientConnectedListener onClientConnectedListener;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverSocketChannel;
+    private final Thread eventLoopThread;
+    private final AtomicBoolean isKilled = new AtomicBoolean(false);
+
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+    // Connections that had messages enqueued since the event loop last looked at them.
+    private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Bind to the provided port and start the event loop thread.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @param messageRegistry Where received messages get dispatched.
+     * @param droppableQueueSizeLimit How many droppable messages each connection may have waiting.
+     * @param onClientConnectedListener Called on the event loop thread for each accepted client.
+     * @throws IOException If the server socket could not be opened.
+     */
+    public SelectorServerTransport(int port, MessageRegistry messageRegistry, int droppableQueueSizeLimit, OnClientConnectedListener onClientConnectedListener) throws IOException {
+        this.messageRegistry = messageRegistry;
+        this.droppableQueueSizeLimit = droppableQueueSizeLimit;
+        this.onClientConnectedListener = onClientConnectedListener;
+
+        this.selector = Selector.open();
+        this.serverSocketChannel = ServerSocketChannel.open();
+        this.serverSocketChannel.socket().bind(new InetSocketAddress(port));
+        this.serverSocketChannel.configureBlocking(false);
+        this.serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        this.eventLoopThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runEventLoop();
+            }
+        }, "Selector Server Transport Thread");
+        this.eventLoopThread.start();
+    }
+
+    private void runEventLoop() {
+        GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Event loop listening on port " + getLocalPort() + "...");
+        try {
+            while (!isKilled.get()) {
+                selector.select();
+
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    pending.writeRequested.set(false);
+                    pending.handleWritable();
+                }
+
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.handleReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.handleWritable();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Selector closed...");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Event loop is exiting!");
+            kill();
+
+            // Connections closed from other threads leave the message they were writing for
+            // this thread to release
+            Connection pending;
+            while ((pending = pendingWrites.poll()) != null) {
+                pending.releaseInFlight();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socketChannel = serverSocketChannel.accept();
+        if (socketChannel == null) {
+            return;
+        }
+        socketChannel.configureBlocking(false);
+        Connection connection = new Connection(socketChannel);
+        connection.key = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+        GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Accepted client " + connection.getRemoteAddress());
+
+        if (onClientConnectedListener != null) {
+            onClientConnectedListener.onClientConnected(connection);
+        }
+    }
+
+    public int getLocalPort() {
+        return serverSocketChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the clients currently connected.
+     */
+    public List<? extends ClientConnection> getConnections() {
+        return connections;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Close every client connection but keep accepting new ones.
+     */
+    public void closeAllConnections() {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    public void kill() {
+        if (isKilled.getAndSet(true)) {
+            return;
+        }
+        GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Killing selector transport...");
+        closeAllConnections();
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isKilled() {
+        return isKilled.get();
+    }
+
+    public void waitForKill() throws InterruptedException {
+        eventLoopThread.join();
+    }
+
+    private class Connection implements ClientConnection {
+        private final SocketChannel socketChannel;
+        private final String remoteAddress;
+        private volatile SelectionKey key;
+
+        // Everything below is only touched on the event loop thread, except the queues, which are
+        // guarded by synchronizing on this connection, and writeRequested.
+        private ByteBuffer readBuffer = ByteBuffer.allocateDirect(INITIAL_READ_BUFFER_SIZE);
+        private int startSequenceMatched;
+        private boolean haveHeader;
+        private int startCode;
+        private int messageSize;
+
+        private final ArrayDeque<ByteableMessage> strictSendQueue = new ArrayDeque<>();
+        private final ArrayDeque<ByteableMessage> droppableSendQueue = new ArrayDeque<>();
+        private long droppedMessageCount;
+        // Once set, nothing more is queued
+        private boolean isClosed;
+
+        // Only written by the event loop thread.
+        private volatile long bytesSent;
+
+        // Newest-wins messages indexed by start code, with a bit set in latestPending for each
+        // slot holding a message.
+        private final ByteableMessage[] latestMessages = new ByteableMessage[256];
+        private final long[] latestPending = new long[256 / 64];
+        private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+
+        private ByteBuffer headerBuffer = ByteBuffer.allocateDirect(INITIAL_HEADER_BUFFER_SIZE);
+        private final ByteBuffer[] gatherBuffers = new ByteBuffer[2];
+        private int gatherBufferCount;
+        // The message being written, to release once it has been.
+        private ByteableMessage inFlightMessage;
+
+        private Connection(SocketChannel socketChannel) {
+            this.socketChannel = socketChannel;
+            this.remoteAddress = String.valueOf(socketChannel.socket().getRemoteSocketAddress());
+            // Nothing is in flight to begin with
+            headerBuffer.limit(0);
+        }
+
+        @Override
+        public void enqueueStrict(ByteableMessage message) {
+            boolean isFull = false;
+            synchronized (this) {
+                if (isClosed) {
+                    release(message);
+                    return;
+                }
+                if (strictSendQueue.size() >= STRICT_QUEUE_SIZE_LIMIT) {
+                    release(message);
+                    isFull = true;
+                } else {
+                    strictSendQueue.addLast(message);
+                }
+            }
+            if (isFull) {
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Client " + remoteAddress + " has " + STRICT_QUEUE_SIZE_LIMIT
+                        + " strict messages waiting, closing it!");
+                close();
+                return;
+            }
+            requestWrite();
+        }
+
+        @Override
+        public void enqueueDroppable(ByteableMessage message) {
+            int numDropped = 0;
+            synchronized (this) {
+                if (isClosed) {
+                    release(message);
+                    return;
+                }
+                // Drop old if limit exceeded
+                while (droppableSendQueue.size() >= droppableQueueSizeLimit) {
+                    release(droppableSendQueue.pollFirst());
+                    numDropped++;
+                }
+                droppableSendQueue.addLast(message);
+                droppedMessageCount += numDropped;
+            }
+            if (numDropped > 0)
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Dropped " + numDropped + " messages!");
+            requestWrite();
+        }
+
+        @Override
+        public void enqueueLatest(ByteableMessage message) {
+            int startCode = message.getStartCode() & 0xFF;
+            synchronized (this) {
+                if (isClosed) {
+                    release(message);
+                    return;
+                }
+                release(latestMessages[startCode]);
+                latestMessages[startCode] = message;
+                latestPending[startCode / 64] |= 1L << (startCode % 64);
+            }
+            requestWrite();
+        }
+
+        // Must be called while synchronized on this connection.
+        private ByteableMessage pollLatest() {
+            for (int word = 0; word < latestPending.length; word++) {
+                if (latestPending[word] != 0) {
+                    int startCode = word*64 + Long.numberOfTrailingZeros(latestPending[word]);
+                    latestPending[word] &= latestPending[word] - 1;
+                    ByteableMessage message = latestMessages[startCode];
+                    latestMessages[startCode] = null;
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        private void requestWrite() {
+            if (writeRequested.compareAndSet(false, true)) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public synchronized long getDroppedMessageCount() {
+            return droppedMessageCount;
+        }
+
+        @Override
+        public synchronized int getQueueDepth() {
+            int depth = strictSendQueue.size() + droppableSendQueue.size();
+            for (long pending : latestPending) {
+                depth += Long.bitCount(pending);
+            }
+            return depth;
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public void close() {
+            if (connections.remove(this)) {
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Closing client " + remoteAddress);
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            // Give back everything still waiting to be sent
+            synchronized (this) {
+                isClosed = true;
+                ByteableMessage message;
+                while ((message = pollLatest()) != null) {
+                    release(message);
+                }
+                while ((message = strictSendQueue.pollFirst()) != null) {
+                    release(message);
+                }
+                while ((message = droppableSendQueue.pollFirst()) != null) {
+                    release(message);
+                }
+            }
+            // The message being written is only touched on the event loop thread
+            if (Thread.currentThread() == eventLoopThread) {
+                releaseInFlight();
+            } else {
+                requestWrite();
+            }
+        }
+
+        // Only called on the event loop thread.
+        private void releaseInFlight() {
+            release(inFlightMessage);
+            inFlightMessage = null;
+        }
+
+        private void handleReadable() {
+            try {
+                if (socketChannel.read(readBuffer) < 0) {
+                    // The stream is closed!
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                while (parseFrame()) {
+                    // Keep dispatching until only a partial frame is left
+                }
+                if (!socketChannel.isOpen()) {
+                    // Closed while dispatching
+                    return;
+                }
+                readBuffer.compact();
+
+                // Make sure the message being waited on will fit
+                if (haveHeader && messageSize > readBuffer.capacity()) {
+                    ByteBuffer bigger = ByteBuffer.allocateDirect(messageSize);
+                    readBuffer.flip();
+                    bigger.put(readBuffer);
+                    readBuffer = bigger;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                close();
+            }
+        }
+
+        // Consume the next frame from readBuffer and dispatch it. Returns false if readBuffer does
+        // not hold the rest of a frame yet.
+        private boolean parseFrame() {
+            if (!haveHeader) {
+                while (startSequenceMatched < ReceiverThread.START_SEQUENCE.length) {
+                    if (!readBuffer.hasRemaining()) {
+                        return false;
+                    }
+                    startSequenceMatched = MessageFrameReader.advanceStartSequenceMatch(startSequenceMatched, readBuffer.get());
+                }
+                if (readBuffer.remaining() < 1 + 4) {
+                    return false;
+                }
+                startSequenceMatched = 0;
+                startCode = readBuffer.get() & 0xFF;
+                messageSize = readBuffer.getInt();
+                if (messageSize < 0 || messageSize >= ReceiverThread.MAX_MESSAGE_SIZE) {
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Invalid message size of " + messageSize + "!");
+                    return true;
+                }
+                haveHeader = true;
+            }
+
+            if (readBuffer.remaining() < messageSize) {
+                return false;
+            }
+            int limit = readBuffer.limit();
+            int end = readBuffer.position() + messageSize;
+            readBuffer.limit(end);
+            try {
+                if (!messageRegistry.dispatch(startCode, readBuffer)) {
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Received illegal start code of " + startCode);
+                }
+            } catch (RuntimeException e) {
+                // A bad message, or a listener failing on it, should only cost this client its
+                // connection, not take the event loop and every other client down with it
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Failed to handle message with start code " + startCode
+                        + " from " + remoteAddress + ", closing it: " + e);
+                close();
+                return false;
+            }
+            readBuffer.limit(limit);
+            readBuffer.position(end);
+            haveHeader = false;
+            return true;
+        }
+
+        private void handleWritable() {
+            if (key == null || !key.isValid()) {
+                releaseInFlight();
+                return;
+            }
+            try {
+                while (true) {
+                    if (!isInFlight()) {
+                        releaseInFlight();
+
+                        ByteableMessage next;
+                        synchronized (this) {
+                            next = pollLatest();
+                            if (next == null) {
+                                next = strictSendQueue.pollFirst();
+                            }
+                            if (next == null) {
+                                next = droppableSendQueue.pollFirst();
+                            }
+                        }
+                        if (next == null) {
+                            // Nothing left, so stop asking to be told about writability
+                            key.interestOps(SelectionKey.OP_READ);
+                            return;
+                        }
+                        startWriting(next);
+                    }
+
+                    bytesSent += socketChannel.write(gatherBuffers, 0, gatherBufferCount);
+                    if (isInFlight()) {
+                        // The socket is full, so wait until it can take more
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                close();
+            }
+        }
+
+        private void startWriting(ByteableMessage message) {
+            ByteBuffer bulkPayload = message.getBulkPayload();
+            int headerLength = message.getEncodedLength() - (bulkPayload == null ? 0 : bulkPayload.remaining());
+            if (headerBuffer.capacity() < headerLength) {
+                headerBuffer = ByteBuffer.allocateDirect(Math.max(headerLength, 2*headerBuffer.capacity()));
+            }
+            headerBuffer.clear();
+            message.writeTo(headerBuffer);
+            headerBuffer.flip();
+
+            gatherBuffers[0] = headerBuffer;
+            gatherBuffers[1] = bulkPayload;
+            gatherBufferCount = bulkPayload == null ? 1 : 2;
+            inFlightMessage = message;
+        }
+
+        private boolean isInFlight() {
+            return headerBuffer.hasRemaining() || (gatherBufferCount > 1 && gatherBuffers[1].hasRemaining());
+        }
+    }
+
+    // Messages holding pooled buffers get them back once this transport is done with them.
+    private static void release(ByteableMessage message) {
+        if (message instanceof ReleasableMessage) {
+            ((ReleasableMessage) message).release();
+        }
+    }
+}
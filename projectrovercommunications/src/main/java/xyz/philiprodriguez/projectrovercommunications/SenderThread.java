@@ -3,34 +3,120 @@ package xyz.philiprodriguez.projectrovercommunications;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.util.LinkedList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * This thread writes enqueued messages to a socket. Messages wait in one of three lanes, none of
+ * which take a lock, so threads enqueueing messages never wait on a socket write in progress:
+ *
+ * - The newest-wins lane holds at most one message per start code, and enqueueing replaces
+ *   whatever was waiting. It suits control and state messages where only the latest matters, and
+ *   is always written first. A message can also be enqueued there as one that must be delivered,
+ *   which newer messages with the same start code queue up behind instead of replacing.
+ * - The strict lane never drops anything. If it fills up, the peer is too far behind to ever
+ *   catch up, so the socket is closed.
+ * - The droppable lane evicts its oldest messages once more than droppableQueueSizeLimit are
+ *   waiting.
+ *
+ * Everything waiting, up to a byte budget, is written out together as one batch: a single
+ * gathering write when the socket has a channel, or a single flush otherwise. The sender can also
+ * be told to linger for more messages before writing a batch, trading latency for fewer writes.
+ *
+ * ReleasableMessages are released once they have been written, or as soon as they are dropped.
+ * Once this thread finishes, everything still waiting is released too.
+ */
 public class SenderThread extends Thread {
 
     public static final String CLASS_IDENTIFIER = "SenderThread";
 
+    private static final int STRICT_LANE_CAPACITY = 256;
+    private static final int START_CODE_COUNT = 256;
+
+    public static final int DEFAULT_BATCH_BYTE_BUDGET = 64*1024;
+    public static final long DEFAULT_MAX_LINGER_MICROS = 0;
+
     private final Socket clientSocket;
 
     private final OnThreadFinishedListener onThreadFinishedListener;
 
-    // This object simply exists as a way for this thread to wait for a message to be enqueued into
-    // one of the queues.Additionally it serves as a way to ensure that the queues cannot be
-    // modified at the same time.
-    private final Object queueModificationLockAndMonitor = new Object();
-
-    private final LinkedList<ByteableMessage> strictSendQueue;
+    private final MpscRingBuffer<ByteableMessage> strictLane;
 
     private final int droppableQueueSizeLimit;
 
-    private final LinkedList<ByteableMessage> droppableSendQueue;
+    // Sized well past droppableQueueSizeLimit. This thread trims it back down to the limit, oldest
+    // first, so producers only ever find it full if this thread is stuck in a long write.
+    private final MpscRingBuffer<ByteableMessage> droppableLane;
+
+    // Indexed by start code, with a bit set in latestPending for each start code with a message
+    // in either array. A message in latestMustDeliverLane is written before the one in latestLane.
+    private final AtomicReferenceArray<ByteableMessage> latestLane;
+    private final AtomicReferenceArray<ByteableMessage> latestMustDeliverLane;
+    private final AtomicLongArray latestPending;
+
+    private final AtomicLong droppedMessageCount = new AtomicLong(0);
+
+    // Set while this thread is parked waiting for a message, so producers know to unpark it.
+    private volatile boolean isWaiting;
+    private volatile boolean isFinished;
+    // Set once the strict lane has overflowed and the socket is being closed because of it.
+    private final AtomicBoolean isClosing = new AtomicBoolean(false);
+    // Held by whichever thread is releasing the lanes after this thread has finished, since the
+    // rings only allow one thread to poll at a time.
+    private final AtomicBoolean isDraining = new AtomicBoolean(false);
+
+    private volatile int batchByteBudget = DEFAULT_BATCH_BYTE_BUDGET;
+    private volatile long maxLingerMicros = DEFAULT_MAX_LINGER_MICROS;
+
+    // Only set if clientSocket was created from a SocketChannel, in which case a whole batch of
+    // headers and bulk payloads is handed to the channel in one gathering write. Otherwise each
+    // message is written to socketOutput and the batch ends with one flush.
+    private SocketChannel socketChannel;
+    private BufferedOutputStream socketOutput;
+
+    // The encoded headers (everything but the bulk payload) of every message in the batch are
+    // written one after another into headerBuffer. Consecutive headers with no bulk payload between
+    // them share one view over headerBuffer in gatherBuffers. Views are reused between batches.
+    private ByteBuffer headerBuffer;
+    private ByteBuffer[] headerViews = new ByteBuffer[16];
+    private int headerViewCount;
+    private ByteBuffer[] gatherBuffers = new ByteBuffer[32];
+    private int gatherBufferCount;
+    private boolean isHeaderViewOpen;
+
+    private int batchBytes;
+    private int batchMessageCount;
+
+    // ReleasableMessages in the batch, to release once it has been written.
+    private ByteableMessage[] batchReleasables = new ByteableMessage[16];
+    private int batchReleasableCount;
+
+    // A message polled for a batch that it would not fit in, to start the next batch with.
+    private ByteableMessage carriedMessage;
+
+    // Alternates so that neither the strict nor the droppable lane starves the other.
+    private boolean preferStrict = true;
+
+    // Only written by this thread.
+    private volatile long flushCount;
+    private volatile long writeCallCount;
+    private volatile long messagesWritten;
+    private volatile long bytesWritten;
 
     public SenderThread(Socket clientSocket, OnThreadFinishedListener onThreadFinishedListener, int droppableQueueSizeLimit) {
         this.clientSocket = clientSocket;
         this.onThreadFinishedListener = onThreadFinishedListener;
         this.droppableQueueSizeLimit = droppableQueueSizeLimit;
-        this.strictSendQueue = new LinkedList<>();
-        this.droppableSendQueue = new LinkedList<>();
+        this.strictLane = new MpscRingBuffer<>(STRICT_LANE_CAPACITY);
+        this.droppableLane = new MpscRingBuffer<>(Math.max(64, 16*droppableQueueSizeLimit));
+        this.latestLane = new AtomicReferenceArray<>(START_CODE_COUNT);
+        this.latestMustDeliverLane = new AtomicReferenceArray<>(START_CODE_COUNT);
+        this.latestPending = new AtomicLongArray(START_CODE_COUNT / 64);
     }
 
     @Override
@@ -39,51 +125,377 @@ public class SenderThread extends Thread {
 
         GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "SenderThread is starting!");
         try {
-            BufferedOutputStream socketOutput = new BufferedOutputStream(clientSocket.getOutputStream());
+            socketChannel = clientSocket.getChannel();
+            if (socketChannel == null) {
+                socketOutput = new BufferedOutputStream(clientSocket.getOutputStream());
+            }
+            headerBuffer = allocateHeaderBuffer(16*1024);
+
+            // Small messages are coalesced into batches here, so there is no reason to also have
+            // Nagle's algorithm hold them back.
+            clientSocket.setTcpNoDelay(true);
 
             while (!Thread.currentThread().isInterrupted()) {
-                synchronized (queueModificationLockAndMonitor) {
-                    // Are there no messages? If so, wait for one.
-                    if (strictSendQueue.size() <= 0 && droppableSendQueue.size() <= 0) {
-                        queueModificationLockAndMonitor.wait();
+                ByteableMessage message = pollNextMessage();
+                if (message == null) {
+                    // Are there no messages? If so, wait for one. Producers check isWaiting after
+                    // publishing, and we check the lanes after setting it, so no wakeup is missed.
+                    isWaiting = true;
+                    if (!hasPendingMessages()) {
+                        LockSupport.park(this);
                     }
+                    isWaiting = false;
+                    continue;
+                }
 
-                    // At this point, we should have some message in one of the queues.
+                writeBatch(message);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            isFinished = true;
+            releaseUnsent();
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "SenderThread is finishing!");
+            onThreadFinishedListener.onThreadFinished();
+        }
+    }
 
-                    // Check strict message
-                    if (strictSendQueue.size() > 0) {
-                        socketOutput.write(strictSendQueue.pollFirst().getBytes());
-                    }
+    // Write firstMessage along with whatever else is waiting, up to the byte budget, lingering for
+    // more messages if configured to.
+    private void writeBatch(ByteableMessage firstMessage) throws IOException {
+        int budget = batchByteBudget;
+        long lingerDeadline = System.nanoTime() + maxLingerMicros*1000;
+
+        batchBytes = 0;
+        batchMessageCount = 0;
+        appendToBatch(firstMessage);
+        while (batchBytes < budget) {
+            ByteableMessage message = pollNextMessage();
+            if (message == null) {
+                long remainingNanos = lingerDeadline - System.nanoTime();
+                if (remainingNanos <= 0 || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                isWaiting = true;
+                if (!hasPendingMessages()) {
+                    LockSupport.parkNanos(this, remainingNanos);
+                }
+                isWaiting = false;
+                continue;
+            }
+            if (batchBytes + message.getEncodedLength() > budget) {
+                carriedMessage = message;
+                break;
+            }
+            appendToBatch(message);
+        }
+
+        if (socketChannel != null) {
+            while (hasUnwrittenGatherBuffers()) {
+                socketChannel.write(gatherBuffers, 0, gatherBufferCount);
+                writeCallCount++;
+            }
+            // Don't hold on to payloads that have been sent
+            for (int i = 0; i < gatherBufferCount; i++) {
+                gatherBuffers[i] = null;
+            }
+            gatherBufferCount = 0;
+            headerViewCount = 0;
+            isHeaderViewOpen = false;
+            headerBuffer.clear();
+        } else {
+            socketOutput.flush();
+            writeCallCount++;
+        }
+        for (int i = 0; i < batchReleasableCount; i++) {
+            release(batchReleasables[i]);
+            batchReleasables[i] = null;
+        }
+        batchReleasableCount = 0;
+
+        flushCount++;
+        messagesWritten += batchMessageCount;
+        bytesWritten += batchBytes;
+    }
 
-                    // Check droppable message
-                    if (droppableSendQueue.size() > 0) {
-                        socketOutput.write(droppableSendQueue.pollFirst().getBytes());
+    private void appendToBatch(ByteableMessage message) throws IOException {
+        batchBytes += message.getEncodedLength();
+        batchMessageCount++;
+        if (message instanceof ReleasableMessage) {
+            if (batchReleasableCount == batchReleasables.length) {
+                ByteableMessage[] bigger = new ByteableMessage[2*batchReleasables.length];
+                System.arraycopy(batchReleasables, 0, bigger, 0, batchReleasables.length);
+                batchReleasables = bigger;
+            }
+            batchReleasables[batchReleasableCount++] = message;
+        }
+
+        if (socketChannel == null) {
+            writeMessage(message);
+            return;
+        }
+
+        ByteBuffer bulkPayload = message.getBulkPayload();
+        int headerLength = message.getEncodedLength() - (bulkPayload == null ? 0 : bulkPayload.remaining());
+        if (headerBuffer.remaining() < headerLength) {
+            // Views already in gatherBuffers keep the old buffer alive until the batch is written
+            headerBuffer = allocateHeaderBuffer(Math.max(headerLength, 2*headerBuffer.capacity()));
+            for (int i = 0; i < headerViews.length; i++) {
+                headerViews[i] = null;
+            }
+            isHeaderViewOpen = false;
+        }
+
+        int headerStart = headerBuffer.position();
+        message.writeTo(headerBuffer);
+        if (isHeaderViewOpen) {
+            gatherBuffers[gatherBufferCount - 1].limit(headerBuffer.position());
+        } else {
+            ByteBuffer headerView = nextHeaderView();
+            headerView.limit(headerBuffer.position());
+            headerView.position(headerStart);
+            addGatherBuffer(headerView);
+            isHeaderViewOpen = true;
+        }
+
+        if (bulkPayload != null && bulkPayload.hasRemaining()) {
+            addGatherBuffer(bulkPayload);
+            isHeaderViewOpen = false;
+        }
+    }
+
+    private ByteBuffer nextHeaderView() {
+        if (headerViewCount == headerViews.length) {
+            ByteBuffer[] bigger = new ByteBuffer[2*headerViews.length];
+            System.arraycopy(headerViews, 0, bigger, 0, headerViews.length);
+            headerViews = bigger;
+        }
+        ByteBuffer headerView = headerViews[headerViewCount];
+        if (headerView == null) {
+            headerView = headerBuffer.duplicate();
+            headerViews[headerViewCount] = headerView;
+        }
+        headerViewCount++;
+        headerView.clear();
+        return headerView;
+    }
+
+    private void addGatherBuffer(ByteBuffer buffer) {
+        if (gatherBufferCount == gatherBuffers.length) {
+            ByteBuffer[] bigger = new ByteBuffer[2*gatherBuffers.length];
+            System.arraycopy(gatherBuffers, 0, bigger, 0, gatherBuffers.length);
+            gatherBuffers = bigger;
+        }
+        gatherBuffers[gatherBufferCount++] = buffer;
+    }
+
+    private boolean hasUnwrittenGatherBuffers() {
+        // Buffers are written in order, so only the last one needs checking
+        return gatherBufferCount > 0 && gatherBuffers[gatherBufferCount - 1].hasRemaining();
+    }
+
+    // Latest messages first, then strict and droppable messages taking turns.
+    private ByteableMessage pollNextMessage() {
+        if (carriedMessage != null) {
+            ByteableMessage message = carriedMessage;
+            carriedMessage = null;
+            return message;
+        }
+
+        ByteableMessage message = pollLatest();
+        if (message != null) {
+            return message;
+        }
+
+        trimDroppableLane();
+        if (preferStrict) {
+            message = strictLane.poll();
+            if (message == null) {
+                message = droppableLane.poll();
+            }
+        } else {
+            message = droppableLane.poll();
+            if (message == null) {
+                message = strictLane.poll();
+            }
+        }
+        preferStrict = !preferStrict;
+        return message;
+    }
+
+    private ByteableMessage pollLatest() {
+        for (int word = 0; word < latestPending.length(); word++) {
+            long pending = latestPending.get(word);
+            while (pending != 0) {
+                long bit = Long.lowestOneBit(pending);
+                if (!latestPending.compareAndSet(word, pending, pending & ~bit)) {
+                    pending = latestPending.get(word);
+                    continue;
+                }
+                int startCode = word*64 + Long.numberOfTrailingZeros(bit);
+                ByteableMessage message = latestMustDeliverLane.getAndSet(startCode, null);
+                if (message != null) {
+                    // Anything enqueued behind it goes out on a later poll
+                    if (latestLane.get(startCode) != null) {
+                        setLatestPending(startCode);
                     }
+                    return message;
+                }
+                message = latestLane.getAndSet(startCode, null);
+                if (message != null) {
+                    return message;
+                }
+                pending = latestPending.get(word);
+            }
+        }
+        return null;
+    }
+
+    private void trimDroppableLane() {
+        int numDropped = 0;
+        while (droppableLane.size() > droppableQueueSizeLimit) {
+            ByteableMessage dropped = droppableLane.poll();
+            if (dropped == null) {
+                break;
+            }
+            release(dropped);
+            numDropped++;
+        }
+        if (numDropped > 0) {
+            droppedMessageCount.addAndGet(numDropped);
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Dropped " + numDropped + " messages!");
+        }
+    }
 
-                    socketOutput.flush();
+    private boolean hasPendingMessages() {
+        for (int word = 0; word < latestPending.length(); word++) {
+            if (latestPending.get(word) != 0) {
+                return true;
+            }
+        }
+        return strictLane.size() > 0 || droppableLane.size() > 0;
+    }
+
+    // Messages holding pooled buffers get them back once this thread is done with them.
+    private static void release(ByteableMessage message) {
+        if (message instanceof ReleasableMessage) {
+            ((ReleasableMessage) message).release();
+        }
+    }
+
+    // Release a batch that failed to write, and everything still waiting in the lanes.
+    private void releaseUnsent() {
+        release(carriedMessage);
+        carriedMessage = null;
+        for (int i = 0; i < batchReleasableCount; i++) {
+            release(batchReleasables[i]);
+            batchReleasables[i] = null;
+        }
+        batchReleasableCount = 0;
+        drainLanes();
+    }
+
+    // Release everything waiting in the lanes. Called once this thread has finished, by it and by
+    // producers that enqueue after it did. Whoever finds isDraining taken leaves it to the holder,
+    // who checks the lanes again after letting go, so nothing enqueued meanwhile is left behind.
+    private void drainLanes() {
+        do {
+            if (!isDraining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                ByteableMessage message;
+                while ((message = strictLane.poll()) != null) {
+                    release(message);
+                }
+                while ((message = droppableLane.poll()) != null) {
+                    release(message);
+                }
+                for (int word = 0; word < latestPending.length(); word++) {
+                    latestPending.set(word, 0);
                 }
+                for (int startCode = 0; startCode < START_CODE_COUNT; startCode++) {
+                    release(latestMustDeliverLane.getAndSet(startCode, null));
+                    release(latestLane.getAndSet(startCode, null));
+                }
+            } finally {
+                isDraining.set(false);
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        } while (hasPendingMessages());
+    }
+
+    // A message enqueued after this thread has finished would never be polled, so give it back.
+    private void releaseIfFinished() {
+        if (isFinished) {
+            drainLanes();
+        }
+    }
+
+    // Closing the socket fails any write in progress, and the interrupt wakes this thread if it is
+    // parked, so that it finishes and releases everything still waiting.
+    private void closeSocket() {
+        try {
+            clientSocket.close();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "SenderThread is finishing!");
-            onThreadFinishedListener.onThreadFinished();
         }
+        interrupt();
+    }
+
+    private void wakeUp() {
+        if (isWaiting) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    // Used when there is no channel to gather write to.
+    private void writeMessage(ByteableMessage message) throws IOException {
+        ByteBuffer bulkPayload = message.getBulkPayload();
+        int headerLength = message.getEncodedLength() - (bulkPayload == null ? 0 : bulkPayload.remaining());
+        if (headerBuffer.capacity() < headerLength) {
+            headerBuffer = allocateHeaderBuffer(Math.max(headerLength, 2*headerBuffer.capacity()));
+        }
+        headerBuffer.clear();
+        message.writeTo(headerBuffer);
+        headerBuffer.flip();
+
+        socketOutput.write(headerBuffer.array(), 0, headerBuffer.limit());
+        if (bulkPayload != null) {
+            socketOutput.write(bulkPayload.array(), bulkPayload.arrayOffset() + bulkPayload.position(), bulkPayload.remaining());
+        }
+    }
+
+    private ByteBuffer allocateHeaderBuffer(int capacity) {
+        // Channels copy heap buffers into a direct one before writing anyway, so skip that step.
+        if (socketChannel != null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        return ByteBuffer.allocate(capacity);
     }
 
     /**
      *  When using this method, the message is guaranteed to eventually be sent unless the socket
-     *  closes.
+     *  closes. If the strict lane is full the message is released and the socket is closed, since
+     *  a peer that far behind will not catch up.
      *
      * @param message The message to be enqueued for sending.
      */
     public void enqueueStrict(ByteableMessage message) {
-        synchronized (queueModificationLockAndMonitor) {
-            strictSendQueue.addLast(message);
-            queueModificationLockAndMonitor.notify();
+        if (isFinished) {
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Strict message enqueued after SenderThread finished!");
+            release(message);
+            return;
         }
+        if (!strictLane.offer(message)) {
+            release(message);
+            if (isClosing.compareAndSet(false, true)) {
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Socket " + clientSocket + " has " + strictLane.getCapacity() + " strict messages waiting, closing it!");
+                closeSocket();
+            }
+            return;
+        }
+        wakeUp();
+        releaseIfFinished();
     }
 
     /**
@@ -93,18 +505,114 @@ public class SenderThread extends Thread {
      * @param message The message to be enqueued for sending.
      */
     public void enqueueDroppable(ByteableMessage message) {
-        synchronized (queueModificationLockAndMonitor) {
-            // Drop old if limit exceeded
-            int numDropped = 0;
-            while (droppableSendQueue.size() >= droppableQueueSizeLimit) {
-                droppableSendQueue.pollFirst();
-                numDropped++;
-            }
-            if (numDropped > 0)
-                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Dropped " + numDropped + " messages!");
+        if (!droppableLane.offer(message)) {
+            release(message);
+            droppedMessageCount.incrementAndGet();
+            GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Dropped 1 messages!");
+        }
+        wakeUp();
+        releaseIfFinished();
+    }
 
-            droppableSendQueue.addLast(message);
-            queueModificationLockAndMonitor.notify();
+    /**
+     * When using this method, the message replaces any message with the same start code that has
+     * not been sent yet. Messages enqueued this way are sent ahead of everything else.
+     *
+     * @param message The message to be enqueued for sending.
+     */
+    public void enqueueLatest(ByteableMessage message) {
+        enqueueLatest(message, false);
+    }
+
+    /**
+     * Like enqueueLatest(message), except that if mustDeliver is set the message is guaranteed to
+     * eventually be sent unless the socket closes. It still replaces any unsent message with the
+     * same start code, but messages enqueued after it are sent after it rather than replacing it.
+     *
+     * @param message The message to be enqueued for sending.
+     * @param mustDeliver Whether newer messages with the same start code may replace this one.
+     */
+    public void enqueueLatest(ByteableMessage message, boolean mustDeliver) {
+        int startCode = message.getStartCode() & 0xFF;
+        if (mustDeliver) {
+            // Anything older that has not been sent yet is superseded
+            release(latestLane.getAndSet(startCode, null));
+            release(latestMustDeliverLane.getAndSet(startCode, message));
+        } else {
+            release(latestLane.getAndSet(startCode, message));
+        }
+        setLatestPending(startCode);
+        wakeUp();
+        releaseIfFinished();
+    }
+
+    private void setLatestPending(int startCode) {
+        int word = startCode / 64;
+        long bit = 1L << (startCode % 64);
+        long pending;
+        do {
+            pending = latestPending.get(word);
+        } while ((pending & bit) == 0 && !latestPending.compareAndSet(word, pending, pending | bit));
+    }
+
+    /**
+     * Configure batching. Can be called at any time and applies from the next batch.
+     *
+     * @param batchByteBudget A batch is written once it holds at least this many bytes. It only
+     *                        goes over when a single message is bigger than this. Zero writes
+     *                        every message on its own.
+     * @param maxLingerMicros How long to wait for more messages once nothing more is waiting,
+     *                        measured from the start of the batch. Zero writes straight away.
+     */
+    public void setBatching(int batchByteBudget, long maxLingerMicros) {
+        this.batchByteBudget = batchByteBudget;
+        this.maxLingerMicros = maxLingerMicros;
+    }
+
+    /**
+     * @return the average number of messages written per batch so far.
+     */
+    public double getMessagesPerFlush() {
+        long flushes = flushCount;
+        return flushes == 0 ? 0 : (double) messagesWritten / flushes;
+    }
+
+    /**
+     * @return the average number of bytes handed to each write call so far. Without a channel,
+     * each flush counts as one write call.
+     */
+    public double getBytesPerWrite() {
+        long writeCalls = writeCallCount;
+        return writeCalls == 0 ? 0 : (double) bytesWritten / writeCalls;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getMessagesWritten() {
+        return messagesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return how many droppable messages have been evicted so far.
+     */
+    public long getDroppedMessageCount() {
+        return droppedMessageCount.get();
+    }
+
+    /**
+     * @return roughly how many messages are waiting to be sent, across all three lanes.
+     */
+    public int getQueueDepth() {
+        int depth = strictLane.size() + droppableLane.size();
+        for (int word = 0; word < latestPending.length(); word++) {
+            depth += Long.bitCount(latestPending.get(word));
         }
+        return depth;
     }
 }
@@ -7,11 +7,30 @@ public class ServerSettings {
     private volatile int servoRotationAmount;
     private volatile int jpegQuality;
 
+    // When set, the server picks the JPEG quality and capture size itself based on how well
+    // frames are getting through, and jpegQuality is ignored.
+    private volatile boolean adaptiveVideoEnabled;
+
+    // When set, frames are sent as just the tiles that changed, with a whole frame now and then.
+    private volatile boolean tiledVideoEnabled;
+
+    // When set, audio frames with nobody talking in them are not sent, and the other end plays
+    // background noise in their place. Applies to audio sent both ways. The threshold is how far
+    // above the background noise counts as speech, and the hangover how long after speech frames
+    // keep being sent.
+    private volatile boolean voiceActivityDetectionEnabled;
+    private volatile int voiceActivityThresholdDb;
+    private volatile int voiceActivityHangoverMillis;
+
     public ServerSettings() {
         // Initialize default values
         this.jpegQuality = 30;
         this.headlightOn = false;
         this.servoRotationAmount = 100;
+        this.adaptiveVideoEnabled = false;
+        this.voiceActivityDetectionEnabled = false;
+        this.voiceActivityThresholdDb = VoiceActivityDetector.DEFAULT_THRESHOLD_DB;
+        this.voiceActivityHangoverMillis = VoiceActivityDetector.DEFAULT_HANGOVER_MILLIS;
     }
 
     public synchronized void setJpegQuality(int jpegQuality) {
@@ -38,10 +57,55 @@ public class ServerSettings {
         this.servoRotationAmount = servoRotationAmount;
     }
 
+    public synchronized boolean getAdaptiveVideoEnabled() {
+        return adaptiveVideoEnabled;
+    }
+
+    public synchronized void setAdaptiveVideoEnabled(boolean adaptiveVideoEnabled) {
+        this.adaptiveVideoEnabled = adaptiveVideoEnabled;
+    }
+
+    public synchronized boolean getTiledVideoEnabled() {
+        return tiledVideoEnabled;
+    }
+
+    public synchronized void setTiledVideoEnabled(boolean tiledVideoEnabled) {
+        this.tiledVideoEnabled = tiledVideoEnabled;
+    }
+
+    public synchronized boolean getVoiceActivityDetectionEnabled() {
+        return voiceActivityDetectionEnabled;
+    }
+
+    public synchronized void setVoiceActivityDetectionEnabled(boolean voiceActivityDetectionEnabled) {
+        this.voiceActivityDetectionEnabled = voiceActivityDetectionEnabled;
+    }
+
+    public synchronized int getVoiceActivityThresholdDb() {
+        return voiceActivityThresholdDb;
+    }
+
+    public synchronized void setVoiceActivityThresholdDb(int voiceActivityThresholdDb) {
+        this.voiceActivityThresholdDb = voiceActivityThresholdDb;
+    }
+
+    public synchronized int getVoiceActivityHangoverMillis() {
+        return voiceActivityHangoverMillis;
+    }
+
+    public synchronized void setVoiceActivityHangoverMillis(int voiceActivityHangoverMillis) {
+        this.voiceActivityHangoverMillis = voiceActivityHangoverMillis;
+    }
+
     public synchronized void setFromServerSettings(ServerSettings serverSettings) {
         setHeadlightOn(serverSettings.getHeadlightOn());
         setServoRotationAmount(serverSettings.getServoRotationAmount());
         setJpegQuality(serverSettings.getJpegQuality());
+        setAdaptiveVideoEnabled(serverSettings.getAdaptiveVideoEnabled());
+        setTiledVideoEnabled(serverSettings.getTiledVideoEnabled());
+        setVoiceActivityDetectionEnabled(serverSettings.getVoiceActivityDetectionEnabled());
+        setVoiceActivityThresholdDb(serverSettings.getVoiceActivityThresholdDb());
+        setVoiceActivityHangoverMillis(serverSettings.getVoiceActivityHangoverMillis());
     }
 
     @NonNull
@@ -55,6 +119,21 @@ public class ServerSettings {
         sb.append(System.lineSeparator());
         sb.append("jpegQuality = ");
         sb.append(getJpegQuality());
+        sb.append(System.lineSeparator());
+        sb.append("adaptiveVideoEnabled = ");
+        sb.append(getAdaptiveVideoEnabled());
+        sb.append(System.lineSeparator());
+        sb.append("tiledVideoEnabled = ");
+        sb.append(getTiledVideoEnabled());
+        sb.append(System.lineSeparator());
+        sb.append("voiceActivityDetectionEnabled = ");
+        sb.append(getVoiceActivityDetectionEnabled());
+        sb.append(System.lineSeparator());
+        sb.append("voiceActivityThresholdDb = ");
+        sb.append(getVoiceActivityThresholdDb());
+        sb.append(System.lineSeparator());
+        sb.append("voiceActivityHangoverMillis = ");
+        sb.append(getVoiceActivityHangoverMillis());
         return sb.toString();
     }
 }
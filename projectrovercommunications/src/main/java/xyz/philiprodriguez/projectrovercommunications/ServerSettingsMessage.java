@@ -18,20 +18,21 @@ public class ServerSettingsMessage implements ByteableMessage<ServerSettingsMess
 
     @Override
     public byte[] getBytes() {
-        int extraLength = 8 + (1 + 4 + 4);
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(ReceiverThread.START_SEQUENCE.length + 1 + 4 + extraLength);
+        return MessageEncoding.toBytes(this);
+    }
 
-        // Start sequence
-        for (int i = 0; i < ReceiverThread.START_SEQUENCE.length; i++) {
-            byteBuffer.put(ReceiverThread.START_SEQUENCE[i]);
-        }
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
 
-        // Start code
-        byteBuffer.put(getStartCode());
+    private int getMessageLength() {
+        return 8 + (1 + 4 + 4 + 1 + 1 + 1 + 4 + 4);
+    }
 
-        // Message length
-        byteBuffer.putInt(extraLength);
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
 
         // timestamp
         byteBuffer.putLong(getTimestamp());
@@ -40,18 +41,35 @@ public class ServerSettingsMessage implements ByteableMessage<ServerSettingsMess
         byteBuffer.put(serverSettings.getHeadlightOn() ? (byte)1 : (byte)0);
         byteBuffer.putInt(serverSettings.getServoRotationAmount());
         byteBuffer.putInt(serverSettings.getJpegQuality());
+        byteBuffer.put(serverSettings.getAdaptiveVideoEnabled() ? (byte)1 : (byte)0);
+        byteBuffer.put(serverSettings.getTiledVideoEnabled() ? (byte)1 : (byte)0);
+        byteBuffer.put(serverSettings.getVoiceActivityDetectionEnabled() ? (byte)1 : (byte)0);
+        byteBuffer.putInt(serverSettings.getVoiceActivityThresholdDb());
+        byteBuffer.putInt(serverSettings.getVoiceActivityHangoverMillis());
+    }
 
-        return byteBuffer.array();
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
     }
 
     @Override
     public ServerSettingsMessage fromBytes(byte[] messageBytes) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(messageBytes);
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public ServerSettingsMessage fromBytes(ByteBuffer byteBuffer) {
         long timestamp = byteBuffer.getLong();
         ServerSettings ret = new ServerSettings();
         ret.setHeadlightOn(byteBuffer.get() == (byte)1);
         ret.setServoRotationAmount(byteBuffer.getInt());
         ret.setJpegQuality(byteBuffer.getInt());
+        ret.setAdaptiveVideoEnabled(byteBuffer.get() == (byte)1);
+        ret.setTiledVideoEnabled(byteBuffer.get() == (byte)1);
+        ret.setVoiceActivityDetectionEnabled(byteBuffer.get() == (byte)1);
+        ret.setVoiceActivityThresholdDb(byteBuffer.getInt());
+        ret.setVoiceActivityHangoverMillis(byteBuffer.getInt());
         return new ServerSettingsMessage(timestamp, ret);
     }
 
@@ -7,48 +7,74 @@ public class ServerStateMessage implements ByteableMessage<ServerStateMessage>{
     private final int phoneBatteryLevel;
     private final int primaryBatteryLevel;
 
+    // The video settings in use when this was sent, or -1 if not known.
+    private final int jpegQuality;
+    private final int captureWidth;
+    private final int captureHeight;
+
     public ServerStateMessage() {
         this(-1, -1, -1);
     }
 
     public ServerStateMessage(long timestamp, int phoneBatteryLevel, int primaryBatteryLevel) {
+        this(timestamp, phoneBatteryLevel, primaryBatteryLevel, -1, -1, -1);
+    }
+
+    public ServerStateMessage(long timestamp, int phoneBatteryLevel, int primaryBatteryLevel, int jpegQuality, int captureWidth, int captureHeight) {
         this.timestamp = timestamp;
         this.phoneBatteryLevel = phoneBatteryLevel;
         this.primaryBatteryLevel = primaryBatteryLevel;
+        this.jpegQuality = jpegQuality;
+        this.captureWidth = captureWidth;
+        this.captureHeight = captureHeight;
     }
 
     @Override
     public byte[] getBytes() {
-        int extraLength = 8 + 4 + 4;
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(ReceiverThread.START_SEQUENCE.length + 1 + 4 + extraLength);
+        return MessageEncoding.toBytes(this);
+    }
 
-        // Start sequence
-        for (int i = 0; i < ReceiverThread.START_SEQUENCE.length; i++) {
-            byteBuffer.put(ReceiverThread.START_SEQUENCE[i]);
-        }
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
 
-        // Start code
-        byteBuffer.put(getStartCode());
+    private int getMessageLength() {
+        return 8 + 4 + 4 + 4 + 4 + 4;
+    }
 
-        // Message length
-        byteBuffer.putInt(extraLength);
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
 
         // Payload
         byteBuffer.putLong(getTimestamp());
         byteBuffer.putInt(phoneBatteryLevel);
         byteBuffer.putInt(primaryBatteryLevel);
+        byteBuffer.putInt(jpegQuality);
+        byteBuffer.putInt(captureWidth);
+        byteBuffer.putInt(captureHeight);
+    }
 
-        return byteBuffer.array();
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return null;
     }
 
     @Override
     public ServerStateMessage fromBytes(byte[] messageBytes) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(messageBytes);
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public ServerStateMessage fromBytes(ByteBuffer byteBuffer) {
         long timestamp = byteBuffer.getLong();
         int phonebl = byteBuffer.getInt();
         int primarybl = byteBuffer.getInt();
-        return new ServerStateMessage(timestamp, phonebl, primarybl);
+        int jpegQuality = byteBuffer.getInt();
+        int captureWidth = byteBuffer.getInt();
+        int captureHeight = byteBuffer.getInt();
+        return new ServerStateMessage(timestamp, phonebl, primarybl, jpegQuality, captureWidth, captureHeight);
     }
 
     @Override
@@ -68,4 +94,16 @@ public class ServerStateMessage implements ByteableMessage<ServerStateMessage>{
     public int getPrimaryBatteryLevel() {
         return primaryBatteryLevel;
     }
+
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    public int getCaptureWidth() {
+        return captureWidth;
+    }
+
+    public int getCaptureHeight() {
+        return captureHeight;
+    }
 }
@@ -0,0 +1,109 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client connection served by its own ReceiverThread and SenderThread. When either thread
+ * finishes the whole connection is closed, and the provided listener is told about it once.
+ */
+public class ThreadedClientConnection implements ClientConnection {
+    public static final String CLASS_IDENTIFIER = "ThreadedClientConnection";
+
+    private final Socket clientSocket;
+    private final String remoteAddress;
+    private final ReceiverThread receiverThread;
+    private final SenderThread senderThread;
+    private final OnClientDisconnectedListener onClientDisconnectedListener;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    public ThreadedClientConnection(Socket clientSocket, MessageRegistry messageRegistry, int droppableQueueSizeLimit, OnClientDisconnectedListener onClientDisconnectedListener) {
+        this.clientSocket = clientSocket;
+        this.remoteAddress = String.valueOf(clientSocket.getRemoteSocketAddress());
+        this.onClientDisconnectedListener = onClientDisconnectedListener;
+
+        OnThreadFinishedListener closeOnFinish = new OnThreadFinishedListener() {
+            @Override
+            public void onThreadFinished() {
+                close();
+            }
+        };
+        this.receiverThread = new ReceiverThread(clientSocket, messageRegistry, closeOnFinish);
+        this.senderThread = new SenderThread(clientSocket, closeOnFinish, droppableQueueSizeLimit);
+    }
+
+    public void start() {
+        receiverThread.start();
+        senderThread.start();
+    }
+
+    public void setOnLoggableEventListener(OnLoggableEventListener onLoggableEventListener) {
+        receiverThread.setOnLoggableEventListener(onLoggableEventListener);
+    }
+
+    /**
+     * @return the sender used for this connection, for tuning batching and reading its metrics.
+     */
+    public SenderThread getSenderThread() {
+        return senderThread;
+    }
+
+    @Override
+    public void enqueueStrict(ByteableMessage message) {
+        senderThread.enqueueStrict(message);
+    }
+
+    @Override
+    public void enqueueDroppable(ByteableMessage message) {
+        senderThread.enqueueDroppable(message);
+    }
+
+    @Override
+    public void enqueueLatest(ByteableMessage message) {
+        senderThread.enqueueLatest(message);
+    }
+
+    @Override
+    public long getDroppedMessageCount() {
+        return senderThread.getDroppedMessageCount();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return senderThread.getQueueDepth();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return senderThread.getBytesWritten();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.getAndSet(true)) {
+            return;
+        }
+        GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.INFO, "Closing client " + remoteAddress);
+        receiverThread.interrupt();
+        senderThread.interrupt();
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (onClientDisconnectedListener != null) {
+            onClientDisconnectedListener.onClientDisconnected(this);
+        }
+    }
+
+    public void waitForClose() throws InterruptedException {
+        receiverThread.join();
+        senderThread.join();
+    }
+}
@@ -0,0 +1,23 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * Rebuilds whole images of some platform specific type from TileFrameMessages, each of which only
+ * carries the parts of a frame that changed. Messages must be handed over in the order they were
+ * sent. A decoder is only ever used from one thread at a time, apart from release(), which may be
+ * called from any thread.
+ *
+ * @param <T> The type of image produced.
+ */
+public interface TileFrameDecoder<T> {
+    /**
+     * @return the whole frame with the message's regions drawn in, or null if there is nothing to
+     * draw them onto yet because no keyframe has arrived.
+     */
+    T decode(TileFrameMessage tileFrameMessage);
+
+    /**
+     * Called once an image this decoder produced will not be used any more, so that its memory
+     * can be reused for a later frame.
+     */
+    void release(T image);
+}
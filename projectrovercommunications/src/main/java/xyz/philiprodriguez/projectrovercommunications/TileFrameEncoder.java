@@ -0,0 +1,221 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * This class turns a stream of frames into TileFrameMessages that only carry the parts of each
+ * frame that changed. Frames are divided into square tiles. A tile is dirty if any small cell
+ * overlapping it has a noticeably different average luminance than when that cell was last sent,
+ * and each run of dirty tiles along a row is compressed as one region, which saves repeating
+ * compression headers for every tile.
+ *
+ * A keyframe covering the whole frame is sent instead when most of the frame is dirty anyway,
+ * every so often so that a client that missed something catches up, and whenever one is
+ * requested.
+ *
+ * @param <T> The type of image handled.
+ */
+public class TileFrameEncoder<T> {
+    public static final String CLASS_IDENTIFIER = "TileFrameEncoder";
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    // Cells are compared at this size, in pixels, which must divide the tile size.
+    private static final int CELL_SIZE = 8;
+
+    // A cell whose average luminance moves by more than this many levels is dirty.
+    private static final int CELL_THRESHOLD = 8;
+
+    // When more than this fraction of tiles is dirty, a keyframe costs about the same.
+    private static final double KEYFRAME_DIRTY_FRACTION = 0.6;
+
+    private static final long KEYFRAME_INTERVAL_MILLIS = 2000;
+
+    private final RegionEncoder<T> regionEncoder;
+    private final LuminanceSampler<T> luminanceSampler;
+    private final int tileSize;
+
+    // Reused between frames. Everything is sized for the current frame size.
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64*1024);
+    private int frameWidth;
+    private int frameHeight;
+    private int columns;
+    private int rows;
+    private int tilesAcross;
+    private int tilesDown;
+    private int[] signature;
+    private int[] reference;
+    private boolean[] dirtyCells;
+    private boolean[] dirtyTiles;
+
+    private boolean isKeyframeRequested = true;
+    private long lastKeyframeMillis;
+    private long lastSequenceNumber = -1;
+
+    private long keyframeCount;
+    private long regionCount;
+
+    public TileFrameEncoder(RegionEncoder<T> regionEncoder, LuminanceSampler<T> luminanceSampler) {
+        this(regionEncoder, luminanceSampler, DEFAULT_TILE_SIZE);
+    }
+
+    public TileFrameEncoder(RegionEncoder<T> regionEncoder, LuminanceSampler<T> luminanceSampler, int tileSize) {
+        if (tileSize % CELL_SIZE != 0) {
+            throw new IllegalStateException("Tile size must be a multiple of " + CELL_SIZE + "!");
+        }
+        this.regionEncoder = regionEncoder;
+        this.luminanceSampler = luminanceSampler;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Make sure the next frame is sent as a keyframe.
+     */
+    public void requestKeyframe() {
+        isKeyframeRequested = true;
+    }
+
+    /**
+     * @return the changed parts of the image as a message, or null if nothing changed.
+     */
+    public TileFrameMessage encode(T image, int quality, long timestamp, long sequenceNumber) {
+        int width = regionEncoder.getWidth(image);
+        int height = regionEncoder.getHeight(image);
+        if (width != frameWidth || height != frameHeight) {
+            resize(width, height);
+        }
+
+        luminanceSampler.sample(image, columns, rows, signature);
+
+        boolean isKeyframe = isKeyframeRequested || timestamp - lastKeyframeMillis >= KEYFRAME_INTERVAL_MILLIS;
+        int dirtyTileCount = 0;
+        if (!isKeyframe) {
+            dirtyTileCount = markDirtyTiles();
+            if (dirtyTileCount == 0) {
+                return null;
+            }
+            isKeyframe = dirtyTileCount > KEYFRAME_DIRTY_FRACTION * dirtyTiles.length;
+        }
+
+        TileFrameMessage message;
+        if (isKeyframe) {
+            message = encodeKeyframe(image, quality, timestamp, sequenceNumber);
+        } else {
+            message = encodeDirtyRuns(image, quality, timestamp, sequenceNumber, dirtyTileCount);
+        }
+        lastSequenceNumber = sequenceNumber;
+        return message;
+    }
+
+    private TileFrameMessage encodeKeyframe(T image, int quality, long timestamp, long sequenceNumber) {
+        outputStream.reset();
+        regionEncoder.encodeRegion(image, 0, 0, frameWidth, frameHeight, quality, outputStream);
+        System.arraycopy(signature, 0, reference, 0, signature.length);
+        isKeyframeRequested = false;
+        lastKeyframeMillis = timestamp;
+        keyframeCount++;
+        regionCount++;
+        return new TileFrameMessage(timestamp, sequenceNumber, -1, frameWidth, frameHeight, quality,
+                new int[] {0}, new int[] {0}, new int[] {frameWidth}, new int[] {frameHeight},
+                new int[] {outputStream.size()}, outputStream.toByteArray());
+    }
+
+    private TileFrameMessage encodeDirtyRuns(T image, int quality, long timestamp, long sequenceNumber, int dirtyTileCount) {
+        // At most one run per dirty tile
+        int[] x = new int[dirtyTileCount];
+        int[] y = new int[dirtyTileCount];
+        int[] width = new int[dirtyTileCount];
+        int[] height = new int[dirtyTileCount];
+        int[] length = new int[dirtyTileCount];
+        int runs = 0;
+        outputStream.reset();
+        for (int tileY = 0; tileY < tilesDown; tileY++) {
+            int tileX = 0;
+            while (tileX < tilesAcross) {
+                if (!dirtyTiles[tileY*tilesAcross + tileX]) {
+                    tileX++;
+                    continue;
+                }
+                int runStart = tileX;
+                while (tileX < tilesAcross && dirtyTiles[tileY*tilesAcross + tileX]) {
+                    tileX++;
+                }
+                x[runs] = runStart*tileSize;
+                y[runs] = tileY*tileSize;
+                width[runs] = Math.min(tileX*tileSize, frameWidth) - x[runs];
+                height[runs] = Math.min(y[runs] + tileSize, frameHeight) - y[runs];
+                int before = outputStream.size();
+                regionEncoder.encodeRegion(image, x[runs], y[runs], width[runs], height[runs], quality, outputStream);
+                length[runs] = outputStream.size() - before;
+                runs++;
+            }
+        }
+
+        // Every tile a dirty cell overlaps was just sent, so those cells are now up to date
+        for (int cell = 0; cell < dirtyCells.length; cell++) {
+            if (dirtyCells[cell]) {
+                reference[cell] = signature[cell];
+            }
+        }
+        regionCount += runs;
+        return new TileFrameMessage(timestamp, sequenceNumber, lastSequenceNumber, frameWidth, frameHeight, quality,
+                Arrays.copyOf(x, runs), Arrays.copyOf(y, runs), Arrays.copyOf(width, runs), Arrays.copyOf(height, runs),
+                Arrays.copyOf(length, runs), outputStream.toByteArray());
+    }
+
+    // Marks each cell that changed and every tile it overlaps. Returns how many tiles are dirty.
+    private int markDirtyTiles() {
+        Arrays.fill(dirtyTiles, false);
+        int dirtyTileCount = 0;
+        for (int cellY = 0; cellY < rows; cellY++) {
+            for (int cellX = 0; cellX < columns; cellX++) {
+                int cell = cellY*columns + cellX;
+                dirtyCells[cell] = Math.abs(signature[cell] - reference[cell]) > CELL_THRESHOLD;
+                if (!dirtyCells[cell]) {
+                    continue;
+                }
+                // The sampler spreads cells evenly, so a cell may straddle two tiles
+                int firstTileX = (cellX*frameWidth/columns) / tileSize;
+                int lastTileX = (((cellX + 1)*frameWidth + columns - 1)/columns - 1) / tileSize;
+                int firstTileY = (cellY*frameHeight/rows) / tileSize;
+                int lastTileY = (((cellY + 1)*frameHeight + rows - 1)/rows - 1) / tileSize;
+                for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+                    for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                        if (!dirtyTiles[tileY*tilesAcross + tileX]) {
+                            dirtyTiles[tileY*tilesAcross + tileX] = true;
+                            dirtyTileCount++;
+                        }
+                    }
+                }
+            }
+        }
+        return dirtyTileCount;
+    }
+
+    private void resize(int width, int height) {
+        frameWidth = width;
+        frameHeight = height;
+        columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        tilesAcross = (width + tileSize - 1) / tileSize;
+        tilesDown = (height + tileSize - 1) / tileSize;
+        signature = new int[columns*rows];
+        reference = new int[columns*rows];
+        dirtyCells = new boolean[columns*rows];
+        dirtyTiles = new boolean[tilesAcross*tilesDown];
+        // Nothing sent so far is any use at the new size
+        isKeyframeRequested = true;
+    }
+
+    public long getKeyframeCount() {
+        return keyframeCount;
+    }
+
+    /**
+     * @return how many regions have been compressed so far, keyframes included.
+     */
+    public long getRegionCount() {
+        return regionCount;
+    }
+}
@@ -0,0 +1,223 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame sent as only the regions that changed since the previous one, each compressed on its
+ * own. Regions are runs of dirty tiles, so they line up with a grid of TileFrameEncoder tiles. A
+ * keyframe is a single region covering the whole frame and does not depend on anything before it.
+ *
+ * A client can only apply a frame that is not a keyframe on top of the frame with sequence number
+ * getReferenceSequenceNumber(). If that one was missed, the picture is wrong until the next
+ * keyframe.
+ */
+public class TileFrameMessage implements ByteableMessage<TileFrameMessage> {
+    // Each region header is x, y, width and height as shorts, then the length of its bytes.
+    private static final int REGION_HEADER_LENGTH = 2 + 2 + 2 + 2 + 4;
+
+    private final long timestamp;
+    private final long sequenceNumber;
+
+    // -1 for a keyframe
+    private final long referenceSequenceNumber;
+
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int quality;
+
+    private final int[] regionX;
+    private final int[] regionY;
+    private final int[] regionWidth;
+    private final int[] regionHeight;
+    private final int[] regionLength;
+
+    // The compressed bytes of every region, one after another
+    private final byte[] regionBytes;
+
+    public TileFrameMessage() {
+        this(-1, -1, -1, 0, 0, -1, new int[0], new int[0], new int[0], new int[0], new int[0], new byte[0]);
+    }
+
+    public TileFrameMessage(long timestamp, long sequenceNumber, long referenceSequenceNumber, int frameWidth, int frameHeight, int quality,
+                            int[] regionX, int[] regionY, int[] regionWidth, int[] regionHeight, int[] regionLength, byte[] regionBytes) {
+        this.timestamp = timestamp;
+        this.sequenceNumber = sequenceNumber;
+        this.referenceSequenceNumber = referenceSequenceNumber;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.quality = quality;
+        this.regionX = regionX;
+        this.regionY = regionY;
+        this.regionWidth = regionWidth;
+        this.regionHeight = regionHeight;
+        this.regionLength = regionLength;
+        this.regionBytes = regionBytes;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return MessageEncoding.toBytes(this);
+    }
+
+    @Override
+    public int getEncodedLength() {
+        return MessageEncoding.HEADER_LENGTH + getMessageLength();
+    }
+
+    private int getMessageLength() {
+        return 8 + 8 + 8 + 4 + 4 + 4 + 4 + REGION_HEADER_LENGTH*getRegionCount() + regionBytes.length;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer byteBuffer) {
+        MessageEncoding.writeHeader(byteBuffer, getStartCode(), getMessageLength());
+
+        // timestamp
+        byteBuffer.putLong(getTimestamp());
+
+        // frame metadata
+        byteBuffer.putLong(sequenceNumber);
+        byteBuffer.putLong(referenceSequenceNumber);
+        byteBuffer.putInt(frameWidth);
+        byteBuffer.putInt(frameHeight);
+        byteBuffer.putInt(quality);
+
+        // region headers
+        byteBuffer.putInt(getRegionCount());
+        for (int i = 0; i < getRegionCount(); i++) {
+            byteBuffer.putShort((short) regionX[i]);
+            byteBuffer.putShort((short) regionY[i]);
+            byteBuffer.putShort((short) regionWidth[i]);
+            byteBuffer.putShort((short) regionHeight[i]);
+            byteBuffer.putInt(regionLength[i]);
+        }
+
+        // The region bytes follow as the bulk payload
+    }
+
+    @Override
+    public ByteBuffer getBulkPayload() {
+        return ByteBuffer.wrap(regionBytes);
+    }
+
+    @Override
+    public TileFrameMessage fromBytes(byte[] messageBytes) {
+        return fromBytes(ByteBuffer.wrap(messageBytes));
+    }
+
+    @Override
+    public TileFrameMessage fromBytes(ByteBuffer byteBuffer) {
+        long timestamp = byteBuffer.getLong();
+        long sequenceNumber = byteBuffer.getLong();
+        long referenceSequenceNumber = byteBuffer.getLong();
+        int frameWidth = byteBuffer.getInt();
+        int frameHeight = byteBuffer.getInt();
+        int quality = byteBuffer.getInt();
+
+        int regionCount = byteBuffer.getInt();
+        if (regionCount < 0 || regionCount*REGION_HEADER_LENGTH > byteBuffer.remaining()) {
+            throw new IllegalStateException("Invalid region count of " + regionCount + "!");
+        }
+        int[] x = new int[regionCount];
+        int[] y = new int[regionCount];
+        int[] width = new int[regionCount];
+        int[] height = new int[regionCount];
+        int[] length = new int[regionCount];
+        for (int i = 0; i < regionCount; i++) {
+            x[i] = byteBuffer.getShort() & 0xFFFF;
+            y[i] = byteBuffer.getShort() & 0xFFFF;
+            width[i] = byteBuffer.getShort() & 0xFFFF;
+            height[i] = byteBuffer.getShort() & 0xFFFF;
+            length[i] = byteBuffer.getInt();
+        }
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        long totalLength = 0;
+        for (int i = 0; i < regionCount; i++) {
+            totalLength += length[i];
+        }
+        if (totalLength != bytes.length) {
+            throw new IllegalStateException("Region lengths add up to " + totalLength + " but there are " + bytes.length + " bytes!");
+        }
+        return new TileFrameMessage(timestamp, sequenceNumber, referenceSequenceNumber, frameWidth, frameHeight, quality, x, y, width, height, length, bytes);
+    }
+
+    @Override
+    public byte getStartCode() {
+        return 7;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public long getReferenceSequenceNumber() {
+        return referenceSequenceNumber;
+    }
+
+    public boolean isKeyframe() {
+        return referenceSequenceNumber < 0;
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getRegionCount() {
+        return regionX.length;
+    }
+
+    public int getRegionX(int region) {
+        return regionX[region];
+    }
+
+    public int getRegionY(int region) {
+        return regionY[region];
+    }
+
+    public int getRegionWidth(int region) {
+        return regionWidth[region];
+    }
+
+    public int getRegionHeight(int region) {
+        return regionHeight[region];
+    }
+
+    public int getRegionLength(int region) {
+        return regionLength[region];
+    }
+
+    /**
+     * @return where the bytes of the region start within getRegionBytes().
+     */
+    public int getRegionOffset(int region) {
+        int offset = 0;
+        for (int i = 0; i < region; i++) {
+            offset += regionLength[i];
+        }
+        return offset;
+    }
+
+    public byte[] getRegionBytes() {
+        return regionBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TileFrameMessage " + sequenceNumber + (isKeyframe() ? " (keyframe)" : " on " + referenceSequenceNumber)
+                + " with " + getRegionCount() + " regions of " + regionBytes.length + " bytes";
+    }
+}
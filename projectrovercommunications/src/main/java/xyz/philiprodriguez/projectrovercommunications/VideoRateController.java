@@ -0,0 +1,217 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class picks the JPEG quality and capture resolution of the video stream from how well
+ * frames are actually getting through. It is fed measurements every so often through update() and
+ * does nothing on its own, so it can be driven by a timer on the server or by a simulated
+ * bandwidth trace.
+ *
+ * The approach is additive increase, multiplicative decrease. Whenever frames are being dropped,
+ * fewer bytes are getting out than are being encoded, or the latency the client reports is
+ * climbing or over budget, quality is cut by a fraction, and once quality is at its minimum the resolution is
+ * stepped down instead. When things are healthy and the target frame rate is being met, quality is
+ * raised a little at a time, and once it is at its maximum the resolution is stepped up. After any
+ * decrease, increases are held off for a few updates so the queues have a chance to drain.
+ *
+ * The rate bytes were getting out at when the link last backed up is remembered as an estimate of
+ * what it can carry, and an increase that would go over it is not tried. The estimate is forgotten
+ * after things have been healthy for a while, so that a link that gets faster is found out.
+ */
+public class VideoRateController {
+    public static final String CLASS_IDENTIFIER = "VideoRateController";
+
+    // Capture sizes as {width, height}, smallest first
+    private static final int[][] RESOLUTIONS = {
+            {180, 240},
+            {270, 360},
+            {360, 480},
+            {540, 720}
+    };
+    private static final int DEFAULT_RESOLUTION_INDEX = 2;
+
+    public static final int MIN_JPEG_QUALITY = 10;
+    public static final int MAX_JPEG_QUALITY = 70;
+
+    // Quality used right after a resolution change, which is about where the old quality at the
+    // old resolution ends up in bytes per frame.
+    private static final int QUALITY_AFTER_STEP_UP = 20;
+    private static final int QUALITY_AFTER_STEP_DOWN = 40;
+
+    private static final int QUALITY_INCREASE = 5;
+    private static final double QUALITY_DECREASE_FACTOR = 0.7;
+
+    // Updates to wait after a decrease before increasing again
+    private static final int HOLD_UPDATES_AFTER_DECREASE = 4;
+
+    // Below this fraction of the target frame rate with no sign of congestion, encoding itself is
+    // too slow, so the resolution is stepped down.
+    private static final double MIN_FPS_FRACTION = 0.6;
+
+    // Latency going up by more than this fraction of the budget between updates counts as climbing
+    private static final int LATENCY_CLIMB_FRACTION = 5;
+
+    // Getting out less than this fraction of the bytes encoded means a queue is building
+    private static final double MIN_SENT_FRACTION = 0.95;
+
+    // How much of the estimated link capacity to aim for, and how many healthy updates it takes
+    // before the estimate is forgotten
+    private static final double CAPACITY_HEADROOM = 0.8;
+    private static final int CAPACITY_EXPIRY_UPDATES = 30;
+
+    private final int targetFps;
+    private final long latencyBudgetMillis;
+
+    private int jpegQuality;
+    private int resolutionIndex;
+    private int holdUpdates;
+
+    // Bytes per second the link is thought to carry, or 0 if it has never backed up.
+    private double capacityBytesPerSecond;
+    private int healthyUpdates;
+
+    private double lastThroughputBytesPerSecond;
+    private double lastFps;
+    private long lastLatencyMillis;
+
+    /**
+     * @param targetFps The frame rate the camera is producing frames at.
+     * @param latencyBudgetMillis The most time a frame should take from capture to reaching the
+     *                            client.
+     * @param initialJpegQuality Where to start from.
+     */
+    public VideoRateController(int targetFps, long latencyBudgetMillis, int initialJpegQuality) {
+        this.targetFps = targetFps;
+        this.latencyBudgetMillis = latencyBudgetMillis;
+        this.jpegQuality = clampQuality(initialJpegQuality);
+        this.resolutionIndex = DEFAULT_RESOLUTION_INDEX;
+        this.lastLatencyMillis = -1;
+    }
+
+    /**
+     * Adjust the quality and resolution according to what happened since the last update.
+     *
+     * @param elapsedMillis How long since the last update.
+     * @param bytesEncoded How many bytes of frames were encoded since the last update.
+     * @param bytesSent How many bytes were written to the slowest client since the last update.
+     * @param framesEncoded How many frames were encoded since the last update.
+     * @param messagesDropped How many queued messages were dropped for the slowest client since
+     *                        the last update.
+     * @param latencyMillis The worst capture to receipt time the client reported since the last
+     *                      update, or -1 if no report came in.
+     */
+    public synchronized void update(long elapsedMillis, long bytesEncoded, long bytesSent, long framesEncoded, long messagesDropped, long latencyMillis) {
+        if (elapsedMillis <= 0) {
+            return;
+        }
+        long previousLatencyMillis = lastLatencyMillis;
+        lastThroughputBytesPerSecond = bytesSent * 1000.0 / elapsedMillis;
+        lastFps = framesEncoded * 1000.0 / elapsedMillis;
+        lastLatencyMillis = latencyMillis;
+
+        // Either of these means a queue is building somewhere on the way, so everything that could
+        // be sent was and the rate bytes got out at is about what the link carries
+        boolean isLatencyClimbing = latencyMillis >= 0 && previousLatencyMillis >= 0
+                && latencyMillis - previousLatencyMillis > latencyBudgetMillis / LATENCY_CLIMB_FRACTION;
+        boolean isBackingUp = isLatencyClimbing || bytesSent < bytesEncoded * MIN_SENT_FRACTION;
+        if (isBackingUp || messagesDropped > 0) {
+            capacityBytesPerSecond = lastThroughputBytesPerSecond;
+        }
+        if (isBackingUp || messagesDropped > 0 || latencyMillis > latencyBudgetMillis) {
+            healthyUpdates = 0;
+            decrease();
+            return;
+        }
+        if (++healthyUpdates >= CAPACITY_EXPIRY_UPDATES) {
+            capacityBytesPerSecond = 0;
+        }
+
+        if (holdUpdates > 0) {
+            holdUpdates--;
+            return;
+        }
+
+        if (framesEncoded > 0 && lastFps < targetFps * MIN_FPS_FRACTION) {
+            // Frames are not being dropped on the way, they are just not being made fast enough
+            if (resolutionIndex > 0) {
+                resolutionIndex--;
+                holdUpdates = HOLD_UPDATES_AFTER_DECREASE;
+            }
+            return;
+        }
+
+        // Only probe upwards while latency has room to spare
+        if (latencyMillis > latencyBudgetMillis / 2) {
+            return;
+        }
+        double encodedBytesPerSecond = bytesEncoded * 1000.0 / elapsedMillis;
+        if (capacityBytesPerSecond > 0 && encodedBytesPerSecond * getIncreaseRatio() > capacityBytesPerSecond * CAPACITY_HEADROOM) {
+            return;
+        }
+        increase();
+    }
+
+    private void decrease() {
+        if (jpegQuality > MIN_JPEG_QUALITY) {
+            jpegQuality = clampQuality((int) (jpegQuality * QUALITY_DECREASE_FACTOR));
+        } else if (resolutionIndex > 0) {
+            resolutionIndex--;
+            jpegQuality = QUALITY_AFTER_STEP_DOWN;
+        }
+        holdUpdates = HOLD_UPDATES_AFTER_DECREASE;
+    }
+
+    private void increase() {
+        if (jpegQuality + QUALITY_INCREASE <= MAX_JPEG_QUALITY) {
+            jpegQuality += QUALITY_INCREASE;
+        } else if (resolutionIndex < RESOLUTIONS.length - 1) {
+            resolutionIndex++;
+            jpegQuality = QUALITY_AFTER_STEP_UP;
+        } else {
+            jpegQuality = MAX_JPEG_QUALITY;
+        }
+    }
+
+    // Roughly how many times bigger frames get with the next increase, taking frame size to go
+    // with pixel count times quality.
+    private double getIncreaseRatio() {
+        if (jpegQuality + QUALITY_INCREASE <= MAX_JPEG_QUALITY) {
+            return (double) (jpegQuality + QUALITY_INCREASE) / jpegQuality;
+        } else if (resolutionIndex < RESOLUTIONS.length - 1) {
+            int[] current = RESOLUTIONS[resolutionIndex];
+            int[] next = RESOLUTIONS[resolutionIndex + 1];
+            return (double) (next[0]*next[1]*QUALITY_AFTER_STEP_UP) / (current[0]*current[1]*jpegQuality);
+        }
+        return 1;
+    }
+
+    private static int clampQuality(int quality) {
+        return Math.max(MIN_JPEG_QUALITY, Math.min(MAX_JPEG_QUALITY, quality));
+    }
+
+    public synchronized int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    public synchronized int getCaptureWidth() {
+        return RESOLUTIONS[resolutionIndex][0];
+    }
+
+    public synchronized int getCaptureHeight() {
+        return RESOLUTIONS[resolutionIndex][1];
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+
+    public long getLatencyBudgetMillis() {
+        return latencyBudgetMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "quality " + jpegQuality + " at " + getCaptureWidth() + "x" + getCaptureHeight()
+                + ", " + Math.round(lastThroughputBytesPerSecond / 1024) + " KiB/s, "
+                + Math.round(lastFps) + " fps, latency " + lastLatencyMillis + " ms";
+    }
+}
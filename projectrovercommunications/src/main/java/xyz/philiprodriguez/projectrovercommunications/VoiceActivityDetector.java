@@ -0,0 +1,166 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * This class decides whether frames of recorded audio have anyone talking in them, so that frames
+ * of nothing but background noise need not be sent.
+ *
+ * Each frame is looked at 20 milliseconds at a time. A stretch counts as speech if it is louder
+ * than the background noise by thresholdDb, or louder by half that and crossing zero at a
+ * noticeably different rate than the noise does, which catches quiet sounds like "s" and "f". The
+ * background noise level follows quiet stretches quickly and creeps up only slowly otherwise, so
+ * talking does not get mistaken for noise. After speech, frames keep counting as speech for
+ * hangoverMillis, so that the ends of words and short pauses are not cut off.
+ *
+ * Frames must be handed over in the order they were recorded, from one thread at a time.
+ */
+public class VoiceActivityDetector {
+    public static final String CLASS_IDENTIFIER = "VoiceActivityDetector";
+
+    public static final int DEFAULT_THRESHOLD_DB = 9;
+    public static final int DEFAULT_HANGOVER_MILLIS = 300;
+
+    private static final int SUBFRAME_MILLIS = 20;
+
+    // How far toward a quieter stretch the noise level moves, and the most it may rise per stretch
+    // when not talking and when talking.
+    private static final double NOISE_FALL = 0.2;
+    private static final double NOISE_RISE_DB = 0.1;
+    private static final double NOISE_RISE_DURING_SPEECH_DB = 0.01;
+    // Near digital silence, any sound at all would otherwise count as speech.
+    private static final double MIN_NOISE_DB = 30;
+
+    // How far from the noise's zero crossing rate, as a fraction of samples, counts as different
+    private static final double ZERO_CROSSING_MARGIN = 0.15;
+    private static final double ZERO_CROSSING_FOLLOW = 0.05;
+
+    private final int sampleRate;
+    private final int subframeLength;
+
+    private volatile boolean enabled = true;
+    private volatile int thresholdDb = DEFAULT_THRESHOLD_DB;
+    private volatile int hangoverMillis = DEFAULT_HANGOVER_MILLIS;
+
+    // Below is only touched by the thread handing over frames.
+    private double noiseDb = -1;
+    private double noiseZeroCrossingRate = 0.5;
+    private int hangoverRemaining;
+
+    private volatile long speechFrameCount;
+    private volatile long silentFrameCount;
+
+    public VoiceActivityDetector(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.subframeLength = Math.max(1, sampleRate*SUBFRAME_MILLIS / 1000);
+    }
+
+    /**
+     * @return whether samples[offset, offset + length) should be sent. Always true when disabled.
+     */
+    public boolean isSpeech(short[] samples, int offset, int length) {
+        boolean isSpeech = false;
+        for (int start = offset; start < offset + length; start += subframeLength) {
+            if (isSpeechSubframe(samples, start, Math.min(subframeLength, offset + length - start))) {
+                isSpeech = true;
+                hangoverRemaining = (int) ((long) hangoverMillis*sampleRate / 1000);
+            } else {
+                hangoverRemaining = Math.max(0, hangoverRemaining - subframeLength);
+            }
+        }
+
+        if (isSpeech || hangoverRemaining > 0 || !enabled) {
+            speechFrameCount++;
+            return true;
+        }
+        silentFrameCount++;
+        return false;
+    }
+
+    private boolean isSpeechSubframe(short[] samples, int start, int length) {
+        double energy = 0;
+        int zeroCrossings = 0;
+        int previous = samples[start];
+        for (int i = start; i < start + length; i++) {
+            int sample = samples[i];
+            energy += sample*sample;
+            if ((sample ^ previous) < 0) {
+                zeroCrossings++;
+            }
+            previous = sample;
+        }
+        double energyDb = 10*Math.log10(energy / length + 1);
+        double zeroCrossingRate = (double) zeroCrossings / length;
+
+        if (noiseDb < 0) {
+            noiseDb = Math.max(MIN_NOISE_DB, energyDb);
+            noiseZeroCrossingRate = zeroCrossingRate;
+        }
+
+        double aboveNoise = energyDb - noiseDb;
+        boolean isSpeech = aboveNoise > thresholdDb
+                || (aboveNoise > thresholdDb / 2.0 && Math.abs(zeroCrossingRate - noiseZeroCrossingRate) > ZERO_CROSSING_MARGIN);
+
+        if (aboveNoise < 0) {
+            noiseDb = Math.max(MIN_NOISE_DB, noiseDb + aboveNoise*NOISE_FALL);
+        } else {
+            noiseDb += Math.min(aboveNoise, isSpeech ? NOISE_RISE_DURING_SPEECH_DB : NOISE_RISE_DB);
+        }
+        if (!isSpeech) {
+            noiseZeroCrossingRate += (zeroCrossingRate - noiseZeroCrossingRate)*ZERO_CROSSING_FOLLOW;
+        }
+        return isSpeech;
+    }
+
+    /**
+     * @return the root mean square level of the background noise, in sample units, for playing
+     * comfort noise in place of frames that were not sent.
+     */
+    public int getNoiseLevel() {
+        if (noiseDb < 0) {
+            return 0;
+        }
+        return (int) Math.min(Short.MAX_VALUE, Math.sqrt(Math.pow(10, noiseDb / 10) - 1));
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param thresholdDb How many decibels above the background noise counts as speech.
+     */
+    public void setThresholdDb(int thresholdDb) {
+        this.thresholdDb = thresholdDb;
+    }
+
+    public int getThresholdDb() {
+        return thresholdDb;
+    }
+
+    /**
+     * @param hangoverMillis How long after speech frames keep counting as speech.
+     */
+    public void setHangoverMillis(int hangoverMillis) {
+        this.hangoverMillis = hangoverMillis;
+    }
+
+    public int getHangoverMillis() {
+        return hangoverMillis;
+    }
+
+    public long getSpeechFrameCount() {
+        return speechFrameCount;
+    }
+
+    public long getSilentFrameCount() {
+        return silentFrameCount;
+    }
+
+    @Override
+    public String toString() {
+        return speechFrameCount + " speech frames, " + silentFrameCount + " silent frames, noise level " + getNoiseLevel();
+    }
+}
@@ -0,0 +1,80 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+/**
+ * Runs AdaptivePlayout against a simulated clock and link and prints how the latency behaves.
+ */
+public class AdaptivePlayoutSimulation {
+
+    public static void main(String[] args) {
+        simulateAdaptivePlayout();
+    }
+
+    /**
+     * Run an AdaptivePlayout against a simulated clock and link, offline. Frames of synthetic
+     * voice are sent every tenth of a second by a sender whose clock is ahead of the receiver's
+     * and runs slightly fast. They arrive in order after a jittery delay, except for two stalls
+     * that then deliver everything at once. Audio is read a fiftieth of a second at a time. Prints
+     * the latency and playback rate over time and checks that the latency settles back on target
+     * after each stall without anything being skipped.
+     *
+     * Also checks that speeding up keeps the pitch of a steady tone and adds no clicks.
+     */
+    public static void simulateAdaptivePlayout() {
+        System.out.println("START ADAPTIVE PLAYOUT SIMULATION");
+        TestFixtures.PlayoutSimulationResult result = TestFixtures.runAdaptivePlayoutSimulation(true);
+        System.out.println((result.steadyWorstMillis <= TestFixtures.PLAYOUT_TOLERANCE_MILLIS ? "PASS" : "FAIL") + ": latency within "
+                + result.steadyWorstMillis + " ms of target before the first stall");
+        for (int i = 0; i < TestFixtures.PLAYOUT_STALLS.length; i++) {
+            long stallEnd = TestFixtures.PLAYOUT_STALLS[i][0] + TestFixtures.PLAYOUT_STALLS[i][1];
+            boolean settled = result.settledAfterMillis[i] >= 0 && result.settledAfterMillis[i] <= TestFixtures.PLAYOUT_MAX_SETTLE_MILLIS;
+            System.out.println((settled ? "PASS" : "FAIL") + ": back within " + TestFixtures.PLAYOUT_TOLERANCE_MILLIS + " ms of target " + result.settledAfterMillis[i]
+                    + " ms after the " + TestFixtures.PLAYOUT_STALLS[i][1] + " ms stall ending at " + stallEnd + " ms");
+        }
+        System.out.println((result.skippedSampleCount == 0 ? "PASS" : "FAIL") + ": " + result.skippedSampleCount + " samples skipped");
+        checkTimeStretchPitch();
+        System.out.println("END ADAPTIVE PLAYOUT SIMULATION");
+    }
+
+    // Plays a second of a 440 Hz tone that was held up and then arrived all at once, so that it
+    // is sped up as fast as it goes, and checks the tone and its smoothness on the way out.
+    private static void checkTimeStretchPitch() {
+        int sampleRate = PCMFrameMessage.SAMPLE_RATE;
+        int frameLength = sampleRate / 10;
+        double frequency = 440;
+        double amplitude = 10000;
+        AdaptivePlayout adaptivePlayout = new AdaptivePlayout(sampleRate, 100);
+        for (int frame = 0; frame < 10; frame++) {
+            short[] tone = new short[frameLength];
+            for (int i = 0; i < tone.length; i++) {
+                tone[i] = (short) Math.round(amplitude*Math.sin(2*Math.PI*frequency*(frame*frameLength + i) / sampleRate));
+            }
+            adaptivePlayout.write(frame*100, tone, 1000);
+        }
+
+        // Half a second of output, read the usual fiftieth of a second at a time
+        short[] out = new short[sampleRate / 2];
+        double rate = Double.MAX_VALUE;
+        for (int i = 0; i < out.length / 882; i++) {
+            adaptivePlayout.read(out, i*882, 882, 1000 + i*20);
+            rate = Math.min(rate, adaptivePlayout.getRate());
+        }
+
+        // Skip the fade in of the first window
+        int start = sampleRate / 10;
+        int crossings = 0;
+        int maxStep = 0;
+        for (int i = start + 1; i < out.length; i++) {
+            if ((out[i - 1] < 0) != (out[i] < 0)) {
+                crossings++;
+            }
+            maxStep = Math.max(maxStep, Math.abs(out[i] - out[i - 1]));
+        }
+        double measuredFrequency = crossings / 2.0 / ((out.length - start) / (double) sampleRate);
+        double expectedMaxStep = 2*Math.PI*frequency / sampleRate*amplitude;
+        boolean pitchKept = Math.abs(measuredFrequency - frequency) / frequency < 0.02;
+        boolean noClicks = maxStep < 1.5*expectedMaxStep;
+        System.out.println((pitchKept && rate > 1 ? "PASS" : "FAIL") + ": " + frequency + " Hz tone played at rate " + rate + " or more"
+                + " came out at " + measuredFrequency + " Hz");
+        System.out.println((noClicks ? "PASS" : "FAIL") + ": largest step between samples " + maxStep + ", a clean tone has " + Math.round(expectedMaxStep));
+    }
+}
@@ -0,0 +1,29 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePlayoutTest {
+
+    /**
+     * Half a minute of synthetic voice from a sender whose clock is offset and runs slightly
+     * fast, over a jittery link that stalls twice. The latency should hold on target before the
+     * stalls, and get back to it soon after each, without skipping any audio. Run
+     * AdaptivePlayoutSimulation.simulateAdaptivePlayout to see the curve.
+     */
+    @Test
+    public void jitterAndStalls_convergeOnTargetLatency() {
+        TestFixtures.PlayoutSimulationResult result = TestFixtures.runAdaptivePlayoutSimulation(false);
+
+        assertTrue("Latency strayed " + result.steadyWorstMillis + " ms from target before the first stall",
+                result.steadyWorstMillis <= TestFixtures.PLAYOUT_TOLERANCE_MILLIS);
+        for (int i = 0; i < TestFixtures.PLAYOUT_STALLS.length; i++) {
+            long settledAfterMillis = result.settledAfterMillis[i];
+            assertTrue("Never got back on target after stall " + i, settledAfterMillis >= 0);
+            assertTrue("Took " + settledAfterMillis + " ms to get back on target after stall " + i,
+                    settledAfterMillis <= TestFixtures.PLAYOUT_MAX_SETTLE_MILLIS);
+        }
+        assertEquals(0, result.skippedSampleCount);
+    }
+}
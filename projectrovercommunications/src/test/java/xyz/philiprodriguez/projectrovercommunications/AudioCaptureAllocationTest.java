@@ -0,0 +1,101 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class AudioCaptureAllocationTest {
+    private static final int FRAME_COUNT = 2000;
+    private static final int WARM_UP_FRAMES = 400;
+
+    // Room for the message object and the ByteBuffer over its payload, but not for any array of
+    // samples or encoded bytes
+    private static final int MAX_BYTES_PER_FRAME = 128;
+
+    /**
+     * Record into one reused array, encode into arrays from a ByteArrayPool, and send over a
+     * loopback socket through a SenderThread that gives the arrays back once written. Once warmed
+     * up, neither the recording thread nor the SenderThread should allocate any arrays.
+     */
+    @Test(timeout = 60000)
+    public void steadyStateAudioCapture_allocatesNoArrays() throws IOException, InterruptedException {
+        assumeTrue("This JVM cannot count allocated bytes", TestFixtures.getCurrentThreadAllocatedBytes() >= 0);
+
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket writeSocket = SocketChannel.open(serverSocket.getLocalSocketAddress()).socket();
+        final Socket readSocket = serverSocket.accept();
+        serverSocket.close();
+
+        SenderThread senderThread = new SenderThread(writeSocket, new OnThreadFinishedListener() {
+            @Override
+            public void onThreadFinished() {}
+        }, 10);
+        senderThread.start();
+        final MessageFrameReader frameReader = new MessageFrameReader(readSocket.getInputStream());
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (frameReader.readFrame()) {
+                        // Just keep the socket drained
+                    }
+                } catch (IOException e) {
+                    // Closed at the end of the test
+                }
+            }
+        });
+        reader.start();
+
+        int frameLength = PCMFrameMessage.SAMPLE_RATE / 10;
+        short[][] microphone = TestFixtures.createSyntheticVoice(16, frameLength);
+        ByteArrayPool byteArrayPool = new ByteArrayPool();
+        AudioFrameEncoder audioFrameEncoder = new AudioFrameEncoder(PCMFrameMessage.SAMPLE_RATE, byteArrayPool);
+        short[] audioRecordVals = new short[frameLength];
+
+        long recordAllocatedBefore = 0;
+        long senderAllocatedBefore = 0;
+        long missesBefore = 0;
+        long recordAllocated;
+        long senderAllocated;
+        long misses;
+        try {
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                if (i == WARM_UP_FRAMES) {
+                    recordAllocatedBefore = TestFixtures.getCurrentThreadAllocatedBytes();
+                    senderAllocatedBefore = TestFixtures.getThreadAllocatedBytes(senderThread);
+                    missesBefore = byteArrayPool.getMissCount();
+                }
+                // Stands in for AudioRecord.read()
+                System.arraycopy(microphone[i % microphone.length], 0, audioRecordVals, 0, frameLength);
+                senderThread.enqueueDroppable(audioFrameEncoder.encode(i*100, audioRecordVals));
+                // One frame in flight at a time, so that none are dropped
+                while (senderThread.getMessagesWritten() <= i) {
+                    Thread.yield();
+                }
+            }
+            recordAllocated = TestFixtures.getCurrentThreadAllocatedBytes() - recordAllocatedBefore;
+            senderAllocated = TestFixtures.getThreadAllocatedBytes(senderThread) - senderAllocatedBefore;
+            misses = byteArrayPool.getMissCount() - missesBefore;
+        } finally {
+            senderThread.interrupt();
+            writeSocket.close();
+            readSocket.close();
+            senderThread.join();
+            reader.join();
+        }
+
+        int countedFrames = FRAME_COUNT - WARM_UP_FRAMES;
+        assertEquals("Encoded frame arrays allocated outside the pool", 0, misses);
+        assertTrue("Recording and encoding allocated " + recordAllocated + " bytes over " + countedFrames + " frames",
+                recordAllocated <= (long) MAX_BYTES_PER_FRAME*countedFrames);
+        assertTrue("Sending allocated " + senderAllocated + " bytes over " + countedFrames + " frames",
+                senderAllocated <= (long) MAX_BYTES_PER_FRAME*countedFrames);
+    }
+}
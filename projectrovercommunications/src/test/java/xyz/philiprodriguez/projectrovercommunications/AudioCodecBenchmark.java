@@ -0,0 +1,94 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures AudioCodec speed, size and quality on synthetic voice.
+ */
+public class AudioCodecBenchmark {
+
+    public static void main(String[] args) {
+        benchmarkAudioCodec(100);
+    }
+
+    /**
+     * Compress a few seconds of synthetic voice, 100 ms frames of it at a time, with an
+     * AudioFrameEncoder and decode it again with an AudioFrameDecoder, going through the message
+     * bytes in between. Reports how long encoding and decoding each frame took, how much smaller
+     * the frames got compared to sending PCMFrameMessages, and the signal to noise ratio of what
+     * came out against what went in.
+     */
+    public static void benchmarkAudioCodec(int frameCount) {
+        System.out.println("START AUDIO CODEC");
+        int frameLength = PCMFrameMessage.SAMPLE_RATE / 10;
+        short[][] frames = TestFixtures.createSyntheticVoice(frameCount, frameLength);
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            AudioFrameEncoder audioFrameEncoder = new AudioFrameEncoder(PCMFrameMessage.SAMPLE_RATE);
+            AudioFrameDecoder audioFrameDecoder = new AudioFrameDecoder(PCMFrameMessage.SAMPLE_RATE);
+            CompressedAudioFrameMessage[] encoded = new CompressedAudioFrameMessage[frameCount];
+            long encodeNanos = 0;
+            long decodeNanos = 0;
+            long pcmBytes = 0;
+            long compressedBytes = 0;
+            double signalEnergy = 0;
+            double noiseEnergy = 0;
+            for (int i = 0; i < frameCount; i++) {
+                long start = System.nanoTime();
+                encoded[i] = audioFrameEncoder.encode(i*100, frames[i]);
+                encodeNanos += System.nanoTime() - start;
+                pcmBytes += new PCMFrameMessage(i*100, frames[i]).getEncodedLength();
+                compressedBytes += encoded[i].getEncodedLength();
+            }
+            // The filter delays the audio by half its length, so compare against the input that long ago
+            int delay = -1;
+            short[] previous = null;
+            for (int i = 0; i < frameCount; i++) {
+                byte[] bytes = encoded[i].getBytes();
+                ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, MessageEncoding.HEADER_LENGTH, bytes.length - MessageEncoding.HEADER_LENGTH);
+                long start = System.nanoTime();
+                CompressedAudioFrameMessage received = new CompressedAudioFrameMessage().fromBytes(byteBuffer);
+                short[] decoded = audioFrameDecoder.decode(received).getPCMValues();
+                decodeNanos += System.nanoTime() - start;
+                if (delay < 0) {
+                    delay = findDelay(frames[i], decoded, 64);
+                }
+                if (previous != null) {
+                    for (int j = 0; j < decoded.length && j < frameLength; j++) {
+                        int sourceIndex = j - delay;
+                        short source = sourceIndex >= 0 ? frames[i][sourceIndex] : previous[frameLength + sourceIndex];
+                        signalEnergy += (double) source*source;
+                        noiseEnergy += (double) (decoded[j] - source)*(decoded[j] - source);
+                    }
+                }
+                previous = frames[i];
+            }
+            if (round > 0) {
+                System.out.println("Encode: " + (encodeNanos / 1e3 / frameCount) + " us per 100 ms frame");
+                System.out.println("Decode: " + (decodeNanos / 1e3 / frameCount) + " us per 100 ms frame");
+                System.out.println("Size: " + (pcmBytes / frameCount) + " bytes as PCM, " + (compressedBytes / frameCount)
+                        + " bytes compressed, " + ((double) pcmBytes / compressedBytes) + "x smaller");
+                System.out.println("Bitrate: " + (compressedBytes*10 / frameCount / 1024) + " KiB/s, down from " + (pcmBytes*10 / frameCount / 1024) + " KiB/s");
+                System.out.println("SNR: " + (10*Math.log10(signalEnergy / noiseEnergy)) + " dB, with the output " + delay + " samples behind");
+            }
+        }
+        System.out.println("END AUDIO CODEC");
+    }
+
+    // The lag, up to maxDelay, at which output best matches input.
+    private static int findDelay(short[] input, short[] output, int maxDelay) {
+        int bestDelay = 0;
+        double bestCorrelation = Double.NEGATIVE_INFINITY;
+        for (int delay = 0; delay <= maxDelay; delay++) {
+            double correlation = 0;
+            for (int j = delay; j < output.length && j < input.length; j++) {
+                correlation += (double) input[j - delay]*output[j];
+            }
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                bestDelay = delay;
+            }
+        }
+        return bestDelay;
+    }
+}
@@ -0,0 +1,102 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compares AudioJitterBuffer with the queue playback used to read from.
+ */
+public class AudioJitterBufferBenchmark {
+
+    public static void main(String[] args) {
+        benchmarkAudioJitterBuffer(300);
+    }
+
+    /**
+     * Push received audio frames through the playback buffer and read them back out the way the
+     * playback loops do, once with the Queue of boxed Shorts the apps used to keep, polling a new
+     * array of a tenth of a second at a time, and once with an AudioJitterBuffer read into one
+     * reused array a fiftieth of a second at a time. Runs on one thread, so that what is measured
+     * is the cost of the buffer rather than of handing off between threads. Reports the time per
+     * sample and, on JVMs that can count it, how many bytes each sample allocated.
+     */
+    public static void benchmarkAudioJitterBuffer(int frameCount) {
+        System.out.println("START AUDIO JITTER BUFFER");
+        int frameLength = PCMFrameMessage.SAMPLE_RATE / 10;
+        short[][] frames = TestFixtures.createSyntheticVoice(16, frameLength);
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            long allocatedBefore = TestFixtures.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long played = runQueuePlayback(frames, frameCount);
+            long queueNanos = System.nanoTime() - start;
+            long queueAllocated = TestFixtures.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            allocatedBefore = TestFixtures.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            AudioJitterBuffer audioJitterBuffer = new AudioJitterBuffer(2*frameLength, 5*frameLength);
+            long ringPlayed = runJitterBufferPlayback(audioJitterBuffer, frames, frameCount);
+            long ringNanos = System.nanoTime() - start;
+            long ringAllocated = TestFixtures.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            if (round > 0) {
+                long samples = (long) frameCount*frameLength;
+                System.out.println("Queue<Short>: " + ((double) queueNanos / samples) + " ns/sample, "
+                        + (allocatedBefore < 0 ? "unknown" : String.valueOf((double) queueAllocated / samples)) + " bytes allocated/sample, "
+                        + played + " of " + samples + " samples played");
+                System.out.println("AudioJitterBuffer: " + ((double) ringNanos / samples) + " ns/sample, "
+                        + (allocatedBefore < 0 ? "unknown" : String.valueOf((double) ringAllocated / samples)) + " bytes allocated/sample, "
+                        + ringPlayed + " of " + samples + " samples played");
+                System.out.println("    " + audioJitterBuffer);
+            }
+        }
+        System.out.println("END AUDIO JITTER BUFFER");
+    }
+
+    // The playback loop as it was, fed one frame per pass.
+    private static long runQueuePlayback(short[][] frames, int frameCount) {
+        Queue<Short> queue = new ConcurrentLinkedQueue<>();
+        long played = 0;
+        for (int i = 0; i < frameCount; i++) {
+            for (short val : frames[i % frames.length]) {
+                queue.add(val);
+            }
+            while (queue.size() >= 4410) {
+                short[] playbackVals;
+                if (queue.size() > 4410 * 5) {
+                    playbackVals = new short[3969];
+                    int place = 0;
+                    for (int j = 0; j < 4410; j++) {
+                        short val = queue.poll();
+                        if (j % 10 == 0) {
+                            continue;
+                        }
+                        playbackVals[place] = val;
+                        place++;
+                    }
+                } else {
+                    playbackVals = new short[4410];
+                    for (int j = 0; j < 4410; j++) {
+                        playbackVals[j] = queue.poll();
+                    }
+                }
+                played += playbackVals.length;
+            }
+        }
+        return played;
+    }
+
+    // Reads a frame's worth after each frame is written, like a track playing in step with arrivals.
+    private static long runJitterBufferPlayback(AudioJitterBuffer audioJitterBuffer, short[][] frames, int frameCount) {
+        short[] playbackVals = new short[882];
+        long played = 0;
+        for (int i = 0; i < frameCount; i++) {
+            short[] frame = frames[i % frames.length];
+            audioJitterBuffer.write(frame, 0, frame.length);
+            for (int j = 0; j < frame.length / playbackVals.length; j++) {
+                played += audioJitterBuffer.read(playbackVals, 0, playbackVals.length);
+            }
+        }
+        return played;
+    }
+}
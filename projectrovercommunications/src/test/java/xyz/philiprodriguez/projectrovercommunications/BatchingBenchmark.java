@@ -0,0 +1,105 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Compares SenderThread batching settings for unpaced and paced senders over loopback.
+ */
+public class BatchingBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        benchmarkBatching(20000, 500);
+    }
+
+    /**
+     * Send messageCount motor state messages through a SenderThread over loopback with a few
+     * different batching settings, once as fast as possible and once paced at one message every
+     * pacingMicros, and report throughput along with messages per flush and bytes per write.
+     */
+    public static void benchmarkBatching(int messageCount, long pacingMicros) throws IOException, InterruptedException {
+        int[] budgets = new int[]{0, SenderThread.DEFAULT_BATCH_BYTE_BUDGET, SenderThread.DEFAULT_BATCH_BYTE_BUDGET};
+        long[] lingers = new long[]{0, 0, 500};
+
+        System.out.println("START BATCHING");
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            boolean print = round > 0;
+            for (int i = 0; i < budgets.length; i++) {
+                runBatchingBenchmark(budgets[i], lingers[i], messageCount, 0, print);
+                runBatchingBenchmark(budgets[i], lingers[i], messageCount / 10, pacingMicros, print);
+            }
+        }
+        System.out.println("END BATCHING");
+    }
+
+    private static void runBatchingBenchmark(int batchByteBudget, long maxLingerMicros, int messageCount, long pacingMicros, boolean print) throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket writeSocket = SocketChannel.open(serverSocket.getLocalSocketAddress()).socket();
+        Socket readSocket = serverSocket.accept();
+        serverSocket.close();
+
+        SenderThread senderThread = new SenderThread(writeSocket, new OnThreadFinishedListener() {
+            @Override
+            public void onThreadFinished() {
+            }
+        }, 10);
+        senderThread.setBatching(batchByteBudget, maxLingerMicros);
+        senderThread.start();
+
+        // Read on another thread so that the socket never backs up into the strict lane
+        final MessageFrameReader frameReader = new MessageFrameReader(readSocket.getInputStream());
+        final int expectedFrames = messageCount;
+        final long[] end = new long[1];
+        final int[] framesRead = new int[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (framesRead[0] < expectedFrames && frameReader.readFrame()) {
+                        framesRead[0]++;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                end[0] = System.nanoTime();
+            }
+        });
+        reader.start();
+
+        MotorStateMessage message = new MotorStateMessage(System.currentTimeMillis(), 1, 2, 3, 4);
+        long start = System.nanoTime();
+        long next = start;
+        for (int i = 0; i < messageCount; i++) {
+            // A full strict lane closes the socket, so stay under it as a real producer would
+            while (senderThread.getQueueDepth() >= 128) {
+                Thread.yield();
+            }
+            senderThread.enqueueStrict(message);
+            if (pacingMicros > 0) {
+                next += pacingMicros*1000;
+                while (System.nanoTime() < next) {
+                    // Spin, since sleeping is far too coarse for this
+                }
+            }
+        }
+        reader.join();
+
+        senderThread.interrupt();
+        writeSocket.close();
+        readSocket.close();
+        senderThread.join();
+
+        if (print) {
+            double seconds = (end[0] - start) / 1e9;
+            System.out.println("Budget " + batchByteBudget + " B, linger " + maxLingerMicros + " us, "
+                    + (pacingMicros > 0 ? "paced every " + pacingMicros + " us" : "unpaced") + ": "
+                    + (framesRead[0] / seconds) + " messages/s, "
+                    + senderThread.getMessagesPerFlush() + " messages/flush, "
+                    + senderThread.getBytesPerWrite() + " bytes/write");
+        }
+    }
+}
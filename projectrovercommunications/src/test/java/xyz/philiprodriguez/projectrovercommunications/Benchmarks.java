@@ -0,0 +1,73 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rough benchmarks for the communications code. None of these need Android, so they can be run
+ * from a plain JVM against the test classpath. Results are just printed out. They live with the
+ * tests so that they are not shipped in either app.
+ *
+ * Each benchmark is its own class with a main that runs it with the settings quoted in its
+ * commit. This main runs them all, or only those named, e.g.
+ * <pre>
+ * ./gradlew :projectrovercommunications:compileDebugUnitTestJavaWithJavac
+ * java -cp &lt;debug classes&gt;:&lt;debugUnitTest classes&gt; \
+ *     xyz.philiprodriguez.projectrovercommunications.Benchmarks FrameReaderBenchmark AudioCodecBenchmark
+ * </pre>
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = Arrays.asList(args);
+        if (shouldRun(names, "FrameReaderBenchmark")) {
+            FrameReaderBenchmark.main(args);
+        }
+        if (shouldRun(names, "DispatchBenchmark")) {
+            DispatchBenchmark.main(args);
+        }
+        if (shouldRun(names, "ServerTransportBenchmark")) {
+            ServerTransportBenchmark.main(args);
+        }
+        if (shouldRun(names, "SenderContentionBenchmark")) {
+            SenderContentionBenchmark.main(args);
+        }
+        if (shouldRun(names, "BatchingBenchmark")) {
+            BatchingBenchmark.main(args);
+        }
+        if (shouldRun(names, "VideoPipelineBenchmark")) {
+            VideoPipelineBenchmark.main(args);
+        }
+        if (shouldRun(names, "VideoRateControllerSimulation")) {
+            VideoRateControllerSimulation.main(args);
+        }
+        if (shouldRun(names, "FrameChangeDetectionBenchmark")) {
+            FrameChangeDetectionBenchmark.main(args);
+        }
+        if (shouldRun(names, "TiledVideoBenchmark")) {
+            TiledVideoBenchmark.main(args);
+        }
+        if (shouldRun(names, "FrameDecodingBenchmark")) {
+            FrameDecodingBenchmark.main(args);
+        }
+        if (shouldRun(names, "ImagePoolingBenchmark")) {
+            ImagePoolingBenchmark.main(args);
+        }
+        if (shouldRun(names, "AudioCodecBenchmark")) {
+            AudioCodecBenchmark.main(args);
+        }
+        if (shouldRun(names, "AudioJitterBufferBenchmark")) {
+            AudioJitterBufferBenchmark.main(args);
+        }
+        if (shouldRun(names, "AdaptivePlayoutSimulation")) {
+            AdaptivePlayoutSimulation.main(args);
+        }
+        if (shouldRun(names, "VoiceActivityDetectionSimulation")) {
+            VoiceActivityDetectionSimulation.main(args);
+        }
+    }
+
+    private static boolean shouldRun(List<String> names, String name) {
+        return names.isEmpty() || names.contains(name);
+    }
+}
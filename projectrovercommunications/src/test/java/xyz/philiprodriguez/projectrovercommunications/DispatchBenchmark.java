@@ -0,0 +1,90 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compares dispatching through MessageRegistry with the old chain of start code checks.
+ */
+public class DispatchBenchmark {
+
+    public static void main(String[] args) {
+        benchmarkDispatch(1000000);
+    }
+
+    /**
+     * Compare the cost of dispatching a received message through MessageRegistry against the old
+     * chain of start code checks, for a mix of small messages.
+     */
+    public static void benchmarkDispatch(int messageCount) {
+        ByteableMessage[] messages = new ByteableMessage[]{
+                new MotorStateMessage(System.currentTimeMillis(), 1, 2, 3, 4),
+                new ArmPositionMessage(System.currentTimeMillis(), 0.1, 0.2, 0.3),
+                new ServerStateMessage(System.currentTimeMillis(), 50, 60),
+                new PCMFrameMessage(System.currentTimeMillis(), new short[16])
+        };
+        int[] startCodes = new int[messages.length];
+        ByteBuffer[] payloads = new ByteBuffer[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            startCodes[i] = messages[i].getStartCode();
+            byte[] encoded = messages[i].getBytes();
+            payloads[i] = ByteBuffer.wrap(encoded, MessageEncoding.HEADER_LENGTH, encoded.length - MessageEncoding.HEADER_LENGTH).slice();
+        }
+
+        final long[] received = new long[1];
+        OnMessageReceivedListener<Object> counter = new OnMessageReceivedListener<Object>() {
+            @Override
+            public void onMessageReceived(Object message) {
+                received[0]++;
+            }
+        };
+        MessageRegistry messageRegistry = MessageRegistry.createDefault();
+        messageRegistry.register(new MotorStateMessage(), counter);
+        messageRegistry.register(new ArmPositionMessage(), counter);
+        messageRegistry.register(new ServerStateMessage(), counter);
+        messageRegistry.register(new PCMFrameMessage(), counter);
+
+        System.out.println("START DISPATCH");
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < messageCount; i++) {
+                int which = i % messages.length;
+                payloads[which].rewind();
+                dispatchWithChain(startCodes[which], payloads[which], counter);
+            }
+            long chainNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < messageCount; i++) {
+                int which = i % messages.length;
+                payloads[which].rewind();
+                messageRegistry.dispatch(startCodes[which], payloads[which]);
+            }
+            long registryNanos = System.nanoTime() - start;
+
+            // First rounds are just warm up
+            if (round == 2) {
+                System.out.println("If/else chain: " + ((double) chainNanos / messageCount) + " ns/message");
+                System.out.println("MessageRegistry: " + ((double) registryNanos / messageCount) + " ns/message");
+            }
+        }
+        System.out.println("Delivered " + received[0] + " messages");
+        System.out.println("END DISPATCH");
+    }
+
+    // This is how ReceiverThread used to pick a decoder, kept only for comparison.
+    private static void dispatchWithChain(int startCode, ByteBuffer messageBytes, OnMessageReceivedListener<Object> listener) {
+        if (startCode == new JPEGFrameMessage().getStartCode()) {
+            listener.onMessageReceived(new JPEGFrameMessage().fromBytes(messageBytes));
+        } else if (startCode == new MotorStateMessage().getStartCode()) {
+            listener.onMessageReceived(new MotorStateMessage().fromBytes(messageBytes));
+        } else if (startCode == new ArmPositionMessage().getStartCode()) {
+            listener.onMessageReceived(new ArmPositionMessage().fromBytes(messageBytes));
+        } else if (startCode == new ServerSettingsMessage().getStartCode()) {
+            listener.onMessageReceived(new ServerSettingsMessage().fromBytes(messageBytes));
+        } else if (startCode == new ServerStateMessage().getStartCode()) {
+            listener.onMessageReceived(new ServerStateMessage().fromBytes(messageBytes));
+        } else if (startCode == new PCMFrameMessage().getStartCode()) {
+            listener.onMessageReceived(new PCMFrameMessage().fromBytes(messageBytes));
+        }
+    }
+}
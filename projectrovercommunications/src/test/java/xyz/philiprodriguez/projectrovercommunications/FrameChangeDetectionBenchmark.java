@@ -0,0 +1,112 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.GrayFrame;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.GrayLuminanceSampler;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.DeflaterFrameEncoder;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.DeflaterRegionEncoder;
+
+/**
+ * Measures how many frames and bytes FrameChangeDetector saves on a few synthetic scenes.
+ */
+public class FrameChangeDetectionBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        benchmarkFrameChangeDetection(160, 360, 480, 40);
+    }
+
+    /**
+     * Run three recorded-like frame sequences through a FrameEncodingStage at targetFps, once
+     * encoding every frame and once skipping frames whose luminance signature has not changed:
+     * a parked rover looking at a still scene with sensor noise, the same scene with a small
+     * object moving through it, and a camera panning so that everything changes. Reports how many
+     * frames and bytes go out in each case, and what sampling a frame costs next to encoding it.
+     */
+    public static void benchmarkFrameChangeDetection(int frameCount, int width, int height, int targetFps) throws InterruptedException {
+        System.out.println("START FRAME CHANGE DETECTION");
+        String[] sceneNames = {"Parked", "Small object moving", "Panning"};
+        for (int scene = 0; scene < sceneNames.length; scene++) {
+            GrayFrame[] frames = new GrayFrame[frameCount];
+            for (int i = 0; i < frameCount; i++) {
+                frames[i] = GrayFrame.createScene(width, height, scene, i);
+            }
+            long[] everyFrame = runFrameChangeDetection(frames, false, targetFps);
+            long[] changedOnly = runFrameChangeDetection(frames, true, targetFps);
+            System.out.println(sceneNames[scene] + ": " + changedOnly[0] + " of " + frameCount + " frames sent with "
+                    + changedOnly[1] + " unchanged messages, " + (changedOnly[2] / 1024) + " KiB against "
+                    + (everyFrame[2] / 1024) + " KiB sending every frame ("
+                    + Math.round(100 - 100.0*changedOnly[2]/everyFrame[2]) + "% less)");
+        }
+
+        // Cost of telling whether a frame changed, next to the cost of encoding it
+        GrayFrame frame = GrayFrame.createScene(width, height, 0, 0);
+        GrayLuminanceSampler sampler = new GrayLuminanceSampler();
+        FrameChangeDetector frameChangeDetector = new FrameChangeDetector();
+        int[] signature = frameChangeDetector.createSignature();
+        DeflaterFrameEncoder encoder = new DeflaterFrameEncoder();
+        for (int round = 0; round < 2; round++) {
+            int iterations = 200;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sampler.sample(frame, frameChangeDetector.getColumns(), frameChangeDetector.getRows(), signature);
+                if (!frameChangeDetector.isUnchanged(signature)) {
+                    frameChangeDetector.setReference(signature);
+                }
+            }
+            long sampleNanos = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                encoder.encode(frame, new ServerSettings().getJpegQuality(), 0, i);
+            }
+            long encodeNanos = (System.nanoTime() - start) / iterations;
+            if (round > 0) {
+                System.out.println("Sampling and comparing " + (sampleNanos / 1e6) + " ms/frame, encoding "
+                        + (encodeNanos / 1e6) + " ms/frame");
+            }
+        }
+        System.out.println("END FRAME CHANGE DETECTION");
+    }
+
+    private static long[] runFrameChangeDetection(GrayFrame[] frames, boolean skipUnchanged, int targetFps) throws InterruptedException {
+        return runFrameChangeDetection(frames, skipUnchanged, false, targetFps);
+    }
+
+    // Returns {frames sent, unchanged messages sent, bytes sent, regions sent}.
+    static long[] runFrameChangeDetection(GrayFrame[] frames, boolean skipUnchanged, boolean tiled, int targetFps) throws InterruptedException {
+        final long[] sent = new long[4];
+        FrameEncodingStage<GrayFrame> frameEncodingStage = new FrameEncodingStage<>(new DeflaterFrameEncoder(), skipUnchanged ? new GrayLuminanceSampler() : null, new DeflaterRegionEncoder(), new ServerSettings().getJpegQuality(), new OnFrameEncodedListener() {
+            @Override
+            public void onFrameEncoded(JPEGFrameMessage jpegFrameMessage) {
+                sent[0]++;
+                sent[2] += jpegFrameMessage.getEncodedLength();
+            }
+
+            @Override
+            public void onFrameUnchanged(FrameUnchangedMessage frameUnchangedMessage) {
+                sent[1]++;
+                sent[2] += frameUnchangedMessage.getEncodedLength();
+            }
+
+            @Override
+            public void onTileFrameEncoded(TileFrameMessage tileFrameMessage) {
+                sent[0]++;
+                sent[2] += tileFrameMessage.getEncodedLength();
+                sent[3] += tileFrameMessage.getRegionCount();
+            }
+        });
+        frameEncodingStage.setTiledEnabled(tiled);
+        long next = System.nanoTime();
+        for (int i = 0; i < frames.length; i++) {
+            frameEncodingStage.submit(frames[i]);
+            next += 1000000000L / targetFps;
+            long sleepNanos = next - System.nanoTime();
+            if (sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            }
+        }
+        while (frameEncodingStage.getEncodedFrameCount() + frameEncodingStage.getUnchangedFrameCount() + frameEncodingStage.getDroppedFrameCount() < frames.length) {
+            Thread.sleep(1);
+        }
+        frameEncodingStage.shutdown();
+        return sent;
+    }
+}
@@ -0,0 +1,201 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.GrayFrame;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.DeflaterFrameEncoder;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.InflaterFrameDecoder;
+
+/**
+ * Measures how much slow frame decodes hold up other messages, with and without
+ * FrameDecodingStage.
+ */
+public class FrameDecodingBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        benchmarkFrameDecoding(100, 360, 480, 20, 80);
+    }
+
+    /**
+     * Stream frames at targetFps over a loopback socket along with a small state message every 10
+     * ms, and decode the frames on the client with a decoder that takes decodeMillis per frame.
+     * This is done once decoding on the ReceiverThread as frames arrive, and once handing them to
+     * a FrameDecodingStage with a thread taking the newest frame at 60 Hz in place of the display.
+     * Reports how long the state messages took to arrive, as that is what a slow decode holds up,
+     * and what each stage dropped.
+     */
+    public static void benchmarkFrameDecoding(int frameCount, int width, int height, int targetFps, long decodeMillis) throws IOException, InterruptedException {
+        System.out.println("START FRAME DECODING");
+        runFrameDecodingBenchmark("Decoding on the receiver", false, frameCount, width, height, targetFps, decodeMillis);
+        runFrameDecodingBenchmark("FrameDecodingStage", true, frameCount, width, height, targetFps, decodeMillis);
+        System.out.println("END FRAME DECODING");
+    }
+
+    private static void runFrameDecodingBenchmark(String name, boolean useStage, int frameCount, int width, int height, int targetFps, long decodeMillis) throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket serverSide = SocketChannel.open(serverSocket.getLocalSocketAddress()).socket();
+        Socket clientSide = serverSocket.accept();
+        serverSocket.close();
+
+        OnThreadFinishedListener ignoreFinished = new OnThreadFinishedListener() {
+            @Override
+            public void onThreadFinished() {
+            }
+        };
+        SenderThread senderThread = new SenderThread(serverSide, ignoreFinished, 10);
+        senderThread.start();
+
+        final SlowFrameDecoder frameDecoder = new SlowFrameDecoder(decodeMillis);
+        final FrameDecodingStage<GrayFrame> frameDecodingStage = new FrameDecodingStage<>(frameDecoder, null, null);
+        final int[] inlineDecodedCount = new int[1];
+        final List<Long> stateLatencyNanos = new ArrayList<>();
+        MessageRegistry messageRegistry = MessageRegistry.createDefault();
+        if (useStage) {
+            messageRegistry.register(new JPEGFrameMessage(), new OnMessageReceivedListener<JPEGFrameMessage>() {
+                @Override
+                public void onMessageReceived(JPEGFrameMessage message) {
+                    frameDecodingStage.submit(message.getEncodedFrame());
+                }
+            });
+        } else {
+            messageRegistry.register(new JPEGFrameMessage(), new OnMessageReceivedListener<JPEGFrameMessage>() {
+                @Override
+                public void onMessageReceived(JPEGFrameMessage message) {
+                    if (frameDecoder.decode(message.getEncodedFrame()) != null) {
+                        inlineDecodedCount[0]++;
+                    }
+                }
+            });
+        }
+        messageRegistry.setOnServerStateMessageReceivedListener(new OnServerStateMessageReceivedListener() {
+            @Override
+            public void OnServerStateMessageReceived(ServerStateMessage serverStateMessage) {
+                // The timestamp is a System.nanoTime() here, which is fine within one process
+                long latencyNanos = System.nanoTime() - serverStateMessage.getTimestamp();
+                synchronized (stateLatencyNanos) {
+                    stateLatencyNanos.add(latencyNanos);
+                }
+            }
+        });
+        ReceiverThread receiverThread = new ReceiverThread(clientSide, messageRegistry, ignoreFinished);
+        receiverThread.start();
+
+        // Stands in for the display, taking the newest frame once per refresh
+        Thread presenter = new Thread() {
+            @Override
+            public void run() {
+                DecodedFrame<GrayFrame> shown = null;
+                while (!isInterrupted()) {
+                    DecodedFrame<GrayFrame> latest = frameDecodingStage.takeLatestFrame();
+                    if (latest != null) {
+                        if (shown != null) {
+                            frameDecodingStage.release(shown);
+                        }
+                        shown = latest;
+                    }
+                    try {
+                        Thread.sleep(16);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        if (useStage) {
+            presenter.start();
+        }
+
+        EncodedFrame[] encodedFrames = new EncodedFrame[16];
+        DeflaterFrameEncoder frameEncoder = new DeflaterFrameEncoder();
+        for (int i = 0; i < encodedFrames.length; i++) {
+            encodedFrames[i] = frameEncoder.encode(GrayFrame.createSynthetic(width, height, i), 50, 0, 0);
+        }
+
+        long start = System.nanoTime();
+        long frameIntervalNanos = 1000000000L / targetFps;
+        long stateIntervalNanos = 10000000L;
+        long nextFrame = start;
+        long nextState = start;
+        int framesSent = 0;
+        while (framesSent < frameCount) {
+            long now = System.nanoTime();
+            if (now >= nextFrame) {
+                EncodedFrame encoded = encodedFrames[framesSent % encodedFrames.length];
+                senderThread.enqueueDroppable(new JPEGFrameMessage(new EncodedFrame(System.currentTimeMillis(), framesSent, width, height, 50, encoded.getBytes())));
+                framesSent++;
+                nextFrame += frameIntervalNanos;
+            }
+            if (now >= nextState) {
+                senderThread.enqueueStrict(new ServerStateMessage(System.nanoTime(), 100, 100));
+                nextState += stateIntervalNanos;
+            }
+            long sleepNanos = Math.min(nextFrame, nextState) - System.nanoTime();
+            if (sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            }
+        }
+        // Let whatever is still queued arrive
+        Thread.sleep(500 + decodeMillis*20);
+
+        presenter.interrupt();
+        frameDecodingStage.shutdown();
+        senderThread.interrupt();
+        serverSide.close();
+        clientSide.close();
+        receiverThread.join();
+        senderThread.join();
+        presenter.join();
+
+        long[] latencies;
+        synchronized (stateLatencyNanos) {
+            latencies = new long[stateLatencyNanos.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = stateLatencyNanos.get(i);
+            }
+        }
+        Arrays.sort(latencies);
+        int count = latencies.length;
+        System.out.println(name + " (" + decodeMillis + " ms/decode, " + targetFps + " fps): state messages p50 "
+                + (count == 0 ? 0 : latencies[count / 2] / 1e6) + " ms, p99 "
+                + (count == 0 ? 0 : latencies[Math.min(count - 1, count*99/100)] / 1e6) + " ms, max "
+                + (count == 0 ? 0 : latencies[count - 1] / 1e6) + " ms, sender dropped "
+                + senderThread.getDroppedMessageCount() + " frames");
+        if (useStage) {
+            System.out.println("    " + frameDecodingStage);
+        } else {
+            System.out.println("    Decoded " + inlineDecodedCount[0] + " of " + frameCount + " frames");
+        }
+    }
+
+    // Takes as long as decoding a JPEG on a phone might, on top of actually decoding.
+    private static class SlowFrameDecoder implements FrameDecoder<GrayFrame> {
+        private final InflaterFrameDecoder frameDecoder = new InflaterFrameDecoder();
+        private final long decodeMillis;
+
+        private SlowFrameDecoder(long decodeMillis) {
+            this.decodeMillis = decodeMillis;
+        }
+
+        @Override
+        public GrayFrame decode(EncodedFrame encodedFrame) {
+            try {
+                Thread.sleep(decodeMillis);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            return frameDecoder.decode(encodedFrame);
+        }
+
+        @Override
+        public void release(GrayFrame image) {
+            frameDecoder.release(image);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares MessageFrameReader with reading frames a byte at a time, over loopback.
+ */
+public class FrameReaderBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        benchmarkFrameReader(2000, 30*1024);
+    }
+
+    /**
+     * Push frameCount JPEG sized frames over a loopback socket and read them back, once with the
+     * old byte-at-a-time reading and once with MessageFrameReader.
+     */
+    public static void benchmarkFrameReader(int frameCount, int frameSize) throws IOException, InterruptedException {
+        byte[] frame = new JPEGFrameMessage(System.currentTimeMillis(), new byte[frameSize]).getBytes();
+
+        System.out.println("START FRAME READER");
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            boolean print = round > 0;
+            runFrameReaderBenchmark("Byte at a time", false, frame, frameCount, print);
+            runFrameReaderBenchmark("MessageFrameReader", true, frame, frameCount, print);
+        }
+        System.out.println("END FRAME READER");
+    }
+
+    private static void runFrameReaderBenchmark(String name, boolean useFrameReader, final byte[] frame, final int frameCount, boolean print) throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final Socket writeSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        Socket readSocket = serverSocket.accept();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream outputStream = writeSocket.getOutputStream();
+                    for (int i = 0; i < frameCount; i++) {
+                        outputStream.write(frame);
+                    }
+                    outputStream.flush();
+                    writeSocket.shutdownOutput();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        writer.start();
+        int framesRead = 0;
+        long allocations;
+        if (useFrameReader) {
+            MessageFrameReader frameReader = new MessageFrameReader(readSocket.getInputStream());
+            while (frameReader.readFrame()) {
+                frameReader.getPayload();
+                framesRead++;
+            }
+            allocations = frameReader.getBufferAllocations();
+        } else {
+            framesRead = readFramesByteAtATime(new BufferedInputStream(readSocket.getInputStream()));
+            // One ByteBuffer for the length and one byte[] for the message bytes per frame
+            allocations = 2L*framesRead;
+        }
+        long end = System.nanoTime();
+        writer.join();
+
+        readSocket.close();
+        writeSocket.close();
+        serverSocket.close();
+
+        if (print) {
+            double seconds = (end - start) / 1e9;
+            double megabytes = ((double) frame.length * framesRead) / (1024.0*1024.0);
+            System.out.println(name + ": " + framesRead + " frames, " + (megabytes / seconds) + " MB/s, "
+                    + ((double) allocations / framesRead) + " buffer allocations per frame");
+        }
+    }
+
+    // This is how ReceiverThread used to read frames, kept only for comparison.
+    private static int readFramesByteAtATime(InputStream socketInput) throws IOException {
+        int framesRead = 0;
+        outer:
+        while (true) {
+            for (int i = 0; i < ReceiverThread.START_SEQUENCE.length; i++) {
+                int nextByte = socketInput.read();
+                if (nextByte < 0) {
+                    break outer;
+                }
+                if (nextByte != ReceiverThread.START_SEQUENCE[i]) {
+                    continue outer;
+                }
+            }
+
+            socketInput.read();
+
+            ByteBuffer messageSizeBB = ByteBuffer.allocate(4);
+            messageSizeBB.put((byte) socketInput.read());
+            messageSizeBB.put((byte) socketInput.read());
+            messageSizeBB.put((byte) socketInput.read());
+            messageSizeBB.put((byte) socketInput.read());
+            messageSizeBB.rewind();
+            int messageSize = messageSizeBB.getInt();
+
+            byte[] messageBytes = new byte[messageSize];
+            for (int i = 0; i < messageBytes.length; i++) {
+                int nextByte = socketInput.read();
+                if (nextByte < 0) {
+                    break outer;
+                }
+                messageBytes[i] = (byte) nextByte;
+            }
+            framesRead++;
+        }
+        return framesRead;
+    }
+}
@@ -0,0 +1,100 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.GrayFrame;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.DeflaterFrameEncoder;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.InflaterFrameDecoder;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.GrayFramePool;
+
+/**
+ * Measures image allocation through the video path with and without pools.
+ */
+public class ImagePoolingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        benchmarkImagePooling(300, 360, 480);
+    }
+
+    /**
+     * Stream frames from capture through encoding, decoding and display on a plain JVM, once
+     * allocating a new image for every captured and every decoded frame as before, and once
+     * taking them from an ImagePool on each side, the way frames are captured with
+     * TextureView.getBitmap(Bitmap) and decoded with inBitmap on the phones. Reports how many
+     * bytes of images were allocated, the pool hits and misses, and how long each round took.
+     */
+    public static void benchmarkImagePooling(int frameCount, int width, int height) throws InterruptedException {
+        System.out.println("START IMAGE POOLING");
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            runImagePoolingBenchmark("Unpooled", 0, frameCount, width, height, round > 0);
+            runImagePoolingBenchmark("Pooled", BitmapPool.DEFAULT_MAX_BITMAPS, frameCount, width, height, round > 0);
+        }
+        System.out.println("END IMAGE POOLING");
+    }
+
+    private static void runImagePoolingBenchmark(String name, int maxPooledFrames, int frameCount, int width, int height, boolean print) throws InterruptedException {
+        GrayFramePool capturePool = new GrayFramePool(maxPooledFrames);
+        final GrayFramePool displayPool = new GrayFramePool(maxPooledFrames);
+        final FrameDecodingStage<GrayFrame> frameDecodingStage = new FrameDecodingStage<>(new InflaterFrameDecoder(displayPool), null, null);
+        // Stands in for the display, showing each frame as soon as it is decoded
+        frameDecodingStage.setOnFrameDecodedListener(new OnFrameDecodedListener() {
+            private DecodedFrame<GrayFrame> shown;
+
+            @Override
+            public void onFrameDecoded() {
+                DecodedFrame<GrayFrame> latest = frameDecodingStage.takeLatestFrame();
+                if (latest != null) {
+                    if (shown != null) {
+                        frameDecodingStage.release(shown);
+                    }
+                    shown = latest;
+                }
+            }
+        });
+        FrameEncodingStage<GrayFrame> frameEncodingStage = new FrameEncodingStage<>(new DeflaterFrameEncoder(capturePool), new ServerSettings().getJpegQuality(), new OnFrameEncodedListener() {
+            @Override
+            public void onFrameEncoded(JPEGFrameMessage jpegFrameMessage) {
+                frameDecodingStage.submit(jpegFrameMessage.getEncodedFrame());
+            }
+
+            @Override
+            public void onTileFrameEncoded(TileFrameMessage tileFrameMessage) {
+                // Tiling is never turned on here
+            }
+
+            @Override
+            public void onFrameUnchanged(FrameUnchangedMessage frameUnchangedMessage) {
+                // Every frame is encoded here
+            }
+        });
+
+        // What the camera sees, copied into a capture frame each time like TextureView.getBitmap()
+        GrayFrame[] scenes = new GrayFrame[16];
+        for (int i = 0; i < scenes.length; i++) {
+            scenes[i] = GrayFrame.createSynthetic(width, height, i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < frameCount; i++) {
+            // One frame in flight at a time, so that none are dropped and both rounds do the same work
+            while (frameDecodingStage.getDecodedFrameCount() + frameDecodingStage.getDroppedBeforeDecodeCount() < i) {
+                Thread.yield();
+            }
+            GrayFrame capture = capturePool.acquire(width, height, null);
+            System.arraycopy(scenes[i % scenes.length].pixels, 0, capture.pixels, 0, capture.pixels.length);
+            frameEncodingStage.submit(capture);
+        }
+        while (frameDecodingStage.getDecodedFrameCount() + frameDecodingStage.getDroppedBeforeDecodeCount() < frameCount) {
+            Thread.yield();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        frameEncodingStage.shutdown();
+        frameDecodingStage.shutdown();
+
+        if (print) {
+            long allocatedBytes = (capturePool.getMissCount() + displayPool.getMissCount())*width*height;
+            System.out.println(name + ": " + (allocatedBytes / 1024) + " KiB of images allocated for " + frameCount + " frames, "
+                    + (elapsedNanos / 1e6 / frameCount) + " ms/frame");
+            System.out.println("    Capture pool " + capturePool + ", display pool " + displayPool);
+        }
+    }
+}
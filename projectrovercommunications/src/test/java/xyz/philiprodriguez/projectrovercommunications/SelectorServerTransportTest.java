@@ -0,0 +1,134 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SelectorServerTransportTest {
+
+    /**
+     * A message whose listener throws should cost only the client that sent it its connection.
+     * Another client's messages keep being dispatched.
+     */
+    @Test(timeout = 30000)
+    public void failingDispatch_closesOnlyThatClient() throws IOException, InterruptedException {
+        final BlockingQueue<MotorStateMessage> received = new ArrayBlockingQueue<>(16);
+        MessageRegistry messageRegistry = MessageRegistry.createDefault();
+        messageRegistry.register(new MotorStateMessage(), new OnMessageReceivedListener<MotorStateMessage>() {
+            @Override
+            public void onMessageReceived(MotorStateMessage message) {
+                if (message.getLeftForward() == 13) {
+                    throw new IllegalStateException("Unlucky motor command!");
+                }
+                received.add(message);
+            }
+        });
+        SelectorServerTransport transport = new SelectorServerTransport(0, messageRegistry, 10, null);
+        Socket badClient = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+        Socket goodClient = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+        try {
+            waitForConnectionCount(transport, 2);
+
+            badClient.getOutputStream().write(new MotorStateMessage(0, 13, 0, 13, 0).getBytes());
+            waitForConnectionCount(transport, 1);
+            assertEquals("Bad client's socket was not closed", -1, badClient.getInputStream().read());
+
+            goodClient.getOutputStream().write(new MotorStateMessage(0, 42, 0, 42, 0).getBytes());
+            MotorStateMessage message = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Good client's message was not dispatched", message);
+            assertEquals(42, message.getLeftForward());
+            assertFalse(transport.isKilled());
+        } finally {
+            badClient.close();
+            goodClient.close();
+            transport.kill();
+            transport.waitForKill();
+        }
+    }
+
+    /**
+     * Closing a connection that is backed up gives back every message it was holding, queued or
+     * part written.
+     */
+    @Test(timeout = 30000)
+    public void close_releasesQueuedAndInFlightMessages() throws IOException, InterruptedException {
+        final ClientConnection[] connection = new ClientConnection[1];
+        SelectorServerTransport transport = new SelectorServerTransport(0, MessageRegistry.createDefault(), 10, new OnClientConnectedListener() {
+            @Override
+            public void onClientConnected(ClientConnection clientConnection) {
+                synchronized (connection) {
+                    connection[0] = clientConnection;
+                    connection.notifyAll();
+                }
+            }
+        });
+        // Never reads, so the server's socket backs up
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+        try {
+            ClientConnection clientConnection;
+            synchronized (connection) {
+                while (connection[0] == null) {
+                    connection.wait();
+                }
+                clientConnection = connection[0];
+            }
+
+            AtomicInteger releasedCount = new AtomicInteger();
+            int enqueuedCount = 0;
+            for (int i = 0; i < 100; i++) {
+                clientConnection.enqueueStrict(new CountingMessage(releasedCount));
+                clientConnection.enqueueDroppable(new CountingMessage(releasedCount));
+                clientConnection.enqueueLatest(new CountingMessage(releasedCount));
+                enqueuedCount += 3;
+            }
+            assertTrue("Nothing backed up", clientConnection.getQueueDepth() > 0);
+
+            clientConnection.close();
+            // Enqueued after closing, so given straight back
+            clientConnection.enqueueStrict(new CountingMessage(releasedCount));
+            enqueuedCount++;
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (releasedCount.get() < enqueuedCount && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(enqueuedCount, releasedCount.get());
+        } finally {
+            client.close();
+            transport.kill();
+            transport.waitForKill();
+        }
+    }
+
+    private static void waitForConnectionCount(SelectorServerTransport transport, int count) throws InterruptedException {
+        while (transport.getConnectionCount() != count) {
+            Thread.sleep(5);
+        }
+    }
+
+    // Big enough that a few of them fill the socket, and counts its releases.
+    private static class CountingMessage extends PCMFrameMessage implements ReleasableMessage {
+        private final AtomicInteger releasedCount;
+
+        CountingMessage(AtomicInteger releasedCount) {
+            super(0, new short[16*1024]);
+            this.releasedCount = releasedCount;
+        }
+
+        @Override
+        public void retain() {}
+
+        @Override
+        public void release() {
+            releasedCount.incrementAndGet();
+        }
+    }
+}
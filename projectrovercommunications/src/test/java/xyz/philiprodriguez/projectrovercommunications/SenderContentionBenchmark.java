@@ -0,0 +1,225 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+
+/**
+ * Compares how long producers wait to enqueue on SenderThread and on the old locking sender while
+ * the socket is slow to drain.
+ */
+public class SenderContentionBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        benchmarkSenderContention(3000, 200*1024);
+    }
+
+    /**
+     * Have three producers (camera frames, audio frames and state messages, like the server has)
+     * enqueue as fast as their timers allow while the receiving end of a loopback socket only
+     * reads at about readBytesPerSecond, and report how long the producers spent inside enqueue.
+     * This is done once with the old single monitor sender and once with SenderThread.
+     */
+    public static void benchmarkSenderContention(long durationMillis, int readBytesPerSecond) throws IOException, InterruptedException {
+        System.out.println("START SENDER CONTENTION");
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            boolean print = round > 0;
+            runSenderContentionBenchmark("Single monitor", false, durationMillis, readBytesPerSecond, print);
+            runSenderContentionBenchmark("SenderThread", true, durationMillis, readBytesPerSecond, print);
+        }
+        System.out.println("END SENDER CONTENTION");
+    }
+
+    private static void runSenderContentionBenchmark(String name, boolean useSenderThread, final long durationMillis, final int readBytesPerSecond, boolean print) throws IOException, InterruptedException {
+        // Small socket buffers so that the slow reader is felt by the sender within the run
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReceiveBufferSize(16*1024);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        Socket writeSocket = new Socket();
+        writeSocket.setSendBufferSize(16*1024);
+        writeSocket.connect(serverSocket.getLocalSocketAddress());
+        final Socket readSocket = serverSocket.accept();
+        serverSocket.close();
+
+        Thread sink = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputStream inputStream = readSocket.getInputStream();
+                    byte[] chunk = new byte[4096];
+                    long nanosPerChunk = 1000000000L*chunk.length / readBytesPerSecond;
+                    long next = System.nanoTime();
+                    while (inputStream.read(chunk) >= 0) {
+                        next += nanosPerChunk;
+                        long sleepNanos = next - System.nanoTime();
+                        if (sleepNanos > 0) {
+                            Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                        }
+                    }
+                } catch (IOException e) {
+                    // Closed at the end of the run
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        sink.start();
+
+        final SenderThread senderThread;
+        final LockingSender lockingSender;
+        if (useSenderThread) {
+            senderThread = new SenderThread(writeSocket, new OnThreadFinishedListener() {
+                @Override
+                public void onThreadFinished() {
+                }
+            }, 10);
+            senderThread.start();
+            lockingSender = null;
+        } else {
+            lockingSender = new LockingSender(writeSocket, 10);
+            lockingSender.start();
+            senderThread = null;
+        }
+
+        final JPEGFrameMessage frame = new JPEGFrameMessage(System.currentTimeMillis(), new byte[20*1024]);
+        final PCMFrameMessage audio = new PCMFrameMessage(System.currentTimeMillis(), new short[800]);
+        final ServerStateMessage state = new ServerStateMessage(System.currentTimeMillis(), 50, 60);
+        String[] producerNames = new String[]{"camera", "audio", "state"};
+        final long[] periodsMillis = new long[]{33, 10, 5};
+        final long[] enqueueCounts = new long[3];
+        final long[] totalNanos = new long[3];
+        final long[] maxNanos = new long[3];
+
+        final long end = System.currentTimeMillis() + durationMillis;
+        Thread[] producers = new Thread[3];
+        for (int i = 0; i < producers.length; i++) {
+            final int which = i;
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            long start = System.nanoTime();
+                            if (senderThread != null) {
+                                if (which == 0) {
+                                    senderThread.enqueueDroppable(frame);
+                                } else if (which == 1) {
+                                    senderThread.enqueueDroppable(audio);
+                                } else {
+                                    senderThread.enqueueLatest(state);
+                                }
+                            } else {
+                                if (which == 0) {
+                                    lockingSender.enqueueDroppable(frame);
+                                } else if (which == 1) {
+                                    lockingSender.enqueueDroppable(audio);
+                                } else {
+                                    lockingSender.enqueueStrict(state);
+                                }
+                            }
+                            long nanos = System.nanoTime() - start;
+                            enqueueCounts[which]++;
+                            totalNanos[which] += nanos;
+                            maxNanos[which] = Math.max(maxNanos[which], nanos);
+                            Thread.sleep(periodsMillis[which]);
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        long dropped;
+        if (senderThread != null) {
+            dropped = senderThread.getDroppedMessageCount();
+            senderThread.interrupt();
+        } else {
+            dropped = lockingSender.droppedMessageCount;
+            lockingSender.interrupt();
+        }
+        writeSocket.close();
+        readSocket.close();
+        sink.join();
+
+        if (print) {
+            System.out.println(name + ":");
+            for (int i = 0; i < producers.length; i++) {
+                System.out.println("    " + producerNames[i] + ": " + enqueueCounts[i] + " enqueues, mean "
+                        + (totalNanos[i] / Math.max(1, enqueueCounts[i]) / 1000.0) + " us, max "
+                        + (maxNanos[i] / 1000000.0) + " ms");
+            }
+            System.out.println("    dropped " + dropped + " messages");
+        }
+    }
+
+    // This is how SenderThread used to queue and send messages, kept only for comparison. The
+    // socket write happens while holding the same monitor that producers need to enqueue.
+    private static class LockingSender extends Thread {
+        private final Socket socket;
+        private final int droppableQueueSizeLimit;
+        private final Object queueModificationLockAndMonitor = new Object();
+        private final LinkedList<ByteableMessage> strictSendQueue = new LinkedList<>();
+        private final LinkedList<ByteableMessage> droppableSendQueue = new LinkedList<>();
+        private long droppedMessageCount;
+
+        private LockingSender(Socket socket, int droppableQueueSizeLimit) {
+            this.socket = socket;
+            this.droppableQueueSizeLimit = droppableQueueSizeLimit;
+        }
+
+        @Override
+        public void run() {
+            try {
+                OutputStream socketOutput = new BufferedOutputStream(socket.getOutputStream());
+                while (!Thread.currentThread().isInterrupted()) {
+                    synchronized (queueModificationLockAndMonitor) {
+                        if (strictSendQueue.size() <= 0 && droppableSendQueue.size() <= 0) {
+                            queueModificationLockAndMonitor.wait();
+                        }
+                        if (strictSendQueue.size() > 0) {
+                            socketOutput.write(strictSendQueue.pollFirst().getBytes());
+                        }
+                        if (droppableSendQueue.size() > 0) {
+                            socketOutput.write(droppableSendQueue.pollFirst().getBytes());
+                        }
+                        socketOutput.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Closed at the end of the run
+            } catch (InterruptedException e) {
+                // Stopped at the end of the run
+            }
+        }
+
+        private void enqueueStrict(ByteableMessage message) {
+            synchronized (queueModificationLockAndMonitor) {
+                strictSendQueue.addLast(message);
+                queueModificationLockAndMonitor.notify();
+            }
+        }
+
+        private void enqueueDroppable(ByteableMessage message) {
+            synchronized (queueModificationLockAndMonitor) {
+                while (droppableSendQueue.size() >= droppableQueueSizeLimit) {
+                    droppableSendQueue.pollFirst();
+                    droppedMessageCount++;
+                }
+                droppableSendQueue.addLast(message);
+                queueModificationLockAndMonitor.notify();
+            }
+        }
+    }
+}
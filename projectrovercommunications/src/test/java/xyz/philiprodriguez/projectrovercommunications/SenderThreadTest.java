@@ -0,0 +1,169 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SenderThreadTest {
+
+    /**
+     * The reading end of a loopback connection stops reading until the socket backs up, a run of
+     * drive commands with a stop in the middle is enqueued, and then reading resumes. Only the
+     * stop and the newest drive command should arrive, in that order.
+     */
+    @Test(timeout = 30000)
+    public void stalledConnection_deliversStopAndNewestMotorCommandOnly() throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReceiveBufferSize(16*1024);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        Socket sendSocket = SocketChannel.open(serverSocket.getLocalSocketAddress()).socket();
+        Socket readSocket = serverSocket.accept();
+        serverSocket.close();
+
+        SenderThread senderThread = new SenderThread(sendSocket, new OnThreadFinishedListener() {
+            @Override
+            public void onThreadFinished() {}
+        }, 10);
+        senderThread.start();
+
+        try {
+            // Back the socket up with audio while nothing is being read, until the sender has
+            // had messages waiting for a while
+            short[] audio = new short[4000];
+            long stalledSince = -1;
+            while (stalledSince < 0 || System.currentTimeMillis() - stalledSince < 200) {
+                if (senderThread.getQueueDepth() < 10) {
+                    senderThread.enqueueDroppable(new PCMFrameMessage(System.currentTimeMillis(), audio));
+                    stalledSince = -1;
+                } else {
+                    if (stalledSince < 0) {
+                        stalledSince = System.currentTimeMillis();
+                    }
+                    Thread.sleep(1);
+                }
+            }
+
+            int commandCount = 1000;
+            for (int i = 1; i <= commandCount; i++) {
+                enqueueMotorState(senderThread, new MotorStateMessage(System.currentTimeMillis(), i, 0, i, 0));
+            }
+            enqueueMotorState(senderThread, new MotorStateMessage(System.currentTimeMillis(), 0, 0, 0, 0));
+            for (int i = commandCount + 1; i <= 2*commandCount; i++) {
+                enqueueMotorState(senderThread, new MotorStateMessage(System.currentTimeMillis(), i, 0, i, 0));
+            }
+
+            // Resume reading until the newest command shows up
+            final List<MotorStateMessage> received = new ArrayList<>();
+            MessageRegistry messageRegistry = MessageRegistry.createDefault();
+            messageRegistry.register(new MotorStateMessage(), new OnMessageReceivedListener<MotorStateMessage>() {
+                @Override
+                public void onMessageReceived(MotorStateMessage message) {
+                    received.add(message);
+                }
+            });
+            MessageFrameReader frameReader = new MessageFrameReader(readSocket.getInputStream());
+            while (frameReader.readFrame()) {
+                messageRegistry.dispatch(frameReader.getStartCode(), frameReader.getPayload());
+                if (!received.isEmpty() && received.get(received.size() - 1).getLeftForward() == 2*commandCount) {
+                    break;
+                }
+            }
+
+            assertEquals("Motor commands received: " + received, 2, received.size());
+            assertTrue("Stop was not delivered first: " + received, received.get(0).isStop());
+            assertEquals(2*commandCount, received.get(1).getLeftForward());
+        } finally {
+            senderThread.interrupt();
+            sendSocket.close();
+            readSocket.close();
+            senderThread.join();
+        }
+    }
+
+    /**
+     * A peer that stops reading fills up the strict lane. Rather than having producers wait for
+     * room forever, the sender should close the socket, finish, and give back every message it
+     * was holding in any lane, including ones enqueued after it finished.
+     */
+    @Test(timeout = 30000)
+    public void fullStrictLane_closesSocketAndReleasesEverything() throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReceiveBufferSize(16*1024);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        Socket sendSocket = SocketChannel.open(serverSocket.getLocalSocketAddress()).socket();
+        sendSocket.setSendBufferSize(16*1024);
+        // Never reads, so the sender backs up
+        Socket readSocket = serverSocket.accept();
+        serverSocket.close();
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        SenderThread senderThread = new SenderThread(sendSocket, new OnThreadFinishedListener() {
+            @Override
+            public void onThreadFinished() {
+                finished.countDown();
+            }
+        }, 10);
+        senderThread.start();
+
+        try {
+            AtomicInteger releasedCount = new AtomicInteger();
+            int enqueuedCount = 0;
+            while (finished.getCount() > 0) {
+                senderThread.enqueueStrict(new CountingMessage(releasedCount));
+                senderThread.enqueueDroppable(new CountingMessage(releasedCount));
+                senderThread.enqueueLatest(new CountingMessage(releasedCount));
+                enqueuedCount += 3;
+                assertTrue("Sender never gave up on the stalled socket", enqueuedCount < 100000);
+            }
+            assertTrue(sendSocket.isClosed());
+
+            senderThread.enqueueStrict(new CountingMessage(releasedCount));
+            senderThread.enqueueDroppable(new CountingMessage(releasedCount));
+            senderThread.enqueueLatest(new CountingMessage(releasedCount), true);
+            enqueuedCount += 3;
+
+            senderThread.join();
+            assertEquals(enqueuedCount, releasedCount.get());
+        } finally {
+            senderThread.interrupt();
+            sendSocket.close();
+            readSocket.close();
+            senderThread.join();
+        }
+    }
+
+    // As ProjectRoverClient.doEnqueueMotorStateMessage does
+    private static void enqueueMotorState(SenderThread senderThread, MotorStateMessage motorStateMessage) {
+        senderThread.enqueueLatest(motorStateMessage, motorStateMessage.isStop());
+    }
+
+    // Big enough that a few of them fill the socket, and counts its releases.
+    private static class CountingMessage extends PCMFrameMessage implements ReleasableMessage {
+        private final AtomicInteger releasedCount;
+
+        CountingMessage(AtomicInteger releasedCount) {
+            super(0, new short[16*1024]);
+            this.releasedCount = releasedCount;
+        }
+
+        @Override
+        public void retain() {}
+
+        @Override
+        public void release() {
+            releasedCount.incrementAndGet();
+        }
+    }
+}
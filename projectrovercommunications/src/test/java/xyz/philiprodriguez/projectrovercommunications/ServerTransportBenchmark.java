@@ -0,0 +1,127 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the threaded and selector server transports with a few loopback clients.
+ */
+public class ServerTransportBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        benchmarkServerTransports(2000);
+    }
+
+    /**
+     * Have 1, 4 and 16 simulated clients each send messagesPerClient small messages to a server
+     * over loopback, once with a ReceiverThread per connection and once with a single
+     * SelectorServerTransport, and report how long it takes for every message to be dispatched.
+     */
+    public static void benchmarkServerTransports(int messagesPerClient) throws IOException, InterruptedException {
+        byte[] message = new MotorStateMessage(System.currentTimeMillis(), 1, 2, 3, 4).getBytes();
+        int[] clientCounts = new int[]{1, 4, 16};
+
+        System.out.println("START SERVER TRANSPORTS");
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            boolean print = round > 0;
+            for (int clientCount : clientCounts) {
+                runServerTransportBenchmark("Thread per connection", false, message, clientCount, messagesPerClient, print);
+                runServerTransportBenchmark("Selector", true, message, clientCount, messagesPerClient, print);
+            }
+        }
+        System.out.println("END SERVER TRANSPORTS");
+    }
+
+    private static void runServerTransportBenchmark(String name, boolean useSelector, final byte[] message, int clientCount, final int messagesPerClient, boolean print) throws IOException, InterruptedException {
+        final CountDownLatch allReceived = new CountDownLatch(clientCount*messagesPerClient);
+        MessageRegistry messageRegistry = MessageRegistry.createDefault();
+        messageRegistry.register(new MotorStateMessage(), new OnMessageReceivedListener<MotorStateMessage>() {
+            @Override
+            public void onMessageReceived(MotorStateMessage message) {
+                allReceived.countDown();
+            }
+        });
+
+        SelectorServerTransport selectorServerTransport = null;
+        ServerSocket serverSocket = null;
+        int port;
+        if (useSelector) {
+            selectorServerTransport = new SelectorServerTransport(0, messageRegistry, 10, null);
+            port = selectorServerTransport.getLocalPort();
+        } else {
+            serverSocket = new ServerSocket(0, clientCount, InetAddress.getLoopbackAddress());
+            port = serverSocket.getLocalPort();
+        }
+
+        // Connect everyone before starting the clock
+        List<Socket> clientSockets = new ArrayList<>();
+        List<ReceiverThread> receiverThreads = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            clientSockets.add(new Socket(InetAddress.getLoopbackAddress(), port));
+            if (serverSocket != null) {
+                ReceiverThread receiverThread = new ReceiverThread(serverSocket.accept(), messageRegistry, new OnThreadFinishedListener() {
+                    @Override
+                    public void onThreadFinished() {
+                    }
+                });
+                receiverThread.start();
+                receiverThreads.add(receiverThread);
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Thread> clientThreads = new ArrayList<>();
+        for (final Socket clientSocket : clientSockets) {
+            Thread clientThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OutputStream outputStream = clientSocket.getOutputStream();
+                        for (int i = 0; i < messagesPerClient; i++) {
+                            outputStream.write(message);
+                        }
+                        outputStream.flush();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            clientThread.start();
+            clientThreads.add(clientThread);
+        }
+        boolean completed = allReceived.await(60, TimeUnit.SECONDS);
+        long end = System.nanoTime();
+
+        for (Thread clientThread : clientThreads) {
+            clientThread.join();
+        }
+        for (Socket clientSocket : clientSockets) {
+            clientSocket.close();
+        }
+        for (ReceiverThread receiverThread : receiverThreads) {
+            receiverThread.join();
+        }
+        if (selectorServerTransport != null) {
+            selectorServerTransport.kill();
+            selectorServerTransport.waitForKill();
+        } else {
+            serverSocket.close();
+        }
+
+        if (print) {
+            long received = (long) clientCount*messagesPerClient - allReceived.getCount();
+            double seconds = (end - start) / 1e9;
+            System.out.println(name + ", " + clientCount + " clients: " + received + " messages"
+                    + (completed ? "" : " (timed out)") + ", " + (received / seconds) + " messages/s, "
+                    + (useSelector ? 1 : clientCount) + " server threads");
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/**
+ * Helpers shared by the benchmarks and the tests.
+ */
+class TestFixtures {
+
+    // Voiced sounds with a wandering pitch, a few formants and syllable-like loudness, plus a little noise.
+    static short[][] createSyntheticVoice(int frameCount, int frameLength) {
+        Random random = new Random(7);
+        short[][] frames = new short[frameCount][frameLength];
+        double phase = 0;
+        double sampleRate = PCMFrameMessage.SAMPLE_RATE;
+        for (int i = 0; i < frameCount; i++) {
+            for (int j = 0; j < frameLength; j++) {
+                double t = (i*frameLength + j) / sampleRate;
+                double pitch = 140 + 30*Math.sin(2*Math.PI*0.7*t);
+                phase += 2*Math.PI*pitch / sampleRate;
+                double value = 0;
+                for (int harmonic = 1; harmonic*pitch < 4000; harmonic++) {
+                    double frequency = harmonic*pitch;
+                    double formants = Math.exp(-Math.pow((frequency - 500) / 200, 2)) + 0.6*Math.exp(-Math.pow((frequency - 1500) / 300, 2))
+                            + 0.3*Math.exp(-Math.pow((frequency - 2500) / 400, 2));
+                    value += formants*Math.sin(harmonic*phase) / harmonic;
+                }
+                double loudness = Math.max(0, Math.sin(2*Math.PI*2.5*t));
+                frames[i][j] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, 9000*loudness*value + 100*random.nextGaussian()));
+            }
+        }
+        return frames;
+    }
+
+    static long getCurrentThreadAllocatedBytes() {
+        return getThreadAllocatedBytes(Thread.currentThread());
+    }
+
+    // Only desktop JVMs can count this, so it is looked up by name. Returns -1 where it cannot be.
+    static long getThreadAllocatedBytes(Thread thread) {
+        try {
+            Object threadMXBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(threadMXBean, thread.getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    static final int PLAYOUT_TARGET_LATENCY_MILLIS = 200;
+    // How close to the target counts as on it, and how soon after a stall it must get back there
+    static final long PLAYOUT_TOLERANCE_MILLIS = 40;
+    static final long PLAYOUT_MAX_SETTLE_MILLIS = 4000;
+    // {start, length} of each stall, in milliseconds
+    static final long[][] PLAYOUT_STALLS = {{8000, 700}, {20000, 400}};
+
+    // What one run of runAdaptivePlayoutSimulation found.
+    static class PlayoutSimulationResult {
+        // Furthest the latency got from target between settling in and the first stall
+        long steadyWorstMillis;
+        // How long after each stall ended the latency got back on target, or -1 if it never did
+        long[] settledAfterMillis;
+        long skippedSampleCount;
+    }
+
+    /**
+     * The simulation behind simulateAdaptivePlayout, printing the latency and playback rate over
+     * time if print is set.
+     */
+    static PlayoutSimulationResult runAdaptivePlayoutSimulation(boolean print) {
+        int sampleRate = PCMFrameMessage.SAMPLE_RATE;
+        int frameLength = sampleRate / 10;
+        int targetLatencyMillis = PLAYOUT_TARGET_LATENCY_MILLIS;
+        long durationMillis = 30000;
+        long[][] stalls = PLAYOUT_STALLS;
+        long senderClockOffset = 123456;
+        double senderMillisPerFrame = 99.8;
+
+        AdaptivePlayout adaptivePlayout = new AdaptivePlayout(sampleRate, targetLatencyMillis);
+        short[][] frames = createSyntheticVoice(50, frameLength);
+        Random random = new Random(3);
+        short[] playbackVals = new short[882];
+        long lastArrival = 0;
+        int nextFrame = 0;
+        long nextArrival = -1;
+        double maxRate = 1;
+        double minRate = 1;
+        long[] settledAt = new long[stalls.length];
+        long steadyWorstMillis = 0;
+
+        if (print) {
+            System.out.println("Time ms, latency ms, rate, buffered ms");
+        }
+        for (long now = 0; now <= durationMillis; now++) {
+            // Deliver every frame that has arrived by now
+            while (true) {
+                if (nextArrival < 0) {
+                    long sent = Math.round(nextFrame*senderMillisPerFrame);
+                    long arrival = sent + 40 + random.nextInt(30);
+                    for (long[] stall : stalls) {
+                        if (sent >= stall[0] && sent < stall[0] + stall[1]) {
+                            arrival = Math.max(arrival, stall[0] + stall[1] + 40);
+                        }
+                    }
+                    nextArrival = Math.max(lastArrival, arrival);
+                }
+                if (nextArrival > now) {
+                    break;
+                }
+                long sent = Math.round(nextFrame*senderMillisPerFrame);
+                adaptivePlayout.write(sent + senderClockOffset, frames[nextFrame % frames.length], nextArrival);
+                lastArrival = nextArrival;
+                nextFrame++;
+                nextArrival = -1;
+            }
+
+            if (now % 20 == 0) {
+                adaptivePlayout.read(playbackVals, 0, playbackVals.length, now);
+                maxRate = Math.max(maxRate, adaptivePlayout.getRate());
+                minRate = Math.min(minRate, adaptivePlayout.getRate());
+                long latency = adaptivePlayout.getLatencyMillis();
+                boolean onTarget = latency >= 0 && Math.abs(latency - targetLatencyMillis) <= PLAYOUT_TOLERANCE_MILLIS;
+                if (now >= 3000 && now < stalls[0][0] + 100) {
+                    steadyWorstMillis = Math.max(steadyWorstMillis, Math.abs(latency - targetLatencyMillis));
+                }
+                for (int i = 0; i < stalls.length; i++) {
+                    long stallEnd = stalls[i][0] + stalls[i][1];
+                    if (now > stallEnd + 200 && settledAt[i] == 0 && onTarget) {
+                        settledAt[i] = now;
+                    }
+                }
+            }
+            if (print && now % 500 == 0) {
+                System.out.println(now + ", " + adaptivePlayout.getLatencyMillis() + ", " + (Math.round(adaptivePlayout.getRate()*1000) / 1000.0)
+                        + ", " + (adaptivePlayout.getBufferedSampleCount()*1000L / sampleRate));
+            }
+        }
+        if (print) {
+            System.out.println(adaptivePlayout);
+            System.out.println("Rate stayed between " + minRate + " and " + maxRate);
+        }
+
+        PlayoutSimulationResult result = new PlayoutSimulationResult();
+        result.steadyWorstMillis = steadyWorstMillis;
+        result.settledAfterMillis = new long[stalls.length];
+        for (int i = 0; i < stalls.length; i++) {
+            result.settledAfterMillis[i] = settledAt[i] == 0 ? -1 : settledAt[i] - (stalls[i][0] + stalls[i][1]);
+        }
+        result.skippedSampleCount = adaptivePlayout.getSkippedSampleCount();
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.GrayFrame;
+
+/**
+ * Compares bytes sent in full frame and tiled video modes on the frame change scenes.
+ */
+public class TiledVideoBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        benchmarkTiledVideo(160, 360, 480, 40);
+    }
+
+    /**
+     * Run the same frame sequences as benchmarkFrameChangeDetection through a FrameEncodingStage
+     * at targetFps, once sending whole frames and skipping unchanged ones, and once sending only
+     * the tiles that changed. Reports the bytes each way and how many regions were compressed.
+     * Regions here are deflated rather than made into JPEGs, and on a device each region also
+     * carries a JPEG header of around 600 bytes, which is why dirty tiles are merged into runs.
+     */
+    public static void benchmarkTiledVideo(int frameCount, int width, int height, int targetFps) throws InterruptedException {
+        System.out.println("START TILED VIDEO");
+        String[] sceneNames = {"Parked", "Small object moving", "Panning"};
+        for (int scene = 0; scene < sceneNames.length; scene++) {
+            GrayFrame[] frames = new GrayFrame[frameCount];
+            for (int i = 0; i < frameCount; i++) {
+                frames[i] = GrayFrame.createScene(width, height, scene, i);
+            }
+            long[] fullFrames = FrameChangeDetectionBenchmark.runFrameChangeDetection(frames, true, false, targetFps);
+            long[] tiled = FrameChangeDetectionBenchmark.runFrameChangeDetection(frames, true, true, targetFps);
+            System.out.println(sceneNames[scene] + ": " + (tiled[2] / 1024) + " KiB tiled in " + tiled[0] + " messages with "
+                    + tiled[3] + " regions, against " + (fullFrames[2] / 1024) + " KiB in " + fullFrames[0]
+                    + " whole frames (" + Math.round(100 - 100.0*tiled[2]/fullFrames[2]) + "% less)");
+        }
+        System.out.println("END TILED VIDEO");
+    }
+}
@@ -0,0 +1,235 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stand-ins for Bitmap and the JPEG code, so that the video benchmarks run on a plain JVM.
+ */
+class VideoFixtures {
+
+    // An 8 bit grayscale image, standing in for Bitmap in benchmarks.
+    static class GrayFrame {
+        final int width;
+        final int height;
+        final byte[] pixels;
+
+        GrayFrame(int width, int height, byte[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+
+        // A diagonal gradient that moves with t, with a little noise so it does not compress to
+        // nothing.
+        static GrayFrame createSynthetic(int width, int height, int t) {
+            byte[] pixels = new byte[width*height];
+            Random random = new Random(t);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels[y*width + x] = (byte) (x + y + 4*t + random.nextInt(4));
+                }
+            }
+            return new GrayFrame(width, height, pixels);
+        }
+
+        // Frame t of a scene for benchmarkFrameChangeDetection. Scene 0 is a still picture with
+        // sensor noise, scene 1 adds a small bright square moving across it, and scene 2 moves
+        // everything.
+        static GrayFrame createScene(int width, int height, int scene, int t) {
+            if (scene == 2) {
+                return createSynthetic(width, height, t);
+            }
+            byte[] pixels = new byte[width*height];
+            Random random = new Random(t);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels[y*width + x] = (byte) ((x + y) / 4 + random.nextInt(6));
+                }
+            }
+            if (scene == 1) {
+                int size = 24;
+                int left = (4*t) % (width - size);
+                int top = height / 2;
+                for (int y = top; y < top + size; y++) {
+                    Arrays.fill(pixels, y*width + left, y*width + left + size, (byte) 255);
+                }
+            }
+            return new GrayFrame(width, height, pixels);
+        }
+    }
+
+    static class GrayLuminanceSampler implements LuminanceSampler<GrayFrame> {
+        @Override
+        public void sample(GrayFrame image, int columns, int rows, int[] signature) {
+            Arrays.fill(signature, 0);
+            for (int y = 0; y < image.height; y += 2) {
+                int cellRow = y*rows/image.height;
+                for (int x = 0; x < image.width; x += 2) {
+                    signature[cellRow*columns + x*columns/image.width] += image.pixels[y*image.width + x] & 0xFF;
+                }
+            }
+            // Every cell gets the same number of samples give or take a row or column
+            int samplesPerCell = ((image.width + 1) / 2) * ((image.height + 1) / 2) / (columns*rows);
+            for (int i = 0; i < signature.length; i++) {
+                signature[i] /= samplesPerCell;
+            }
+        }
+    }
+
+    static class DeflaterFrameEncoder implements FrameEncoder<GrayFrame> {
+        final Deflater deflater = new Deflater();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64*1024);
+        final byte[] chunk = new byte[16*1024];
+
+        // Where frames go once compressed, or null if the caller reuses them itself.
+        final GrayFramePool framePool;
+
+        DeflaterFrameEncoder() {
+            this(null);
+        }
+
+        DeflaterFrameEncoder(GrayFramePool framePool) {
+            this.framePool = framePool;
+        }
+
+        @Override
+        public EncodedFrame encode(GrayFrame image, int quality, long timestamp, long sequenceNumber) {
+            // Higher quality means less effort, roughly like JPEG trading size for quality
+            deflater.reset();
+            deflater.setLevel(Math.max(1, Math.min(9, 9 - quality / 12)));
+            deflater.setInput(image.pixels);
+            deflater.finish();
+            outputStream.reset();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                outputStream.write(chunk, 0, length);
+            }
+            return new EncodedFrame(timestamp, sequenceNumber, image.width, image.height, quality, outputStream.toByteArray());
+        }
+
+        @Override
+        public void release(GrayFrame image) {
+            if (framePool != null) {
+                framePool.release(image);
+            }
+        }
+    }
+
+    static class DeflaterRegionEncoder implements RegionEncoder<GrayFrame> {
+        final Deflater deflater = new Deflater();
+        final byte[] chunk = new byte[16*1024];
+        byte[] regionPixels = new byte[0];
+
+        @Override
+        public int getWidth(GrayFrame image) {
+            return image.width;
+        }
+
+        @Override
+        public int getHeight(GrayFrame image) {
+            return image.height;
+        }
+
+        @Override
+        public void encodeRegion(GrayFrame image, int x, int y, int width, int height, int quality, ByteArrayOutputStream outputStream) {
+            if (regionPixels.length < width*height) {
+                regionPixels = new byte[width*height];
+            }
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(image.pixels, (y + row)*image.width + x, regionPixels, row*width, width);
+            }
+            deflater.reset();
+            deflater.setLevel(Math.max(1, Math.min(9, 9 - quality / 12)));
+            deflater.setInput(regionPixels, 0, width*height);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                outputStream.write(chunk, 0, length);
+            }
+        }
+    }
+
+    static class InflaterFrameDecoder implements FrameDecoder<GrayFrame> {
+        final Inflater inflater = new Inflater();
+
+        // Where frames are decoded into, or null to allocate each one.
+        final GrayFramePool framePool;
+
+        InflaterFrameDecoder() {
+            this(null);
+        }
+
+        InflaterFrameDecoder(GrayFramePool framePool) {
+            this.framePool = framePool;
+        }
+
+        @Override
+        public GrayFrame decode(EncodedFrame encodedFrame) {
+            GrayFrame frame = framePool == null
+                    ? new GrayFrame(encodedFrame.getWidth(), encodedFrame.getHeight(), new byte[encodedFrame.getWidth()*encodedFrame.getHeight()])
+                    : framePool.acquire(encodedFrame.getWidth(), encodedFrame.getHeight(), null);
+            byte[] pixels = frame.pixels;
+            inflater.reset();
+            inflater.setInput(encodedFrame.getBytes());
+            try {
+                int offset = 0;
+                while (offset < pixels.length && !inflater.finished()) {
+                    offset += inflater.inflate(pixels, offset, pixels.length - offset);
+                }
+            } catch (DataFormatException e) {
+                e.printStackTrace();
+                release(frame);
+                return null;
+            }
+            return frame;
+        }
+
+        @Override
+        public void release(GrayFrame image) {
+            if (framePool != null) {
+                framePool.release(image);
+            }
+        }
+    }
+
+    static class GrayFramePool extends ImagePool<GrayFrame, Void> {
+        GrayFramePool(int maxFrames) {
+            super(maxFrames);
+        }
+
+        @Override
+        protected GrayFrame create(int width, int height, Void config) {
+            return new GrayFrame(width, height, new byte[width*height]);
+        }
+
+        @Override
+        protected int getWidth(GrayFrame image) {
+            return image.width;
+        }
+
+        @Override
+        protected int getHeight(GrayFrame image) {
+            return image.height;
+        }
+
+        @Override
+        protected Void getConfig(GrayFrame image) {
+            return null;
+        }
+
+        @Override
+        protected boolean isReusable(GrayFrame image) {
+            return true;
+        }
+
+        @Override
+        protected void discard(GrayFrame image) {
+            // Left to the garbage collector
+        }
+    }
+}
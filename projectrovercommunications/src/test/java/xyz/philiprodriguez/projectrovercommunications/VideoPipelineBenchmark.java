@@ -0,0 +1,154 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.GrayFrame;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.DeflaterFrameEncoder;
+import xyz.philiprodriguez.projectrovercommunications.VideoFixtures.InflaterFrameDecoder;
+
+/**
+ * Measures delivered frame rate and latency through the whole video path on a plain JVM.
+ */
+public class VideoPipelineBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        benchmarkVideoPipeline(200, 360, 480, 20);
+    }
+
+    /**
+     * Push synthetic grayscale frames through the whole video path on a plain JVM: a
+     * FrameEncodingStage, a SenderThread, a loopback socket, a ReceiverThread and a FrameDecoder.
+     * Frames are compressed with Deflater in place of JPEG, since Bitmap is not available here.
+     * Reports delivered frames per second and capture to decode latency.
+     *
+     * @param targetFps How often frames are captured, or 0 to capture each frame as soon as the
+     *                  previous one has been encoded.
+     */
+    public static void benchmarkVideoPipeline(int frameCount, int width, int height, int targetFps) throws IOException, InterruptedException {
+        System.out.println("START VIDEO PIPELINE");
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            runVideoPipelineBenchmark(frameCount, width, height, targetFps, round > 0);
+        }
+        System.out.println("END VIDEO PIPELINE");
+    }
+
+    private static void runVideoPipelineBenchmark(final int frameCount, int width, int height, int targetFps, boolean print) throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket serverSide = SocketChannel.open(serverSocket.getLocalSocketAddress()).socket();
+        Socket clientSide = serverSocket.accept();
+        serverSocket.close();
+
+        OnThreadFinishedListener ignoreFinished = new OnThreadFinishedListener() {
+            @Override
+            public void onThreadFinished() {
+            }
+        };
+        final SenderThread senderThread = new SenderThread(serverSide, ignoreFinished, 10);
+        senderThread.start();
+        FrameEncodingStage<GrayFrame> frameEncodingStage = new FrameEncodingStage<>(new DeflaterFrameEncoder(), new ServerSettings().getJpegQuality(), new OnFrameEncodedListener() {
+            @Override
+            public void onFrameEncoded(JPEGFrameMessage jpegFrameMessage) {
+                senderThread.enqueueDroppable(jpegFrameMessage);
+            }
+
+            @Override
+            public void onFrameUnchanged(FrameUnchangedMessage frameUnchangedMessage) {
+                senderThread.enqueueLatest(frameUnchangedMessage);
+            }
+
+            @Override
+            public void onTileFrameEncoded(TileFrameMessage tileFrameMessage) {
+                // Tiling is never turned on here
+            }
+        });
+
+        final long[] captureNanos = new long[frameCount];
+        final long[] latencyNanos = new long[frameCount];
+        final int[] receivedCount = new int[1];
+        final long[] encodedBytes = new long[1];
+        final long[] lastReceivedNanos = new long[1];
+        final CountDownLatch lastFrameReceived = new CountDownLatch(1);
+        final InflaterFrameDecoder frameDecoder = new InflaterFrameDecoder();
+        MessageRegistry messageRegistry = MessageRegistry.createDefault();
+        messageRegistry.register(new JPEGFrameMessage(), new OnMessageReceivedListener<JPEGFrameMessage>() {
+            @Override
+            public void onMessageReceived(JPEGFrameMessage message) {
+                EncodedFrame encodedFrame = message.getEncodedFrame();
+                frameDecoder.decode(encodedFrame);
+                long now = System.nanoTime();
+                int sequenceNumber = (int) encodedFrame.getSequenceNumber();
+                latencyNanos[receivedCount[0]++] = now - captureNanos[sequenceNumber];
+                encodedBytes[0] += encodedFrame.getBytes().length;
+                lastReceivedNanos[0] = now;
+                if (sequenceNumber == frameCount - 1) {
+                    lastFrameReceived.countDown();
+                }
+            }
+        });
+        ReceiverThread receiverThread = new ReceiverThread(clientSide, messageRegistry, ignoreFinished);
+        receiverThread.start();
+
+        // A handful of distinct frames to cycle through, so that generating them is not measured
+        GrayFrame[] frames = new GrayFrame[16];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = GrayFrame.createSynthetic(width, height, i);
+        }
+
+        long start = System.nanoTime();
+        long next = start;
+        for (int i = 0; i < frameCount; i++) {
+            if (targetFps <= 0) {
+                while (frameEncodingStage.getEncodedFrameCount() + frameEncodingStage.getDroppedFrameCount() < i) {
+                    Thread.yield();
+                }
+            }
+            captureNanos[i] = System.nanoTime();
+            frameEncodingStage.submit(frames[i % frames.length]);
+            if (targetFps > 0) {
+                next += 1000000000L / targetFps;
+                long sleepNanos = next - System.nanoTime();
+                if (sleepNanos > 0) {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                }
+            }
+        }
+        // The last frame is never skipped by the encoding stage, but could be by the sender
+        boolean completed = lastFrameReceived.await(10, TimeUnit.SECONDS);
+
+        frameEncodingStage.shutdown();
+        senderThread.interrupt();
+        serverSide.close();
+        clientSide.close();
+        receiverThread.join();
+        senderThread.join();
+
+        if (print) {
+            int received = receivedCount[0];
+            long[] sortedLatencies = new long[received];
+            System.arraycopy(latencyNanos, 0, sortedLatencies, 0, received);
+            Arrays.sort(sortedLatencies);
+            long totalLatency = 0;
+            for (long latency : sortedLatencies) {
+                totalLatency += latency;
+            }
+            double seconds = (lastReceivedNanos[0] - start) / 1e9;
+            System.out.println(width + "x" + height + (targetFps > 0 ? " at " + targetFps + " fps" : " unpaced") + ": "
+                    + received + " of " + frameCount + " frames delivered" + (completed ? "" : " (timed out)")
+                    + ", " + (received / seconds) + " fps, "
+                    + (received == 0 ? 0 : encodedBytes[0] / received) + " bytes/frame, latency mean "
+                    + (received == 0 ? 0 : totalLatency / received / 1e6) + " ms, p50 "
+                    + (received == 0 ? 0 : sortedLatencies[received / 2] / 1e6) + " ms, p99 "
+                    + (received == 0 ? 0 : sortedLatencies[Math.min(received - 1, received*99/100)] / 1e6) + " ms");
+            System.out.println("    " + frameEncodingStage + ", sender dropped " + senderThread.getDroppedMessageCount());
+        }
+    }
+}
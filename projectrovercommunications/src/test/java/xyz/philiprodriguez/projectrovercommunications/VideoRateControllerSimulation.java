@@ -0,0 +1,127 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.ArrayDeque;
+
+/**
+ * Drives VideoRateController with a stepped bandwidth trace.
+ */
+public class VideoRateControllerSimulation {
+
+    public static void main(String[] args) {
+        simulateVideoRateController();
+    }
+
+    /**
+     * Drive a VideoRateController with a simulated link whose bandwidth steps through a trace, and
+     * check that after each step it settles on settings that get nearly every frame through within
+     * the latency budget. Frame sizes come from a rough model of JPEG bytes per pixel at each
+     * quality, and the link queues up to as many frames as a SenderThread's droppable queue would
+     * before dropping the oldest.
+     */
+    public static void simulateVideoRateController() {
+        System.out.println("START VIDEO RATE CONTROLLER SIMULATION");
+        int targetFps = 20;
+        long latencyBudgetMillis = 300;
+        long updatePeriodMillis = 500;
+        long stepMillis = 10;
+        long baseLatencyMillis = 20;
+        int droppableQueueSizeLimit = 10;
+
+        // {seconds, link bytes per second}
+        long[][] trace = {
+                {30, 1500*1024},
+                {30, 200*1024},
+                {30, 600*1024},
+                {30, 60*1024},
+                {30, 1500*1024}
+        };
+
+        VideoRateController videoRateController = new VideoRateController(targetFps, latencyBudgetMillis, 30);
+
+        // Each queued frame is {bytes left to send, capture time}
+        ArrayDeque<long[]> linkQueue = new ArrayDeque<>();
+        long now = 0;
+        long nextFrameMillis = 0;
+        long nextUpdateMillis = updatePeriodMillis;
+        long bytesEncoded = 0;
+        long bytesSent = 0;
+        long framesEncoded = 0;
+        long framesDropped = 0;
+        long worstLatency = -1;
+        boolean allSettled = true;
+
+        for (long[] segment : trace) {
+            long segmentEnd = now + segment[0]*1000;
+            long bytesPerStep = segment[1]*stepMillis/1000;
+            // Only the last third of each segment is judged, once the controller has had time to settle
+            long judgeFrom = segmentEnd - segment[0]*1000/3;
+            long judgedCaptured = 0;
+            long judgedDelivered = 0;
+            long judgedLatencyTotal = 0;
+            long judgedLatencyOver = 0;
+
+            while (now < segmentEnd) {
+                if (now >= nextFrameMillis) {
+                    int pixels = videoRateController.getCaptureWidth()*videoRateController.getCaptureHeight();
+                    long frameBytes = (long) (pixels*(0.1 + 0.02*videoRateController.getJpegQuality())/8);
+                    linkQueue.addLast(new long[] {frameBytes, now});
+                    bytesEncoded += frameBytes;
+                    framesEncoded++;
+                    if (now >= judgeFrom) {
+                        judgedCaptured++;
+                    }
+                    while (linkQueue.size() > droppableQueueSizeLimit) {
+                        linkQueue.pollFirst();
+                        framesDropped++;
+                    }
+                    nextFrameMillis += 1000/targetFps;
+                }
+
+                long budget = bytesPerStep;
+                while (budget > 0 && !linkQueue.isEmpty()) {
+                    long[] head = linkQueue.peekFirst();
+                    long sent = Math.min(budget, head[0]);
+                    head[0] -= sent;
+                    budget -= sent;
+                    bytesSent += sent;
+                    if (head[0] == 0) {
+                        linkQueue.pollFirst();
+                        long latency = now + stepMillis - head[1] + baseLatencyMillis;
+                        worstLatency = Math.max(worstLatency, latency);
+                        if (head[1] >= judgeFrom) {
+                            judgedDelivered++;
+                            judgedLatencyTotal += latency;
+                            if (latency > latencyBudgetMillis) {
+                                judgedLatencyOver++;
+                            }
+                        }
+                    }
+                }
+
+                now += stepMillis;
+                if (now >= nextUpdateMillis) {
+                    videoRateController.update(updatePeriodMillis, bytesEncoded, bytesSent, framesEncoded, framesDropped, worstLatency);
+                    bytesEncoded = 0;
+                    bytesSent = 0;
+                    framesEncoded = 0;
+                    framesDropped = 0;
+                    worstLatency = -1;
+                    nextUpdateMillis += updatePeriodMillis;
+                }
+            }
+
+            double deliveredFraction = judgedCaptured == 0 ? 0 : (double) judgedDelivered / judgedCaptured;
+            double lateFraction = judgedDelivered == 0 ? 1 : (double) judgedLatencyOver / judgedDelivered;
+            double usedFraction = (double) judgedDelivered / targetFps / (segment[0]/3.0);
+            boolean settled = deliveredFraction >= 0.9 && lateFraction <= 0.05;
+            allSettled &= settled;
+            System.out.println((settled ? "PASS" : "FAIL") + ": " + (segment[1]/1024) + " KiB/s link, ended on "
+                    + videoRateController + ", delivered " + Math.round(deliveredFraction*100) + "% of frames ("
+                    + Math.round(usedFraction*targetFps) + " fps), mean latency "
+                    + (judgedDelivered == 0 ? 0 : judgedLatencyTotal / judgedDelivered) + " ms, "
+                    + Math.round(lateFraction*100) + "% over budget");
+        }
+        System.out.println((allSettled ? "PASS" : "FAIL") + ": settled after every bandwidth step");
+        System.out.println("END VIDEO RATE CONTROLLER SIMULATION");
+    }
+}
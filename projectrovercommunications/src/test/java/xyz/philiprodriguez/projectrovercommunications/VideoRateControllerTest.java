@@ -0,0 +1,169 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+public class VideoRateControllerTest {
+    private static final int TARGET_FPS = 20;
+    private static final long LATENCY_BUDGET_MILLIS = 300;
+    private static final long SEGMENT_MILLIS = 30000;
+
+    /**
+     * Drive the controller through a bandwidth trace that drops from fast to slow, part way back,
+     * slower still, and then back to fast. After each step it should settle on one resolution and
+     * a steady quality that gets nearly every frame through within the latency budget, and once
+     * the link is fast again it should climb back to where it was.
+     */
+    @Test
+    public void bandwidthTrace_convergesAndRecovers() {
+        VideoRateController videoRateController = new VideoRateController(TARGET_FPS, LATENCY_BUDGET_MILLIS, 30);
+        SimulatedLink link = new SimulatedLink(videoRateController);
+
+        link.run(SEGMENT_MILLIS, 1500*1024);
+        assertSettled(link, 1500);
+        int fastWidth = link.lastWidth;
+        int fastQuality = link.minQuality;
+
+        link.run(SEGMENT_MILLIS, 200*1024);
+        assertSettled(link, 200);
+        assertTrue("Did not back off on a slow link: " + videoRateController,
+                link.lastWidth < fastWidth || link.maxQuality < fastQuality);
+        int slowWidth = link.lastWidth;
+
+        link.run(SEGMENT_MILLIS, 600*1024);
+        assertSettled(link, 600);
+        assertTrue("Did not pick up on a faster link: " + videoRateController, link.lastWidth >= slowWidth);
+
+        link.run(SEGMENT_MILLIS, 60*1024);
+        assertSettled(link, 60);
+
+        // Climbing all the way back from the smallest resolution, one step at a time, takes longer
+        link.run(2*SEGMENT_MILLIS, 1500*1024);
+        assertSettled(link, 1500);
+        assertEquals("Did not recover resolution: " + videoRateController, fastWidth, link.lastWidth);
+        assertTrue("Did not recover quality: " + videoRateController, link.minQuality >= fastQuality - VideoRateController.MIN_JPEG_QUALITY);
+    }
+
+    private static void assertSettled(SimulatedLink link, int kibPerSecond) {
+        String at = kibPerSecond + " KiB/s: " + link.videoRateController;
+        assertTrue("Delivered " + link.deliveredFraction() + " of frames at " + at, link.deliveredFraction() >= 0.9);
+        assertTrue("Late for " + link.lateFraction() + " of frames at " + at, link.lateFraction() <= 0.05);
+        assertFalse("Resolution still changing at " + at, link.widthChanged);
+        assertTrue("Quality swinging from " + link.minQuality + " to " + link.maxQuality + " at " + at,
+                link.maxQuality - link.minQuality <= 15);
+    }
+
+    // A link that carries a fixed number of bytes per second, with frames of a size set by the
+    // controller's quality and resolution queued for it and dropped past the sender's limit.
+    // Only the last third of each run is judged, once the controller has had time to settle.
+    private static class SimulatedLink {
+        private static final long STEP_MILLIS = 10;
+        private static final long UPDATE_PERIOD_MILLIS = 500;
+        private static final long BASE_LATENCY_MILLIS = 20;
+        private static final int DROPPABLE_QUEUE_SIZE_LIMIT = 10;
+
+        private final VideoRateController videoRateController;
+
+        // Each queued frame is {bytes left to send, capture time}
+        private final ArrayDeque<long[]> linkQueue = new ArrayDeque<>();
+        private long now;
+        private long nextFrameMillis;
+        private long nextUpdateMillis = UPDATE_PERIOD_MILLIS;
+        private long bytesEncoded;
+        private long bytesSent;
+        private long framesEncoded;
+        private long framesDropped;
+        private long worstLatency = -1;
+
+        // Over the last third of the last run
+        private long judgedCaptured;
+        private long judgedDelivered;
+        private long judgedLate;
+        private int minQuality;
+        private int maxQuality;
+        private int lastWidth;
+        private boolean widthChanged;
+
+        SimulatedLink(VideoRateController videoRateController) {
+            this.videoRateController = videoRateController;
+        }
+
+        void run(long durationMillis, long bytesPerSecond) {
+            long end = now + durationMillis;
+            long judgeFrom = end - durationMillis/3;
+            long bytesPerStep = bytesPerSecond*STEP_MILLIS/1000;
+            judgedCaptured = 0;
+            judgedDelivered = 0;
+            judgedLate = 0;
+            minQuality = Integer.MAX_VALUE;
+            maxQuality = Integer.MIN_VALUE;
+            lastWidth = -1;
+            widthChanged = false;
+
+            while (now < end) {
+                if (now >= nextFrameMillis) {
+                    int width = videoRateController.getCaptureWidth();
+                    int quality = videoRateController.getJpegQuality();
+                    long frameBytes = (long) (width*videoRateController.getCaptureHeight()*(0.1 + 0.02*quality)/8);
+                    linkQueue.addLast(new long[] {frameBytes, now});
+                    bytesEncoded += frameBytes;
+                    framesEncoded++;
+                    if (now >= judgeFrom) {
+                        judgedCaptured++;
+                        minQuality = Math.min(minQuality, quality);
+                        maxQuality = Math.max(maxQuality, quality);
+                        widthChanged |= lastWidth >= 0 && lastWidth != width;
+                        lastWidth = width;
+                    }
+                    while (linkQueue.size() > DROPPABLE_QUEUE_SIZE_LIMIT) {
+                        linkQueue.pollFirst();
+                        framesDropped++;
+                    }
+                    nextFrameMillis += 1000/TARGET_FPS;
+                }
+
+                long budget = bytesPerStep;
+                while (budget > 0 && !linkQueue.isEmpty()) {
+                    long[] head = linkQueue.peekFirst();
+                    long sent = Math.min(budget, head[0]);
+                    head[0] -= sent;
+                    budget -= sent;
+                    bytesSent += sent;
+                    if (head[0] == 0) {
+                        linkQueue.pollFirst();
+                        long latency = now + STEP_MILLIS - head[1] + BASE_LATENCY_MILLIS;
+                        worstLatency = Math.max(worstLatency, latency);
+                        if (head[1] >= judgeFrom) {
+                            judgedDelivered++;
+                            if (latency > LATENCY_BUDGET_MILLIS) {
+                                judgedLate++;
+                            }
+                        }
+                    }
+                }
+
+                now += STEP_MILLIS;
+                if (now >= nextUpdateMillis) {
+                    videoRateController.update(UPDATE_PERIOD_MILLIS, bytesEncoded, bytesSent, framesEncoded, framesDropped, worstLatency);
+                    bytesEncoded = 0;
+                    bytesSent = 0;
+                    framesEncoded = 0;
+                    framesDropped = 0;
+                    worstLatency = -1;
+                    nextUpdateMillis += UPDATE_PERIOD_MILLIS;
+                }
+            }
+        }
+
+        double deliveredFraction() {
+            return judgedCaptured == 0 ? 0 : (double) judgedDelivered / judgedCaptured;
+        }
+
+        double lateFraction() {
+            return judgedDelivered == 0 ? 1 : (double) judgedLate / judgedDelivered;
+        }
+    }
+}
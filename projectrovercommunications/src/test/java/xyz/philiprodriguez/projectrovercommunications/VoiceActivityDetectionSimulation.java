@@ -0,0 +1,146 @@
+package xyz.philiprodriguez.projectrovercommunications;
+
+import java.util.Random;
+
+/**
+ * Runs VoiceActivityDetector over a synthetic talk and pause trace.
+ */
+public class VoiceActivityDetectionSimulation {
+
+    public static void main(String[] args) {
+        simulateVoiceActivityDetection();
+    }
+
+    /**
+     * Run half a minute of synthetic voice in talk spurts, with quiet background noise throughout
+     * that gets twice as loud two thirds of the way in, plus a few lone "s" sounds quieter than
+     * the speech threshold, through a VoiceActivityDetector 100 ms frame at a time, the way
+     * doEnqueueAudioFrame does. Checks that nearly every frame with speech in it is still sent,
+     * that most frames with only noise are not, and reports how many bytes that saves and how
+     * long detection takes. Also checks that the noise level sent along with silent frames, and
+     * the comfort noise played for it, match the real background noise.
+     */
+    public static void simulateVoiceActivityDetection() {
+        System.out.println("START VOICE ACTIVITY DETECTION SIMULATION");
+        int sampleRate = PCMFrameMessage.SAMPLE_RATE;
+        int frameLength = sampleRate / 10;
+        int frameCount = 300;
+        int hangoverFrames = VoiceActivityDetector.DEFAULT_HANGOVER_MILLIS / 100;
+        // Start and end of each talk spurt and lone "s", in frames
+        int[][] spurts = {{10, 30}, {60, 75}, {100, 140}, {170, 180}, {215, 240}, {270, 285}};
+        int[] hisses = {48, 155, 255};
+        double quietNoiseRms = 200;
+
+        short[][] voice = TestFixtures.createSyntheticVoice(frameCount, frameLength);
+        short[][] frames = new short[frameCount][frameLength];
+        boolean[] hasSpeech = new boolean[frameCount];
+        boolean[] isSilent = new boolean[frameCount];
+        Random random = new Random(11);
+        double noise = 0;
+        double previousWhite = 0;
+        double noiseEnergy = 0;
+        int noiseSamples = 0;
+        for (int i = 0; i < frameCount; i++) {
+            boolean talking = false;
+            for (int[] spurt : spurts) {
+                talking |= i >= spurt[0] && i < spurt[1];
+            }
+            boolean hissing = false;
+            for (int hiss : hisses) {
+                hissing |= i >= hiss && i < hiss + 2;
+            }
+            // Low rumbly noise, like a room or a motor
+            double noiseRms = i < frameCount*2/3 ? quietNoiseRms : 2*quietNoiseRms;
+            double speechEnergy = 0;
+            for (int j = 0; j < frameLength; j++) {
+                noise = 0.9*noise + random.nextGaussian()*noiseRms*Math.sqrt(1 - 0.81);
+                double speech = talking ? voice[i][j] : 0;
+                if (hissing) {
+                    // Hissy high frequency noise, about 8 dB above the background
+                    double white = random.nextGaussian();
+                    speech = (white - previousWhite)*noiseRms*2.5 / Math.sqrt(2);
+                    previousWhite = white;
+                }
+                speechEnergy += speech*speech;
+                frames[i][j] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(speech + noise)));
+                if (i >= 5 && i < frameCount*2/3) {
+                    noiseEnergy += noise*noise;
+                    noiseSamples++;
+                }
+            }
+            hasSpeech[i] = Math.sqrt(speechEnergy / frameLength) >= noiseRms;
+        }
+        // Frames well clear of any speech, which should not be sent
+        for (int i = 0; i < frameCount; i++) {
+            isSilent[i] = true;
+            for (int j = Math.max(0, i - hangoverFrames); j <= i; j++) {
+                isSilent[i] &= !hasSpeech[j];
+            }
+            for (int[] spurt : spurts) {
+                isSilent[i] &= i < spurt[0] || i >= spurt[1] + hangoverFrames;
+            }
+        }
+
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            VoiceActivityDetector voiceActivityDetector = new VoiceActivityDetector(sampleRate);
+            AudioFrameEncoder audioFrameEncoder = new AudioFrameEncoder(sampleRate);
+            long detectNanos = 0;
+            long bytesWithout = 0;
+            long bytesWith = 0;
+            int speechFrames = 0;
+            int speechKept = 0;
+            int silentFrames = 0;
+            int silentSuppressed = 0;
+            int levelAtEnd = 0;
+            for (int i = 0; i < frameCount; i++) {
+                long start = System.nanoTime();
+                boolean send = voiceActivityDetector.isSpeech(frames[i], 0, frameLength);
+                detectNanos += System.nanoTime() - start;
+
+                int compressedLength = audioFrameEncoder.encode(i*100, frames[i]).getEncodedLength();
+                bytesWithout += compressedLength;
+                bytesWith += send ? compressedLength : new AudioSilenceMessage(i*100, sampleRate, frameLength, voiceActivityDetector.getNoiseLevel()).getEncodedLength();
+                if (hasSpeech[i]) {
+                    speechFrames++;
+                    speechKept += send ? 1 : 0;
+                }
+                if (isSilent[i]) {
+                    silentFrames++;
+                    silentSuppressed += send ? 0 : 1;
+                }
+                if (i == frameCount*2/3 - 1) {
+                    levelAtEnd = voiceActivityDetector.getNoiseLevel();
+                }
+            }
+            if (round > 0) {
+                double realNoiseRms = Math.sqrt(noiseEnergy / noiseSamples);
+                double levelErrorDb = 20*Math.log10(levelAtEnd / realNoiseRms);
+                double keptFraction = (double) speechKept / speechFrames;
+                double suppressedFraction = (double) silentSuppressed / silentFrames;
+                System.out.println(voiceActivityDetector);
+                System.out.println("Detect: " + (detectNanos / 1e3 / frameCount) + " us per 100 ms frame");
+                System.out.println("Sent: " + (bytesWith / frameCount) + " bytes per frame, down from " + (bytesWithout / frameCount)
+                        + ", " + Math.round(100 - 100.0*bytesWith / bytesWithout) + "% saved");
+                System.out.println((keptFraction >= 0.98 ? "PASS" : "FAIL") + ": " + speechKept + " of " + speechFrames + " frames with speech sent");
+                System.out.println((suppressedFraction >= 0.9 ? "PASS" : "FAIL") + ": " + silentSuppressed + " of " + silentFrames + " frames of only noise not sent");
+                System.out.println((Math.abs(levelErrorDb) <= 3 ? "PASS" : "FAIL") + ": noise level " + levelAtEnd + " sent for noise of "
+                        + Math.round(realNoiseRms) + ", off by " + levelErrorDb + " dB");
+            }
+        }
+
+        // Comfort noise comes out at the level asked for
+        AudioJitterBuffer audioJitterBuffer = new AudioJitterBuffer(0, sampleRate);
+        int noiseLevel = 250;
+        audioJitterBuffer.writeComfortNoise(sampleRate, noiseLevel);
+        short[] comfortNoise = new short[sampleRate];
+        audioJitterBuffer.read(comfortNoise, 0, comfortNoise.length);
+        double comfortEnergy = 0;
+        for (short sample : comfortNoise) {
+            comfortEnergy += (double) sample*sample;
+        }
+        double comfortErrorDb = 20*Math.log10(Math.sqrt(comfortEnergy / comfortNoise.length) / noiseLevel);
+        System.out.println((Math.abs(comfortErrorDb) <= 0.5 ? "PASS" : "FAIL") + ": comfort noise off by " + comfortErrorDb + " dB from level " + noiseLevel);
+        System.out.println("END VOICE ACTIVITY DETECTION SIMULATION");
+    }
+}
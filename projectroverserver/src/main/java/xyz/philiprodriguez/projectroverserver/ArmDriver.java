@@ -4,6 +4,10 @@ package xyz.philiprodriguez.projectroverserver;
 import org.apache.commons.math3.util.FastMath;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
 
 // This class exists to provider helper methods for driving an arm
 public class ArmDriver {
@@ -11,12 +15,27 @@ public class ArmDriver {
     private final double l_1;
     private final double l_2;
     private final int searchIterations;
-    
-    private static final double thetaOneMin = -0.1309;
-    private static final double thetaOneMax = 2.2689;
 
-    private static final double thetaTwoMin = 0.7854;
-    private static final double thetaTwoMax = 5.218;
+    // Whether to solve in closed form first, falling back to searching only when that fails
+    private final boolean useAnalyticSolver;
+
+    static final double thetaOneMin = ArmWorkspace.THETA_ONE_MIN;
+    static final double thetaOneMax = ArmWorkspace.THETA_ONE_MAX;
+
+    static final double thetaTwoMin = ArmWorkspace.THETA_TWO_MIN;
+    static final double thetaTwoMax = ArmWorkspace.THETA_TWO_MAX;
+
+    // Which points the arm can reach
+    private final ArmWorkspace workspace;
+
+    // Consulted before solving, when set
+    private volatile ArmLookupTable lookupTable;
+
+    // Batches are solved this many targets at a time, small enough that each block's working
+    // stays in cache between passes over it
+    private static final int BATCH_BLOCK_SIZE = 1024;
+    // Batches any smaller are not worth splitting between threads
+    private static final int MIN_PARALLEL_BATCH_SIZE = 8*BATCH_BLOCK_SIZE;
 
 
     /**
@@ -26,14 +45,52 @@ public class ArmDriver {
      * @param l_2 is the length of the second arm segment
      */
     public ArmDriver(double l_1, double l_2, int searchIterations) {
+        this(l_1, l_2, searchIterations, false);
+    }
+
+    /**
+     * Initialize an instance of ArmDriver with an arm's parameters.
+     *
+     * @param l_1 is the length of the first arm segment
+     * @param l_2 is the length of the second arm segment
+     * @param useAnalyticSolver is whether getThetas should solve in closed form, only searching
+     *                          for targets that cannot be reached exactly.
+     */
+    public ArmDriver(double l_1, double l_2, int searchIterations, boolean useAnalyticSolver) {
         this.l_1 = l_1;
         this.l_2 = l_2;
         this.searchIterations = searchIterations;
+        this.useAnalyticSolver = useAnalyticSolver;
+        this.workspace = new ArmWorkspace(l_1, l_2);
         if (searchIterations < 5 || searchIterations > 100) {
             throw new IllegalStateException("searchIterations must be in the interval [5, 100].");
         }
     }
 
+    public double getL_1() {
+        return l_1;
+    }
+
+    public double getL_2() {
+        return l_2;
+    }
+
+    public ArmWorkspace getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * Have getThetas look targets up in lookupTable before solving for them, or stop if null. The
+     * table must have been built for this arm.
+     */
+    public void setLookupTable(ArmLookupTable lookupTable) {
+        this.lookupTable = lookupTable;
+    }
+
+    public ArmLookupTable getLookupTable() {
+        return lookupTable;
+    }
+
     /**
      * Compute x_2 given the thetas
      * @return the value of x_2.
@@ -73,18 +130,11 @@ public class ArmDriver {
     /**
      * Provided some height, determine the inner and outer radius limits in the xy plane using the
      * angle limits for thetaB, thetaOne, thetaTwo.
-     * @return The inner radius and outer radius, in that order.
+     * @return The inner radius and outer radius, in that order, or NaN for both if the arm cannot
+     * reach that height.
      */
     public double[] radiiAtHeight(double z_t) {
-        double[] result = new double[2];
-        // So the game here boils down to setting z_2 to z_t and then solving from there...
-
-        // Outer radius is the easier of the two, since we can basically ignore thetaTwo and
-        // instead just assume we have a line of l_1+l_2 length.
-        double len = l_1+l_2;
-        double outerRadius = len*cos(FastMath.asin(z_t/len));
-        result[1] = outerRadius;
-        return result;
+        return new double[] {workspace.getInnerRadius(z_t), workspace.getOuterRadius(z_t)};
     }
 
     /**
@@ -94,25 +144,251 @@ public class ArmDriver {
      * solution thetas could be found that defined a point within maxDistance from the target point.
      */
     public double[] getThetas(double x_t, double y_t, double z_t, double maxDistance) {
-        double[] result1 = new double[3];
+        ArmLookupTable lookupTable = this.lookupTable;
+        if (lookupTable != null) {
+            double[] thetas = lookupTable.getThetas(x_t, y_t, z_t, maxDistance);
+            if (thetas != null) {
+                return thetas;
+            }
+        }
+        if (useAnalyticSolver) {
+            double[] thetas = getThetasAnalytic(x_t, y_t, z_t, maxDistance);
+            if (thetas != null) {
+                return thetas;
+            }
 
-        // Instead of searching for thetaB consider that for a fixed thetaB, the remaining two
-        // thetas can only access a plane spanned by the +z unit vector and the unit vector in the
-        // xy plane with an angle of thetaB from the x axis. The only possible exact solutions for
-        // thetaB will be when thetaB causes the plane to intersect with the target point. There are
-        // only two such options then for thetaB: atan2(y_t, x_t) and atan2(y_t, x_t)+180. However,
-        // for this specific case of the arm we want to ignore the +180 option to avoid the arm
-        // violently swinging around "unexpectedly".
+            // Further than the arm stretches, so searching cannot get close enough either
+            double len = l_1+l_2+maxDistance;
+            if (x_t*x_t+y_t*y_t+z_t*z_t > len*len) {
+                return null;
+            }
+        }
+        return getThetasBySearch(x_t, y_t, z_t, maxDistance);
+    }
+
+    /**
+     * Provided a target point, compute the three thetas in closed form. In the plane of the arm,
+     * the two segments and the line from the base to the target make a triangle whose sides are
+     * all known, so the law of cosines gives the elbow angle and from that the shoulder angle.
+     * Of the two elbow positions, the one above the line to the target is preferred, as the search
+     * does. If neither is within the joint limits, the closest the arm gets with its joints
+     * clamped to their limits is used.
+     * @return an array of the three thetas in the order thetaB, thetaOne, thetaTwo, or null if the
+     * target is out of reach or the closest point the arm gets to is further than maxDistance from
+     * it, in which case searching may still get closer.
+     */
+    public double[] getThetasAnalytic(double x_t, double y_t, double z_t, double maxDistance) {
+        double r_t = FastMath.sqrt(x_t*x_t+y_t*y_t);
+        double cosBend = (r_t*r_t+z_t*z_t-l_1*l_1-l_2*l_2)/(2.0*l_1*l_2);
+        double[] thetas = new double[3];
+        if (!solveInPlane(r_t, z_t, cosBend, maxDistance, thetas, 1, thetas, 2)) {
+            return null;
+        }
+        thetas[0] = thetaBFor(x_t, y_t);
+        return thetas;
+    }
+
+    /**
+     * Provided targets in structure of arrays form, (xs[i], ys[i], zs[i]) for each i in
+     * [from, to), compute the three thetas for each in closed form as getThetasAnalytic does,
+     * writing them to thetaBs[i], thetaOnes[i] and thetaTwos[i]. Targets that cannot be solved
+     * for within maxDistance get NaN thetas, and can be passed to getThetas one at a time to be
+     * searched for. The lookup table is not consulted. Allocates nothing.
+     * @return how many targets could not be solved for.
+     */
+    public int getThetas(double[] xs, double[] ys, double[] zs, int from, int to, double maxDistance,
+                         double[] thetaBs, double[] thetaOnes, double[] thetaTwos) {
+        int unsolvedCount = 0;
+        for (int blockStart = from; blockStart < to; blockStart += BATCH_BLOCK_SIZE) {
+            int blockEnd = FastMath.min(to, blockStart+BATCH_BLOCK_SIZE);
+
+            // First the arithmetic every target needs, in a loop with no branches or calls that
+            // the JIT can turn into vector instructions. The radius and the elbow's cosine are
+            // kept in the output arrays until the second pass replaces them.
+            double lengthsSquared = l_1*l_1+l_2*l_2;
+            double twoLengths = 2.0*l_1*l_2;
+            for (int i = blockStart; i < blockEnd; i++) {
+                double radiusSquared = xs[i]*xs[i]+ys[i]*ys[i];
+                thetaOnes[i] = Math.sqrt(radiusSquared);
+                thetaTwos[i] = (radiusSquared+zs[i]*zs[i]-lengthsSquared)/twoLengths;
+            }
+
+            // Then the trig and the joint limits, target by target
+            for (int i = blockStart; i < blockEnd; i++) {
+                if (solveInPlane(thetaOnes[i], zs[i], thetaTwos[i], maxDistance, thetaOnes, i, thetaTwos, i)) {
+                    thetaBs[i] = thetaBFor(xs[i], ys[i]);
+                } else {
+                    thetaBs[i] = Double.NaN;
+                    thetaOnes[i] = Double.NaN;
+                    thetaTwos[i] = Double.NaN;
+                    unsolvedCount++;
+                }
+            }
+        }
+        return unsolvedCount;
+    }
+
+    /**
+     * As getThetas on a batch of targets, but split between the threads of forkJoinPool when
+     * there are enough targets to be worth it. Beyond the small task objects the split takes,
+     * allocates nothing.
+     * @return how many targets could not be solved for.
+     */
+    public int getThetas(double[] xs, double[] ys, double[] zs, int from, int to, double maxDistance,
+                         double[] thetaBs, double[] thetaOnes, double[] thetaTwos, ForkJoinPool forkJoinPool) {
+        if (to-from < MIN_PARALLEL_BATCH_SIZE || forkJoinPool.getParallelism() == 1) {
+            return getThetas(xs, ys, zs, from, to, maxDistance, thetaBs, thetaOnes, thetaTwos);
+        }
+        // A few tasks a thread, so that threads finishing early can take work from the others
+        int taskSize = FastMath.max(MIN_PARALLEL_BATCH_SIZE/2, (to-from)/(4*forkJoinPool.getParallelism()));
+        return forkJoinPool.invoke(new BatchTask(this, xs, ys, zs, from, to, maxDistance, thetaBs, thetaOnes, thetaTwos, taskSize));
+    }
+
+    // Solves its range of a batch, halving it between two subtasks until it is no larger than
+    // taskSize. ForkJoinTasks are Serializable, but these are never serialized.
+    private static class BatchTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ArmDriver armDriver;
+        private final double[] xs;
+        private final double[] ys;
+        private final double[] zs;
+        private final int from;
+        private final int to;
+        private final double maxDistance;
+        private final double[] thetaBs;
+        private final double[] thetaOnes;
+        private final double[] thetaTwos;
+        private final int taskSize;
+
+        BatchTask(ArmDriver armDriver, double[] xs, double[] ys, double[] zs, int from, int to, double maxDistance,
+                  double[] thetaBs, double[] thetaOnes, double[] thetaTwos, int taskSize) {
+            this.armDriver = armDriver;
+            this.xs = xs;
+            this.ys = ys;
+            this.zs = zs;
+            this.from = from;
+            this.to = to;
+            this.maxDistance = maxDistance;
+            this.thetaBs = thetaBs;
+            this.thetaOnes = thetaOnes;
+            this.thetaTwos = thetaTwos;
+            this.taskSize = taskSize;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to-from <= taskSize) {
+                return armDriver.getThetas(xs, ys, zs, from, to, maxDistance, thetaBs, thetaOnes, thetaTwos);
+            }
+            int middle = (from+to) >>> 1;
+            BatchTask first = new BatchTask(armDriver, xs, ys, zs, from, middle, maxDistance, thetaBs, thetaOnes, thetaTwos, taskSize);
+            BatchTask second = new BatchTask(armDriver, xs, ys, zs, middle, to, maxDistance, thetaBs, thetaOnes, thetaTwos, taskSize);
+            first.fork();
+            int secondUnsolved = second.compute();
+            return first.join()+secondUnsolved;
+        }
+    }
+
+    // Solve for thetaOne and thetaTwo, given the target point r_t out and z_t up in the arm's
+    // plane and the cosine of the angle the second segment turns away from the direction of the
+    // first, writing them to thetaOnes[thetaOneIndex] and thetaTwos[thetaTwoIndex]. Returns
+    // false, writing nothing, if the target is out of reach or the closest the arm gets is
+    // further than maxDistance from it.
+    private boolean solveInPlane(double r_t, double z_t, double cosBend, double maxDistance,
+                                 double[] thetaOnes, int thetaOneIndex, double[] thetaTwos, int thetaTwoIndex) {
+        if (cosBend > 1.0 || cosBend < -1.0) {
+            // Out of reach
+            return false;
+        }
+        double bend = FastMath.acos(cosBend);
+
+        double bestThetaOne = 0;
+        double bestThetaTwo = 0;
+        double bestError = Double.MAX_VALUE;
+        // Bending down, which keeps the elbow up, first
+        for (int i = 0; i < 2; i++) {
+            double q_2 = i == 0 ? -bend : bend;
+            double thetaTwo = FastMath.PI+q_2;
+            double thetaOne = thetaOneFor(r_t, z_t, q_2);
+            if (thetaOne >= thetaOneMin && thetaOne <= thetaOneMax && thetaTwo >= thetaTwoMin && thetaTwo <= thetaTwoMax) {
+                thetaOnes[thetaOneIndex] = thetaOne;
+                thetaTwos[thetaTwoIndex] = thetaTwo;
+                return true;
+            }
+
+            // Clamp the elbow to its limits, point the arm as close to the target as it then
+            // gets, and clamp the shoulder to its limits
+            thetaTwo = FastMath.max(thetaTwoMin, FastMath.min(thetaTwoMax, thetaTwo));
+            thetaOne = thetaOneFor(r_t, z_t, thetaTwo-FastMath.PI);
+            thetaOne = FastMath.max(thetaOneMin, FastMath.min(thetaOneMax, thetaOne));
+            double error = planeError(r_t, z_t, thetaOne, thetaTwo);
+            if (error < bestError) {
+                bestError = error;
+                bestThetaOne = thetaOne;
+                bestThetaTwo = thetaTwo;
+            }
+        }
+
+        if (bestError > maxDistance) {
+            return false;
+        }
+        thetaOnes[thetaOneIndex] = bestThetaOne;
+        thetaTwos[thetaTwoIndex] = bestThetaTwo;
+        return true;
+    }
 
+    // Which way the arm's plane must face to contain the target point.
+    static double thetaBFor(double x_t, double y_t) {
         double thetaB = FastMath.atan2(y_t, x_t);
 
         // We must keep in mind that the Teensy code only allows thetaB to span, at the current time
         // of writing, from -0.3491 to 3.8397, and importantly this means we absolutely must convert
         // the output of atan2 to avoid clipping, which can be from [-pi, pi] according to the docs.
-
         if (thetaB < (-FastMath.PI/2.0)) {
             thetaB += 2.0*FastMath.PI;
         }
+        return thetaB;
+    }
+
+    // The thetaOne that points the arm, with its second segment turned q_2 from the direction of
+    // the first, at the point r_t out and z_t up in its plane, in the range [-pi, pi].
+    private double thetaOneFor(double r_t, double z_t, double q_2) {
+        double thetaOne = FastMath.atan2(z_t, r_t)-FastMath.atan2(l_2*FastMath.sin(q_2), l_1+l_2*FastMath.cos(q_2));
+        if (thetaOne > FastMath.PI) {
+            thetaOne -= 2.0*FastMath.PI;
+        } else if (thetaOne < -FastMath.PI) {
+            thetaOne += 2.0*FastMath.PI;
+        }
+        return thetaOne;
+    }
+
+    // Exact distance from the point r_t out and z_t up in the arm's plane to where the thetas put
+    // the end of the arm.
+    private double planeError(double r_t, double z_t, double thetaOne, double thetaTwo) {
+        double r_2 = l_1*FastMath.cos(thetaOne)+l_2*FastMath.cos(thetaOne+thetaTwo-FastMath.PI);
+        double z_2 = l_1*FastMath.sin(thetaOne)+l_2*FastMath.sin(thetaOne+thetaTwo-FastMath.PI);
+        return FastMath.sqrt((r_t-r_2)*(r_t-r_2)+(z_t-z_2)*(z_t-z_2));
+    }
+
+    /**
+     * Provided a target point, compute the three thetas by searching. Slower than solving in
+     * closed form, but finds the closest point for targets out of reach.
+     * @return an array of the three thetas in the order thetaB, thetaOne, thetaTwo, or null if no
+     * solution thetas could be found that defined a point within maxDistance from the target point.
+     */
+    public double[] getThetasBySearch(double x_t, double y_t, double z_t, double maxDistance) {
+        double[] result1 = new double[3];
+
+        // Instead of searching for thetaB consider that for a fixed thetaB, the remaining two
+        // thetas can only access a plane spanned by the +z unit vector and the unit vector in the
+        // xy plane with an angle of thetaB from the x axis. The only possible exact solutions for
+        // thetaB will be when thetaB causes the plane to intersect with the target point. There are
+        // only two such options then for thetaB: atan2(y_t, x_t) and atan2(y_t, x_t)+180. However,
+        // for this specific case of the arm we want to ignore the +180 option to avoid the arm
+        // violently swinging around "unexpectedly".
+
+        double thetaB = thetaBFor(x_t, y_t);
 
         double[] distResult = distanceThetaB(x_t, y_t, z_t, thetaB);
         result1[0] = thetaB;
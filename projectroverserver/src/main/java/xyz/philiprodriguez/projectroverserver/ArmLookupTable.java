@@ -0,0 +1,248 @@
+package xyz.philiprodriguez.projectroverserver;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class holds thetaOne and thetaTwo for points on a grid in the plane of the arm, so that
+ * solving for a target point takes interpolating between the four grid points around it rather
+ * than solving from scratch. The arm's geometry never changes, so the table only needs working
+ * out once, and can be saved to a file and memory mapped back in on later runs.
+ *
+ * thetaB is worked out directly as ArmDriver does, which leaves the distance out from the base,
+ * radius, and the height, z. The grid covers radius from 0 to l_1+l_2 and z from -(l_1+l_2) to
+ * l_1+l_2, cellSize apart. Interpolated thetas are refined with a couple of Newton steps and
+ * checked. Points next to grid points the arm cannot reach, or where the refined thetas still
+ * miss, such as between grid points solved with the elbow bent opposite ways, are left to
+ * ArmDriver to solve.
+ *
+ * Lookups do not change anything, so one table can be used from any number of threads.
+ */
+public class ArmLookupTable {
+    public static final String CLASS_IDENTIFIER = "ArmLookupTable";
+
+    // Start of every saved table, followed by version one of the format
+    private static final int MAGIC = 0x41524D54;
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+
+    // How close to each grid point the thetas stored for it must get
+    private static final double GRID_MAX_DISTANCE = 0.001;
+    private static final int REFINEMENT_STEPS = 2;
+
+    private final double l_1;
+    private final double l_2;
+    private final double cellSize;
+    private final int radiusCount;
+    private final int zCount;
+    private final double zMin;
+
+    // thetaOne and thetaTwo for each grid point, row by row of increasing z, or NaN for grid
+    // points the arm cannot reach.
+    private final FloatBuffer thetas;
+
+    private ArmLookupTable(double l_1, double l_2, double cellSize, int radiusCount, int zCount, FloatBuffer thetas) {
+        this.l_1 = l_1;
+        this.l_2 = l_2;
+        this.cellSize = cellSize;
+        this.radiusCount = radiusCount;
+        this.zCount = zCount;
+        this.zMin = -(l_1+l_2);
+        this.thetas = thetas;
+    }
+
+    /**
+     * Work out the table for armDriver's arm by solving for every grid point with it, splitting
+     * the rows between threadCount threads.
+     */
+    public static ArmLookupTable build(final ArmDriver armDriver, double cellSize, int threadCount) throws InterruptedException {
+        double len = armDriver.getL_1()+armDriver.getL_2();
+        final int radiusCount = (int) FastMath.ceil(len/cellSize)+1;
+        final int zCount = 2*(radiusCount-1)+1;
+        final float[] values = new float[2*radiusCount*zCount];
+        final ArmLookupTable table = new ArmLookupTable(armDriver.getL_1(), armDriver.getL_2(), cellSize, radiusCount, zCount, FloatBuffer.wrap(values));
+
+        Thread[] threads = new Thread[Math.max(1, threadCount)];
+        for (int t = 0; t < threads.length; t++) {
+            final int firstRow = (int) ((long) zCount*t/threads.length);
+            final int lastRow = (int) ((long) zCount*(t+1)/threads.length);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int zIndex = firstRow; zIndex < lastRow; zIndex++) {
+                        for (int radiusIndex = 0; radiusIndex < radiusCount; radiusIndex++) {
+                            double[] solved = armDriver.getThetas(table.radiusAt(radiusIndex), 0, table.zAt(zIndex), GRID_MAX_DISTANCE);
+                            int index = 2*(zIndex*radiusCount+radiusIndex);
+                            values[index] = solved == null ? Float.NaN : (float) solved[1];
+                            values[index+1] = solved == null ? Float.NaN : (float) solved[2];
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return table;
+    }
+
+    /**
+     * Map a table saved with save back in. Nothing is copied, so this is quick whatever the size.
+     *
+     * @throws IllegalStateException if the file does not hold a table for armDriver's arm.
+     */
+    public static ArmLookupTable load(File file, ArmDriver armDriver) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() < HEADER_LENGTH || mapped.getInt() != MAGIC || mapped.getInt() != 1) {
+                throw new IllegalStateException(file + " is not an arm lookup table!");
+            }
+            double l_1 = mapped.getDouble();
+            double l_2 = mapped.getDouble();
+            double cellSize = mapped.getDouble();
+            int radiusCount = mapped.getInt();
+            int zCount = mapped.getInt();
+            if (l_1 != armDriver.getL_1() || l_2 != armDriver.getL_2()) {
+                throw new IllegalStateException(file + " is for an arm of " + l_1 + " and " + l_2 + ", not " + armDriver.getL_1() + " and " + armDriver.getL_2() + "!");
+            }
+            if (mapped.remaining() != 4*2*radiusCount*zCount) {
+                throw new IllegalStateException(file + " is cut short!");
+            }
+            // The mapping stays valid once the file is closed
+            return new ArmLookupTable(l_1, l_2, cellSize, radiusCount, zCount, mapped.slice().asFloatBuffer());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Write this table to file, for load to map back in later.
+     */
+    public void save(File file) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(HEADER_LENGTH+4*thetas.capacity());
+        byteBuffer.putInt(MAGIC);
+        byteBuffer.putInt(1);
+        byteBuffer.putDouble(l_1);
+        byteBuffer.putDouble(l_2);
+        byteBuffer.putDouble(cellSize);
+        byteBuffer.putInt(radiusCount);
+        byteBuffer.putInt(zCount);
+        byteBuffer.asFloatBuffer().put(thetas.duplicate());
+        byteBuffer.position(byteBuffer.capacity());
+        byteBuffer.flip();
+
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            FileChannel channel = fileOutputStream.getChannel();
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+
+    /**
+     * Provided a target point, look up the three thetas.
+     * @return an array of the three thetas in the order thetaB, thetaOne, thetaTwo, or null if the
+     * table cannot say, in which case the target should be solved for directly.
+     */
+    public double[] getThetas(double x_t, double y_t, double z_t, double maxDistance) {
+        double r_t = FastMath.sqrt(x_t*x_t+y_t*y_t);
+        double radiusPosition = r_t/cellSize;
+        double zPosition = (z_t-zMin)/cellSize;
+        int radiusIndex = (int) radiusPosition;
+        int zIndex = (int) zPosition;
+        if (zPosition < 0 || radiusIndex >= radiusCount-1 || zIndex >= zCount-1) {
+            return null;
+        }
+
+        // Bilinear interpolation between the four grid points around the target
+        double radiusFraction = radiusPosition-radiusIndex;
+        double zFraction = zPosition-zIndex;
+        int index00 = 2*(zIndex*radiusCount+radiusIndex);
+        int index01 = index00+2;
+        int index10 = index00+2*radiusCount;
+        int index11 = index10+2;
+        double thetaOne = interpolate(index00, index01, index10, index11, radiusFraction, zFraction);
+        double thetaTwo = interpolate(index00+1, index01+1, index10+1, index11+1, radiusFraction, zFraction);
+        if (Double.isNaN(thetaOne) || Double.isNaN(thetaTwo)) {
+            // Some of the grid points are out of reach
+            return null;
+        }
+
+        // Newton steps on where the thetas put the end of the arm in its plane
+        for (int i = 0; i < REFINEMENT_STEPS; i++) {
+            double sinOne = FastMath.sin(thetaOne);
+            double cosOne = FastMath.cos(thetaOne);
+            double sinBoth = FastMath.sin(thetaOne+thetaTwo);
+            double cosBoth = FastMath.cos(thetaOne+thetaTwo);
+            double r_2 = l_1*cosOne-l_2*cosBoth;
+            double z_2 = l_1*sinOne-l_2*sinBoth;
+
+            // Derivatives of r_2 and z_2 by thetaOne and thetaTwo
+            double dr1 = -l_1*sinOne+l_2*sinBoth;
+            double dr2 = l_2*sinBoth;
+            double dz1 = l_1*cosOne-l_2*cosBoth;
+            double dz2 = -l_2*cosBoth;
+            double determinant = dr1*dz2-dr2*dz1;
+            if (FastMath.abs(determinant) < 1e-12) {
+                // Arm straight, where a small step does not move the end outward
+                break;
+            }
+            double dr = r_t-r_2;
+            double dz = z_t-z_2;
+            thetaOne += (dz2*dr-dr2*dz)/determinant;
+            thetaTwo += (dr1*dz-dz1*dr)/determinant;
+            thetaOne = FastMath.max(ArmDriver.thetaOneMin, FastMath.min(ArmDriver.thetaOneMax, thetaOne));
+            thetaTwo = FastMath.max(ArmDriver.thetaTwoMin, FastMath.min(ArmDriver.thetaTwoMax, thetaTwo));
+        }
+
+        double r_2 = l_1*FastMath.cos(thetaOne)+l_2*FastMath.cos(thetaOne+thetaTwo-FastMath.PI);
+        double z_2 = l_1*FastMath.sin(thetaOne)+l_2*FastMath.sin(thetaOne+thetaTwo-FastMath.PI);
+        if ((r_t-r_2)*(r_t-r_2)+(z_t-z_2)*(z_t-z_2) > maxDistance*maxDistance) {
+            return null;
+        }
+        return new double[] {ArmDriver.thetaBFor(x_t, y_t), thetaOne, thetaTwo};
+    }
+
+    private double interpolate(int index00, int index01, int index10, int index11, double radiusFraction, double zFraction) {
+        double bottom = thetas.get(index00)+(thetas.get(index01)-thetas.get(index00))*radiusFraction;
+        double top = thetas.get(index10)+(thetas.get(index11)-thetas.get(index10))*radiusFraction;
+        return bottom+(top-bottom)*zFraction;
+    }
+
+    private double radiusAt(int radiusIndex) {
+        return radiusIndex*cellSize;
+    }
+
+    private double zAt(int zIndex) {
+        return zMin+zIndex*cellSize;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return how many bytes the thetas take up.
+     */
+    public int getMemoryFootprint() {
+        return 4*thetas.capacity();
+    }
+
+    @Override
+    public String toString() {
+        return radiusCount + " by " + zCount + " grid points " + cellSize + " m apart, " + (getMemoryFootprint()/1024) + " KiB";
+    }
+}
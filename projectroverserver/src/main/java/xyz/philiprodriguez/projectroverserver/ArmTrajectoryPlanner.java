@@ -0,0 +1,288 @@
+package xyz.philiprodriguez.projectroverserver;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
+import xyz.philiprodriguez.projectrovercommunications.GlobalLogger;
+
+/**
+ * This class moves the arm smoothly toward the targets it is given, rather than having the servos
+ * jump straight to each one. Targets are buffered as they arrive, and on a thread of its own, at
+ * a fixed control rate, the planner takes the next one, solves for its thetas, and steps every
+ * joint toward them. Each joint speeds up and slows down no faster than maxAcceleration and
+ * turns no faster than maxVelocity, and the joints with less far to go are slowed so that all of
+ * them arrive together. The thetas reached each tick are handed to an OnArmThetasCallback, to be
+ * sent on to the arm.
+ *
+ * At most one target is solved for each tick, so that the time a tick takes stays bounded however
+ * quickly targets arrive. When targets arrive faster than that, the oldest are dropped. Targets
+ * the arm's workspace says are out of reach are turned away as they arrive, so they never push
+ * out one that could be reached.
+ */
+public class ArmTrajectoryPlanner {
+    public static final String CLASS_IDENTIFIER = "ArmTrajectoryPlanner";
+
+    public static final int DEFAULT_CONTROL_RATE_HZ = 50;
+    // In radians per second, and radians per second per second
+    public static final double DEFAULT_MAX_VELOCITY = 2.0;
+    public static final double DEFAULT_MAX_ACCELERATION = 8.0;
+
+    private static final int MAX_PENDING_TARGETS = 8;
+    // How far from a target the solved thetas may put the end of the arm
+    private static final double MAX_DISTANCE = 0.005;
+    // A delayed tick moves the arm no more than this many ticks' worth
+    private static final int MAX_TICKS_CAUGHT_UP = 3;
+
+    private final ArmDriver armDriver;
+    private final OnArmThetasCallback onArmThetasCallback;
+    private final long periodNanos;
+    private final double maxVelocity;
+    private final double maxAcceleration;
+
+    // Targets waiting to be solved for, as {x, y, z}. Only touched while holding it.
+    private final ArrayDeque<double[]> pendingTargets = new ArrayDeque<>();
+
+    // Everything below is only touched by the ticking thread, in the order thetaB, thetaOne,
+    // thetaTwo.
+    private boolean hasPosition;
+    private final double[] position = new double[3];
+    private final double[] velocity = new double[3];
+    private final double[] goal = new double[3];
+    // How fast each joint may turn on the way to the current goal
+    private final double[] velocityLimit = new double[3];
+    private boolean isMoving;
+    private long lastTickNanos = -1;
+
+    private ScheduledExecutorService executor;
+
+    private volatile long tickCount;
+    private volatile long totalTickNanos;
+    private volatile long maxTickNanos;
+    private volatile long commandCount;
+    private volatile long droppedTargetCount;
+    // Counted by submitTarget and tick alike, so only incremented while holding pendingTargets
+    private volatile long unreachableTargetCount;
+
+    public ArmTrajectoryPlanner(ArmDriver armDriver, OnArmThetasCallback onArmThetasCallback) {
+        this(armDriver, DEFAULT_CONTROL_RATE_HZ, DEFAULT_MAX_VELOCITY, DEFAULT_MAX_ACCELERATION, onArmThetasCallback);
+    }
+
+    public ArmTrajectoryPlanner(ArmDriver armDriver, int controlRateHz, double maxVelocity, double maxAcceleration, OnArmThetasCallback onArmThetasCallback) {
+        if (controlRateHz <= 0 || maxVelocity <= 0 || maxAcceleration <= 0) {
+            throw new IllegalStateException("Control rate, max velocity and max acceleration must all be positive!");
+        }
+        this.armDriver = armDriver;
+        this.onArmThetasCallback = onArmThetasCallback;
+        this.periodNanos = 1000000000L / controlRateHz;
+        this.maxVelocity = maxVelocity;
+        this.maxAcceleration = maxAcceleration;
+    }
+
+    /**
+     * Start ticking at the control rate on a thread of its own.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick(System.nanoTime());
+                } catch (RuntimeException e) {
+                    // Anything escaping here would silently cancel all future ticks
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Failed to tick: " + e);
+                }
+            }
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop ticking. The arm stays wherever it got to.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Have the end of the arm move to the point (x, y, z), unless it is out of reach. Can be
+     * called from any thread.
+     */
+    public void submitTarget(double x, double y, double z) {
+        ArmWorkspace workspace = armDriver.getWorkspace();
+        if (!workspace.isReachable(x, y, z)) {
+            // Solving still counts a target within MAX_DISTANCE of the edge as reached
+            double[] clamped = workspace.clampToWorkspace(x, y, z);
+            double dx = x - clamped[0];
+            double dy = y - clamped[1];
+            double dz = z - clamped[2];
+            if (dx*dx + dy*dy + dz*dz > MAX_DISTANCE*MAX_DISTANCE) {
+                synchronized (pendingTargets) {
+                    unreachableTargetCount++;
+                }
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Requested point (" + x + ", " + y + ", " + z + ") out of bounds!");
+                return;
+            }
+        }
+        synchronized (pendingTargets) {
+            if (pendingTargets.size() == MAX_PENDING_TARGETS) {
+                pendingTargets.poll();
+                droppedTargetCount++;
+            }
+            pendingTargets.add(new double[] {x, y, z});
+        }
+    }
+
+    /**
+     * Solve for the next pending target, if any, and step the joints toward the current goal.
+     * Called at the control rate once started, but can also be called directly against a
+     * simulated clock, as long as only from one thread at a time.
+     */
+    public void tick(long nowNanos) {
+        long start = System.nanoTime();
+        double seconds = lastTickNanos < 0 ? periodNanos / 1e9 : Math.min(nowNanos - lastTickNanos, MAX_TICKS_CAUGHT_UP*periodNanos) / 1e9;
+        lastTickNanos = nowNanos;
+
+        double[] target;
+        synchronized (pendingTargets) {
+            target = pendingTargets.poll();
+        }
+        if (target != null) {
+            double[] thetas = armDriver.getThetas(target[0], target[1], target[2], MAX_DISTANCE);
+            if (thetas == null) {
+                synchronized (pendingTargets) {
+                    unreachableTargetCount++;
+                }
+                GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.WARNING, "Requested point (" + target[0] + ", " + target[1] + ", " + target[2] + ") out of bounds!");
+            } else {
+                setGoal(thetas);
+            }
+        }
+
+        if (isMoving) {
+            step(seconds);
+            onArmThetasCallback.onArmThetas(position[0], position[1], position[2]);
+            commandCount++;
+        } else {
+            // Standing still
+            for (int i = 0; i < 3; i++) {
+                velocity[i] = 0;
+            }
+        }
+
+        long tickNanos = System.nanoTime() - start;
+        tickCount++;
+        totalTickNanos += tickNanos;
+        if (tickNanos > maxTickNanos) {
+            maxTickNanos = tickNanos;
+        }
+    }
+
+    private void setGoal(double[] thetas) {
+        if (!hasPosition) {
+            // Where the arm is now is not known, so the first target can only be jumped to
+            hasPosition = true;
+            for (int i = 0; i < 3; i++) {
+                position[i] = thetas[i];
+                goal[i] = thetas[i];
+                velocity[i] = 0;
+            }
+            onArmThetasCallback.onArmThetas(position[0], position[1], position[2]);
+            commandCount++;
+            return;
+        }
+
+        // Slow the joints with less far to go, so that all of them arrive together and the arm
+        // moves in a straight line in joint space
+        double longest = 0;
+        for (int i = 0; i < 3; i++) {
+            goal[i] = thetas[i];
+            longest = Math.max(longest, Math.abs(goal[i] - position[i]));
+        }
+        for (int i = 0; i < 3; i++) {
+            velocityLimit[i] = longest == 0 ? maxVelocity : maxVelocity*Math.abs(goal[i] - position[i]) / longest;
+        }
+        isMoving = true;
+    }
+
+    private void step(double seconds) {
+        double maxChange = maxAcceleration*seconds;
+        boolean arrived = true;
+        for (int i = 0; i < 3; i++) {
+            double remaining = goal[i] - position[i];
+
+            // As fast as allowed, but no faster than can still stop at the goal slowing down by
+            // maxChange a tick, which covers v*v/(2*maxAcceleration) + v*seconds/2
+            double halfChange = maxChange/2;
+            double stoppable = Math.sqrt(halfChange*halfChange + 2*maxAcceleration*Math.abs(remaining)) - halfChange;
+            double desired = Math.signum(remaining)*Math.min(velocityLimit[i], stoppable);
+            double previousVelocity = velocity[i];
+            velocity[i] += Math.max(-maxChange, Math.min(maxChange, desired - velocity[i]));
+
+            // Stop on the goal if this step would reach it, as long as that is no more sudden
+            // than allowed, both landing on it and stopping there the tick after. The speed it
+            // landed at is kept, for the next goal to carry on from if there is one straight away.
+            double landingVelocity = remaining/seconds;
+            if (Math.abs(velocity[i]*seconds) >= Math.abs(remaining)
+                    && Math.abs(landingVelocity) <= maxChange && Math.abs(landingVelocity - previousVelocity) <= maxChange) {
+                position[i] = goal[i];
+                velocity[i] = landingVelocity;
+            } else {
+                position[i] += velocity[i]*seconds;
+                arrived = false;
+            }
+        }
+        isMoving = !arrived;
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+
+    /**
+     * @return the mean time a tick has taken, in nanoseconds.
+     */
+    public long getMeanTickNanos() {
+        return tickCount == 0 ? 0 : totalTickNanos / tickCount;
+    }
+
+    /**
+     * @return how many sets of thetas have been handed to the callback.
+     */
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * @return how many targets were dropped for arriving faster than they could be solved for.
+     */
+    public long getDroppedTargetCount() {
+        return droppedTargetCount;
+    }
+
+    public long getUnreachableTargetCount() {
+        return unreachableTargetCount;
+    }
+
+    @Override
+    public String toString() {
+        return tickCount + " ticks, mean " + getMeanTickNanos() + " ns, max " + maxTickNanos + " ns, " + commandCount + " commands, "
+                + droppedTargetCount + " targets dropped, " + unreachableTargetCount + " out of reach";
+    }
+}
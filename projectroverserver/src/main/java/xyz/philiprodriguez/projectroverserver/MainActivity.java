@@ -2,6 +2,7 @@ package xyz.philiprodriguez.projectroverserver;
 
 import android.Manifest;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -34,20 +35,23 @@ import android.widget.Button;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
+import xyz.philiprodriguez.projectrovercommunications.AdaptivePlayout;
 import xyz.philiprodriguez.projectrovercommunications.ArmPositionMessage;
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
+import xyz.philiprodriguez.projectrovercommunications.AudioSilenceMessage;
 import xyz.philiprodriguez.projectrovercommunications.GlobalLogger;
 import xyz.philiprodriguez.projectrovercommunications.MotorStateMessage;
 import xyz.philiprodriguez.projectrovercommunications.OnArmPositionMessageReceivedListener;
+import xyz.philiprodriguez.projectrovercommunications.OnAudioSilenceMessageReceivedListener;
 import xyz.philiprodriguez.projectrovercommunications.OnLoggableEventListener;
 import xyz.philiprodriguez.projectrovercommunications.OnMotorStateMessageReceivedListener;
 import xyz.philiprodriguez.projectrovercommunications.OnPCMFrameMessageReceivedListener;
@@ -63,6 +67,18 @@ public class MainActivity extends AppCompatActivity {
     private static final int PERMISSIONS_REQUEST_CODE = 315736;
     private static final int MAX_STATUS_TEXT_SIZE = 100;
 
+    // Looking arm targets up in a precomputed table is about as quick as solving them in closed
+    // form, so it is only done if turned on here. The table is saved, so it is only built once.
+    private static final boolean USE_ARM_LOOKUP_TABLE = false;
+    private static final double ARM_LOOKUP_TABLE_CELL_SIZE = 0.005;
+    private static final String ARM_LOOKUP_TABLE_FILE_NAME = "arm_lookup_table.bin";
+
+    // How many arm commands to send the Teensy a second. Its serial link runs at 9600 baud, about
+    // 960 bytes a second, and motor commands share it. Each arm command is the start sequence,
+    // 'a' and three floats, 21 bytes, so at this rate a moving arm takes 420 bytes a second and
+    // leaves over half the link for motor commands, at 13 bytes each.
+    private static final int ARM_COMMAND_RATE_HZ = 20;
+
     private ProjectRoverServer projectRoverServer;
 
     private final LinkedList<String> statusTexts = new LinkedList<String>();
@@ -75,6 +91,14 @@ public class MainActivity extends AppCompatActivity {
     // Bluetooth
     BluetoothHandler bluetoothHandler;
 
+    // Solves every arm position request. Keeps no state between solves, so one does for them all.
+    final ArmDriver armDriver = new ArmDriver(ArmWorkspace.ROVER_L_1, ArmWorkspace.ROVER_L_2, 15, true);
+    // Moves the arm smoothly toward each requested position, rather than jumping straight there
+    volatile ArmTrajectoryPlanner armTrajectoryPlanner;
+    // Each arm command is put together in here. Only used from the planner's thread, and
+    // enqueueBluetoothMessage copies it before returning.
+    private final ByteBuffer armCommandBuffer = ByteBuffer.allocate(1+4*3);
+
     // Camera shit only
     CameraManager cameraManager;
     String cameraRearId;
@@ -95,9 +119,16 @@ public class MainActivity extends AppCompatActivity {
     Handler audioRecordHandler;
     HandlerThread audioRecordHandlerThread;
     Runnable audioRecordRunnable;
+    // Recorded into every time, a tenth of a second at a time. Sending encodes it before returning,
+    // so it is free again straight away.
+    final short[] audioRecordVals = new short[4410];
 
     // Audio stuff for playback of audio from the client
-    final Queue<Short> audioPlaybackPcmValueQueue = new ConcurrentLinkedQueue<>();
+    // Received audio waits here to be played, sped up or slowed down a little to keep about a
+    // fifth of a second behind.
+    final AdaptivePlayout audioPlayout = new AdaptivePlayout(PCMFrameMessage.SAMPLE_RATE, 200);
+    // Reused for every write to the track, a fiftieth of a second at a time
+    final short[] audioPlaybackVals = new short[882];
     Handler audioPlaybackHandler;
     HandlerThread audioPlaybackHandlerThread;
     Runnable audioPlaybackRunnable;
@@ -180,12 +211,45 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void run() {
                 if (projectRoverServer != null) {
-                    projectRoverServer.doEnqueueImageAndRecycleBitmap(txvCameraPreview.getBitmap(360, 480));
+                    // Copied into a pooled bitmap rather than a new one every frame
+                    Bitmap bitmap = projectRoverServer.acquireCaptureBitmap();
+                    txvCameraPreview.getBitmap(bitmap);
+                    projectRoverServer.doEnqueueImageAndReleaseBitmap(bitmap);
                 }
                 cameraTimerHandler.postDelayed(cameraTimerRunnable, 25);
             }
         };
         cameraTimerHandler.postDelayed(cameraTimerRunnable, 25);
+
+        if (USE_ARM_LOOKUP_TABLE) {
+            loadArmLookupTable();
+        }
+    }
+
+    // Maps in the saved arm lookup table, or builds and saves one if there is none yet, in the
+    // background. Arm requests are solved directly until it is ready.
+    private void loadArmLookupTable() {
+        final File file = new File(getFilesDir(), ARM_LOOKUP_TABLE_FILE_NAME);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ArmLookupTable armLookupTable;
+                    try {
+                        armLookupTable = ArmLookupTable.load(file, armDriver);
+                    } catch (IOException | IllegalStateException e) {
+                        long start = System.currentTimeMillis();
+                        armLookupTable = ArmLookupTable.build(armDriver, ARM_LOOKUP_TABLE_CELL_SIZE, Runtime.getRuntime().availableProcessors());
+                        setStatusAndLog("Built arm lookup table in " + (System.currentTimeMillis()-start) + "ms");
+                        armLookupTable.save(file);
+                    }
+                    armDriver.setLookupTable(armLookupTable);
+                    setStatusAndLog("Using arm lookup table of " + armLookupTable);
+                } catch (IOException | InterruptedException e) {
+                    GlobalLogger.log(CLASS_IDENTIFIER, GlobalLogger.ERROR, "Failed to set up the arm lookup table: " + e.getMessage());
+                }
+            }
+        }).start();
     }
 
     // Returns true if all the needed permissions are already granted, and false otherwise.
@@ -246,28 +310,11 @@ public class MainActivity extends AppCompatActivity {
             public void OnArmPositionMessageReceived(ArmPositionMessage message) {
                 setStatusAndLog("Got arm position message: " + message.toString());
 
-                // Determine necessary thetas to satisfy arm position request
-                ArmDriver armDriver = new ArmDriver(0.15f, 0.15f, 15);
-                long start = System.currentTimeMillis();
-                double[] thetas = armDriver.getThetas((float)message.getX(), (float)message.getY(), (float)message.getZ(), 0.005); // no more than 5mm off
-                long end = System.currentTimeMillis();
-
-                if (thetas == null) {
-                    // Cannot make the requested point!
-                    setStatusAndLog("Requested point out of bounds!!!");
-                    return;
+                // Solved for and sent to the arm on the planner's own thread
+                ArmTrajectoryPlanner planner = armTrajectoryPlanner;
+                if (planner != null) {
+                    planner.submitTarget(message.getX(), message.getY(), message.getZ());
                 }
-
-                setStatusAndLog("Thetas are: " + Arrays.toString(thetas));
-                setStatusAndLog("Which provide (" + armDriver.x_2(thetas[0], thetas[1], thetas[2]) + ", " + armDriver.y_2(thetas[0], thetas[1], thetas[2]) + ", " + armDriver.z_2(thetas[0], thetas[1], thetas[2]));
-                setStatusAndLog("Took " + (end-start) + "ms");
-
-                ByteBuffer byteBuffer = ByteBuffer.allocate(1+4*3);
-                byteBuffer.put((byte)'a');
-                byteBuffer.putFloat((float)thetas[0]);
-                byteBuffer.putFloat((float)thetas[1]);
-                byteBuffer.putFloat((float)thetas[2]);
-                bluetoothHandler.enqueueBluetoothMessage(byteBuffer.array());
             }
         });
         projectRoverServer.setOnLoggableEventListener(new OnLoggableEventListener() {
@@ -301,10 +348,23 @@ public class MainActivity extends AppCompatActivity {
         projectRoverServer.setOnPCMFrameMessageReceivedListener(new OnPCMFrameMessageReceivedListener() {
             @Override
             public void onPCMFrameMessageReceived(PCMFrameMessage message) {
-                // Enqueue all PCM values
+                // Buffer all PCM values. Each client connection may have its own receiving
+                // thread, and the buffer only takes one writer at a time.
                 if (audioPlaybackHandler != null) {
-                    for (short val : message.getPCMValues()) {
-                        audioPlaybackPcmValueQueue.add(val);
+                    short[] pcmValues = message.getPCMValues();
+                    synchronized (audioPlayout) {
+                        audioPlayout.write(message.getTimestamp(), pcmValues, System.currentTimeMillis());
+                    }
+                }
+            }
+        });
+        projectRoverServer.setOnAudioSilenceMessageReceivedListener(new OnAudioSilenceMessageReceivedListener() {
+            @Override
+            public void onAudioSilenceMessageReceived(AudioSilenceMessage message) {
+                // Nobody was talking, so play background noise for as long instead
+                if (audioPlaybackHandler != null) {
+                    synchronized (audioPlayout) {
+                        audioPlayout.writeSilence(message.getTimestamp(), message.getSampleCount(), message.getSampleRate(), message.getNoiseLevel(), System.currentTimeMillis());
                     }
                 }
             }
@@ -413,6 +473,20 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        armTrajectoryPlanner = new ArmTrajectoryPlanner(armDriver, ARM_COMMAND_RATE_HZ, ArmTrajectoryPlanner.DEFAULT_MAX_VELOCITY,
+                ArmTrajectoryPlanner.DEFAULT_MAX_ACCELERATION, new OnArmThetasCallback() {
+            @Override
+            public void onArmThetas(double thetaB, double thetaOne, double thetaTwo) {
+                armCommandBuffer.clear();
+                armCommandBuffer.put((byte)'a');
+                armCommandBuffer.putFloat((float)thetaB);
+                armCommandBuffer.putFloat((float)thetaOne);
+                armCommandBuffer.putFloat((float)thetaTwo);
+                bluetoothHandler.enqueueBluetoothMessage(armCommandBuffer.array());
+            }
+        });
+        armTrajectoryPlanner.start();
+
         // All the stuff for starting the send state timer here
         stateSendTimerHandler = new Handler();
         stateSendTimerRunnble = new Runnable() {
@@ -455,19 +529,16 @@ public class MainActivity extends AppCompatActivity {
         audioRecordRunnable = new Runnable() {
             @Override
             public void run() {
-                // Our audio frame size is one tenth of one second...
-                short[] audioFrameVals = new short[4410];
-
                 // Make sure we're actually recording!
                 if (audioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
                     audioRecord.startRecording();
                 }
 
                 // We can use READ_BLOCKING since we have our own handler / thread here..
-                audioRecord.read(audioFrameVals, 0, audioFrameVals.length, AudioRecord.READ_BLOCKING);
+                audioRecord.read(audioRecordVals, 0, audioRecordVals.length, AudioRecord.READ_BLOCKING);
 
                 if (projectRoverServer != null) {
-                    projectRoverServer.doEnqueueAudioFrame(audioFrameVals);
+                    projectRoverServer.doEnqueueAudioFrame(audioRecordVals);
                 }
 
                 Handler localHandlerCopy = audioRecordHandler;
@@ -489,8 +560,8 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void startAudioPlaybackHandler() {
-        // Any time we are re-starting playback, we should nuke any values currently in the queue...
-        audioPlaybackPcmValueQueue.clear();
+        // Any time we are re-starting playback, we should nuke any values currently buffered...
+        audioPlayout.clear();
         audioPlaybackHandlerThread = new HandlerThread("Client Audio Handler Thread");
         audioPlaybackHandlerThread.start();
         audioPlaybackHandler = new Handler(audioPlaybackHandlerThread.getLooper());
@@ -498,41 +569,13 @@ public class MainActivity extends AppCompatActivity {
         audioPlaybackRunnable = new Runnable() {
             @Override
             public void run() {
-                if (audioPlaybackPcmValueQueue.size() > 0) {
-                    // Only play if we have at least a tenth of a second of audio.
-                    if (audioPlaybackPcmValueQueue.size() >= 4410) {
-                        short[] playbackVals;
-                        if (audioPlaybackPcmValueQueue.size() > 4410 * 5) {
-                            System.out.println("Speeding up");
-                            // If we're more than 5 tenths of a second behind, then let's speed it up by
-                            // playing only 9 out of every 10 bytes.
-                            playbackVals = new short[3969];
-                            int place = 0;
-                            for (int i = 0; i < 4410; i++) {
-                                short val = audioPlaybackPcmValueQueue.poll();
-                                if (i % 10 == 0) {
-                                    continue;
-                                }
-                                playbackVals[place] = val;
-                                place++;
-                            }
-                            if (place != playbackVals.length) {
-                                throw new IllegalStateException("Place was " + place + " when it should have been " + playbackVals.length);
-                            }
-                        } else {
-                            // If we're not falling behind, just play it back normally
-                            playbackVals = new short[4410];
-                            for (int i = 0; i < 4410; i++) {
-                                playbackVals[i] = audioPlaybackPcmValueQueue.poll();
-                            }
-                        }
-                        audioPlaybackTrack.write(playbackVals, 0, playbackVals.length, AudioTrack.WRITE_BLOCKING);
-                    }
-
-                    if (audioPlaybackTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
-                        audioPlaybackTrack.play();
-                    }
+                // Always write, silence included when nothing has arrived, so that the track plays
+                // at a steady pace and paces this loop.
+                audioPlayout.read(audioPlaybackVals, 0, audioPlaybackVals.length, System.currentTimeMillis());
+                if (audioPlaybackTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+                    audioPlaybackTrack.play();
                 }
+                audioPlaybackTrack.write(audioPlaybackVals, 0, audioPlaybackVals.length, AudioTrack.WRITE_BLOCKING);
 
                 Handler localHandlerRef = audioPlaybackHandler;
                 if (localHandlerRef != null) {
@@ -572,6 +615,12 @@ public class MainActivity extends AppCompatActivity {
             stateSendTimerRunnble = null;
         }
 
+        if (armTrajectoryPlanner != null) {
+            armTrajectoryPlanner.stop();
+            setStatusAndLog("Arm trajectory planner: " + armTrajectoryPlanner.toString());
+            armTrajectoryPlanner = null;
+        }
+
         if (bluetoothHandler != null) {
             bluetoothHandler.recycle();
         }
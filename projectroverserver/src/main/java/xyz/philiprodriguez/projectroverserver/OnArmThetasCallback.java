@@ -0,0 +1,5 @@
+package xyz.philiprodriguez.projectroverserver;
+
+public interface OnArmThetasCallback {
+    void onArmThetas(double thetaB, double thetaOne, double thetaTwo);
+}
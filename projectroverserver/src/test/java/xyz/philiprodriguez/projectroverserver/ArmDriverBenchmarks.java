@@ -0,0 +1,549 @@
+package xyz.philiprodriguez.projectroverserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
+
+/**
+ * Rough benchmarks for ArmDriver. None of these need Android, so they can be run from a plain JVM
+ * against the test classpath. Results are just printed out. They live with the tests so that they
+ * are not shipped in the app.
+ */
+public class ArmDriverBenchmarks {
+
+    // The arm on the rover, as MainActivity drives it
+    private static final double L_1 = ArmWorkspace.ROVER_L_1;
+    private static final double L_2 = ArmWorkspace.ROVER_L_2;
+    private static final int SEARCH_ITERATIONS = 15;
+    private static final double MAX_DISTANCE = 0.005;
+
+    /**
+     * Solve every point of a grid spaced step apart covering the arm's reach, in front of and
+     * beside the rover, once by searching and once in closed form falling back to searching.
+     * Reports the time per solve, how many points each could reach, and how far from the target
+     * the thetas really put the end of the arm, worked out with exact trig rather than the
+     * approximations ArmDriver checks itself with.
+     */
+    public static void benchmarkSolvers(double step) {
+        System.out.println("START ARM SOLVERS");
+        int steps = (int) Math.round(2*(L_1+L_2+0.02) / step) + 1;
+        double[][] targets = new double[steps*(steps/2 + 1)*steps][];
+        int targetCount = 0;
+        for (int i = 0; i < steps; i++) {
+            for (int j = 0; j <= steps/2; j++) {
+                for (int k = 0; k < steps; k++) {
+                    double reach = L_1+L_2+0.02;
+                    targets[targetCount++] = new double[] {-reach + i*step, j*step, -reach + k*step};
+                }
+            }
+        }
+
+        ArmDriver searchDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS);
+        ArmDriver analyticDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            double[][] searchThetas = new double[targetCount][];
+            double[][] analyticThetas = new double[targetCount][];
+
+            long start = System.nanoTime();
+            for (int i = 0; i < targetCount; i++) {
+                searchThetas[i] = searchDriver.getThetas(targets[i][0], targets[i][1], targets[i][2], MAX_DISTANCE);
+            }
+            long searchNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < targetCount; i++) {
+                analyticThetas[i] = analyticDriver.getThetas(targets[i][0], targets[i][1], targets[i][2], MAX_DISTANCE);
+            }
+            long analyticNanos = System.nanoTime() - start;
+
+            // Only the closed form, to see how often it needs the search to fall back on
+            double[][] closedFormThetas = new double[targetCount][];
+            start = System.nanoTime();
+            for (int i = 0; i < targetCount; i++) {
+                closedFormThetas[i] = analyticDriver.getThetasAnalytic(targets[i][0], targets[i][1], targets[i][2], MAX_DISTANCE);
+            }
+            long closedFormNanos = System.nanoTime() - start;
+
+            if (round > 0) {
+                int searchSolved = 0;
+                int analyticSolved = 0;
+                int closedFormSolved = 0;
+                int missed = 0;
+                double searchMaxError = 0;
+                double analyticMaxError = 0;
+                double closedFormMaxError = 0;
+                for (int i = 0; i < targetCount; i++) {
+                    if (searchThetas[i] != null) {
+                        searchSolved++;
+                        searchMaxError = Math.max(searchMaxError, exactError(targets[i], searchThetas[i]));
+                        if (analyticThetas[i] == null) {
+                            missed++;
+                        }
+                    }
+                    if (analyticThetas[i] != null) {
+                        analyticSolved++;
+                        analyticMaxError = Math.max(analyticMaxError, exactError(targets[i], analyticThetas[i]));
+                    }
+                    if (closedFormThetas[i] != null) {
+                        closedFormSolved++;
+                        closedFormMaxError = Math.max(closedFormMaxError, exactError(targets[i], closedFormThetas[i]));
+                    }
+                }
+                System.out.println(targetCount + " targets " + step + " m apart");
+                System.out.println("Search: " + (searchNanos / targetCount) + " ns/solve, " + searchSolved + " solved, max error "
+                        + (searchMaxError*1000) + " mm");
+                System.out.println("Analytic with search fallback: " + (analyticNanos / targetCount) + " ns/solve, " + analyticSolved
+                        + " solved, max error " + (analyticMaxError*1000) + " mm");
+                System.out.println("Closed form alone: " + (closedFormNanos / targetCount) + " ns/solve, " + closedFormSolved
+                        + " solved without searching, max error " + (closedFormMaxError*1000) + " mm");
+                System.out.println((missed == 0 ? "PASS" : "FAIL") + ": " + missed + " targets the search reached were not reached analytically");
+                System.out.println((closedFormMaxError <= MAX_DISTANCE ? "PASS" : "FAIL") + ": closed form thetas at most "
+                        + (closedFormMaxError*1000) + " mm off");
+                System.out.println("Speedup: " + ((double) searchNanos / analyticNanos) + "x overall, "
+                        + ((double) searchNanos / closedFormNanos) + "x where no search is needed");
+            }
+        }
+        System.out.println("END ARM SOLVERS");
+    }
+
+    /**
+     * Build an ArmLookupTable with cellSize between grid points on one thread and on every core,
+     * save it, and map it back in. Then look up random targets within the arm's reach, and
+     * compare how long that takes and how far off it is with the search and closed form solvers.
+     * Reports the build and load times, how much memory the table takes, and how often lookups
+     * had to leave the target to be solved directly.
+     */
+    public static void benchmarkLookupTable(double cellSize, int targetCount) throws IOException, InterruptedException {
+        System.out.println("START ARM LOOKUP TABLE");
+        int cores = Runtime.getRuntime().availableProcessors();
+        ArmDriver analyticDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        ArmDriver searchDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS);
+
+        // Targets spread evenly through the sphere the arm could reach if its joints turned all the way
+        Random random = new Random(5);
+        double[][] targets = new double[targetCount][];
+        for (int i = 0; i < targetCount; i++) {
+            double x;
+            double y;
+            double z;
+            do {
+                x = (2*random.nextDouble()-1)*(L_1+L_2);
+                y = (2*random.nextDouble()-1)*(L_1+L_2);
+                z = (2*random.nextDouble()-1)*(L_1+L_2);
+            } while (x*x+y*y+z*z > (L_1+L_2)*(L_1+L_2));
+            targets[i] = new double[] {x, y, z};
+        }
+
+        ArmLookupTable table = null;
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            long start = System.nanoTime();
+            ArmLookupTable.build(analyticDriver, cellSize, 1);
+            long singleNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            ArmLookupTable.build(searchDriver, cellSize, cores);
+            long searchParallelNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            table = ArmLookupTable.build(analyticDriver, cellSize, cores);
+            long parallelNanos = System.nanoTime() - start;
+            if (round > 0) {
+                System.out.println(table);
+                System.out.println("Build: " + (singleNanos / 1e6) + " ms on 1 thread, " + (parallelNanos / 1e6) + " ms on " + cores
+                        + ", " + (searchParallelNanos / 1e6) + " ms on " + cores + " solving by search");
+            }
+        }
+
+        File file = File.createTempFile("arm", ".table");
+        file.deleteOnExit();
+        table.save(file);
+        long start = System.nanoTime();
+        ArmLookupTable mapped = ArmLookupTable.load(file, analyticDriver);
+        long loadNanos = System.nanoTime() - start;
+        System.out.println("Load: " + (loadNanos / 1e3) + " us to map " + (file.length() / 1024) + " KiB back in");
+
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            double[][] tableThetas = new double[targetCount][];
+            double[][] searchThetas = new double[targetCount][];
+            start = System.nanoTime();
+            for (int i = 0; i < targetCount; i++) {
+                tableThetas[i] = mapped.getThetas(targets[i][0], targets[i][1], targets[i][2], MAX_DISTANCE);
+            }
+            long tableNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < targetCount; i++) {
+                analyticDriver.getThetasAnalytic(targets[i][0], targets[i][1], targets[i][2], MAX_DISTANCE);
+            }
+            long analyticNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < targetCount; i++) {
+                searchThetas[i] = searchDriver.getThetas(targets[i][0], targets[i][1], targets[i][2], MAX_DISTANCE);
+            }
+            long searchNanos = System.nanoTime() - start;
+
+            if (round > 0) {
+                int tableSolved = 0;
+                int searchSolved = 0;
+                int leftToSolve = 0;
+                double tableMaxError = 0;
+                double tableErrorSum = 0;
+                double searchMaxError = 0;
+                double searchErrorSum = 0;
+                for (int i = 0; i < targetCount; i++) {
+                    if (searchThetas[i] != null) {
+                        searchSolved++;
+                        double error = exactError(targets[i], searchThetas[i]);
+                        searchMaxError = Math.max(searchMaxError, error);
+                        searchErrorSum += error;
+                        if (tableThetas[i] == null) {
+                            leftToSolve++;
+                        }
+                    }
+                    if (tableThetas[i] != null) {
+                        tableSolved++;
+                        double error = exactError(targets[i], tableThetas[i]);
+                        tableMaxError = Math.max(tableMaxError, error);
+                        tableErrorSum += error;
+                    }
+                }
+                System.out.println("Table: " + (tableNanos / targetCount) + " ns/lookup, " + tableSolved + " of " + targetCount
+                        + " found, error mean " + (tableErrorSum / tableSolved*1000) + " mm, max " + (tableMaxError*1000) + " mm");
+                System.out.println("Search: " + (searchNanos / targetCount) + " ns/solve, " + searchSolved + " solved, error mean "
+                        + (searchErrorSum / searchSolved*1000) + " mm, max " + (searchMaxError*1000) + " mm");
+                System.out.println("Closed form: " + (analyticNanos / targetCount) + " ns/solve");
+                System.out.println("Left to solve directly: " + leftToSolve + " of the " + searchSolved + " the search reached");
+                System.out.println((tableMaxError <= MAX_DISTANCE ? "PASS" : "FAIL") + ": table thetas at most " + (tableMaxError*1000) + " mm off");
+            }
+        }
+        System.out.println("END ARM LOOKUP TABLE");
+    }
+
+    /**
+     * Drive an ArmTrajectoryPlanner against a simulated clock for tickCount ticks, with targets
+     * coming in every 50 ms as the client sends them, tracing a circle in front of the rover with
+     * a jump across to the other side every so often. Done once solving with the closed form and
+     * once by search. Reports how long ticks took, and checks that the thetas sent never turned
+     * or sped up faster than allowed and that the arm ends up on the last target.
+     *
+     * Then runs the planner on its own thread for a couple of seconds, and reports how evenly
+     * spaced the thetas sent were.
+     */
+    public static void benchmarkTrajectoryPlanner(int tickCount) throws InterruptedException {
+        System.out.println("START ARM TRAJECTORY PLANNER");
+        ArmDriver[] armDrivers = {new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true), new ArmDriver(L_1, L_2, SEARCH_ITERATIONS)};
+        String[] names = {"Closed form", "Search"};
+        for (int d = 0; d < armDrivers.length; d++) {
+            for (int round = 0; round < 2; round++) {
+                // First round is just warm up
+                final double[] commanded = new double[3];
+                ArmTrajectoryPlanner planner = new ArmTrajectoryPlanner(armDrivers[d], new OnArmThetasCallback() {
+                    @Override
+                    public void onArmThetas(double thetaB, double thetaOne, double thetaTwo) {
+                        commanded[0] = thetaB;
+                        commanded[1] = thetaOne;
+                        commanded[2] = thetaTwo;
+                    }
+                });
+                long periodNanos = planner.getPeriodNanos();
+                double seconds = periodNanos / 1e9;
+                double[][] positions = new double[tickCount][3];
+                long[] tickNanos = new long[tickCount];
+                double[] lastTarget = null;
+                long nextTargetNanos = 0;
+                int targetIndex = 0;
+                // Stop sending targets a second before the end, to give the arm time to get there
+                long lastTargetNanos = (tickCount - 50)*periodNanos;
+                for (int i = 0; i < tickCount; i++) {
+                    long now = i*periodNanos;
+                    while (nextTargetNanos <= now && nextTargetNanos < lastTargetNanos) {
+                        double angle = 2*Math.PI*targetIndex / 60.0;
+                        double side = (targetIndex / 100) % 2 == 0 ? 1 : -1;
+                        lastTarget = new double[] {0.12 + 0.05*Math.cos(angle), side*(0.12 + 0.05*Math.sin(angle)), 0.08};
+                        planner.submitTarget(lastTarget[0], lastTarget[1], lastTarget[2]);
+                        targetIndex++;
+                        nextTargetNanos += 50000000L;
+                    }
+                    long start = System.nanoTime();
+                    planner.tick(now);
+                    tickNanos[i] = System.nanoTime() - start;
+                    System.arraycopy(commanded, 0, positions[i], 0, 3);
+                }
+
+                if (round > 0) {
+                    // Turning speed and acceleration of each joint between ticks, skipping the
+                    // first target, which is jumped to
+                    double maxVelocity = 0;
+                    double maxAcceleration = 0;
+                    for (int i = 3; i < tickCount; i++) {
+                        for (int j = 0; j < 3; j++) {
+                            double velocity = (positions[i][j] - positions[i - 1][j]) / seconds;
+                            double previousVelocity = (positions[i - 1][j] - positions[i - 2][j]) / seconds;
+                            maxVelocity = Math.max(maxVelocity, Math.abs(velocity));
+                            maxAcceleration = Math.max(maxAcceleration, Math.abs(velocity - previousVelocity) / seconds);
+                        }
+                    }
+                    double[] finalThetas = armDrivers[d].getThetas(lastTarget[0], lastTarget[1], lastTarget[2], 0.005);
+                    double finalError = 0;
+                    for (int j = 0; j < 3; j++) {
+                        finalError = Math.max(finalError, Math.abs(finalThetas[j] - positions[tickCount - 1][j]));
+                    }
+                    Arrays.sort(tickNanos);
+                    System.out.println(names[d] + ": " + planner);
+                    System.out.println("    Tick: median " + tickNanos[tickCount / 2] + " ns, 99th percentile " + tickNanos[tickCount*99 / 100]
+                            + " ns, max " + tickNanos[tickCount - 1] + " ns, against a period of " + (periodNanos / 1000) + " us");
+                    System.out.println("    " + ((maxVelocity <= ArmTrajectoryPlanner.DEFAULT_MAX_VELOCITY*1.000001 ? "PASS" : "FAIL") + ": fastest joint turned at "
+                            + maxVelocity + " rad/s, limit " + ArmTrajectoryPlanner.DEFAULT_MAX_VELOCITY));
+                    System.out.println("    " + ((maxAcceleration <= ArmTrajectoryPlanner.DEFAULT_MAX_ACCELERATION*1.000001 ? "PASS" : "FAIL") + ": fastest joint sped up at "
+                            + maxAcceleration + " rad/s^2, limit " + ArmTrajectoryPlanner.DEFAULT_MAX_ACCELERATION));
+                    System.out.println("    " + ((finalError < 1e-9 ? "PASS" : "FAIL") + ": ended " + finalError + " rad from the last target"));
+                }
+            }
+        }
+
+        // On its own thread, at the real control rate
+        final long[] commandNanos = new long[1000];
+        final int[] commandCount = new int[1];
+        ArmTrajectoryPlanner planner = new ArmTrajectoryPlanner(armDrivers[0], new OnArmThetasCallback() {
+            @Override
+            public void onArmThetas(double thetaB, double thetaOne, double thetaTwo) {
+                if (commandCount[0] < commandNanos.length) {
+                    commandNanos[commandCount[0]++] = System.nanoTime();
+                }
+            }
+        });
+        planner.start();
+        for (int i = 0; i < 40; i++) {
+            double angle = 2*Math.PI*i / 40.0;
+            planner.submitTarget(0.12 + 0.05*Math.cos(angle), 0.12 + 0.05*Math.sin(angle), 0.08);
+            Thread.sleep(50);
+        }
+        planner.stop();
+        long worstLateNanos = 0;
+        for (int i = 2; i < commandCount[0]; i++) {
+            worstLateNanos = Math.max(worstLateNanos, Math.abs(commandNanos[i] - commandNanos[i - 1] - planner.getPeriodNanos()));
+        }
+        System.out.println("Scheduled: " + planner);
+        System.out.println("    " + commandCount[0] + " commands sent, spacing off the " + (planner.getPeriodNanos() / 1000000) + " ms period by at most "
+                + (worstLateNanos / 1000) + " us");
+        System.out.println("END ARM TRAJECTORY PLANNER");
+    }
+
+    /**
+     * Solve targetCount random targets around the arm, some out of reach, one at a time with
+     * getThetasAnalytic, then as one batch on this thread and split between ForkJoinPools of 1, 4
+     * and as many threads as there are cores. Reports the throughput of each, and checks that
+     * the batch gives the same thetas as solving one at a time, whatever the thread count, and
+     * that solving a batch on this thread allocates nothing.
+     */
+    public static void benchmarkBatchSolver(int targetCount) {
+        System.out.println("START ARM BATCH SOLVER");
+        Random random = new Random(5);
+        double reach = L_1+L_2+0.02;
+        double[] xs = new double[targetCount];
+        double[] ys = new double[targetCount];
+        double[] zs = new double[targetCount];
+        for (int i = 0; i < targetCount; i++) {
+            xs[i] = (2*random.nextDouble()-1)*reach;
+            ys[i] = random.nextDouble()*reach;
+            zs[i] = (2*random.nextDouble()-1)*reach;
+        }
+
+        ArmDriver armDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = {1, 4, cores};
+        ForkJoinPool[] pools = new ForkJoinPool[threadCounts.length];
+        for (int p = 0; p < pools.length; p++) {
+            pools[p] = new ForkJoinPool(threadCounts[p]);
+        }
+        double[] thetaBs = new double[targetCount];
+        double[] thetaOnes = new double[targetCount];
+        double[] thetaTwos = new double[targetCount];
+        double[] parallelThetaBs = new double[targetCount];
+        double[] parallelThetaOnes = new double[targetCount];
+        double[] parallelThetaTwos = new double[targetCount];
+
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            double[][] singleThetas = new double[targetCount][];
+            long start = System.nanoTime();
+            for (int i = 0; i < targetCount; i++) {
+                singleThetas[i] = armDriver.getThetasAnalytic(xs[i], ys[i], zs[i], MAX_DISTANCE);
+            }
+            long singleNanos = System.nanoTime() - start;
+
+            // Less what asking how much has been allocated allocates itself
+            long allocatedBefore = getCurrentThreadAllocatedBytes();
+            long measuringAllocated = getCurrentThreadAllocatedBytes() - allocatedBefore;
+            allocatedBefore = getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            int unsolved = armDriver.getThetas(xs, ys, zs, 0, targetCount, MAX_DISTANCE, thetaBs, thetaOnes, thetaTwos);
+            long batchNanos = System.nanoTime() - start;
+            long batchAllocated = getCurrentThreadAllocatedBytes() - allocatedBefore - measuringAllocated;
+
+            long[] parallelNanos = new long[pools.length];
+            int mismatched = 0;
+            for (int p = 0; p < pools.length; p++) {
+                Arrays.fill(parallelThetaBs, 0);
+                start = System.nanoTime();
+                int parallelUnsolved = armDriver.getThetas(xs, ys, zs, 0, targetCount, MAX_DISTANCE,
+                        parallelThetaBs, parallelThetaOnes, parallelThetaTwos, pools[p]);
+                parallelNanos[p] = System.nanoTime() - start;
+                if (parallelUnsolved != unsolved || !Arrays.equals(parallelThetaBs, thetaBs)
+                        || !Arrays.equals(parallelThetaOnes, thetaOnes) || !Arrays.equals(parallelThetaTwos, thetaTwos)) {
+                    mismatched++;
+                }
+            }
+
+            if (round > 0) {
+                // Against one at a time, which works out the radius and elbow slightly differently
+                int disagreed = 0;
+                for (int i = 0; i < targetCount; i++) {
+                    if (singleThetas[i] == null ? !Double.isNaN(thetaBs[i])
+                            : Math.abs(singleThetas[i][0] - thetaBs[i]) > 1e-9 || Math.abs(singleThetas[i][1] - thetaOnes[i]) > 1e-9
+                            || Math.abs(singleThetas[i][2] - thetaTwos[i]) > 1e-9) {
+                        disagreed++;
+                    }
+                }
+
+                System.out.println(targetCount + " targets, " + (targetCount - unsolved) + " solved");
+                System.out.println("One at a time: " + (1e9*targetCount / singleNanos) + " solves/s");
+                System.out.println("Batch on this thread: " + (1e9*targetCount / batchNanos) + " solves/s, "
+                        + ((double) singleNanos / batchNanos) + "x one at a time");
+                for (int p = 0; p < pools.length; p++) {
+                    System.out.println("Batch on " + threadCounts[p] + " threads: " + (1e9*targetCount / parallelNanos[p]) + " solves/s, "
+                            + ((double) batchNanos / parallelNanos[p]) + "x this thread");
+                }
+                System.out.println((disagreed == 0 ? "PASS" : "FAIL") + ": " + disagreed + " targets solved differently from one at a time");
+                System.out.println((mismatched == 0 ? "PASS" : "FAIL") + ": " + mismatched + " thread counts gave different thetas");
+                if (allocatedBefore < 0) {
+                    System.out.println("Allocation not countable on this VM");
+                } else {
+                    System.out.println((batchAllocated == 0 ? "PASS" : "FAIL") + ": batch allocated " + batchAllocated + " bytes");
+                }
+            }
+        }
+        for (ForkJoinPool pool : pools) {
+            pool.shutdown();
+        }
+        System.out.println("END ARM BATCH SOLVER");
+    }
+
+    /**
+     * Check queryCount random points around the arm with an ArmWorkspace, and clamp them to it.
+     * Compares against whether the closed form solver can put the end of the arm exactly on each
+     * point, counting disagreements only where moving the point a millimeter in or out does not
+     * change the answer, and checks that every clamped point can be reached to within a
+     * millimeter and that points already in reach are left alone. Reports how long building the
+     * workspace and each query take, against solving.
+     */
+    public static void benchmarkWorkspace(int queryCount) {
+        System.out.println("START ARM WORKSPACE");
+        Random random = new Random(25);
+        double reach = L_1+L_2+0.02;
+        double[][] points = new double[queryCount][];
+        for (int i = 0; i < queryCount; i++) {
+            points[i] = new double[] {(2*random.nextDouble()-1)*reach, random.nextDouble()*reach, (2*random.nextDouble()-1)*reach};
+        }
+        ArmDriver armDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+
+        for (int round = 0; round < 2; round++) {
+            // First round is just warm up
+            long start = System.nanoTime();
+            ArmWorkspace workspace = new ArmWorkspace(L_1, L_2);
+            long buildNanos = System.nanoTime() - start;
+
+            boolean[] reachable = new boolean[queryCount];
+            start = System.nanoTime();
+            for (int i = 0; i < queryCount; i++) {
+                reachable[i] = workspace.isReachable(points[i][0], points[i][1], points[i][2]);
+            }
+            long reachableNanos = System.nanoTime() - start;
+
+            double[][] clamped = new double[queryCount][];
+            start = System.nanoTime();
+            for (int i = 0; i < queryCount; i++) {
+                clamped[i] = workspace.clampToWorkspace(points[i][0], points[i][1], points[i][2]);
+            }
+            long clampNanos = System.nanoTime() - start;
+
+            int solveCount = Math.min(queryCount, 100000);
+            start = System.nanoTime();
+            for (int i = 0; i < solveCount; i++) {
+                armDriver.getThetas(points[i][0], points[i][1], points[i][2], MAX_DISTANCE);
+            }
+            long solveNanos = System.nanoTime() - start;
+
+            if (round > 0) {
+                int reachableCount = 0;
+                int nearEdge = 0;
+                int disagreed = 0;
+                int clampedOut = 0;
+                int moved = 0;
+                for (int i = 0; i < queryCount; i++) {
+                    double[] point = points[i];
+                    boolean exact = armDriver.getThetasAnalytic(point[0], point[1], point[2], 1e-9) != null;
+                    if (reachable[i]) {
+                        reachableCount++;
+                    }
+                    if (reachable[i] != exact) {
+                        double r = Math.sqrt(point[0]*point[0] + point[1]*point[1]);
+                        double in = Math.max(0, r - 0.001) / r;
+                        double out = (r + 0.001) / r;
+                        boolean exactIn = armDriver.getThetasAnalytic(point[0]*in, point[1]*in, point[2], 1e-9) != null;
+                        boolean exactOut = armDriver.getThetasAnalytic(point[0]*out, point[1]*out, point[2], 1e-9) != null;
+                        boolean exactBelow = armDriver.getThetasAnalytic(point[0], point[1], point[2] - 0.001, 1e-9) != null;
+                        boolean exactAbove = armDriver.getThetasAnalytic(point[0], point[1], point[2] + 0.001, 1e-9) != null;
+                        if (exactIn == exact && exactOut == exact && exactBelow == exact && exactAbove == exact) {
+                            disagreed++;
+                        } else {
+                            nearEdge++;
+                        }
+                    }
+                    if (armDriver.getThetasAnalytic(clamped[i][0], clamped[i][1], clamped[i][2], 0.001) == null) {
+                        clampedOut++;
+                    }
+                    if (reachable[i] && !Arrays.equals(point, clamped[i])) {
+                        moved++;
+                    }
+                }
+                System.out.println(workspace);
+                System.out.println(queryCount + " points, " + reachableCount + " in reach");
+                System.out.println("Build: " + (buildNanos / 1000) + " us");
+                System.out.println("isReachable: " + (reachableNanos / queryCount) + " ns/query");
+                System.out.println("clampToWorkspace: " + (clampNanos / queryCount) + " ns/query");
+                System.out.println("getThetas: " + (solveNanos / solveCount) + " ns/solve");
+                System.out.println(nearEdge + " points within a millimeter of the edge answered differently from solving");
+                System.out.println((disagreed == 0 ? "PASS" : "FAIL") + ": " + disagreed + " points further from the edge answered differently");
+                System.out.println((clampedOut == 0 ? "PASS" : "FAIL") + ": " + clampedOut + " clamped points more than a millimeter out of reach");
+                System.out.println((moved == 0 ? "PASS" : "FAIL") + ": " + moved + " points in reach moved by clamping");
+            }
+        }
+        System.out.println("END ARM WORKSPACE");
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        // Only desktop JVMs can count this, so it is looked up by name. Returns -1 where it cannot be.
+        try {
+            Object threadMXBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(threadMXBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    // How far from the target the thetas put the end of the arm, with exact trig.
+    private static double exactError(double[] target, double[] thetas) {
+        double reach = L_1*Math.cos(thetas[1])+L_2*Math.cos(thetas[1]+thetas[2]-Math.PI);
+        double x = reach*Math.cos(thetas[0]);
+        double y = reach*Math.sin(thetas[0]);
+        double z = L_1*Math.sin(thetas[1])+L_2*Math.sin(thetas[1]+thetas[2]-Math.PI);
+        return Math.sqrt((target[0]-x)*(target[0]-x)+(target[1]-y)*(target[1]-y)+(target[2]-z)*(target[2]-z));
+    }
+}
@@ -0,0 +1,216 @@
+package xyz.philiprodriguez.projectroverserver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
+
+import static org.junit.Assert.*;
+
+public class ArmDriverTest {
+
+    // The arm on the rover, as MainActivity drives it
+    private static final double L_1 = ArmWorkspace.ROVER_L_1;
+    private static final double L_2 = ArmWorkspace.ROVER_L_2;
+    private static final int SEARCH_ITERATIONS = 15;
+    private static final double MAX_DISTANCE = 0.005;
+
+    // Angles that come out of the closed form a rounding error past a limit still count as within it
+    private static final double ANGLE_TOLERANCE = 1e-9;
+
+    /**
+     * On a 2 cm grid covering the arm's reach, every target the search reaches is also reached
+     * when solving in closed form first, and the closed form alone never puts the end of the arm
+     * further than maxDistance from its target.
+     */
+    @Test
+    public void analyticSolver_agreesWithSearchAcrossGrid() {
+        ArmDriver searchDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS);
+        ArmDriver analyticDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        double step = 0.02;
+        double reach = L_1+L_2+0.02;
+        int steps = (int) Math.round(2*reach / step) + 1;
+        int closedFormSolved = 0;
+        for (int i = 0; i < steps; i++) {
+            for (int j = 0; j <= steps/2; j++) {
+                for (int k = 0; k < steps; k++) {
+                    double[] target = {-reach + i*step, j*step, -reach + k*step};
+                    String where = "(" + target[0] + ", " + target[1] + ", " + target[2] + ")";
+
+                    double[] searchThetas = searchDriver.getThetas(target[0], target[1], target[2], MAX_DISTANCE);
+                    double[] analyticThetas = analyticDriver.getThetas(target[0], target[1], target[2], MAX_DISTANCE);
+                    if (searchThetas != null) {
+                        assertNotNull("Search reached " + where + " but the analytic solver did not", analyticThetas);
+                    }
+                    if (analyticThetas != null) {
+                        assertTrue("Analytic thetas miss " + where + " by " + exactError(target, analyticThetas),
+                                exactError(target, analyticThetas) <= MAX_DISTANCE);
+                    }
+
+                    double[] closedFormThetas = analyticDriver.getThetasAnalytic(target[0], target[1], target[2], MAX_DISTANCE);
+                    if (closedFormThetas != null) {
+                        closedFormSolved++;
+                        assertTrue("Closed form thetas miss " + where + " by " + exactError(target, closedFormThetas),
+                                exactError(target, closedFormThetas) <= MAX_DISTANCE);
+                    }
+                }
+            }
+        }
+        assertTrue("Closed form solved nothing", closedFormSolved > 0);
+    }
+
+    /**
+     * Whatever getThetas returns for random targets in and around the arm's reach is within the
+     * joint limits the Teensy allows.
+     */
+    @Test
+    public void getThetas_respectsJointLimits() {
+        ArmDriver analyticDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        Random random = new Random(21);
+        int solved = 0;
+        for (int i = 0; i < 20000; i++) {
+            double reach = L_1+L_2+0.02;
+            double x = (2*random.nextDouble() - 1)*reach;
+            double y = random.nextDouble()*reach;
+            double z = (2*random.nextDouble() - 1)*reach;
+            double[] thetas = analyticDriver.getThetas(x, y, z, MAX_DISTANCE);
+            if (thetas == null) {
+                continue;
+            }
+            solved++;
+            String where = "(" + x + ", " + y + ", " + z + ")";
+            assertTrue("thetaOne " + thetas[1] + " out of range at " + where,
+                    thetas[1] >= ArmDriver.thetaOneMin - ANGLE_TOLERANCE && thetas[1] <= ArmDriver.thetaOneMax + ANGLE_TOLERANCE);
+            assertTrue("thetaTwo " + thetas[2] + " out of range at " + where,
+                    thetas[2] >= ArmDriver.thetaTwoMin - ANGLE_TOLERANCE && thetas[2] <= ArmDriver.thetaTwoMax + ANGLE_TOLERANCE);
+        }
+        assertTrue("Nothing was solved", solved > 0);
+    }
+
+    /**
+     * Targets further from the base than the arm stretches, plus maxDistance, have no solution.
+     */
+    @Test
+    public void getThetas_beyondReach_returnsNull() {
+        ArmDriver searchDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS);
+        ArmDriver analyticDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            // A random direction, then out past the end of the arm
+            double x = random.nextGaussian();
+            double y = Math.abs(random.nextGaussian());
+            double z = random.nextGaussian();
+            double length = Math.sqrt(x*x+y*y+z*z);
+            double distance = L_1+L_2+MAX_DISTANCE+0.001+random.nextDouble()*0.1;
+            x *= distance/length;
+            y *= distance/length;
+            z *= distance/length;
+            String where = "(" + x + ", " + y + ", " + z + ")";
+
+            assertNull("Analytic solver reached " + where, analyticDriver.getThetas(x, y, z, MAX_DISTANCE));
+            assertNull("Closed form reached " + where, analyticDriver.getThetasAnalytic(x, y, z, MAX_DISTANCE));
+            assertNull("Search reached " + where, searchDriver.getThetas(x, y, z, MAX_DISTANCE));
+        }
+    }
+
+    /**
+     * Solving a batch gives the same thetas as solving each target on its own in closed form, NaN
+     * where that gives null, and leaves the arrays outside [from, to) alone.
+     */
+    @Test
+    public void batchGetThetas_matchesOneAtATime() {
+        ArmDriver armDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        int targetCount = 20000;
+        double[][] targets = createRandomTargets(targetCount, 24);
+        double[] thetaBs = new double[targetCount];
+        double[] thetaOnes = new double[targetCount];
+        double[] thetaTwos = new double[targetCount];
+        Arrays.fill(thetaBs, -1);
+        Arrays.fill(thetaOnes, -1);
+        Arrays.fill(thetaTwos, -1);
+
+        int from = 7;
+        int to = targetCount - 5;
+        int unsolved = armDriver.getThetas(targets[0], targets[1], targets[2], from, to, MAX_DISTANCE, thetaBs, thetaOnes, thetaTwos);
+
+        int expectedUnsolved = 0;
+        for (int i = 0; i < targetCount; i++) {
+            if (i < from || i >= to) {
+                assertEquals(-1, thetaBs[i], 0);
+                assertEquals(-1, thetaOnes[i], 0);
+                assertEquals(-1, thetaTwos[i], 0);
+                continue;
+            }
+            double[] thetas = armDriver.getThetasAnalytic(targets[0][i], targets[1][i], targets[2][i], MAX_DISTANCE);
+            if (thetas == null) {
+                expectedUnsolved++;
+                assertTrue("Target " + i + " should have NaN thetas", Double.isNaN(thetaBs[i]) && Double.isNaN(thetaOnes[i]) && Double.isNaN(thetaTwos[i]));
+                continue;
+            }
+            // The batch works out the radius and elbow slightly differently
+            assertEquals("thetaB of target " + i, thetas[0], thetaBs[i], 1e-9);
+            assertEquals("thetaOne of target " + i, thetas[1], thetaOnes[i], 1e-9);
+            assertEquals("thetaTwo of target " + i, thetas[2], thetaTwos[i], 1e-9);
+        }
+        assertEquals(expectedUnsolved, unsolved);
+        assertTrue("Every target was solved", unsolved > 0);
+        assertTrue("No target was solved", unsolved < to - from);
+    }
+
+    /**
+     * Splitting a batch between threads gives exactly the thetas solving it on one thread does.
+     */
+    @Test
+    public void batchGetThetas_sameOnAnyThreadCount() {
+        ArmDriver armDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        int targetCount = 50000;
+        double[][] targets = createRandomTargets(targetCount, 5);
+        double[] thetaBs = new double[targetCount];
+        double[] thetaOnes = new double[targetCount];
+        double[] thetaTwos = new double[targetCount];
+        int unsolved = armDriver.getThetas(targets[0], targets[1], targets[2], 0, targetCount, MAX_DISTANCE, thetaBs, thetaOnes, thetaTwos);
+
+        int[] threadCounts = {1, 2, 4};
+        for (int threadCount : threadCounts) {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                double[] parallelThetaBs = new double[targetCount];
+                double[] parallelThetaOnes = new double[targetCount];
+                double[] parallelThetaTwos = new double[targetCount];
+                int parallelUnsolved = armDriver.getThetas(targets[0], targets[1], targets[2], 0, targetCount, MAX_DISTANCE,
+                        parallelThetaBs, parallelThetaOnes, parallelThetaTwos, pool);
+                assertEquals(unsolved, parallelUnsolved);
+                assertArrayEquals("thetaBs on " + threadCount + " threads", thetaBs, parallelThetaBs, 0);
+                assertArrayEquals("thetaOnes on " + threadCount + " threads", thetaOnes, parallelThetaOnes, 0);
+                assertArrayEquals("thetaTwos on " + threadCount + " threads", thetaTwos, parallelThetaTwos, 0);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // {xs, ys, zs} of targets in front of and beside the rover, some of them out of reach.
+    private static double[][] createRandomTargets(int targetCount, long seed) {
+        Random random = new Random(seed);
+        double reach = L_1+L_2+0.02;
+        double[][] targets = new double[3][targetCount];
+        for (int i = 0; i < targetCount; i++) {
+            targets[0][i] = (2*random.nextDouble()-1)*reach;
+            targets[1][i] = random.nextDouble()*reach;
+            targets[2][i] = (2*random.nextDouble()-1)*reach;
+        }
+        return targets;
+    }
+
+    // How far from the target the thetas put the end of the arm, with exact trig.
+    private static double exactError(double[] target, double[] thetas) {
+        double reach = L_1*Math.cos(thetas[1])+L_2*Math.cos(thetas[1]+thetas[2]-Math.PI);
+        double x = reach*Math.cos(thetas[0]);
+        double y = reach*Math.sin(thetas[0]);
+        double z = L_1*Math.sin(thetas[1])+L_2*Math.sin(thetas[1]+thetas[2]-Math.PI);
+        return Math.sqrt((target[0]-x)*(target[0]-x)+(target[1]-y)*(target[1]-y)+(target[2]-z)*(target[2]-z));
+    }
+}
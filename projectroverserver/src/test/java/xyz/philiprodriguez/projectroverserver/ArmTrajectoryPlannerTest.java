@@ -0,0 +1,39 @@
+package xyz.philiprodriguez.projectroverserver;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
+
+import static org.junit.Assert.*;
+
+public class ArmTrajectoryPlannerTest {
+
+    /**
+     * A target out of reach is turned away as it is submitted, so it cannot push out one that
+     * could be reached, while one in reach is moved to.
+     */
+    @Test
+    public void submitTarget_outOfReach_isTurnedAway() {
+        ArmDriver armDriver = new ArmDriver(ArmWorkspace.ROVER_L_1, ArmWorkspace.ROVER_L_2, 15, true);
+        final AtomicInteger commandCount = new AtomicInteger();
+        ArmTrajectoryPlanner planner = new ArmTrajectoryPlanner(armDriver, new OnArmThetasCallback() {
+            @Override
+            public void onArmThetas(double thetaB, double thetaOne, double thetaTwo) {
+                commandCount.incrementAndGet();
+            }
+        });
+
+        planner.submitTarget(1, 1, 1);
+        assertEquals(1, planner.getUnreachableTargetCount());
+        planner.tick(0);
+        assertEquals(0, commandCount.get());
+
+        planner.submitTarget(0, 0.15, 0.1);
+        planner.tick(planner.getPeriodNanos());
+        assertEquals(1, commandCount.get());
+        assertEquals(1, planner.getUnreachableTargetCount());
+        assertEquals(0, planner.getDroppedTargetCount());
+    }
+}
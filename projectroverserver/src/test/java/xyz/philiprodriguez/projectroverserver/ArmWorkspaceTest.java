@@ -0,0 +1,108 @@
+package xyz.philiprodriguez.projectroverserver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import xyz.philiprodriguez.projectrovercommunications.ArmWorkspace;
+
+import static org.junit.Assert.*;
+
+public class ArmWorkspaceTest {
+
+    // The arm on the rover, as MainActivity drives it
+    private static final double L_1 = ArmWorkspace.ROVER_L_1;
+    private static final double L_2 = ArmWorkspace.ROVER_L_2;
+    private static final int SEARCH_ITERATIONS = 15;
+
+    private static final int POINT_COUNT = 100000;
+
+    /**
+     * isReachable agrees with whether the closed form solver can put the end of the arm exactly
+     * on a point, except within a millimeter of the edge of the reach.
+     */
+    @Test
+    public void isReachable_agreesWithSolverAwayFromEdge() {
+        ArmWorkspace workspace = new ArmWorkspace(L_1, L_2);
+        ArmDriver armDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        double[][] points = createRandomPoints(25);
+        int reachableCount = 0;
+        for (double[] point : points) {
+            boolean reachable = workspace.isReachable(point[0], point[1], point[2]);
+            if (reachable) {
+                reachableCount++;
+            }
+            boolean exact = isExactlyReachable(armDriver, point[0], point[1], point[2]);
+            if (reachable == exact) {
+                continue;
+            }
+            double r = Math.sqrt(point[0]*point[0] + point[1]*point[1]);
+            double in = Math.max(0, r - 0.001) / r;
+            double out = (r + 0.001) / r;
+            boolean nearEdge = isExactlyReachable(armDriver, point[0]*in, point[1]*in, point[2]) != exact
+                    || isExactlyReachable(armDriver, point[0]*out, point[1]*out, point[2]) != exact
+                    || isExactlyReachable(armDriver, point[0], point[1], point[2] - 0.001) != exact
+                    || isExactlyReachable(armDriver, point[0], point[1], point[2] + 0.001) != exact;
+            assertTrue("isReachable said " + reachable + " for (" + point[0] + ", " + point[1] + ", " + point[2] + ")", nearEdge);
+        }
+        assertTrue("Nothing was in reach", reachableCount > 0);
+        assertTrue("Everything was in reach", reachableCount < POINT_COUNT);
+    }
+
+    /**
+     * Every clamped point can be reached to within a millimeter.
+     */
+    @Test
+    public void clampToWorkspace_endsUpInReach() {
+        ArmWorkspace workspace = new ArmWorkspace(L_1, L_2);
+        ArmDriver armDriver = new ArmDriver(L_1, L_2, SEARCH_ITERATIONS, true);
+        double[][] points = createRandomPoints(26);
+        for (double[] point : points) {
+            double[] clamped = workspace.clampToWorkspace(point[0], point[1], point[2]);
+            assertNotNull("(" + point[0] + ", " + point[1] + ", " + point[2] + ") was clamped to ("
+                            + clamped[0] + ", " + clamped[1] + ", " + clamped[2] + "), out of reach",
+                    armDriver.getThetasAnalytic(clamped[0], clamped[1], clamped[2], 0.001));
+        }
+
+        // Even from far away, and from right over the base
+        double[][] farPoints = {{0, 0, 10}, {0, 0, -10}, {10, 0, 0}, {-3, 4, 1}, {0, 0, 0}};
+        for (double[] point : farPoints) {
+            double[] clamped = workspace.clampToWorkspace(point[0], point[1], point[2]);
+            assertNotNull("(" + point[0] + ", " + point[1] + ", " + point[2] + ") was clamped out of reach",
+                    armDriver.getThetasAnalytic(clamped[0], clamped[1], clamped[2], 0.001));
+        }
+    }
+
+    /**
+     * Points already in reach come back from clampToWorkspace as they are.
+     */
+    @Test
+    public void clampToWorkspace_leavesPointsInReachAlone() {
+        ArmWorkspace workspace = new ArmWorkspace(L_1, L_2);
+        double[][] points = createRandomPoints(27);
+        int reachableCount = 0;
+        for (double[] point : points) {
+            if (!workspace.isReachable(point[0], point[1], point[2])) {
+                continue;
+            }
+            reachableCount++;
+            assertArrayEquals(point, workspace.clampToWorkspace(point[0], point[1], point[2]), 0);
+        }
+        assertTrue("Nothing was in reach", reachableCount > 0);
+    }
+
+    // Points in front of and beside the rover, in and out of reach.
+    private static double[][] createRandomPoints(long seed) {
+        Random random = new Random(seed);
+        double reach = L_1+L_2+0.02;
+        double[][] points = new double[POINT_COUNT][];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            points[i] = new double[] {(2*random.nextDouble()-1)*reach, random.nextDouble()*reach, (2*random.nextDouble()-1)*reach};
+        }
+        return points;
+    }
+
+    private static boolean isExactlyReachable(ArmDriver armDriver, double x, double y, double z) {
+        return armDriver.getThetasAnalytic(x, y, z, 1e-9) != null;
+    }
+}